@@ -0,0 +1,257 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import plugins.Freetalk.exceptions.NoSuchBoardException;
+import plugins.Freetalk.exceptions.NoSuchMessageException;
+import freenet.support.Logger;
+
+/**
+ * Formats a {@link Message} as a news article: Its headers, its size and its overview as returned by the NNTP OVER command.
+ *
+ * Used by the NNTP server and by the {@link SubscribedBoard}, which stores the overview of each message when it is linked into the board,
+ * see {@link SubscribedBoard.MessageOverview}.
+ */
+public final class ArticleFormatter {
+
+	public enum Header {
+		FROM ("From"), SUBJECT ("Subject"), NEWSGROUPS ("Newsgroups"),
+		DATE ("Date"), MESSAGE_ID ("Message-ID"), REFERENCES ("References"),
+		PATH ("Path"), CONTENT_TYPE ("Content-Type"),
+		FOLLOWUP_TO ("Followup-To");
+
+		private String name;
+
+		Header(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private static final SimpleDateFormat mDateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+
+	public static final Pattern mEndOfLinePattern = Pattern.compile("\r\n?|\n");
+
+
+	private ArticleFormatter() {
+	}
+
+	/**
+	 * Convert a Freetalk board name into an NNTP group name.
+	 */
+	public static String boardToGroupName(final String name) {
+		// TODO: This does nothing at the moment.  In the future it
+		// could be used to quote names in ASCII, for older
+		// newsreaders that only allow ASCII group names
+		return name;
+	}
+
+	/**
+	 * Wrap header contents onto multiple lines.  Wrapping is done so
+	 * as to limit the number of bytes (of UTF-8) on a single line.
+	 */
+	private static String wrapHeader(final String name, final String text, final int softLimit, final int hardLimit) {
+		final StringBuilder result = new StringBuilder(text.length() * 2);
+		int lineStart, wordPos, width, i;
+
+		lineStart = 0;
+		width = name.length() + 2;
+		while (lineStart < text.length()) {
+			wordPos = lineStart;
+
+			for (i = lineStart; i < text.length(); i++) {
+				int c = text.codePointAt(i);
+				int cwidth;
+
+				if (Character.isSpaceChar(c))
+					wordPos = i;
+
+				if (c < 0x80)
+					cwidth = 1;
+				else if (c < 0x800)
+					cwidth = 2;
+				else if (c < 0x10000)
+					cwidth = 3;
+				else {
+					cwidth = 4;
+					i++;
+				}
+
+				if (width + cwidth > softLimit && wordPos != lineStart)
+					break;
+				else if (width + cwidth > hardLimit)
+					break;
+				else
+					width += cwidth;
+			}
+
+
+			if (i == text.length() || wordPos == lineStart) {
+				result.append(text.substring(lineStart, i));
+				lineStart = i;
+			}
+			else {
+				result.append(text.substring(lineStart, wordPos));
+				lineStart = wordPos + 1;
+			}
+
+			if (lineStart < text.length())
+				result.append("\n ");
+			width = 1;
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Get the contents of the given header of the message.  The header
+	 * is not wrapped (it may be arbitrarily long, but will not contain
+	 * any line feeds, tabs, or other control characters.)
+	 */
+	public static String getHeader(final Message message, final Header hdr) {
+		switch (hdr) {
+		case FROM:
+			return message.getAuthor().getFreetalkAddress();
+
+		case SUBJECT:
+			return message.getTitle();
+
+		case NEWSGROUPS:
+			final Board boards[] = message.getBoards();
+			final StringBuilder builder = new StringBuilder(1024);
+
+			builder.append(boardToGroupName(boards[0].getName()));
+
+			for (int i = 1; i < boards.length; i++) {
+				builder.append(", ");
+				builder.append(boardToGroupName(boards[i].getName()));
+			}
+
+			return builder.toString();
+
+		case FOLLOWUP_TO:
+			try {
+				final Board board = message.getReplyToBoard();
+				return boardToGroupName(board.getName());
+			} catch(NoSuchBoardException e) {
+				return "";
+			}
+
+		case DATE:
+			synchronized(mDateFormat) {
+				return mDateFormat.format(message.getDate());
+			}
+
+		case MESSAGE_ID:
+			return "<" + message.getID() + ">";
+
+		case REFERENCES:
+			// TODO: it would be good for the message to include a
+			// list of earlier messages in the thread, in case the
+			// parent message can't be retrieved.
+
+			if (message.isThread())
+				return "";
+			else {
+				try {
+					return "<" + message.getParentID() + ">";
+				}
+				catch(NoSuchMessageException e) {
+					Logger.error(ArticleFormatter.class, "Should not happen", e);
+					return "";
+				}
+			}
+
+		case PATH:
+			return Freetalk.WOT_CONTEXT;
+
+		case CONTENT_TYPE:
+			return "text/plain; charset=UTF-8";
+
+		default:
+			return "";
+		}
+	}
+
+	/**
+	 * Get the complete list of headers of the message.
+	 */
+	public static String getHead(final Message message) {
+		final StringBuilder builder = new StringBuilder();
+
+		synchronized (message) {
+			for (Header hdr : Header.values()) {
+				final String text = getHeader(message, hdr);
+				if (!text.equals("")) {
+					builder.append(hdr.getName());
+					builder.append(": ");
+					builder.append(wrapHeader(hdr.getName(), text, 72, 998));
+					builder.append("\n");
+				}
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Get the number of lines in the body of the message.
+	 */
+	public static long getBodyLineCount(final Message message) {
+		final String[] bodyLines = mEndOfLinePattern.split(message.getText());
+		return bodyLines.length;
+	}
+
+	/**
+	 * Get number of bytes to encode string as UTF-8
+	 */
+	private static long byteCountUTF8(String s) {
+		// TODO: GAH!  There must be a simpler way to do this
+		try {
+			byte[] b = s.getBytes("UTF-8");
+			return b.length;
+		}
+		catch (UnsupportedEncodingException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Get the total size of the message as an article.
+	 */
+	public static long getByteCount(final Message message) {
+		final String[] headLines = mEndOfLinePattern.split(getHead(message));
+		final String[] bodyLines = mEndOfLinePattern.split(message.getText());
+		long count = 2;
+		int i;
+
+		for (i = 0; i < headLines.length; i++)
+			count += byteCountUTF8(headLines[i]) + 2;
+		for (i = 0; i < bodyLines.length; i++)
+			count += byteCountUTF8(bodyLines[i]) + 2;
+
+		return count;
+	}
+
+	/**
+	 * Get the overview of the message as returned by the OVER command: All fields after the article number, separated by tabs.
+	 */
+	public static String getOverview(final Message message) {
+		return getHeader(message, Header.SUBJECT)
+			+ "\t" + getHeader(message, Header.FROM)
+			+ "\t" + getHeader(message, Header.DATE)
+			+ "\t" + getHeader(message, Header.MESSAGE_ID)
+			+ "\t" + getHeader(message, Header.REFERENCES)
+			+ "\t" + getByteCount(message)
+			+ "\t" + getBodyLineCount(message);
+	}
+}
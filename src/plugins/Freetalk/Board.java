@@ -86,10 +86,11 @@ public class Board extends Persistent implements Comparable<Board> {
     /**
      * Store this object in the database. You have to initializeTransient() before.
      * 
-     * Does not provide synchronization, you have to lock the MessageManager, this Board and then the database before calling this function.
+     * Does not provide synchronization, you have to lock the stripe of this board (see {@link MessageManager#getBoardLock(String)}),
+     * this Board and then the database before calling this function.
      */
     protected void storeWithoutCommit() {
-    	super.storeWithoutCommit(3); // TODO: Figure out a suitable depth.
+    	super.storeWithoutCommit();
     }
 
 
@@ -156,6 +157,7 @@ public class Board extends Persistent implements Comparable<Board> {
      * 0, 1, 2 and so on. 
      */
     public String getID() {
+    	checkedActivate(1);
     	return mID;
     }
 
@@ -163,6 +165,7 @@ public class Board extends Persistent implements Comparable<Board> {
      * @return The name of this board. Only one board with a given name can exist at once. The name is case-insensitive.
      */
     public String getName() {
+    	checkedActivate(1);
         return mName;
     }
     
@@ -172,6 +175,7 @@ public class Board extends Persistent implements Comparable<Board> {
     }
 
     public Date getFirstSeenDate() {
+    	checkedActivate(1);
         return mFirstSeenDate;
     }
     
@@ -179,6 +183,7 @@ public class Board extends Persistent implements Comparable<Board> {
      * @return Returns true if at least one {@link SubscribedBoard} for this board exists, i.e. if we should download messages for this board.
      */
     public boolean hasSubscriptions() {
+    	checkedActivate(1);
     	return mHasSubscriptions;
     }
     
@@ -190,6 +195,7 @@ public class Board extends Persistent implements Comparable<Board> {
      * {@link SubscribedBoard} object or create the first one. 
      */
 	protected void setHasSubscriptions(boolean hasSubscriptions) {
+		checkedActivate(1);
 		mHasSubscriptions = hasSubscriptions;
 	}
 
@@ -206,7 +212,7 @@ public class Board extends Persistent implements Comparable<Board> {
      */
     public boolean contains(Message message) {
     	for(Board board : message.getBoards()) {
-    		if(mName.equals(board.getName()))
+    		if(getName().equals(board.getName()))
     			return true;
     	}
     	
@@ -240,29 +246,37 @@ public class Board extends Persistent implements Comparable<Board> {
     	}
     	
     	public Board getBoard() {
+    		checkedActivate(1);
+    		mBoard.initializeTransient(mFreetalk);
     		return mBoard;
     	}
     	
     	public Message getMessage() {
-    		mMessage.initializeTransient(mBoard.mFreetalk);
+    		checkedActivate(1);
+    		mMessage.initializeTransient(mFreetalk);
     		return mMessage;
     	}
     	
     	public int getMessageIndex() {
+    		checkedActivate(1);
     		return mMessageIndex;
     	}
     	
     	public FTIdentity getAuthor() {
+    		checkedActivate(1);
+    		if(mAuthor instanceof Persistent)
+    			((Persistent)mAuthor).initializeTransient(mFreetalk);
     		return mAuthor;
     	}
     	
 
         /**
-         * Does not provide synchronization, you have to lock the MessageManager, this Board and then the database before calling this function.
+         * Does not provide synchronization, you have to lock the stripe of this board (see {@link MessageManager#getBoardLock(String)}),
+         * this Board and then the database before calling this function.
          */
         protected void storeWithoutCommit() {
         	try {
-        		checkedActivate(3); // TODO: Figure out a suitable depth.
+        		checkedActivate();
         		throwIfNotStored(mBoard);
         		throwIfNotStored(mMessage);
         		throwIfNotStored(mAuthor);
@@ -274,7 +288,7 @@ public class Board extends Persistent implements Comparable<Board> {
         }
         
     	protected void deleteWithoutCommit() {
-    		deleteWithoutCommit(3); // TODO: Figure out a suitable depth.
+    		super.deleteWithoutCommit();
 		}
     	
     }
@@ -303,6 +317,7 @@ public class Board extends Persistent implements Comparable<Board> {
      * 	you do not store any message with it. This ensures that deleting the head message cannot cause it's index to be associated with a new, different message.
      */
 	protected synchronized int takeFreeMessageIndexWithoutCommit() {
+		checkedActivate(1);
 		int result = mNextFreeMessageIndex++;
 		storeWithoutCommit();
 		return result;
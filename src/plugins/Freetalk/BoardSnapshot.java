@@ -0,0 +1,261 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import plugins.Freetalk.SubscribedBoard.BoardThreadLink;
+import plugins.Freetalk.SubscribedBoard.MessageReference;
+import plugins.Freetalk.exceptions.MessageNotFetchedException;
+import plugins.Freetalk.exceptions.NoSuchMessageException;
+
+/**
+ * An immutable copy of the thread index of a {@link SubscribedBoard}: The message indices of its {@link MessageReference}s and the thread ID,
+ * date of last reply and reply count of each of its {@link BoardThreadLink}s.
+ *
+ * The UIs read boards through snapshots so that they neither hold the lock of the board nor iterate over database queries while the board is
+ * being modified. A board publishes a new snapshot with a higher version whenever messages are added to or deleted from it, see
+ * {@link SubscribedBoard#getSnapshot()}. The "was read"-flags are not part of the snapshot because they are changed by the user and not by the
+ * linking of messages.
+ */
+public final class BoardSnapshot {
+
+	/**
+	 * A thread of the board at the time of the snapshot.
+	 */
+	public static final class ThreadEntry {
+
+		private final String mThreadID;
+
+		private final int mMessageIndex;
+
+		private final long mLastReplyDate;
+
+		private final int mReplyCount;
+
+		private final boolean mWasFetched;
+
+		private ThreadEntry(BoardThreadLink link) {
+			mThreadID = link.getThreadID();
+			mMessageIndex = link.getIndex();
+			mLastReplyDate = link.getLastReplyDate().getTime();
+			mReplyCount = link.getReplyCount();
+
+			boolean wasFetched;
+			try {
+				link.getMessage();
+				wasFetched = true;
+			}
+			catch(MessageNotFetchedException e) {
+				wasFetched = false;
+			}
+			mWasFetched = wasFetched;
+		}
+
+		public String getThreadID() {
+			return mThreadID;
+		}
+
+		/**
+		 * Get the index of the {@link BoardThreadLink} of the thread in the board.
+		 */
+		public int getMessageIndex() {
+			return mMessageIndex;
+		}
+
+		public Date getLastReplyDate() {
+			return new Date(mLastReplyDate);
+		}
+
+		public int getReplyCount() {
+			return mReplyCount;
+		}
+
+		/**
+		 * @return False if this is a ghost thread: The thread message was not downloaded yet, only replies to it.
+		 */
+		public boolean wasFetched() {
+			return mWasFetched;
+		}
+	}
+
+	/**
+	 * Sorts threads like {@link SubscribedBoard#getThreads(Date, String, int)}: Descending by the date of their last reply, ascending by their ID
+	 * for equal dates.
+	 */
+	private static final Comparator<ThreadEntry> THREAD_ORDER = new Comparator<ThreadEntry>() {
+		public int compare(ThreadEntry a, ThreadEntry b) {
+			if(a.mLastReplyDate != b.mLastReplyDate)
+				return a.mLastReplyDate > b.mLastReplyDate ? -1 : 1;
+
+			return a.mThreadID.compareTo(b.mThreadID);
+		}
+	};
+
+	private final long mVersion;
+
+	/**
+	 * The indices of all {@link MessageReference}s of the board, including ghost thread references. Sorted ascending.
+	 */
+	private final int[] mMessageIndices;
+
+	/**
+	 * Sorted by {@link #THREAD_ORDER}.
+	 */
+	private final List<ThreadEntry> mThreads;
+
+	private final Map<String, ThreadEntry> mThreadsByID;
+
+
+	private BoardSnapshot(long myVersion, TreeSet<Integer> myMessageIndices, Map<String, ThreadEntry> myThreadsByID) {
+		mVersion = myVersion;
+
+		mMessageIndices = new int[myMessageIndices.size()];
+		int i = 0;
+		for(Integer index : myMessageIndices)
+			mMessageIndices[i++] = index;
+
+		final ArrayList<ThreadEntry> threads = new ArrayList<ThreadEntry>(myThreadsByID.values());
+		Collections.sort(threads, THREAD_ORDER);
+		mThreads = Collections.unmodifiableList(threads);
+		mThreadsByID = myThreadsByID;
+	}
+
+	/**
+	 * Creates a snapshot of the given references, which must be all references of a board.
+	 *
+	 * You have to lock the database before calling this function so that the references are not modified while the snapshot is taken.
+	 */
+	protected static BoardSnapshot create(long version, Iterable<MessageReference> references) {
+		final TreeSet<Integer> messageIndices = new TreeSet<Integer>();
+		final HashMap<String, ThreadEntry> threads = new HashMap<String, ThreadEntry>();
+
+		for(MessageReference ref : references)
+			add(ref, messageIndices, threads);
+
+		return new BoardSnapshot(version, messageIndices, threads);
+	}
+
+	/**
+	 * Creates a copy of this snapshot with the given changes.
+	 *
+	 * You have to lock the board and the database before calling this function so that the references are not modified while the snapshot is
+	 * taken.
+	 *
+	 * @param changes Maps the message index of each reference which was added, modified or deleted since this snapshot was taken to the
+	 * 	reference. Deleted references are mapped to null.
+	 */
+	protected BoardSnapshot withChanges(long version, Map<Integer, MessageReference> changes) {
+		final TreeSet<Integer> messageIndices = new TreeSet<Integer>();
+		for(int index : mMessageIndices)
+			messageIndices.add(index);
+
+		final HashMap<String, ThreadEntry> threads = new HashMap<String, ThreadEntry>(mThreadsByID);
+
+		final HashMap<Integer, String> threadIDsByIndex = new HashMap<Integer, String>(mThreads.size() * 2);
+		for(ThreadEntry thread : mThreads)
+			threadIDsByIndex.put(thread.mMessageIndex, thread.mThreadID);
+
+		// Deletions first: A thread which was deleted and linked again with a new index must not be removed by the deletion of the old one.
+		for(Map.Entry<Integer, MessageReference> change : changes.entrySet()) {
+			final Integer index = change.getKey();
+			messageIndices.remove(index);
+
+			final String threadID = threadIDsByIndex.get(index);
+			final ThreadEntry thread = (threadID != null) ? threads.get(threadID) : null;
+			if(thread != null && thread.mMessageIndex == index)
+				threads.remove(threadID);
+		}
+
+		for(MessageReference ref : changes.values()) {
+			if(ref != null)
+				add(ref, messageIndices, threads);
+		}
+
+		return new BoardSnapshot(version, messageIndices, threads);
+	}
+
+	private static void add(MessageReference ref, TreeSet<Integer> messageIndices, Map<String, ThreadEntry> threads) {
+		messageIndices.add(ref.getIndex());
+
+		if(ref instanceof BoardThreadLink) {
+			final ThreadEntry thread = new ThreadEntry((BoardThreadLink)ref);
+			threads.put(thread.mThreadID, thread);
+		}
+	}
+
+	/**
+	 * Get the version of this snapshot. Each snapshot which a board publishes has a higher version than the previous one.
+	 */
+	public long getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * Get the number of messages in the board, including ghost thread references.
+	 */
+	public int getMessageCount() {
+		return mMessageIndices.length;
+	}
+
+	public int getFirstMessageIndex() throws NoSuchMessageException {
+		if(mMessageIndices.length == 0)
+			throw new NoSuchMessageException();
+
+		return mMessageIndices[0];
+	}
+
+	public int getLastMessageIndex() throws NoSuchMessageException {
+		if(mMessageIndices.length == 0)
+			throw new NoSuchMessageException();
+
+		return mMessageIndices[mMessageIndices.length - 1];
+	}
+
+	/**
+	 * Get the message indices of the board which are in the given range, sorted ascending.
+	 */
+	public int[] getMessageIndices(int minimumIndex, int maximumIndex) {
+		if(minimumIndex > maximumIndex)
+			return new int[0];
+
+		int from = Arrays.binarySearch(mMessageIndices, minimumIndex);
+		if(from < 0)
+			from = -from - 1;
+
+		int to = Arrays.binarySearch(mMessageIndices, maximumIndex);
+		to = (to < 0) ? (-to - 1) : (to + 1);
+
+		final int[] result = new int[to - from];
+		System.arraycopy(mMessageIndices, from, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * Get the threads of the board, sorted descending by the date of their last reply and ascending by their ID for equal dates.
+	 */
+	public List<ThreadEntry> getThreads() {
+		return mThreads;
+	}
+
+	public ThreadEntry getThread(String threadID) throws NoSuchMessageException {
+		final ThreadEntry thread = mThreadsByID.get(threadID);
+		if(thread == null)
+			throw new NoSuchMessageException(threadID);
+
+		return thread;
+	}
+
+	public String toString() {
+		return super.toString() + " (version " + mVersion + ", " + mMessageIndices.length + " messages, " + mThreads.size() + " threads)";
+	}
+}
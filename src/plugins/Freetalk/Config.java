@@ -38,6 +38,12 @@ public final class Config extends Persistent {
 	/** Parameter name for the {@code allowedHosts} parameter. */
 	public static final String NNTP_SERVER_ALLOWED_HOSTS = "NNTP.AllowedHosts";
 
+	/** Parameter name for the non-blocking mode of the NNTP server. */
+	public static final String NNTP_SERVER_NON_BLOCKING = "NNTP.NonBlocking";
+
+	/** Parameter name for the number of threads which are shown on a single page of a board. */
+	public static final String BOARD_PAGE_THREADS_PER_PAGE = "WebInterface.BoardPage.ThreadsPerPage";
+
 	/**
 	 * The HashMap that contains all cofiguration parameters
 	 */
@@ -55,6 +61,14 @@ public final class Config extends Persistent {
 		setDefaultValues(false);
 	}
 	
+	/**
+	 * The activation profile of the config: The parameter tables need a depth of 3 so that their entries are active.
+	 */
+	@Override
+	protected int getActivationDepth() {
+		return 3;
+	}
+	
 	/**
 	 * Loads an existing Config object from the database and adds any missing default values to it, creates and stores a new one if none exists.
 	 * @return The config object.
@@ -76,6 +90,7 @@ public final class Config extends Persistent {
 				Logger.debug(myFreetalk, "Loaded config.");
 				config = result.next();
 				config.initializeTransient(myFreetalk);
+				config.checkedActivate(); // The config stays in memory, activating it once is enough
 				config.setDefaultValues(false);
 			}
 			
@@ -90,7 +105,7 @@ public final class Config extends Persistent {
 	public synchronized void storeAndCommit() {
 		synchronized(mDB.lock()) {
 			try {
-				checkedActivate(3);
+				checkedActivate();
 				mDB.store(mStringParams, 3);
 				mDB.store(mIntParams, 3);
 				checkedStore();
@@ -234,5 +249,13 @@ public final class Config extends Persistent {
 		if (!containsBoolean(NNTP_SERVER_ENABLED)) {
 			set(NNTP_SERVER_ENABLED, false);
 		}
+		
+		if (!containsBoolean(NNTP_SERVER_NON_BLOCKING)) {
+			set(NNTP_SERVER_NON_BLOCKING, false);
+		}
+		
+		if (!containsInt(BOARD_PAGE_THREADS_PER_PAGE)) {
+			set(BOARD_PAGE_THREADS_PER_PAGE, 50);
+		}
 	}
 }
@@ -0,0 +1,279 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Controls how many fetches a fetcher runs in parallel, with additive increase and multiplicative decrease (AIMD) as in TCP congestion control:
+ * - For each fetch which succeeds within the latency target, the limit is increased by 1 / limit, i.e. by 1 per limit successful fetches.
+ * - If a fetch takes longer than the timeout (a multiple of the latency target), the node rejects it because of overload, or a burst of
+ * fetches fails with "data not found", the limit is halved. It is only halved once for the fetches which were running at that time, i.e.
+ * fetches which were started before the last decrease do not cause another one.
+ * - A fetch which is still running after the timeout counts as failed when the fetcher asks whether it can start a fetch or starts one,
+ * not only when it finishes: A node which is overloaded might not complete the fetches for a long time.
+ * So the limit grows while the node completes the fetches fast and shrinks when it cannot keep up.
+ *
+ * The controller also keeps a histogram of the latencies of the succeeded fetches, see {@link getLatencyHistogram}.
+ *
+ * The fetcher must call {@link onFetchStarted} and {@link onFetchFinished} for each fetch and must not start a fetch if
+ * {@link canStartFetch} returns false.
+ *
+ * All functions are synchronized on the controller and do not call any other objects so you can use it everywhere without causing deadlocks.
+ */
+public final class FetchConcurrencyController {
+
+	public static enum Result {
+		Success,
+		/** The data was not found. Only a burst of them decreases the limit, single ones are normal. */
+		DataNotFound,
+		/** The node rejected the fetch because it is overloaded. */
+		Overload,
+		/** Any other failure, for example parsing failed. Does not change the limit. */
+		Failure,
+		/** The fetch was cancelled. Does not change the limit. */
+		Cancelled
+	}
+
+	/**
+	 * A fetch which runs longer than the latency target multiplied with this factor counts as timed out.
+	 */
+	public static final int TIMEOUT_FACTOR = 4;
+
+	/**
+	 * The number of subsequent "data not found" failures which count as a burst.
+	 */
+	public static final int DATA_NOT_FOUND_BURST_SIZE = 8;
+
+	/**
+	 * The number of buckets of the latency histogram. Bucket i counts the latencies below 2^i seconds which are not counted in a lower bucket,
+	 * the last bucket counts all higher latencies.
+	 */
+	public static final int HISTOGRAM_BUCKET_COUNT = 11;
+
+	private final int mMinLimit;
+
+	private final int mMaxLimit;
+
+	private final long mLatencyTarget;
+
+	/**
+	 * The current limit. A double so that the additive increase can add fractions.
+	 */
+	private double mLimit;
+
+	/**
+	 * Key = a running fetch, value = the time when it was started.
+	 */
+	private final HashMap<Object, Long> mRunningFetches = new HashMap<Object, Long>();
+
+	/**
+	 * The running fetches which were counted as failed already because they exceeded the timeout.
+	 */
+	private final HashSet<Object> mTimedOutFetches = new HashSet<Object>();
+
+	/**
+	 * The time of the last decrease of the limit. Fetches which were started before it do not cause another decrease.
+	 */
+	private long mLastDecrease = Long.MIN_VALUE;
+
+	private int mSubsequentDataNotFoundCount = 0;
+
+	private final long[] mLatencyHistogram = new long[HISTOGRAM_BUCKET_COUNT];
+
+	private long mSuccessCount = 0;
+
+	private long mFailureCount = 0;
+
+	private long mDecreaseCount = 0;
+
+
+	/**
+	 * @param minLimit The limit is never decreased below this value.
+	 * @param initialLimit The limit when no fetch has finished yet.
+	 * @param maxLimit The limit is never increased above this value.
+	 * @param latencyTarget The latency of successful fetches up to which the limit is increased, in milliseconds.
+	 */
+	public FetchConcurrencyController(int minLimit, int initialLimit, int maxLimit, long latencyTarget) {
+		if(minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit)
+			throw new IllegalArgumentException("Invalid limits: " + minLimit + ", " + initialLimit + ", " + maxLimit);
+
+		if(latencyTarget <= 0)
+			throw new IllegalArgumentException("Invalid latency target: " + latencyTarget);
+
+		mMinLimit = minLimit;
+		mMaxLimit = maxLimit;
+		mLatencyTarget = latencyTarget;
+		mLimit = initialLimit;
+	}
+
+	/**
+	 * @return The current maximal number of parallel fetches.
+	 */
+	public synchronized int getLimit() {
+		return (int)mLimit;
+	}
+
+	/**
+	 * Counts the running fetches which exceeded the timeout as failed before deciding.
+	 *
+	 * @param runningFetchCount The number of fetches which the fetcher is running.
+	 * @param now The current time in milliseconds.
+	 * @return True if the fetcher may start another fetch.
+	 */
+	public synchronized boolean canStartFetch(int runningFetchCount, long now) {
+		checkTimeouts(now);
+		return runningFetchCount < (int)mLimit;
+	}
+
+	/**
+	 * Also counts the running fetches which exceeded the timeout as failed.
+	 *
+	 * @param fetch An object which identifies the fetch, for example the ClientGetter. Must be passed to {@link onFetchFinished}.
+	 * @param now The current time in milliseconds.
+	 */
+	public synchronized void onFetchStarted(Object fetch, long now) {
+		checkTimeouts(now);
+		mRunningFetches.put(fetch, now);
+	}
+
+	/**
+	 * Counts each running fetch which runs longer than the timeout as failed, once, and decreases the limit for it.
+	 */
+	private void checkTimeouts(long now) {
+		final long timeout = mLatencyTarget * TIMEOUT_FACTOR;
+
+		for(Map.Entry<Object, Long> fetch : mRunningFetches.entrySet()) {
+			final long startTime = fetch.getValue();
+
+			if(now - startTime > timeout && mTimedOutFetches.add(fetch.getKey())) {
+				++mFailureCount;
+				decrease(startTime, now);
+			}
+		}
+	}
+
+	/**
+	 * Adapts the limit to the result of the fetch. Does nothing if the fetch was not passed to {@link onFetchStarted} or was finished already.
+	 * If the fetch was counted as failed because it exceeded the timeout already, only the latency of a success is added to the histogram.
+	 *
+	 * @param now The current time in milliseconds.
+	 */
+	public synchronized void onFetchFinished(Object fetch, Result result, long now) {
+		final Long startTime = mRunningFetches.remove(fetch);
+		if(startTime == null)
+			return;
+
+		final long latency = now - startTime;
+
+		if(mTimedOutFetches.remove(fetch)) {
+			if(result == Result.Success)
+				++mLatencyHistogram[getHistogramBucket(latency)];
+			return;
+		}
+
+		switch(result) {
+			case Success:
+				++mSuccessCount;
+				++mLatencyHistogram[getHistogramBucket(latency)];
+				mSubsequentDataNotFoundCount = 0;
+
+				if(latency > mLatencyTarget * TIMEOUT_FACTOR)
+					decrease(startTime, now);
+				else if(latency <= mLatencyTarget)
+					mLimit = Math.min(mLimit + 1 / mLimit, mMaxLimit);
+				break;
+
+			case DataNotFound:
+				++mFailureCount;
+				if(++mSubsequentDataNotFoundCount >= DATA_NOT_FOUND_BURST_SIZE) {
+					mSubsequentDataNotFoundCount = 0;
+					decrease(startTime, now);
+				}
+				break;
+
+			case Overload:
+				++mFailureCount;
+				decrease(startTime, now);
+				break;
+
+			case Failure:
+				++mFailureCount;
+				break;
+
+			case Cancelled:
+				break;
+		}
+	}
+
+	/**
+	 * Halves the limit unless the fetch which caused the decrease was started before the last decrease.
+	 */
+	private void decrease(long startTime, long now) {
+		if(startTime < mLastDecrease)
+			return;
+
+		mLimit = Math.max(mLimit / 2, mMinLimit);
+		mLastDecrease = now;
+		++mDecreaseCount;
+	}
+
+	/**
+	 * To be called when the fetcher aborted all of its fetches without calling {@link onFetchFinished} for them.
+	 */
+	public synchronized void onAllFetchesAborted() {
+		mRunningFetches.clear();
+		mTimedOutFetches.clear();
+	}
+
+	private static int getHistogramBucket(long latency) {
+		int bucket = 0;
+		while(bucket < HISTOGRAM_BUCKET_COUNT - 1 && latency >= getHistogramBucketUpperBound(bucket))
+			++bucket;
+		return bucket;
+	}
+
+	/**
+	 * @return The latency below which the latencies of the given bucket of the histogram are, in milliseconds. -1 for the last bucket,
+	 * 	which has no upper bound.
+	 */
+	public static long getHistogramBucketUpperBound(int bucket) {
+		if(bucket == HISTOGRAM_BUCKET_COUNT - 1)
+			return -1;
+
+		return (1L << bucket) * 1000;
+	}
+
+	/**
+	 * @return The number of succeeded fetches in each latency bucket, see {@link getHistogramBucketUpperBound}.
+	 */
+	public synchronized long[] getLatencyHistogram() {
+		return mLatencyHistogram.clone();
+	}
+
+	public synchronized long getLatencyTarget() {
+		return mLatencyTarget;
+	}
+
+	public synchronized int getRunningFetchCount() {
+		return mRunningFetches.size();
+	}
+
+	public synchronized long getSuccessCount() {
+		return mSuccessCount;
+	}
+
+	public synchronized long getFailureCount() {
+		return mFailureCount;
+	}
+
+	/**
+	 * @return How often the limit was decreased.
+	 */
+	public synchronized long getDecreaseCount() {
+		return mDecreaseCount;
+	}
+}
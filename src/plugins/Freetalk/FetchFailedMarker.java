@@ -45,70 +45,81 @@ public class FetchFailedMarker extends Persistent {
 	}
 	
 	/**
-	 * NOT synchronized! Lock the MessageManager when working on FetchFailedMarker objects.
+	 * NOT synchronized! Lock the database when working on FetchFailedMarker objects.
 	 */
 	public void setReason(Reason newReason) {
 		if(newReason == null) throw new NullPointerException();
 		
+		checkedActivate(1);
 		mReason = newReason;
 	}
 
 	/**
-	 * NOT synchronized! Lock the MessageManager when working on FetchFailedMarker objects.
+	 * NOT synchronized! Lock the database when working on FetchFailedMarker objects.
 	 */
 	public Date getDate() {
-		// activate(1);	// 1 is the default activation depth => no need to activate.
+		checkedActivate(1);
 		return mDate;
 	}
 
 	/**
-	 * NOT synchronized! Lock the MessageManager when working on FetchFailedMarker objects.
+	 * NOT synchronized! Lock the database when working on FetchFailedMarker objects.
 	 */
 	public void setDate(Date newDate) {
+		checkedActivate(1);
 		mDate = newDate;
 	}
 	
 	/**
-	 * NOT synchronized! Lock the MessageManager when working on FetchFailedMarker objects.
+	 * NOT synchronized! Lock the database when working on FetchFailedMarker objects.
 	 */
 	public int getNumberOfRetries() {
-		// activate(1);	// 1 is the default activation depth => no need to activate.
+		checkedActivate(1);
 		return mNumberOfRetries;
 	}
 	
 	/**
-	 * NOT synchronized! Lock the MessageManager when working on FetchFailedMarker objects.
+	 * NOT synchronized! Lock the database when working on FetchFailedMarker objects.
 	 */
 	public void incrementNumberOfRetries() {
-		// activate(1);	// 1 is the default activation depth => no need to activate.
+		checkedActivate(1);
 		++mNumberOfRetries;
 	}
 	
 	/**
-	 * NOT synchronized! Lock the MessageManager when working on FetchFailedMarker objects.
+	 * NOT synchronized! Lock the database when working on FetchFailedMarker objects.
 	 */
 	public Date getDateOfNextRetry() {
-		// activate(1);	// 1 is the default activation depth => no need to activate.
+		checkedActivate(1);
 		return mDateOfNextRetry;
 	}
 	
 	/**
-	 * NOT synchronized! Lock the MessageManager when working on FetchFailedMarker objects.
+	 * NOT synchronized! Lock the database when working on FetchFailedMarker objects.
 	 */
 	public void setDateOfNextRetry(Date newDate) {
+		checkedActivate(1);
 		mDateOfNextRetry = newDate;
 	}
 
+	/**
+	 * The activation profile of fetch failed markers: The Reason enum needs a depth of 2.
+	 */
+	@Override
+	protected int getActivationDepth() {
+		return 2;
+	}
+
 	public void storeWithoutCommit() {
-		super.storeWithoutCommit(2); // TODO: Figure out a suitable depth.
+		super.storeWithoutCommit();
 	}
 	
 	public void deleteWithoutCommit() {
-		super.deleteWithoutCommit(2); // TODO: Figure out a suitable depth.
+		super.deleteWithoutCommit();
 	}
 
 	public Reason getReason() {
-		checkedActivate(2); // TODO: Check whether this is enough for an enum, or even too much.
+		checkedActivate(2);
 		return mReason;
 	}
 }
@@ -84,6 +84,8 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
 	
 	private ExtObjectContainer db;
 	
+	private final Persistent.TransactionRecorder mTransactionRecorder = new Persistent.TransactionRecorder();
+	
 	private Config mConfig;
 	
 	private WoTIdentityManager mIdentityManager;
@@ -170,6 +172,8 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
 				mIdentityManager, mMessageManager, mMessageListXML);
 		mMessageListFetcher.start();
 		
+		mMessageManager.setFetchers(mMessageFetcher, mMessageListFetcher);
+		
 		Logger.debug(this, "Creating message list inserter...");
 		mMessageListInserter = new WoTMessageListInserter(mPluginRespirator.getNode(), mPluginRespirator.getHLSimpleClient(), "Freetalk WoTMessageListInserter",
 				mIdentityManager, mMessageManager, mMessageListXML);
@@ -188,7 +192,7 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
 			if (allowedHosts == null) {
 				allowedHosts = "127.0.0.1";
 			}
-			mNNTPServer = new FreetalkNNTPServer(this, 1199, bindTo, allowedHosts);
+			mNNTPServer = new FreetalkNNTPServer(this, mPluginRespirator.getNode().executor, 1199, bindTo, allowedHosts, mConfig.getBoolean(Config.NNTP_SERVER_NON_BLOCKING));
 			mNNTPServer.start();
 		} else {
             Logger.debug(this, "NNTP server disabled by user...");
@@ -212,7 +216,7 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
 		
 		cfg.reflectWith(new JdkReflector(getPluginClassLoader())); // Needed because the node uses it's own classloader for plugins
 		cfg.exceptionsOnNotStorable(true); // Notify us if we tried to store a class which db4o won't store
-		cfg.activationDepth(5); // TODO: Decrease to 1 after we have explicit activation everywhere.
+		cfg.activationDepth(1); // Each Persistent class activates itself explicitly, see Persistent.getActivationDepth()
         cfg.automaticShutDown(false); // The shutdown hook does auto-commit() but we want to rollback(), we MUST NOT commit half-finished transactions
         
         // Performance config options:
@@ -228,11 +232,14 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
         	Board.BoardMessageLink.class,
         	Config.class,
         	FetchFailedMarker.class,
+        	IdentityStatistics.class,
         	Message.class,
+        	MessageFetchQueueEntry.class,
         	MessageList.class,
         	MessageList.MessageReference.class,
         	MessageList.MessageFetchFailedMarker.class,
         	MessageList.MessageListFetchFailedMarker.class,
+        	MessageListIndexTracker.class,
         	MessageRating.class,
         	MessageURI.class,
         	OwnMessage.class,
@@ -241,6 +248,7 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
         	SubscribedBoard.MessageReference.class,
         	SubscribedBoard.BoardThreadLink.class,
         	SubscribedBoard.BoardReplyLink.class,
+        	SubscribedBoard.MessageOverview.class,
         	PersistentTask.class,
         	OwnMessageTask.class,
         	IntroduceIdentityTask.class,
@@ -284,6 +292,7 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
 	 */
 	public Freetalk(ExtObjectContainer myDB) {
 		db = myDB;
+		mTaskManager = new PersistentTaskManager(db, this); // Not started, there is no node.
 		mIdentityManager = new WoTIdentityManager(this);
 		mMessageManager = new WoTMessageManager(this);
 	}
@@ -368,6 +377,13 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
         	Logger.error(this, "Error during termination.", e);	
         }
         
+		try {
+			mMessageManager.setFetchers(null, null);
+		}
+		catch(Exception e) {
+			Logger.error(this, "Error during termination.", e);
+		}
+		
 		try {
 			mMessageListInserter.terminate();
 		}
@@ -435,6 +451,10 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
 		return db;
 	}
 	
+	protected Persistent.TransactionRecorder getTransactionRecorder() {
+		return mTransactionRecorder;
+	}
+	
 	public WoTIdentityManager getIdentityManager() {
 		return mIdentityManager;
 	}	
@@ -446,6 +466,14 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
 	public PersistentTaskManager getTaskManager() {
 		return mTaskManager;
 	}
+	
+	public WoTMessageFetcher getMessageFetcher() {
+		return mMessageFetcher;
+	}
+	
+	public WoTMessageListFetcher getMessageListFetcher() {
+		return mMessageListFetcher;
+	}
 
 	public String getVersion() {
 		return Version.longVersionString;
@@ -473,6 +501,8 @@ public final class Freetalk implements FredPlugin, FredPluginFCP, FredPluginL10n
      */
     public void setLanguage(final BaseL10n.LANGUAGE newLanguage) {
         Freetalk.l10n = new PluginL10n(this, newLanguage);
+        if(mWebInterface != null)
+        	mWebInterface.getMessageBoxCache().clear();
         Logger.debug(this, "Set LANGUAGE to: " + newLanguage.isoCode);
     }
 
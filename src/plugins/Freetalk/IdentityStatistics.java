@@ -0,0 +1,159 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.Date;
+
+/**
+ * Statistics about the messages of an identity: The number of messages and threads and the dates of the first and last message.
+ * They are displayed for each message in the web interface and sent via FCP, so they are stored instead of being computed by querying
+ * all messages of the identity each time.
+ *
+ * Only the messages which are returned by {@link MessageManager#getMessagesBy} are counted, i.e. downloaded messages but not {@link OwnMessage}s.
+ *
+ * The statistics are maintained by the {@link MessageManager} when messages are stored and deleted. They are created during startup for
+ * databases of Freetalk versions which did not have them and on demand for new identities.
+ */
+@Indexed /* Indexed because the MessageManager checks during startup whether any statistics exist */
+public final class IdentityStatistics extends Persistent {
+
+	@Indexed
+	private final FTIdentity mAuthor;
+
+	private int mPostCount = 0;
+
+	/**
+	 * The number of messages of the author which are threads, see {@link Message#isThread()}.
+	 */
+	private int mThreadCount = 0;
+
+	/**
+	 * The date of the oldest message of the author, null if there is none.
+	 */
+	private Date mFirstPostDate = null;
+
+	/**
+	 * The date of the newest message of the author, null if there is none.
+	 */
+	private Date mLastPostDate = null;
+
+
+	protected IdentityStatistics(FTIdentity myAuthor) {
+		if(myAuthor == null)
+			throw new NullPointerException();
+
+		mAuthor = myAuthor;
+	}
+
+	public FTIdentity getAuthor() {
+		checkedActivate(2);
+		if(mAuthor instanceof Persistent)
+			((Persistent)mAuthor).initializeTransient(mFreetalk);
+		return mAuthor;
+	}
+
+	public synchronized int getPostCount() {
+		checkedActivate(1);
+		return mPostCount;
+	}
+
+	public synchronized int getThreadCount() {
+		checkedActivate(1);
+		return mThreadCount;
+	}
+
+	/**
+	 * @return The date of the oldest message of the author, null if there is none.
+	 */
+	public synchronized Date getFirstPostDate() {
+		checkedActivate(2);
+		return mFirstPostDate;
+	}
+
+	/**
+	 * @return The date of the newest message of the author, null if there is none.
+	 */
+	public synchronized Date getLastPostDate() {
+		checkedActivate(2);
+		return mLastPostDate;
+	}
+
+	/**
+	 * To be called when a message of the author was stored. Does not store the statistics.
+	 */
+	protected synchronized void onMessageStored(Message message) {
+		checkedActivate(2);
+
+		++mPostCount;
+		if(message.isThread())
+			++mThreadCount;
+
+		final Date date = message.getDate();
+		if(mFirstPostDate == null || date.before(mFirstPostDate))
+			mFirstPostDate = date;
+		if(mLastPostDate == null || date.after(mLastPostDate))
+			mLastPostDate = date;
+	}
+
+	/**
+	 * To be called when a message of the author was deleted. Does not store the statistics.
+	 *
+	 * @return False if the deleted message was the oldest or newest message of the author. Then the dates must be recomputed with
+	 * 	{@link recomputeDates} because the statistics do not know the date of the second oldest or newest message.
+	 */
+	protected synchronized boolean onMessageDeleted(Message message) {
+		checkedActivate(2);
+
+		if(mPostCount == 0)
+			throw new IllegalStateException("Deleted a message but the post count is 0: " + this);
+
+		--mPostCount;
+		if(message.isThread())
+			--mThreadCount;
+
+		if(mPostCount == 0) {
+			mFirstPostDate = null;
+			mLastPostDate = null;
+			return true;
+		}
+
+		final Date date = message.getDate();
+		return !date.equals(mFirstPostDate) && !date.equals(mLastPostDate);
+	}
+
+	/**
+	 * Sets the dates of the first and last message to the ones of the given messages. Does not store the statistics.
+	 *
+	 * @param messages All messages of the author.
+	 */
+	protected synchronized void recomputeDates(Iterable<Message> messages) {
+		checkedActivate(1);
+		mFirstPostDate = null;
+		mLastPostDate = null;
+
+		for(Message message : messages) {
+			final Date date = message.getDate();
+			if(mFirstPostDate == null || date.before(mFirstPostDate))
+				mFirstPostDate = date;
+			if(mLastPostDate == null || date.after(mLastPostDate))
+				mLastPostDate = date;
+		}
+	}
+
+	protected void storeWithoutCommit() {
+		try {
+			checkedActivate(2);
+			throwIfNotStored(mAuthor);
+			checkedStore();
+		}
+		catch(RuntimeException e) {
+			checkedRollbackAndThrow(e);
+		}
+	}
+
+	public String toString() {
+		checkedActivate(1);
+		return super.toString() + " with " + mPostCount + " posts and " + mThreadCount + " threads";
+	}
+}
@@ -0,0 +1,73 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * A fixed amount of lock objects to which keys - board names or identity IDs - are mapped by their hash code. Used with synchronized(),
+ * like all locks in Freetalk.
+ *
+ * Locking the stripe of a key instead of a global lock allows operations on different keys to run in parallel. Different keys can share a
+ * stripe, so a thread which holds the stripes of several keys must acquire them in ascending order of their indices, see
+ * {@link #getStripeIndices(Collection)}. Otherwise two threads could deadlock. Acquiring the stripe of a key which shares its stripe with a
+ * key whose stripe the thread holds already is fine because Java monitors are reentrant.
+ */
+public final class LockStripes {
+
+	private final Object[] mStripes;
+
+	/**
+	 * @param stripeCount The amount of stripes. Must be a power of two.
+	 */
+	public LockStripes(int stripeCount) {
+		if(stripeCount < 1 || Integer.bitCount(stripeCount) != 1)
+			throw new IllegalArgumentException("Stripe count is no power of two: " + stripeCount);
+
+		mStripes = new Object[stripeCount];
+		for(int i = 0; i < stripeCount; ++i)
+			mStripes[i] = new Object();
+	}
+
+	public int getStripeCount() {
+		return mStripes.length;
+	}
+
+	public int getStripeIndex(String key) {
+		int hash = key.hashCode();
+		// Spread the higher bits so that keys which only differ in them do not all end up in the same stripe.
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return hash & (mStripes.length - 1);
+	}
+
+	/**
+	 * Gets the lock object of the given key. Two calls with equal keys return the same object.
+	 */
+	public Object get(String key) {
+		return mStripes[getStripeIndex(key)];
+	}
+
+	public Object getStripe(int index) {
+		return mStripes[index];
+	}
+
+	/**
+	 * Gets the indices of the stripes of the given keys without duplicates, sorted ascending. This is the order in which the stripes must be
+	 * acquired when locking several of them.
+	 */
+	public int[] getStripeIndices(Collection<String> keys) {
+		final TreeSet<Integer> indices = new TreeSet<Integer>();
+		for(String key : keys)
+			indices.add(getStripeIndex(key));
+
+		final int[] result = new int[indices.size()];
+		int i = 0;
+		for(Integer index : indices)
+			result[i++] = index;
+		return result;
+	}
+
+}
@@ -219,6 +219,15 @@ public abstract class Message extends Persistent {
 		mAttachments = newAttachments == null ? null : newAttachments.toArray(new Attachment[newAttachments.size()]);
 	}
 	
+	/**
+	 * The activation profile of messages: 3 is the maximum depth of all getter functions because the attachments contain FreenetURIs.
+	 * You have to adjust this when adding new members.
+	 */
+	@Override
+	protected int getActivationDepth() {
+		return 3;
+	}
+	
 	/**
 	 * Verifies that the given message ID begins with the routing key of the author.
 	 * @throws InvalidParameterException If the ID is not valid. 
@@ -250,6 +259,7 @@ public abstract class Message extends Persistent {
 	}
 
 	public String getID() { /* Not synchronized because only OwnMessage might change the ID */
+		checkedActivate(1);
 		return mID;
 	}
 	
@@ -277,6 +287,7 @@ public abstract class Message extends Persistent {
 		if(mThreadURI == null)
 			throw new NoSuchMessageException();
 		
+		mThreadURI.initializeTransient(mFreetalk);
 		return mThreadURI;
 	}
 
@@ -291,7 +302,7 @@ public abstract class Message extends Persistent {
 	 * @throws NoSuchMessageException If the message is a thread itself.
 	 */
 	public synchronized String getThreadID() throws NoSuchMessageException {
-		// checkedActivate(1);
+		checkedActivate(1);
 		
 		if(mThreadID == null)
 			throw new NoSuchMessageException();
@@ -313,7 +324,7 @@ public abstract class Message extends Persistent {
 	}
 	
 	public String getParentID() throws NoSuchMessageException {
-		// checkedActivate(1);
+		checkedActivate(1);
 		
 		if(mParentID == null)
 			throw new NoSuchMessageException();
@@ -372,7 +383,7 @@ public abstract class Message extends Persistent {
 	 * Get the title of the message.
 	 */
 	public String getTitle() {
-		// checkedActivate(1);
+		checkedActivate(1);
 		assert(mTitle != null);
 		
 		return mTitle;
@@ -382,7 +393,7 @@ public abstract class Message extends Persistent {
 	 * Get the date when the message was written in <strong>UTC time</strong>.
 	 */
 	public Date getDate() {
-		// checkedActivate(1);
+		checkedActivate(1);
 		assert(mDate != null);
 		
 		return mDate;
@@ -392,7 +403,7 @@ public abstract class Message extends Persistent {
 	 * Get the date when the message was fetched by Freetalk.
 	 */
 	public Date getFetchDate() {
-		// checkedActivate(1);
+		checkedActivate(1);
 		assert(mFetchDate != null);
 		
 		return mFetchDate;
@@ -402,7 +413,7 @@ public abstract class Message extends Persistent {
 	 * Get the text of the message.
 	 */
 	public String getText() {
-		// checkedActivate(1);
+		checkedActivate(1);
 		assert(mText != null);
 		
 		return mText;
@@ -437,9 +448,10 @@ public abstract class Message extends Persistent {
 	}
 	
 	public synchronized void setThread(Message newParentThread) {
+		checkedActivate(1);
 		assert(mThread == null);
 		
-		if(!newParentThread.getID().equals(mThreadID)) // mThreadID needs no activation
+		if(!newParentThread.getID().equals(mThreadID))
 			throw new IllegalArgumentException("Trying to set a message as thread which has the wrong ID: " + newParentThread.getID());
 		
 		if(newParentThread instanceof OwnMessage)
@@ -450,6 +462,7 @@ public abstract class Message extends Persistent {
 	}
 	
 	protected synchronized void clearThread() {
+		checkedActivate(1);
 		mThread = null;
 		storeWithoutCommit();
 	}
@@ -469,9 +482,10 @@ public abstract class Message extends Persistent {
 	}
 
 	public synchronized void setParent(Message newParent)  {
+		checkedActivate(1);
 		assert(mParent == null);
 		
-		if(!newParent.getID().equals(mParentID)) // mParentID needs no activation
+		if(!newParent.getID().equals(mParentID))
 			throw new IllegalArgumentException("Trying to set a message as parent which has the wrong ID: " + newParent.getID());
 		
 		if(newParent instanceof OwnMessage)
@@ -482,6 +496,7 @@ public abstract class Message extends Persistent {
 	}
 	
 	protected synchronized void clearParent() {
+		checkedActivate(1);
 		mParent = null;
 		storeWithoutCommit();
 	}
@@ -492,7 +507,7 @@ public abstract class Message extends Persistent {
 	 * 
 	 */
 	protected synchronized boolean wasLinkedIn() {
-		// checkedActivate(1);
+		checkedActivate(1);
 		return mWasLinkedIn;
 	}
 	
@@ -501,6 +516,7 @@ public abstract class Message extends Persistent {
 	 * For an explanation of this flag please read the documentation of {@link wasLinkedIn}.
 	 */
 	protected synchronized void setLinkedIn(boolean wasLinkedIn) {
+		checkedActivate(1);
 		mWasLinkedIn = wasLinkedIn;
 	}
 	
@@ -745,7 +761,7 @@ public abstract class Message extends Persistent {
 	
 	public void storeWithoutCommit() {
 		try {
-			checkedActivate(3); // 3 is the maximum depth of all getter functions. You have to adjust this when adding new members.
+			checkedActivate();
 			
 			for(Board board : mBoards)
 				throwIfNotStored(board);
@@ -786,7 +802,7 @@ public abstract class Message extends Persistent {
 	
 	protected void deleteWithoutCommit() {
 		try {
-			checkedActivate(3); // TODO: Figure out a suitable depth.
+			checkedActivate();
 			
 			checkedDelete(this);
 			
@@ -817,7 +833,7 @@ public abstract class Message extends Persistent {
 	public boolean equals(Object obj) {
     	if(obj instanceof Message) {
     		Message otherMessage = (Message)obj;
-    		return mID.equals(otherMessage.getID()); // mID needs no activation
+    		return getID().equals(otherMessage.getID());
     	} else
     		return false;
 	}
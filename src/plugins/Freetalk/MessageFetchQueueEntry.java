@@ -0,0 +1,124 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.Date;
+
+import plugins.Freetalk.MessageList.MessageReference;
+
+/**
+ * An entry of the queue of messages which are to be fetched. There is exactly one entry for each message ID to which at least one
+ * {@link MessageReference} exists which is not marked as downloaded, no matter how many message lists reference the message and to how
+ * many boards it is posted. So the message fetcher fetches each message only once.
+ *
+ * The entry stores one of the not downloaded references as the one from which the message is to be fetched and the priority information
+ * of the message: The newest date of its references, whether any of their boards is subscribed and whether the message is the parent
+ * message or thread of a message which we have already. Messages of subscribed boards are fetched by the regular fetches, parents of messages
+ * which we have are fetched with priority so that the threads in which they are missing fill in quickly.
+ *
+ * The entries are maintained by the {@link MessageManager} when message lists are stored and deleted, when messages are stored, deleted
+ * or their fetch fails or is retried and when boards get their first subscription or lose their last one.
+ */
+@Indexed /* Indexed because the MessageManager checks during startup whether any entries exist */
+public final class MessageFetchQueueEntry extends Persistent {
+
+	@Indexed
+	private final String mMessageID;
+
+	/**
+	 * The not downloaded reference from which the message is fetched. A reference whose board has subscriptions if there is one.
+	 * Indexed because {@link MessageList#deleteWithoutCommit()} deletes the entries of its references.
+	 */
+	@Indexed
+	private MessageReference mReference;
+
+	/**
+	 * The newest date of the not downloaded references to the message. Messages are fetched newest first.
+	 */
+	@Indexed
+	private Date mDate;
+
+	/**
+	 * True if the board of any not downloaded reference to the message has subscriptions, see {@link Board#hasSubscriptions()}.
+	 */
+	@Indexed
+	private boolean mBoardHasSubscriptions;
+
+	/**
+	 * True if a message which we have is a reply to this message or belongs to the thread of it, see {@link Message#getParentID()} and
+	 * {@link Message#getThreadID()}.
+	 */
+	@Indexed
+	private boolean mIsParentOfStoredMessage = false;
+
+
+	protected MessageFetchQueueEntry(String myMessageID) {
+		if(myMessageID == null)
+			throw new NullPointerException();
+
+		mMessageID = myMessageID;
+	}
+
+	public String getMessageID() {
+		checkedActivate(1);
+		return mMessageID;
+	}
+
+	public MessageReference getReference() {
+		checkedActivate(1);
+		mReference.initializeTransient(mFreetalk);
+		return mReference;
+	}
+
+	public Date getDate() {
+		checkedActivate(1);
+		return mDate;
+	}
+
+	public boolean boardHasSubscriptions() {
+		checkedActivate(1);
+		return mBoardHasSubscriptions;
+	}
+
+	public boolean isParentOfStoredMessage() {
+		checkedActivate(1);
+		return mIsParentOfStoredMessage;
+	}
+
+	/**
+	 * Marks the message as the parent message or thread of a message which we have. Does not store the entry.
+	 */
+	protected void markAsParentOfStoredMessage() {
+		checkedActivate(1);
+		mIsParentOfStoredMessage = true;
+	}
+
+	/**
+	 * Sets the reference from which the message is to be fetched and the priority information. Does not store the entry.
+	 */
+	protected void update(MessageReference reference, Date date, boolean boardHasSubscriptions) {
+		checkedActivate(1);
+		if(!reference.getMessageID().equals(mMessageID))
+			throw new IllegalArgumentException("Reference " + reference + " does not belong to message " + mMessageID);
+
+		mReference = reference;
+		mDate = date;
+		mBoardHasSubscriptions = boardHasSubscriptions;
+	}
+
+	protected void storeWithoutCommit() {
+		try {
+			checkedActivate();
+			throwIfNotStored(mReference);
+			checkedStore();
+		}
+		catch(RuntimeException e) {
+			checkedRollbackAndThrow(e);
+		}
+	}
+
+	public String toString() {
+		return super.toString() + " for message " + mMessageID;
+	}
+}
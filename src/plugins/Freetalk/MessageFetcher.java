@@ -3,6 +3,7 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package plugins.Freetalk;
 
+import freenet.client.FetchException;
 import freenet.client.HighLevelSimpleClient;
 import freenet.node.Node;
 import freenet.support.TransferThread;
@@ -18,4 +19,32 @@ public abstract class MessageFetcher extends TransferThread {
 		mIdentityManager = myIdentityManager;
 		mMessageManager = myMessageManager;
 	}
+	
+	/**
+	 * Called by the {@link MessageManager} when it has marked messages as not downloaded because the retries of their failed fetches are
+	 * due. Must start fetches of them without waiting for the next iteration.
+	 */
+	public abstract void onFetchRetriesDue();
+	
+	/**
+	 * @return The controller of the number of parallel fetches of this fetcher.
+	 */
+	public abstract FetchConcurrencyController getConcurrencyController();
+	
+	/**
+	 * @return The result of a failed fetch for the {@link FetchConcurrencyController}. Also used by the {@link MessageListFetcher}s.
+	 */
+	public static FetchConcurrencyController.Result getConcurrencyResult(FetchException e) {
+		switch(e.getMode()) {
+			case FetchException.DATA_NOT_FOUND:
+			case FetchException.ALL_DATA_NOT_FOUND:
+				return FetchConcurrencyController.Result.DataNotFound;
+			case FetchException.REJECTED_OVERLOAD:
+				return FetchConcurrencyController.Result.Overload;
+			case FetchException.CANCELLED:
+				return FetchConcurrencyController.Result.Cancelled;
+			default:
+				return FetchConcurrencyController.Result.Failure;
+		}
+	}
 }
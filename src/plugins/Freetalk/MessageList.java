@@ -89,9 +89,17 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 			mDate = myDate;
 		}
 		
+		/**
+		 * The activation profile of message references: The FreenetURI needs a depth of 2.
+		 */
+		@Override
+		protected int getActivationDepth() {
+			return 2;
+		}
+		
 		protected void storeWithoutCommit() {
 			try {
-				checkedActivate(3); // TODO: Figure out a suitable depth.
+				checkedActivate();
 				
 				// We cannot throwIfNotStored because MessageReference objects are usually created within the same transaction of creating the MessageList
 				//DBUtil.throwIfNotStored(db, mMessageList);
@@ -110,7 +118,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		
 		public void deleteWithoutCommit() {
 			try {
-				checkedActivate(3); // TODO: Figure out a suitable depth.
+				checkedActivate();
 				
 				checkedDelete();
 				
@@ -125,7 +133,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		}
 		
 		public String getMessageID() {
-			// checkedActivate(1);
+			checkedActivate(1);
 			return mMessageID;
 		}
 		
@@ -135,17 +143,19 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		}
 		
 		public Board getBoard() {
-			checkedActivate(2);
+			checkedActivate(1);
+			if(mBoard != null && mFreetalk != null)
+				mBoard.initializeTransient(mFreetalk);
 			return mBoard;
 		}
 		
 		public Date getDate() {
-			// checkedActivate(1);
+			checkedActivate(1);
 			return mDate;
 		}
 		
 		public synchronized boolean wasMessageDownloaded() {
-			// checkedActivate(1);
+			checkedActivate(1);
 			return mWasDownloaded;
 		}
 		
@@ -153,7 +163,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		 * Marks the MessageReference as downloaded and stores the change in the database, without committing the transaction.
 		 */
 		public synchronized void setMessageWasDownloadedFlag() {
-			// checkedActivate(1);
+			checkedActivate(1);
 			
 			// TODO: Figure out why this happens sometimes.
 			// assert(mWasDownloaded == false);
@@ -164,7 +174,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		 * Marks the MessageReference as not downloaded and stores the change in the database, without committing the transaction.
 		 */
 		public synchronized void clearMessageWasDownloadedFlag() {
-			// checkedActivate(1);
+			checkedActivate(1);
 			
 			// TODO: Figure out why this happens sometimes.
 			// assert(mWasDownloaded == true);
@@ -172,7 +182,9 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		}
 
 		public MessageList getMessageList() {
-			checkedActivate(2);
+			checkedActivate(1);
+			if(mMessageList != null && mFreetalk != null)
+				mMessageList.initializeTransient(mFreetalk);
 			return mMessageList;
 		}
 		
@@ -180,6 +192,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		 * Called by it's parent <code>MessageList</code> to store the reference to it. Does not call store().
 		 */
 		protected void setMessageList(MessageList myMessageList) {
+			checkedActivate(1);
 			mMessageList = myMessageList;
 		}
 		
@@ -199,7 +212,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		}
 
 		public String getMessageListID() {
-			// checkedActivate(1);
+			checkedActivate(1);
 			return mMessageListID;
 		}
 		
@@ -349,7 +362,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 	
 	public void storeWithoutCommit() {
 		try {
-			checkedActivate(3); // TODO: Figure out a suitable depth.
+			checkedActivate();
 			
 			throwIfNotStored(mAuthor);
 			
@@ -374,11 +387,10 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 	@SuppressWarnings("unchecked")
 	protected void deleteWithoutCommit() {
 		try {
-			checkedActivate(3); // TODO: Figure out a suitable depth.
+			checkedActivate();
 			
 			{ // First we have to delete the objects of type MessageListFetchFailedReference because this MessageList needs to exist in the db so we can query them
-				// TODO: This requires that we have locked the MessageManager, which is currently the case for every call to deleteWithoutCommit()
-				// However, we should move the code elsewhere to ensure the locking...
+				// The caller holds db.lock() so no other thread can create markers between this query and the deletion of the list.
 				Query query = mDB.query();
 				query.constrain(MessageListFetchFailedMarker.class);
 				query.descend("mMessageListID").constrain(getID());
@@ -395,8 +407,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 			checkedDelete(mMessages);
 			
 			for(MessageReference ref : mMessages) {
-				// TODO: This requires that we have locked the MessageManager, which is currently the case for every call to deleteWithoutCommit()
-				// However, we should move the code elsewhere to ensure the locking...
+				// The caller holds db.lock() so no other thread can create markers between this query and the deletion of the list.
 				Query query = mDB.query();
 				query.constrain(MessageFetchFailedMarker.class);
 				query.descend("mMessageReference").constrain(ref).identity();
@@ -407,6 +418,16 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 					failedRef.deleteWithoutCommit();
 				}
 				
+				// The same for the MessageFetchQueueEntry. The MessageManager re-creates it if another MessageReference to the message exists.
+				query = mDB.query();
+				query.constrain(MessageFetchQueueEntry.class);
+				query.descend("mReference").constrain(ref).identity();
+				
+				for(MessageFetchQueueEntry entry : (ObjectSet<MessageFetchQueueEntry>)query.execute()) {
+					entry.initializeTransient(mFreetalk);
+					entry.deleteWithoutCommit();
+				}
+				
 				// TODO: Its sort of awful to have this code here, maybe find a better place for it :|
 				// It's required to prevent zombie message lists.
 				query = mDB.query();
@@ -428,6 +449,14 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 		}
 	}
 	
+	/**
+	 * The activation profile of message lists: The list of message references needs a depth of 3 so that the references are active.
+	 */
+	@Override
+	protected int getActivationDepth() {
+		return 3;
+	}
+	
 	protected String calculateID() {
 		return calculateID(mAuthor, mIndex);
 	}
@@ -441,7 +470,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 	}
 	
 	public String getID() {
-		// checkedActivate(1);
+		checkedActivate(1);
 		return mID;
 	}
 	
@@ -450,7 +479,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 	 * @return
 	 */
 	public FreenetURI getURI() {
-		return generateURI(getAuthor().getRequestURI(), mIndex).sskForUSK();
+		return generateURI(getAuthor().getRequestURI(), getIndex()).sskForUSK();
 	}
 	
 	/**
@@ -470,7 +499,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 	}
 	
 	public int getIndex() {
-		// checkedActivate(1);
+		checkedActivate(1);
 		return mIndex;
 	}
 	
@@ -478,7 +507,7 @@ public abstract class MessageList extends Persistent implements Iterable<Message
 	 * You have to synchronize on the <code>MessageList</code> when using this method.
 	 */
 	public Iterator<MessageReference> iterator() {
-		checkedActivate(3);
+		checkedActivate();
 		for(MessageReference ref : mMessages) {
 			ref.initializeTransient(mFreetalk);
 		}
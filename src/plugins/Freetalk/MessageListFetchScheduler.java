@@ -0,0 +1,215 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Ranks identities by how likely it is that they have published new {@link MessageList}s so that the message list fetcher can use its
+ * limited number of parallel fetches for the identities which are most likely to have new content.
+ *
+ * For each identity, the scheduler keeps in memory:
+ * - Its activity rate: The number of messages and new message lists per day. It is initialized from the {@link IdentityStatistics} of the
+ * identity with {@link addIdentity} and updated with each fetched message list.
+ * - The date of its last activity, i.e. of its newest message or of the last fetched new message list.
+ * - The date of the last fetch of a message list of it.
+ * - The number of failed fetches since the last successful one.
+ *
+ * The priority of an identity is the expected number of new message lists since its last fetch: The activity rate multiplied with the time since
+ * the last fetch. The activity rate is reduced if the last activity was long ago and a minimal rate is added so that inactive identities
+ * are fetched from now and then. The priority is divided by the number of failed fetches plus one, see {@link getPriority}.
+ *
+ * The scheduler also counts the fetches and the new message lists which they found, for measuring how well the fetch slots are used.
+ *
+ * All functions are synchronized on the scheduler and do not call any other objects so you can use it everywhere without causing deadlocks.
+ */
+public final class MessageListFetchScheduler {
+
+	private static final long DAY = 24 * 60 * 60 * 1000;
+
+	/**
+	 * The activity rate which is added to the rate of each identity so that identities which have not been active are fetched from now and then,
+	 * in activities per day.
+	 */
+	public static final double MINIMAL_ACTIVITY_RATE = 0.1;
+
+	/**
+	 * The activity rate of an identity is computed over at least this timespan so that an identity with a single activity does not get a huge rate.
+	 */
+	private static final long MINIMAL_ACTIVITY_TIMESPAN = DAY;
+
+	/**
+	 * After this time without activity, the activity rate of an identity counts half.
+	 */
+	public static final long ACTIVITY_HALF_LIFE = 7 * DAY;
+
+	/**
+	 * The time since the last fetch is capped at this value: Expecting more new content from an identity because it was not fetched for a
+	 * long time would make the identities which were never fetched, such as new ones, outweigh the active ones for too long.
+	 */
+	public static final long MAXIMAL_FETCH_INTERVAL = DAY;
+
+	private static final class Entry {
+
+		private int mActivityCount = 0;
+
+		private long mFirstActivity = 0;
+
+		private long mLastActivity = 0;
+
+		private long mLastFetch = 0;
+
+		private int mFailureCount = 0;
+	}
+
+	/**
+	 * Key = ID of an identity.
+	 */
+	private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+
+	private long mFetchCount = 0;
+
+	private long mNewListCount = 0;
+
+
+	/**
+	 * @return True if {@link addIdentity} was called for the given identity and it was not removed by {@link retainIdentities} since then.
+	 */
+	public synchronized boolean containsIdentity(String identityID) {
+		return mEntries.containsKey(identityID);
+	}
+
+	/**
+	 * Adds an identity with the statistics of its messages. Does nothing if the identity was added already.
+	 *
+	 * @param postCount The number of messages of the identity.
+	 * @param firstPostDate The date of the oldest message of the identity, null if there is none.
+	 * @param lastPostDate The date of the newest message of the identity, null if there is none.
+	 */
+	public synchronized void addIdentity(String identityID, int postCount, Date firstPostDate, Date lastPostDate) {
+		if(mEntries.containsKey(identityID))
+			return;
+
+		final Entry entry = new Entry();
+
+		if(postCount > 0 && firstPostDate != null && lastPostDate != null) {
+			entry.mActivityCount = postCount;
+			entry.mFirstActivity = firstPostDate.getTime();
+			entry.mLastActivity = lastPostDate.getTime();
+		}
+
+		mEntries.put(identityID, entry);
+	}
+
+	/**
+	 * Removes all identities which are not in the given collection, i.e. which were deleted.
+	 */
+	public synchronized void retainIdentities(Collection<String> identityIDs) {
+		final HashSet<String> retained = new HashSet<String>(identityIDs);
+
+		final Iterator<String> iter = mEntries.keySet().iterator();
+		while(iter.hasNext()) {
+			if(!retained.contains(iter.next()))
+				iter.remove();
+		}
+	}
+
+	/**
+	 * @return The expected number of new message lists of the identity since its last fetch. 0 if the identity is unknown.
+	 */
+	public synchronized double getPriority(String identityID, long now) {
+		final Entry entry = mEntries.get(identityID);
+
+		if(entry == null)
+			return 0;
+
+		double activityRate = 0;
+
+		if(entry.mActivityCount > 0) {
+			final long timespan = Math.max(entry.mLastActivity - entry.mFirstActivity, MINIMAL_ACTIVITY_TIMESPAN);
+			final long inactivity = Math.max(now - entry.mLastActivity, 0);
+			activityRate = ((double)entry.mActivityCount * DAY / timespan) / (1 + (double)inactivity / ACTIVITY_HALF_LIFE);
+		}
+
+		final long fetchInterval = Math.min(Math.max(now - entry.mLastFetch, 0), MAXIMAL_FETCH_INTERVAL);
+
+		return (activityRate + MINIMAL_ACTIVITY_RATE) * fetchInterval / DAY / (1 + entry.mFailureCount);
+	}
+
+	/**
+	 * To be called when a fetch of a message list of the identity is started. Counts the fetch.
+	 */
+	public synchronized void onFetchStarted(String identityID, long now) {
+		++mFetchCount;
+
+		final Entry entry = mEntries.get(identityID);
+		if(entry != null)
+			entry.mLastFetch = now;
+	}
+
+	/**
+	 * To be called when a message list of the identity which was not available was fetched. Counts the new list as an activity of the identity.
+	 */
+	public synchronized void onNewListFetched(String identityID, long now) {
+		++mNewListCount;
+
+		final Entry entry = mEntries.get(identityID);
+		if(entry == null)
+			return;
+
+		if(entry.mActivityCount == 0)
+			entry.mFirstActivity = now;
+		++entry.mActivityCount;
+		entry.mLastActivity = Math.max(entry.mLastActivity, now);
+		entry.mFailureCount = 0;
+	}
+
+	/**
+	 * To be called when a fetch of a message list of the identity did not find a new message list because the identity has not published
+	 * one yet. This is no failure.
+	 */
+	public synchronized void onNoNewListFound(String identityID) {
+		final Entry entry = mEntries.get(identityID);
+		if(entry != null)
+			entry.mFailureCount = 0;
+	}
+
+	/**
+	 * To be called when a fetch of a message list of the identity failed, for example because the list has fallen out of Freenet or is invalid.
+	 */
+	public synchronized void onFetchFailed(String identityID) {
+		final Entry entry = mEntries.get(identityID);
+		if(entry != null)
+			++entry.mFailureCount;
+	}
+
+	public synchronized int getIdentityCount() {
+		return mEntries.size();
+	}
+
+	/**
+	 * @return The number of fetches which were started.
+	 */
+	public synchronized long getFetchCount() {
+		return mFetchCount;
+	}
+
+	/**
+	 * @return The number of new message lists which were fetched.
+	 */
+	public synchronized long getNewListCount() {
+		return mNewListCount;
+	}
+
+	/**
+	 * @return The number of new message lists which were fetched per started fetch, 0 if no fetch was started.
+	 */
+	public synchronized double getNewListsPerFetch() {
+		return mFetchCount > 0 ? (double)mNewListCount / mFetchCount : 0;
+	}
+}
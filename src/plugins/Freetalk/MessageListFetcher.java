@@ -18,5 +18,16 @@ public abstract class MessageListFetcher extends TransferThread {
 		mIdentityManager = myIdentityManager;
 		mMessageManager = myMessageManager;
 	}
+	
+	/**
+	 * Called by the {@link MessageManager} when it has deleted a ghost message list of the given author because the retry of its failed fetch
+	 * is due. Must start a fetch of it without waiting for the next iteration.
+	 */
+	public abstract void onFetchRetryDue(FTIdentity author);
+	
+	/**
+	 * @return The controller of the number of parallel fetches of this fetcher.
+	 */
+	public abstract FetchConcurrencyController getConcurrencyController();
 
 }
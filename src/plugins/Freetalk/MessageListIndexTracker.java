@@ -0,0 +1,234 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+/**
+ * Tracks which indices of the {@link MessageList}s of an author are available in the database so that the message list fetcher can decide which
+ * index to fetch next without querying and walking all message lists of the author.
+ *
+ * A received {@link MessageList} and a ghost MessageList, which is stored for a MessageList whose fetch failed, both count as available.
+ * The tracker stores the highest available index and the indices below it which are not available as a list of ranges. As message lists are
+ * usually fetched in order, the list of ranges is short.
+ *
+ * {@link OwnMessageList}s are not counted as available because they are not fetched. Only the highest index of them is stored, for
+ * computing the index of a new OwnMessageList.
+ *
+ * The tracker is maintained by the {@link MessageManager}. It is created on demand from the existing message lists of the author.
+ */
+// @Indexed // I can't think of any query which would need to get all MessageListIndexTracker objects.
+public final class MessageListIndexTracker extends Persistent {
+
+	@Indexed
+	private final FTIdentity mAuthor;
+
+	/**
+	 * The highest index of an available message list, -1 if there is none.
+	 */
+	private int mHighestIndex = -1;
+
+	/**
+	 * The indices below mHighestIndex which are not available, as pairs of the first and last index of each range. Sorted ascending.
+	 * A new array is assigned on each modification so that db4o stores the modification.
+	 */
+	private int[] mMissingRanges = new int[0];
+
+	/**
+	 * The highest index of an {@link OwnMessageList} of the author, -1 if there is none.
+	 */
+	private int mHighestOwnIndex = -1;
+
+
+	protected MessageListIndexTracker(FTIdentity myAuthor) {
+		if(myAuthor == null)
+			throw new NullPointerException();
+
+		mAuthor = myAuthor;
+	}
+
+	/**
+	 * The activation profile of index trackers: The array of missing ranges needs a depth of 2.
+	 */
+	@Override
+	protected int getActivationDepth() {
+		return 2;
+	}
+
+	public FTIdentity getAuthor() {
+		checkedActivate(2);
+		if(mAuthor instanceof Persistent)
+			((Persistent)mAuthor).initializeTransient(mFreetalk);
+		return mAuthor;
+	}
+
+	/**
+	 * @return The index after the highest available one. This is the index where new message lists of the author are to be expected.
+	 */
+	public synchronized int getUnavailableNewIndex() {
+		checkedActivate();
+		return mHighestIndex + 1;
+	}
+
+	/**
+	 * @return The highest index which is lower than the highest available index and not available. If there is no such index, the index
+	 * 	after the highest available one. 0 if no index is available.
+	 */
+	public synchronized int getUnavailableOldIndex() {
+		checkedActivate();
+		if(mMissingRanges.length > 0)
+			return mMissingRanges[mMissingRanges.length - 1];
+
+		return mHighestIndex + 1;
+	}
+
+	/**
+	 * @return The index for a new OwnMessageList: The index after the highest index of any message list of the author.
+	 */
+	public synchronized int getFreeOwnIndex() {
+		checkedActivate();
+		return Math.max(mHighestIndex, mHighestOwnIndex) + 1;
+	}
+
+	public synchronized int getMissingRangeCount() {
+		checkedActivate();
+		return mMissingRanges.length / 2;
+	}
+
+	/**
+	 * To be called when a message list or a ghost message list of the author was stored. Does not store the tracker.
+	 */
+	protected synchronized void onListAvailable(int index) {
+		checkedActivate();
+		if(index < 0)
+			throw new IllegalArgumentException("Invalid index: " + index);
+
+		if(index > mHighestIndex) {
+			if(index > mHighestIndex + 1)
+				mMissingRanges = insertRange(mMissingRanges, mMissingRanges.length, mHighestIndex + 1, index - 1);
+
+			mHighestIndex = index;
+			return;
+		}
+
+		final int range = findRange(index);
+
+		if(range < 0)
+			return; // Available already
+
+		final int first = mMissingRanges[range];
+		final int last = mMissingRanges[range + 1];
+
+		if(first == last)
+			mMissingRanges = removeRange(mMissingRanges, range);
+		else if(index == first)
+			mMissingRanges = replaceRange(mMissingRanges, range, first + 1, last);
+		else if(index == last)
+			mMissingRanges = replaceRange(mMissingRanges, range, first, last - 1);
+		else {
+			final int[] split = replaceRange(mMissingRanges, range, first, index - 1);
+			mMissingRanges = insertRange(split, range + 2, index + 1, last);
+		}
+	}
+
+	/**
+	 * To be called when a message list or a ghost message list of the author was deleted. Does not store the tracker.
+	 */
+	protected synchronized void onListDeleted(int index) {
+		checkedActivate();
+		if(index > mHighestIndex || index < 0)
+			return;
+
+		if(index == mHighestIndex) {
+			mHighestIndex = index - 1;
+
+			// If the indices directly below the deleted one are missing, the highest available index is the one before them.
+			final int lastRange = mMissingRanges.length - 2;
+			if(lastRange >= 0 && mMissingRanges[lastRange + 1] == mHighestIndex) {
+				mHighestIndex = mMissingRanges[lastRange] - 1;
+				mMissingRanges = removeRange(mMissingRanges, lastRange);
+			}
+
+			return;
+		}
+
+		if(findRange(index) >= 0)
+			return; // Missing already
+
+		// Find the position where the range [index, index] is to be inserted and merge it with adjacent ranges.
+		int position = 0;
+		while(position < mMissingRanges.length && mMissingRanges[position] < index)
+			position += 2;
+
+		final boolean mergeWithPrevious = position > 0 && mMissingRanges[position - 1] == index - 1;
+		final boolean mergeWithNext = position < mMissingRanges.length && mMissingRanges[position] == index + 1;
+
+		if(mergeWithPrevious && mergeWithNext) {
+			final int[] merged = replaceRange(mMissingRanges, position - 2, mMissingRanges[position - 2], mMissingRanges[position + 1]);
+			mMissingRanges = removeRange(merged, position);
+		}
+		else if(mergeWithPrevious)
+			mMissingRanges = replaceRange(mMissingRanges, position - 2, mMissingRanges[position - 2], index);
+		else if(mergeWithNext)
+			mMissingRanges = replaceRange(mMissingRanges, position, index, mMissingRanges[position + 1]);
+		else
+			mMissingRanges = insertRange(mMissingRanges, position, index, index);
+	}
+
+	/**
+	 * To be called when an {@link OwnMessageList} of the author was created with the given index or its index was changed. Does not store the tracker.
+	 */
+	protected synchronized void onOwnListIndexTaken(int index) {
+		checkedActivate();
+		mHighestOwnIndex = Math.max(mHighestOwnIndex, index);
+	}
+
+	/**
+	 * @return The position in mMissingRanges of the range which contains the given index, -1 if there is none.
+	 */
+	private int findRange(int index) {
+		for(int position = mMissingRanges.length - 2; position >= 0; position -= 2) {
+			if(mMissingRanges[position] <= index)
+				return index <= mMissingRanges[position + 1] ? position : -1;
+		}
+
+		return -1;
+	}
+
+	private static int[] insertRange(int[] ranges, int position, int first, int last) {
+		final int[] result = new int[ranges.length + 2];
+		System.arraycopy(ranges, 0, result, 0, position);
+		result[position] = first;
+		result[position + 1] = last;
+		System.arraycopy(ranges, position, result, position + 2, ranges.length - position);
+		return result;
+	}
+
+	private static int[] removeRange(int[] ranges, int position) {
+		final int[] result = new int[ranges.length - 2];
+		System.arraycopy(ranges, 0, result, 0, position);
+		System.arraycopy(ranges, position + 2, result, position, ranges.length - position - 2);
+		return result;
+	}
+
+	private static int[] replaceRange(int[] ranges, int position, int first, int last) {
+		final int[] result = ranges.clone();
+		result[position] = first;
+		result[position + 1] = last;
+		return result;
+	}
+
+	protected void storeWithoutCommit() {
+		try {
+			checkedActivate();
+			throwIfNotStored(mAuthor);
+			checkedStore();
+		}
+		catch(RuntimeException e) {
+			checkedRollbackAndThrow(e);
+		}
+	}
+
+	public String toString() {
+		return super.toString() + " with highest index " + mHighestIndex + " and " + getMissingRangeCount() + " missing ranges";
+	}
+}
@@ -3,10 +3,16 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package plugins.Freetalk;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
 
@@ -15,6 +21,7 @@ import plugins.Freetalk.MessageList.MessageFetchFailedMarker;
 import plugins.Freetalk.MessageList.MessageListFetchFailedMarker;
 import plugins.Freetalk.MessageList.MessageReference;
 import plugins.Freetalk.exceptions.DuplicateBoardException;
+import plugins.Freetalk.exceptions.DuplicateElementException;
 import plugins.Freetalk.exceptions.DuplicateFetchFailedMarkerException;
 import plugins.Freetalk.exceptions.DuplicateMessageException;
 import plugins.Freetalk.exceptions.DuplicateMessageListException;
@@ -25,6 +32,7 @@ import plugins.Freetalk.exceptions.NoSuchIdentityException;
 import plugins.Freetalk.exceptions.NoSuchMessageException;
 import plugins.Freetalk.exceptions.NoSuchMessageListException;
 import plugins.Freetalk.exceptions.NoSuchMessageRatingException;
+import plugins.Freetalk.exceptions.NoSuchObjectException;
 
 import com.db4o.ObjectSet;
 import com.db4o.ext.ExtObjectContainer;
@@ -39,6 +47,24 @@ import freenet.support.Logger;
  * The MessageManager is the core connection between the UI and the backend of the plugin:
  * It is the entry point for posting messages, obtaining messages, obtaining boards, etc.
  * 
+ * Locking: Functions which only query the database are not synchronized, db4o executes queries while holding db.lock() so they never see
+ * the state of a transaction which is not committed yet. Functions which modify the database do not lock the whole MessageManager but the
+ * stripes of the identities and boards which they modify, so that operations on different boards and identities can run in parallel.
+ * If a function acquires several of the following locks, it MUST acquire them in this order:
+ * 
+ * 1. The {@link IdentityManager}.
+ * 2. The {@link plugins.Freetalk.tasks.PersistentTaskManager}.
+ * 3. This MessageManager. Only held by operations which affect the whole database: Deleting an identity and the maintenance during startup.
+ * 4. The stripe of an identity, see {@link #getIdentityLock(FTIdentity)}. Held while modifying the messages, message lists and own
+ *    messages of the identity or objects which depend on them. The stripes of several identities must be acquired in ascending order of their
+ *    indices, see {@link LockStripes}.
+ * 5. The stripe of a board, see {@link #getBoardLock(String)}. Held while modifying the {@link Board} or any of its {@link SubscribedBoard}s.
+ *    A thread never holds the stripes of several boards.
+ * 6. The objects which are modified: The Board, SubscribedBoard, Message, etc.
+ * 7. db.lock()
+ * 
+ * The locks of the internal queues of the MessageManager ({@link mMessagesToLink}, {@link mReceivedObjects}, {@link mFetchRetries}) are
+ * only held for modifying the queue, no other lock is acquired while holding them.
  * 
  * @author xor (xor@freenetproject.org)
  */
@@ -81,9 +107,98 @@ public abstract class MessageManager implements Runnable {
 	 */
 	public static final long MAXIMAL_MESSAGELIST_FETCH_RETRY_DELAY = Freetalk.FAST_DEBUG_MODE ? (1 * 60 * 1000) : (7 * 24 * 60 * 60 * 1000);  // TODO: Make configurable.
 	
+	/**
+	 * The maximal amount of messages which the {@link BoardLinker} links in before it synchronizes the affected subscribed boards.
+	 */
+	private static final int BOARD_LINKING_BATCH_SIZE = 32;
+	
+	/**
+	 * The amount of stripes of {@link mBoardLocks} and {@link mIdentityLocks}. Enough to make collisions between the boards and identities which
+	 * are modified at the same time rare.
+	 */
+	private static final int LOCK_STRIPE_COUNT = 64;
+	
+	/**
+	 * The locks of boards, by board name. See the lock hierarchy in the documentation of this class.
+	 */
+	private final LockStripes mBoardLocks = new LockStripes(LOCK_STRIPE_COUNT);
+	
+	/**
+	 * The locks of identities, by identity ID. See the lock hierarchy in the documentation of this class.
+	 */
+	private final LockStripes mIdentityLocks = new LockStripes(LOCK_STRIPE_COUNT);
+	
 	private volatile boolean isRunning = false;
 	private volatile boolean shutdownFinished = false;
 	private Thread mThread;
+	
+	/**
+	 * The IDs of downloaded messages which were not linked into their boards yet, in order of arrival. Filled by {@link onMessageReceived},
+	 * drained by the {@link BoardLinker}. Also used as the lock for {@link mBoardLinkerRunning} and {@link mBoardLinkerTerminated}.
+	 */
+	private final LinkedHashSet<String> mMessagesToLink = new LinkedHashSet<String>();
+	
+	private boolean mBoardLinkerRunning = false;
+	
+	private boolean mBoardLinkerTerminated = false;
+	
+	private final BoardLinker mBoardLinker = new BoardLinker();
+	
+	/**
+	 * The maximal amount of received objects which the {@link ReceivedObjectCommitter} stores in a single transaction.
+	 * Equal to the number of parallel message fetches of the WoTMessageFetcher.
+	 */
+	private static final int GROUP_COMMIT_BATCH_SIZE = 32;
+	
+	/**
+	 * How long the {@link ReceivedObjectCommitter} waits for further received objects before it commits a batch which is not full, in milliseconds.
+	 */
+	private static final int GROUP_COMMIT_DELAY = 20;
+	
+	/**
+	 * The downloaded messages and message lists which were not stored yet, in order of arrival. Filled by {@link onMessageReceived} and
+	 * {@link onMessageListReceived}, drained by the {@link ReceivedObjectCommitter}. Also used as the lock for the following fields.
+	 */
+	private final ArrayList<ReceivedObject> mReceivedObjects = new ArrayList<ReceivedObject>();
+	
+	private boolean mReceivedObjectCommitterRunning = false;
+	
+	private boolean mReceivedObjectCommitterTerminated = false;
+	
+	private final ReceivedObjectCommitter mReceivedObjectCommitter = new ReceivedObjectCommitter();
+	
+	/**
+	 * The number of transactions of the {@link ReceivedObjectCommitter} which were committed and the number of objects stored by them.
+	 * For logging the effectiveness of group commits. Protected by db.lock().
+	 */
+	private long mGroupCommitCount = 0;
+	
+	private long mGroupCommittedObjectCount = 0;
+
+	/**
+	 * The scheduled retries of failed fetches in order of their date, see {@link FetchRetry}. Filled from the {@link FetchFailedMarker}s by
+	 * {@link clearExpiredFetchFailedMarkers} during startup and by {@link scheduleFetchRetry} when a fetch fails, drained by the
+	 * {@link FetchRetryScheduler}. Also used as the lock for the following fields.
+	 */
+	private final PriorityQueue<FetchRetry> mFetchRetries = new PriorityQueue<FetchRetry>();
+
+	/**
+	 * The current date of each scheduled retry. Entries in {@link mFetchRetries} with a different date are outdated and are skipped.
+	 */
+	private final HashMap<FetchRetry, Long> mFetchRetryDates = new HashMap<FetchRetry, Long>();
+
+	private boolean mFetchRetrySchedulerTerminated = false;
+
+	private boolean mFetchRetrySchedulerRunning = false;
+
+	private final FetchRetryScheduler mFetchRetryScheduler = new FetchRetryScheduler();
+
+	/**
+	 * The fetchers which are notified by the {@link FetchRetryScheduler} when retries are due. Null in unit tests.
+	 */
+	private volatile MessageFetcher mMessageFetcher = null;
+
+	private volatile MessageListFetcher mMessageListFetcher = null;
 
 	public MessageManager(ExtObjectContainer myDB, IdentityManager myIdentityManager, Freetalk myFreetalk, PluginRespirator myPluginRespirator) {
 		assert(myDB != null);
@@ -97,6 +212,11 @@ public abstract class MessageManager implements Runnable {
 		mPluginRespirator = myPluginRespirator;
 		
 		deleteBrokenObjects();
+		recountSubscribedBoardsIfNecessary();
+		createIdentityStatisticsIfNecessary();
+		createMessageFetchQueueIfNecessary();
+		// Also loads the retries of the FetchFailedMarkers which are not due yet into the FetchRetryScheduler.
+		clearExpiredFetchFailedMarkers();
 		
 		// It might happen that Freetalk is shutdown after a message has been downloaded and before addMessagesToBoards was called:
 		// Then the message will still be stored but not visible in the boards because storing a message and adding it to boards are separate transactions.
@@ -114,6 +234,154 @@ public abstract class MessageManager implements Runnable {
 		mIdentityManager = mFreetalk.getIdentityManager();
 		mPluginRespirator = null;
 	}
+
+	/**
+	 * Gets the lock of the board with the given name. It protects the {@link Board} and all {@link SubscribedBoard}s of that name.
+	 * See the lock hierarchy in the documentation of this class.
+	 */
+	public Object getBoardLock(String boardName) {
+		return mBoardLocks.get(boardName.toLowerCase());
+	}
+
+	/**
+	 * Gets the lock of the given identity. It protects the messages, message lists and own messages of the identity.
+	 * See the lock hierarchy in the documentation of this class.
+	 */
+	public Object getIdentityLock(FTIdentity identity) {
+		return mIdentityLocks.get(identity.getID());
+	}
+
+	/**
+	 * Called during startup to rebuild the message counters and the message overviews of subscribed boards where they are not valid, for
+	 * example because the board was stored by a Freetalk version which did not maintain them yet.
+	 * 
+	 * This function MUST NOT be executed when any other threads could have accessed the MessageManager already.
+	 */
+	private synchronized void recountSubscribedBoardsIfNecessary() {
+		for(SubscribedBoard board : subscribedBoardIterator()) {
+			synchronized(board) {
+				if(!board.countersAreValid()) {
+					Logger.normal(this, "Rebuilding the message counters of " + board);
+					
+					synchronized(db.lock()) {
+						try {
+							board.recountMessagesWithoutCommit();
+							board.checkedCommit(this);
+						}
+						catch(RuntimeException e) {
+							Persistent.checkedRollback(db, this, e);
+						}
+					}
+				}
+				
+				if(!board.overviewsAreValid()) {
+					Logger.normal(this, "Rebuilding the message overviews of " + board);
+					
+					synchronized(db.lock()) {
+						try {
+							board.rebuildOverviewsWithoutCommit();
+							board.checkedCommit(this);
+						}
+						catch(RuntimeException e) {
+							Persistent.checkedRollback(db, this, e);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Called during startup to create the {@link IdentityStatistics} of all authors of messages if none exist, which is the case for databases of
+	 * Freetalk versions which did not have them. They are created in a single transaction so either all or none of them exist.
+	 * 
+	 * This function MUST NOT be executed when any other threads could have accessed the MessageManager already.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized void createIdentityStatisticsIfNecessary() {
+		Query q = db.query();
+		q.constrain(IdentityStatistics.class);
+		if(q.execute().size() > 0)
+			return;
+		
+		q = db.query();
+		q.constrain(Message.class);
+		q.constrain(OwnMessage.class).not();
+		final ObjectSet<Message> messages = new Persistent.InitializingObjectSet<Message>(mFreetalk, q);
+		if(messages.size() == 0)
+			return;
+		
+		Logger.normal(this, "Creating the statistics of the authors of " + messages.size() + " messages...");
+		
+		synchronized(db.lock()) {
+			try {
+				final HashMap<String, IdentityStatistics> statistics = new HashMap<String, IdentityStatistics>();
+				
+				for(Message message : messages) {
+					final FTIdentity author = message.getAuthor();
+					IdentityStatistics authorStatistics = statistics.get(author.getID());
+					
+					if(authorStatistics == null) {
+						authorStatistics = new IdentityStatistics(author);
+						authorStatistics.initializeTransient(mFreetalk);
+						statistics.put(author.getID(), authorStatistics);
+					}
+					
+					authorStatistics.onMessageStored(message);
+				}
+				
+				for(IdentityStatistics authorStatistics : statistics.values())
+					authorStatistics.storeWithoutCommit();
+				
+				Persistent.checkedCommit(db, this);
+				Logger.normal(this, "Created the statistics of " + statistics.size() + " identities.");
+			}
+			catch(RuntimeException e) {
+				Persistent.checkedRollback(db, this, e);
+			}
+		}
+	}
+	
+	/**
+	 * Called during startup to create the {@link MessageFetchQueueEntry}s of all not downloaded messages if none exist, which is the case for
+	 * databases of Freetalk versions which did not have them. They are created in a single transaction so either all or none of them exist.
+	 * 
+	 * This function MUST NOT be executed when any other threads could have accessed the MessageManager already.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized void createMessageFetchQueueIfNecessary() {
+		Query q = db.query();
+		q.constrain(MessageFetchQueueEntry.class);
+		if(q.execute().size() > 0)
+			return;
+		
+		q = db.query();
+		q.constrain(MessageList.MessageReference.class);
+		q.constrain(OwnMessageList.OwnMessageReference.class).not();
+		q.descend("mWasDownloaded").constrain(false);
+		final ObjectSet<MessageReference> references = new Persistent.InitializingObjectSet<MessageReference>(mFreetalk, q);
+		if(references.size() == 0)
+			return;
+		
+		final HashSet<String> messageIDs = new HashSet<String>();
+		for(MessageReference ref : references)
+			messageIDs.add(ref.getMessageID());
+		
+		Logger.normal(this, "Creating the fetch queue of " + messageIDs.size() + " messages...");
+		
+		synchronized(db.lock()) {
+			try {
+				for(String messageID : messageIDs)
+					updateMessageFetchQueueWithoutCommit(messageID);
+				
+				Persistent.checkedCommit(db, this);
+				Logger.normal(this, "Created the fetch queue.");
+			}
+			catch(RuntimeException e) {
+				Persistent.checkedRollback(db, this, e);
+			}
+		}
+	}
 	
 	/**
 	 * Called during startup to delete objects from the database which lack required information, such as messages with mAuthor == null.
@@ -155,6 +423,7 @@ public abstract class MessageManager implements Runnable {
 						ref.clearMessageWasDownloadedFlag();
 						ref.storeWithoutCommit();
 					}
+					updateMessageFetchQueueWithoutCommit(message.getID());
 					
 					for(Message reply : getAllRepliesToMessage(message)) {
 						reply.clearParent();
@@ -215,14 +484,12 @@ public abstract class MessageManager implements Runnable {
 			while(isRunning) {
 				Logger.debug(this, "Message manager loop running...");
 				
-				// Must be called periodically because it is not called on demand.
-				clearExpiredFetchFailedMarkers();
-				
-				// Is called on demand, normally does not fail, but we call it to make sure.
+				// New messages are linked in on demand by the BoardLinker. This is only the recovery path for messages where that failed, for example
+				// because Freetalk was shutdown before the BoardLinker processed them.
 				addMessagesToBoards();
 				
-				// Is called on demand and CAN fail because SubscribedBoard.addeMessage() tries to query the Score of the author from WoT and this can
-				// fail due to connectivity issues (and currently most likely due to bugs in PluginTalker and especially BlockingPluginTalker!)
+				// The BoardLinker synchronizes the affected subscribed boards on demand. This CAN fail because SubscribedBoard.addMessage() tries to query
+				// the Score of the author from WoT and this can fail due to connectivity issues, so we retry it here.
 				synchronizeSubscribedBoards();
 				
 				Logger.debug(this, "Message manager loop finished.");
@@ -249,12 +516,20 @@ public abstract class MessageManager implements Runnable {
 	
 	public void start() {
 		mPluginRespirator.getNode().executor.execute(this, "Freetalk " + this.getClass().getSimpleName());
+		synchronized(mFetchRetries) {
+			mFetchRetrySchedulerRunning = true;
+		}
+		mPluginRespirator.getNode().executor.execute(mFetchRetryScheduler, "Freetalk " + FetchRetryScheduler.class.getSimpleName());
 		Logger.debug(this, "Started.");
 	}
 
 	public void terminate() {
 		Logger.debug(this, "Stopping ..."); 
 		isRunning = false;
+		// Before the BoardLinker because the committer schedules the stored messages for linking.
+		terminateReceivedObjectCommitter();
+		terminateBoardLinker();
+		terminateFetchRetryScheduler();
 		mThread.interrupt();
 		synchronized(this) {
 			while(!shutdownFinished) {
@@ -306,7 +581,7 @@ public abstract class MessageManager implements Runnable {
 	}
 	
 	@SuppressWarnings("unchecked")
-	public synchronized int countUnsentMessages() {
+	public int countUnsentMessages() {
 		Query q = db.query();
 		q.constrain(OwnMessage.class);
 		q.descend("mRealURI").constrain(null).identity();
@@ -315,20 +590,27 @@ public abstract class MessageManager implements Runnable {
 		q = db.query();
 		q.constrain(OwnMessageList.class);
 		q.descend("iWasInserted").constrain(false);
-		ObjectSet<OwnMessageList> notInsertedLists = q.execute();
-		for(OwnMessageList list : notInsertedLists)
+		for(OwnMessageList list : new Persistent.InitializingObjectSet<OwnMessageList>(mFreetalk, q))
 			unsentCount += list.getMessageCount();
 		
 		return unsentCount;
 	}
 	
-	private synchronized void deleteMessage(Message message) {
+	/**
+	 * Deletes the given message from its boards and from the database. Uses multiple transactions.
+	 * 
+	 * Locks the stripe of the author of the message and then the stripe of each board of it, see the lock hierarchy in the documentation of
+	 * this class.
+	 */
+	private void deleteMessage(Message message) {
+		synchronized(getIdentityLock(message.getAuthor())) {
 		for(MessageRating rating : getAllMessageRatings(message)) {
 			// This call does a full transaction.
 			deleteMessageRating(rating);
 		}
 		
 		for(Board board : message.getBoards()) {
+			synchronized(getBoardLock(board.getName())) {
 			synchronized(board) {
 			synchronized(message) { // TODO: Check whether we actually need to lock messages. I don't think so.
 			synchronized(db.lock()) {
@@ -355,13 +637,14 @@ public abstract class MessageManager implements Runnable {
 				} catch (NoSuchMessageException e) {
 					// The message was not added to the board yet, this is normal
 				} catch(RuntimeException e) {
+					subscribedBoard.invalidateSnapshot();
 					Persistent.checkedRollbackAndThrow(db, this, e);
 				}
 				}
 				}
 				}
 			}
-			
+			}
 		}
 
 		synchronized(message) { // TODO: Check whether we actually need to lock messages. I don't think so.
@@ -374,6 +657,7 @@ public abstract class MessageManager implements Runnable {
 					ref.clearMessageWasDownloadedFlag();
 					ref.storeWithoutCommit();
 				}
+				updateMessageFetchQueueWithoutCommit(message.getID());
 				
 				for(Message reply : getAllRepliesToMessage(message)) {
 					reply.clearParent();
@@ -384,6 +668,7 @@ public abstract class MessageManager implements Runnable {
 				}
 				
 				message.deleteWithoutCommit();
+				onMessageDeletedWithoutCommit(message);
 				message.checkedCommit(this);
 			}
 			catch(RuntimeException e) {
@@ -391,12 +676,17 @@ public abstract class MessageManager implements Runnable {
 			}
 		}
 		}
+		}
 	}
 	
 	/**
 	 * Called by the {@link IdentityManager} before an identity is deleted from the database.
 	 * 
 	 * Deletes any messages and message lists referencing to it and commits the transaction.
+	 * 
+	 * Locks this MessageManager and the stripe of the identity. The ratings of an own identity are deleted before locking the stripe because
+	 * deleting a rating locks the stripe of the author of the rated message and a thread must not hold the stripes of two identities unless it
+	 * acquires them in order.
 	 */
 	public synchronized void onIdentityDeletion(FTIdentity identity) {
 		Logger.debug(this, "Deleting all objects of identity " + identity);
@@ -411,16 +701,66 @@ public abstract class MessageManager implements Runnable {
 				deleteMessageRating(messageRating);
 			}
 		}
+		
+		synchronized(getIdentityLock(identity)) {
+		// The statistics are deleted before the messages so that deleteMessage() does not update them: Deleting the oldest or newest
+		// message of the identity requires walking all its messages. If the deletion is aborted and the identity not deleted,
+		// onMessageStoredWithoutCommit() re-creates them when the next message of the identity is received.
+		synchronized(db.lock()) {
+			try {
+				getIdentityStatistics(identity).deleteWithoutCommit();
+				Persistent.checkedCommit(db, this);
+			}
+			catch(NoSuchObjectException e) { }
+			catch(RuntimeException e) {
+				Persistent.checkedRollbackAndThrow(db, this, e);
+			}
+		}
 
 		for(Message message : getMessagesBy(identity)) {
 			deleteMessage(message);
 		}
+		
+		if(identity instanceof FTOwnIdentity) {
+			// Each subscribed board is deleted in its own transaction because the stripe of the board must be locked before the database.
+			// TODO: Optimization: Use a non-sorting function.
+			for(SubscribedBoard board : subscribedBoardIteratorSortedByName((FTOwnIdentity)identity)) {
+				synchronized(getBoardLock(board.getName())) {
+				synchronized(board) {
+				synchronized(db.lock()) {
+					try {
+						board.deleteWithoutCommit();
+						board.checkedCommit(this);
+					}
+					catch(RuntimeException e) {
+						Persistent.checkedRollbackAndThrow(db, this, e);
+					}
+				}
+				}
+				}
+			}
+		}
 
 		synchronized(db.lock()) {
 			try {
+				final HashSet<String> referencedMessageIDs = new HashSet<String>();
+				
 				for(MessageList messageList : getMessageListsBy(identity)) {
+					for(MessageReference ref : messageList)
+						referencedMessageIDs.add(ref.getMessageID());
+					
 					messageList.deleteWithoutCommit();
 				}
+				
+				// MessageList.deleteWithoutCommit() deleted the queue entries of the references, re-create those of messages which are
+				// referenced by other message lists.
+				for(String messageID : referencedMessageIDs)
+					updateMessageFetchQueueWithoutCommit(messageID);
+				
+				try {
+					getMessageListIndexTracker(identity).deleteWithoutCommit();
+				}
+				catch(NoSuchObjectException e) { }
 
 				if(identity instanceof FTOwnIdentity) {
 					final FTOwnIdentity ownId = (FTOwnIdentity)identity;
@@ -435,12 +775,6 @@ public abstract class MessageManager implements Runnable {
 					for(final OwnMessageList messageList : getOwnMessageListsBy(ownId)) {
 						messageList.deleteWithoutCommit();
 					}
-					
-					// FIXME: We do not lock the boards. Ensure that the UI cannot re-use the board by calling storeAndCommit somewhere even though the board
-					// has been deleted. This can be ensured by having isStored() checks in all storeAndCommit() functions which use boards.
-					
-					for(SubscribedBoard board : subscribedBoardIteratorSortedByName((FTOwnIdentity)identity)) // TODO: Optimization: Use a non-sorting function.
-						board.deleteWithoutCommit();
 				}
 				Logger.debug(this, "Messages and message lists deleted for " + identity);
 				Persistent.checkedCommit(db, this);
@@ -449,18 +783,21 @@ public abstract class MessageManager implements Runnable {
 				Persistent.checkedRollbackAndThrow(db, this, e);
 			}
 		}
+		}
 	}
 	
 	/**
 	 * Called by the {@link MessageListInserter} implementation when the insertion of an {@link OwnMessageList} is to be started.
 	 * Has to be called before any data is pulled from the {@link OwnMessageList}: It locks the list so no further messages can be added.
-	 * Further, you have to acquire the lock on this MessageManager before calling this function and while taking data from the {@link OwnMessageList} since
-	 * the lock of the message list could be cleared and further messages could be added if you do not.
+	 * Further, you have to acquire the lock of the author of the list (see {@link #getIdentityLock(FTIdentity)}) before calling this function and
+	 * while taking data from the {@link OwnMessageList} since the lock of the message list could be cleared and further messages could be added
+	 * if you do not.
 	 * 
 	 * @param uri The URI of the {@link OwnMessageList}.
 	 * @throws NoSuchMessageListException If there is no such {@link OwnMessageList}.
 	 */
-	public synchronized void onMessageListInsertStarted(OwnMessageList list) {
+	public void onMessageListInsertStarted(OwnMessageList list) {
+		synchronized(getIdentityLock(list.getAuthor())) {
 		synchronized(db.lock()) {
 			try {
 				list.beginOfInsert();
@@ -472,6 +809,7 @@ public abstract class MessageManager implements Runnable {
 				Persistent.checkedRollbackAndThrow(db, this, e);
 			}
 		}
+		}
 	}
 	
 	/**
@@ -480,10 +818,12 @@ public abstract class MessageManager implements Runnable {
 	 * @param uri The URI of the {@link OwnMessageList}.
 	 * @throws NoSuchMessageListException If there is no such {@link OwnMessageList}.
 	 */
-	public synchronized void onMessageListInsertSucceeded(FreenetURI uri) throws NoSuchMessageListException {
+	public void onMessageListInsertSucceeded(FreenetURI uri) throws NoSuchMessageListException {
+		final OwnMessageList list = getOwnMessageList(MessageList.getIDFromURI(uri));
+		
+		synchronized(getIdentityLock(list.getAuthor())) {
 		synchronized(db.lock()) {
 			try {
-				OwnMessageList list = getOwnMessageList(MessageList.getIDFromURI(uri));
 				list.markAsInserted();
 				list.checkedCommit(this);
 			}
@@ -491,6 +831,7 @@ public abstract class MessageManager implements Runnable {
 				Persistent.checkedRollbackAndThrow(db, this, e);
 			}
 		}
+		}
 	}
 	
 	/**
@@ -503,9 +844,27 @@ public abstract class MessageManager implements Runnable {
 	 */
 	public abstract void onMessageListInsertFailed(FreenetURI uri, boolean collision) throws NoSuchMessageListException;
 	
-	public synchronized void onMessageReceived(Message message) {
+	/**
+	 * Queues the given downloaded message for being stored by the {@link ReceivedObjectCommitter}. The message is not stored yet when this
+	 * function returns, except in unit tests, where there is no node to execute the committer.
+	 * 
+	 * @param listener Is notified when the transaction which stored the message was committed. Can be null.
+	 */
+	public void onMessageReceived(Message message, ReceivedObjectListener listener) {
 		message.initializeTransient(mFreetalk);
-		
+		queueReceivedObject(message, listener);
+	}
+	
+	public void onMessageReceived(Message message) {
+		onMessageReceived(message, null);
+	}
+	
+	/**
+	 * Stores a received message and marks the references to it as downloaded. Called by the {@link ReceivedObjectCommitter}.
+	 * 
+	 * You have to lock the stripe of the author of the message and the database before calling this function.
+	 */
+	private void storeReceivedMessageWithoutCommit(Message message) {
 		boolean wasDownloadedAlready;
 		try {
 			get(message.getID());
@@ -516,36 +875,137 @@ public abstract class MessageManager implements Runnable {
 			wasDownloadedAlready = false;
 		}
 		
-		synchronized(db.lock()) {
+		if(!wasDownloadedAlready) {
+			message.storeWithoutCommit();
+			onMessageStoredWithoutCommit(message);
+			prioritizeParentsWithoutCommit(message);
+		}
+		
+		// We also try to mark the message as downloaded if it was fetched already to ensure that its not being fetched over and over again.
+		// References of message lists which are stored afterwards are marked by queueMessagesWithoutCommit().
+
+		for(MessageReference ref : getAllReferencesToMessage(message.getID())) {
 			try {
-				if(!wasDownloadedAlready) {
-					message.storeWithoutCommit();
+				getMessageFetchFailedMarker(ref).deleteWithoutCommit();
+				Logger.normal(this, "Deleted a FetchFailedMarker for the message.");
+			} catch(NoSuchFetchFailedMarkerException e1) { }
+			
+			ref.setMessageWasDownloadedFlag();
+			ref.storeWithoutCommit();
+		}
+		
+		updateMessageFetchQueueWithoutCommit(message.getID());
+	}
+	
+	/**
+	 * Queues the given message for being linked into its boards and the subscribed boards by the {@link BoardLinker}. Starts the BoardLinker if
+	 * it is not running. In unit tests, where there is no node to execute it, the message is linked in before this function returns.
+	 */
+	private void scheduleLinking(String messageID) {
+		synchronized(mMessagesToLink) {
+			if(mBoardLinkerTerminated)
+				return; // The message will be linked in by addMessagesToBoards() at the next startup.
+			
+			mMessagesToLink.add(messageID);
+			
+			if(mBoardLinkerRunning)
+				return;
+			
+			mBoardLinkerRunning = true;
+		}
+		
+		if(mPluginRespirator != null)
+			mPluginRespirator.getNode().executor.execute(mBoardLinker, "Freetalk " + BoardLinker.class.getSimpleName());
+		else
+			mBoardLinker.run();
+	}
+	
+	/**
+	 * Prevents the {@link BoardLinker} from processing further batches and waits until it has finished the current one.
+	 */
+	private void terminateBoardLinker() {
+		synchronized(mMessagesToLink) {
+			mBoardLinkerTerminated = true;
+			
+			while(mBoardLinkerRunning) {
+				try {
+					mMessagesToLink.wait();
+				} catch (InterruptedException e) {
+					Thread.interrupted();
 				}
-				
-				// We also try to mark the message as downloaded if it was fetched already to ensure that its not being fetched over and over again.
-				// TODO: Change the message list downloading code to check whethe messages were downloaded already when importing the lists...
-
-				for(MessageReference ref : getAllReferencesToMessage(message.getID())) {
-					try {
-						getMessageFetchFailedMarker(ref).deleteWithoutCommit();
-						Logger.normal(this, "Deleted a FetchFailedMarker for the message.");
-					} catch(NoSuchFetchFailedMarkerException e1) { }
+			}
+		}
+	}
+	
+	/**
+	 * Links the messages which were queued by {@link scheduleLinking} into their boards and synchronizes the affected subscribed boards.
+	 * Processes the queue in batches of {@link BOARD_LINKING_BATCH_SIZE} messages. Runs until the queue is empty.
+	 * 
+	 * Messages for which linking fails stay marked as not linked in and are processed by the periodic addMessagesToBoards() of the MessageManager thread.
+	 */
+	private final class BoardLinker implements Runnable {
+		
+		public void run() {
+			try {
+				while(true) {
+					final ArrayList<String> batch = new ArrayList<String>(BOARD_LINKING_BATCH_SIZE);
 					
-					ref.setMessageWasDownloadedFlag();
-					ref.storeWithoutCommit();
+					synchronized(mMessagesToLink) {
+						if(mBoardLinkerTerminated || mMessagesToLink.isEmpty())
+							return;
+						
+						final Iterator<String> iter = mMessagesToLink.iterator();
+						while(iter.hasNext() && batch.size() < BOARD_LINKING_BATCH_SIZE) {
+							batch.add(iter.next());
+							iter.remove();
+						}
+					}
+					
+					linkMessages(batch);
 				}
-
-				Persistent.checkedCommit(db, this);
 			}
-			catch(Exception ex) {
-				Persistent.checkedRollback(db, this, ex);
+			catch(RuntimeException e) {
+				Logger.error(this, "Linking messages into boards failed", e);
+			}
+			finally {
+				synchronized(mMessagesToLink) {
+					mBoardLinkerRunning = false;
+					mMessagesToLink.notifyAll();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Links the given messages into their boards and synchronizes the subscribed boards of those boards.
+	 * Only the given messages are processed, the database is not searched for other not linked in messages.
+	 */
+	private void linkMessages(List<String> messageIDs) {
+		final HashSet<String> affectedBoards = new HashSet<String>();
+		
+		for(String messageID : messageIDs) {
+			final Message message;
+			
+			try {
+				message = get(messageID);
+			}
+			catch(NoSuchMessageException e) {
+				continue; // The message was deleted in the meantime, for example because its author was deleted.
+			}
+			
+			if(message.wasLinkedIn())
+				continue;
+			
+			if(addMessageToBoards(message)) {
+				for(Board board : message.getBoards())
+					affectedBoards.add(board.getName());
 			}
 		}
 		
-		// TODO: Instead of calling it immediately, schedule it to be executed in a few seconds. So if we receive a bunch of messages at once, they'll
-		// be bulk-added.
-		if(addMessagesToBoards())
-			synchronizeSubscribedBoards();
+		for(String boardName : affectedBoards) {
+			for(SubscribedBoard board : subscribedBoardIterator(boardName))
+				synchronizeSubscribedBoard(board);
+		}
 	}
 	
 	/**
@@ -553,7 +1013,7 @@ public abstract class MessageManager implements Runnable {
 	 * @return True if there was at least one message which was linked in. False if no new messages were discovered.
 	 */
 	@SuppressWarnings("unchecked")
-	private synchronized boolean addMessagesToBoards() {
+	private boolean addMessagesToBoards() {
 		Logger.normal(this, "Adding messages to boards...");
 		
 		Query q = db.query();
@@ -565,35 +1025,8 @@ public abstract class MessageManager implements Runnable {
 		boolean addedMessages = false;
 		
 		for(Message message : invisibleMessages) {
-			boolean allSuccessful = true;
-			
-			for(Board board : message.getBoards()) {
-				synchronized(board) {
-				synchronized(message) {
-				synchronized(db.lock()) {
-					try {
-						Logger.debug(this, "Adding message to board: " + message);
-						board.addMessage(message);
-						board.checkedCommit(this);
-						addedMessages = true;
-					}
-					catch(Exception e) {
-						allSuccessful = false;
-						Persistent.checkedRollback(db, this, e);			
-					}
-				}
-				}
-				}
-			}
-			
-			if(allSuccessful) {
-				synchronized(message) {
-				synchronized(db.lock()) {
-					message.setLinkedIn(true);
-					message.storeAndCommit();
-				}
-				}
-			}
+			if(addMessageToBoards(message))
+				addedMessages = true;
 		}
 		
 		Logger.normal(this, "Finished adding messages to boards.");
@@ -601,34 +1034,109 @@ public abstract class MessageManager implements Runnable {
 		return addedMessages;
 	}
 	
-	private synchronized void synchronizeSubscribedBoards() {
-		Logger.normal(this, "Synchronizing subscribed boards...");
+	/**
+	 * Adds the given message to all of its boards. Marks it as linked in if this succeeded for all boards.
+	 * 
+	 * Locks the stripe of the author of the message so that the message cannot be deleted meanwhile and the stripe of each board while
+	 * adding the message to it.
+	 * 
+	 * @return True if the message was added to at least one board.
+	 */
+	private boolean addMessageToBoards(Message message) {
+		synchronized(getIdentityLock(message.getAuthor())) {
+		if(!db.isStored(message))
+			return false; // The message was deleted after the caller queried it, for example because its author was deleted.
 		
-		for(SubscribedBoard board : subscribedBoardIterator()) {
-			// No need to lock the parent board because we do not modify it and we've locked the MessageManager which prevents writes to the parent board.
-			// synchronized(board.getParentBoard()) {
+		boolean addedMessage = false;
+		boolean allSuccessful = true;
+		
+		for(Board board : message.getBoards()) {
+			synchronized(getBoardLock(board.getName())) {
 			synchronized(board) {
+			synchronized(message) {
 			synchronized(db.lock()) {
 				try {
-					board.synchronizeWithoutCommit();
+					Logger.debug(this, "Adding message to board: " + message);
+					board.addMessage(message);
 					board.checkedCommit(this);
+					addedMessage = true;
 				}
 				catch(Exception e) {
-					Persistent.checkedRollback(db, this, e);
+					allSuccessful = false;
+					Persistent.checkedRollback(db, this, e);			
 				}
 			}
 			}
-			// }
-			
+			}
+			}
+		}
+		
+		if(allSuccessful) {
+			synchronized(message) {
+			synchronized(db.lock()) {
+				message.setLinkedIn(true);
+				message.storeAndCommit();
+			}
+			}
+		}
+		
+		return addedMessage;
+		}
+	}
+	
+	private void synchronizeSubscribedBoards() {
+		Logger.normal(this, "Synchronizing subscribed boards...");
+		
+		for(SubscribedBoard board : subscribedBoardIterator()) {
+			synchronizeSubscribedBoard(board);
 			Thread.yield();
 		}
 		
 		Logger.normal(this, "Finished synchronizing subscribed boards.");
 	}
 	
-	public synchronized void onMessageListReceived(MessageList list) {
-		list.initializeTransient(mFreetalk);
+	private void synchronizeSubscribedBoard(SubscribedBoard board) {
+		// No need to lock the parent board because we do not modify it and the stripe of the board prevents writes to the parent board.
+		synchronized(getBoardLock(board.getName())) {
+		if(!db.isStored(board))
+			return; // The subscription was removed after the caller queried it.
 		
+		synchronized(board) {
+		synchronized(db.lock()) {
+			try {
+				board.synchronizeWithoutCommit();
+				board.checkedCommit(this);
+			}
+			catch(Exception e) {
+				board.invalidateSnapshot();
+				Persistent.checkedRollback(db, this, e);
+			}
+		}
+		}
+		}
+	}
+	
+	/**
+	 * Queues the given downloaded message list for being stored by the {@link ReceivedObjectCommitter}. The list is not stored yet when this
+	 * function returns, except in unit tests, where there is no node to execute the committer.
+	 * 
+	 * @param listener Is notified when the transaction which stored the list was committed. Can be null.
+	 */
+	public void onMessageListReceived(MessageList list, ReceivedObjectListener listener) {
+		list.initializeTransient(mFreetalk);
+		queueReceivedObject(list, listener);
+	}
+	
+	public void onMessageListReceived(MessageList list) {
+		onMessageListReceived(list, null);
+	}
+	
+	/**
+	 * Stores a received message list and deletes the fetch failed marker and ghost list of it. Called by the {@link ReceivedObjectCommitter}.
+	 * 
+	 * You have to lock the stripe of the author of the list and the database before calling this function.
+	 */
+	private void storeReceivedMessageListWithoutCommit(MessageList list) {
 		synchronized(list) {
 		MessageListFetchFailedMarker marker;
 		MessageList ghostList;
@@ -652,26 +1160,314 @@ public abstract class MessageManager implements Runnable {
 			ghostList = null;
 		}
 
-		synchronized(db.lock()) {
+		if(marker != null) {
+			marker.deleteWithoutCommit();
+			Logger.normal(this, "Deleted a FetchFailedMarker for the MessageList.");
+			
+			if(ghostList != null) {
+				Logger.error(this, "MessageList was fetched even though a ghost list existed for it! Deleting the ghost list: " + ghostList);
+				ghostList.deleteWithoutCommit();
+			}
+		}
+		
+		// The references are not stored yet so a rolled back transaction which stored the list before cannot be undone by refreshing them:
+		// They might still be marked as downloaded by it. queueMessagesWithoutCommit() marks those of the messages which we have.
+		for(MessageReference ref : list)
+			ref.clearMessageWasDownloadedFlag();
+		
+		list.storeWithoutCommit();
+		onMessageListStoredWithoutCommit(list);
+		queueMessagesWithoutCommit(list);
+		}
+	}
+	
+	/**
+	 * Notified by the {@link ReceivedObjectCommitter} about the outcome of storing a received {@link Message} or {@link MessageList}.
+	 */
+	public interface ReceivedObjectListener {
+		
+		/**
+		 * Called after the transaction which stored the object was committed or rolled back. Called without holding any locks.
+		 * 
+		 * @param object The received object.
+		 * @param success False if storing the object failed. Then the object is not stored.
+		 */
+		public void onReceivedObjectCommitted(Persistent object, boolean success);
+		
+	}
+	
+	private static final class ReceivedObject {
+		
+		private final Persistent mObject;
+		
+		private final ReceivedObjectListener mListener;
+		
+		private boolean mSuccess = false;
+		
+		private ReceivedObject(Persistent myObject, ReceivedObjectListener myListener) {
+			mObject = myObject;
+			mListener = myListener;
+		}
+	}
+	
+	private void queueReceivedObject(Persistent object, ReceivedObjectListener listener) {
+		queueReceivedObjects(Collections.singletonList(object), listener);
+	}
+	
+	/**
+	 * Queues the given received messages and message lists at once, so the {@link ReceivedObjectCommitter} stores them in a single
+	 * transaction if there are no more than {@link GROUP_COMMIT_BATCH_SIZE}.
+	 * 
+	 * For unit tests: There the committer runs before onMessageReceived() returns, so it only gets batches of a single object otherwise.
+	 */
+	protected void onObjectsReceived(List<? extends Persistent> objects, ReceivedObjectListener listener) {
+		for(Persistent object : objects)
+			object.initializeTransient(mFreetalk);
+		
+		queueReceivedObjects(objects, listener);
+	}
+	
+	/**
+	 * Queues the given received objects for the {@link ReceivedObjectCommitter} and starts it if it is not running. In unit tests, where there
+	 * is no node to execute it, the objects are committed before this function returns.
+	 */
+	private void queueReceivedObjects(List<? extends Persistent> objects, ReceivedObjectListener listener) {
+		final boolean terminated;
+		
+		synchronized(mReceivedObjects) {
+			terminated = mReceivedObjectCommitterTerminated;
+			
+			if(!terminated) {
+				for(Persistent object : objects)
+					mReceivedObjects.add(new ReceivedObject(object, listener));
+				
+				if(mReceivedObjects.size() >= GROUP_COMMIT_BATCH_SIZE)
+					mReceivedObjects.notifyAll(); // Wake up the committer if it is waiting for further objects.
+				
+				if(mReceivedObjectCommitterRunning)
+					return;
+				
+				mReceivedObjectCommitterRunning = true;
+			}
+		}
+		
+		if(terminated) {
+			for(Persistent object : objects) {
+				Logger.normal(this, "Shutting down, not storing received object: " + object);
+				if(listener != null)
+					listener.onReceivedObjectCommitted(object, false);
+			}
+			return;
+		}
+		
+		if(mPluginRespirator != null)
+			mPluginRespirator.getNode().executor.execute(mReceivedObjectCommitter, "Freetalk " + ReceivedObjectCommitter.class.getSimpleName());
+		else
+			mReceivedObjectCommitter.run();
+	}
+	
+	/**
+	 * Prevents further objects from being queued and waits until the {@link ReceivedObjectCommitter} has committed the queued ones.
+	 */
+	private void terminateReceivedObjectCommitter() {
+		synchronized(mReceivedObjects) {
+			mReceivedObjectCommitterTerminated = true;
+			mReceivedObjects.notifyAll();
+			
+			while(mReceivedObjectCommitterRunning) {
 				try {
-					if(marker != null) {
-						marker.deleteWithoutCommit();
-						Logger.normal(this, "Deleted a FetchFailedMarker for the MessageList.");
+					mReceivedObjects.wait();
+				} catch (InterruptedException e) {
+					Thread.interrupted();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stores the objects which were queued by {@link onMessageReceived} and {@link onMessageListReceived}.
+	 * 
+	 * Fetches finish in bursts, so instead of committing each object in its own transaction, the committer waits up to
+	 * {@link GROUP_COMMIT_DELAY} milliseconds for further objects and stores up to {@link GROUP_COMMIT_BATCH_SIZE} objects in a single transaction.
+	 * This saves most of the disk syncs of the commits. Runs until the queue is empty.
+	 */
+	private final class ReceivedObjectCommitter implements Runnable {
+		
+		public void run() {
+			try {
+				while(true) {
+					final ArrayList<ReceivedObject> batch = new ArrayList<ReceivedObject>(GROUP_COMMIT_BATCH_SIZE);
+					
+					synchronized(mReceivedObjects) {
+						if(mReceivedObjects.isEmpty())
+							return;
+						
+						// Wait for further objects. Not in unit tests, there the objects are committed before onMessageReceived() returns.
+						if(mPluginRespirator != null) {
+							final long deadline = System.currentTimeMillis() + GROUP_COMMIT_DELAY;
+							long delay = GROUP_COMMIT_DELAY;
+							
+							while(!mReceivedObjectCommitterTerminated && mReceivedObjects.size() < GROUP_COMMIT_BATCH_SIZE && delay > 0) {
+								try {
+									mReceivedObjects.wait(delay);
+								} catch (InterruptedException e) {
+									Thread.interrupted();
+								}
+								delay = deadline - System.currentTimeMillis();
+							}
+						}
 						
-						if(ghostList != null) {
-							Logger.error(this, "MessageList was fetched even though a ghost list existed for it! Deleting the ghost list: " + ghostList);
-							ghostList.deleteWithoutCommit();
+						final Iterator<ReceivedObject> iter = mReceivedObjects.iterator();
+						while(iter.hasNext() && batch.size() < GROUP_COMMIT_BATCH_SIZE) {
+							batch.add(iter.next());
+							iter.remove();
 						}
 					}
 					
-					list.storeWithoutCommit();
-					list.checkedCommit(this);
+					commitReceivedObjects(batch);
+					
+					for(ReceivedObject received : batch) {
+						if(received.mListener == null)
+							continue;
+						
+						try {
+							received.mListener.onReceivedObjectCommitted(received.mObject, received.mSuccess);
+						}
+						catch(RuntimeException e) {
+							Logger.error(this, "ReceivedObjectListener failed", e);
+						}
+					}
 				}
-				catch(RuntimeException ex) {
-					Persistent.checkedRollback(db, this, ex);
+			}
+			catch(RuntimeException e) {
+				Logger.error(this, "Storing received objects failed", e);
+			}
+			finally {
+				synchronized(mReceivedObjects) {
+					mReceivedObjectCommitterRunning = false;
+					mReceivedObjects.notifyAll();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stores the given received objects in a single transaction. If that fails, each object is stored in its own transaction so that an object
+	 * which cannot be stored does not prevent the others from being stored. Sets the success flag of each object and schedules the stored
+	 * messages for linking.
+	 * 
+	 * Locks the stripes of the authors of the objects so that they cannot be deleted meanwhile, see the lock hierarchy in the documentation of
+	 * this class. Only those, so fetches of messages of different identities do not wait for each other.
+	 */
+	private void commitReceivedObjects(List<ReceivedObject> batch) {
+		final HashSet<String> authorIDs = new HashSet<String>();
+		
+		for(ReceivedObject received : batch) {
+			final FTIdentity author = (received.mObject instanceof Message) ? 
+					((Message)received.mObject).getAuthor() : ((MessageList)received.mObject).getAuthor();
+			authorIDs.add(author.getID());
+		}
+		
+		final List<String> storedMessageIDs = storeReceivedObjects(batch, mIdentityLocks.getStripeIndices(authorIDs), 0);
+		
+		// Not while holding the stripes: In unit tests the BoardLinker runs in this thread and it locks the stripes of the authors itself.
+		for(String messageID : storedMessageIDs)
+			scheduleLinking(messageID);
+	}
+	
+	/**
+	 * Locks the given stripes of {@link mIdentityLocks}, beginning at the given position of the array, and then stores the given received
+	 * objects. Acquires the stripes in the order of the array, which must be ascending.
+	 * 
+	 * @return The IDs of the stored messages.
+	 */
+	private List<String> storeReceivedObjects(List<ReceivedObject> batch, int[] identityStripes, int firstStripe) {
+		if(firstStripe < identityStripes.length) {
+			synchronized(mIdentityLocks.getStripe(identityStripes[firstStripe])) {
+				return storeReceivedObjects(batch, identityStripes, firstStripe + 1);
+			}
+		}
+		
+		final ArrayList<String> storedMessageIDs = new ArrayList<String>(batch.size());
+		// The objects which are modified by a failed transaction must be reloaded before they are used by the next one, see the recorder.
+		final Persistent.TransactionRecorder recorder = mFreetalk.getTransactionRecorder();
+		
+		synchronized(db.lock()) {
+			recorder.start();
+			try {
+				for(ReceivedObject received : batch)
+					storeReceivedObjectWithoutCommit(received.mObject, storedMessageIDs);
+				
+				Persistent.checkedCommit(db, this);
+				
+				for(ReceivedObject received : batch)
+					received.mSuccess = true;
+				
+				++mGroupCommitCount;
+				mGroupCommittedObjectCount += batch.size();
+				Logger.debug(this, "Committed " + batch.size() + " received objects in one transaction. Average: " 
+						+ ((float)mGroupCommittedObjectCount / mGroupCommitCount) + " objects per commit.");
+			}
+			catch(RuntimeException e) {
+				Persistent.checkedRollback(db, this, e);
+				recorder.refreshRecordedObjects(db);
+				storedMessageIDs.clear();
+			}
+			finally {
+				recorder.stop();
+			}
+		}
+		
+		if(batch.size() > 1 && !batch.get(0).mSuccess) {
+			Logger.normal(this, "Storing " + batch.size() + " received objects in one transaction failed, storing them separately...");
+			
+			for(ReceivedObject received : batch) {
+				synchronized(db.lock()) {
+					final int storedMessageCount = storedMessageIDs.size();
+					
+					recorder.start();
+					try {
+						storeReceivedObjectWithoutCommit(received.mObject, storedMessageIDs);
+						Persistent.checkedCommit(db, this);
+						received.mSuccess = true;
+					}
+					catch(RuntimeException e) {
+						Persistent.checkedRollback(db, this, e);
+						recorder.refreshRecordedObjects(db);
+						
+						while(storedMessageIDs.size() > storedMessageCount)
+							storedMessageIDs.remove(storedMessageIDs.size() - 1);
+					}
+					finally {
+						recorder.stop();
+					}
 				}
+			}
 		}
+		
+		return storedMessageIDs;
+	}
+	
+	/**
+	 * @param storedMessageIDs If the object is a message, its ID is added to this list.
+	 */
+	private void storeReceivedObjectWithoutCommit(Persistent object, List<String> storedMessageIDs) {
+		if(object instanceof Message) {
+			final Message message = (Message)object;
+			
+			if(storedMessageIDs.contains(message.getID())) {
+				Logger.error(this, "Downloaded a message twice: " + message.getURI());
+				return;
+			}
+			
+			storeReceivedMessageWithoutCommit(message);
+			// Also linked in if we had it already: Linking in does nothing if it was linked in already.
+			storedMessageIDs.add(message.getID());
 		}
+		else if(object instanceof MessageList)
+			storeReceivedMessageListWithoutCommit((MessageList)object);
+		else
+			throw new IllegalArgumentException("Not a received object: " + object);
 	}
 	
 	/**
@@ -680,7 +1476,12 @@ public abstract class MessageManager implements Runnable {
 	 */
 	public abstract void onMessageListFetchFailed(FTIdentity author, FreenetURI uri, FetchFailedMarker.Reason reason);
 	
-	public synchronized void onMessageFetchFailed(MessageReference messageReference, FetchFailedMarker.Reason reason) {
+	/**
+	 * Locks the stripe of the author of the message so that the {@link ReceivedObjectCommitter} cannot store the message between the check
+	 * whether we have it and marking it as fetch failed.
+	 */
+	public void onMessageFetchFailed(MessageReference messageReference, FetchFailedMarker.Reason reason) {
+		synchronized(getIdentityLock(messageReference.getMessageList().getAuthor())) {
 		try {
 			get(messageReference.getMessageID());
 			Logger.debug(this, "Trying to mark a message as 'download failed' which we actually have: " + messageReference.getURI());
@@ -689,6 +1490,7 @@ public abstract class MessageManager implements Runnable {
 			synchronized(db.lock()) {
 			try {				
 				Date date = CurrentTimeUTC.get();
+				Date earliestDateOfNextRetry = null;
 				
 				for(MessageReference ref : getAllReferencesToMessage(messageReference.getMessageID())) {
 					MessageList.MessageFetchFailedMarker failedMarker;
@@ -709,21 +1511,28 @@ public abstract class MessageManager implements Runnable {
 					ref.setMessageWasDownloadedFlag();
 					ref.storeWithoutCommit();
 					failedMarker.storeWithoutCommit();
-				
+					
+					if(earliestDateOfNextRetry == null || failedMarker.getDateOfNextRetry().before(earliestDateOfNextRetry))
+						earliestDateOfNextRetry = failedMarker.getDateOfNextRetry();
 					
 					Logger.normal(this, "Marked message as download failed with reason " + reason + " (next retry is at " + failedMarker.getDateOfNextRetry()
 							+ ", number of retries: " + failedMarker.getNumberOfRetries() + "): "
 							+  messageReference.getURI());
 				}
 				
+				updateMessageFetchQueueWithoutCommit(messageReference.getMessageID());
 				
 				Persistent.checkedCommit(db, this);
+				
+				if(earliestDateOfNextRetry != null)
+					scheduleFetchRetry(new FetchRetry(false, messageReference.getMessageID()), earliestDateOfNextRetry);
 			}
 			catch(RuntimeException ex) {
 				Persistent.checkedRollback(db, this, ex);
 			}
 			}
 		}
+		}
 	}
 	
 	protected Date calculateDateOfNextMessageFetchRetry(FetchFailedMarker.Reason reason, Date now, int numberOfRetries) {
@@ -782,84 +1591,451 @@ public abstract class MessageManager implements Runnable {
 		@SuppressWarnings("unchecked")
 		final ObjectSet<MessageListFetchFailedMarker> markers = q.execute();
 		
-		switch(markers.size()) {
-			case 1:
-				final MessageListFetchFailedMarker result = markers.next();
-				result.initializeTransient(mFreetalk);
-				return result;
-			case 0:
-				throw new NoSuchFetchFailedMarkerException(messageListID);
-			default:
-				throw new DuplicateFetchFailedMarkerException(messageListID);
+		switch(markers.size()) {
+			case 1:
+				final MessageListFetchFailedMarker result = markers.next();
+				result.initializeTransient(mFreetalk);
+				return result;
+			case 0:
+				throw new NoSuchFetchFailedMarkerException(messageListID);
+			default:
+				throw new DuplicateFetchFailedMarkerException(messageListID);
+		}
+	}
+	
+	/**
+	 * Retries the fetches of all {@link FetchFailedMarker}s whose date of next retry has passed and schedules the retries of the other ones
+	 * with {@link scheduleFetchRetry}. Called during startup: Afterwards, the retries are done by the {@link FetchRetryScheduler} when they
+	 * are due, so the markers do not have to be queried periodically.
+	 * 
+	 * Only for being used by the MessageManager itself and by unit tests.
+	 */
+	protected synchronized void clearExpiredFetchFailedMarkers() {
+		Logger.normal(this, "Clearing expired FetchFailedMarkers...");
+	
+		Date now = CurrentTimeUTC.get();
+		
+		int amount = 0;
+		
+		for(FetchFailedMarker marker : getFetchFailedMarkers(now)) {
+			synchronized(db.lock()) {
+				try {
+					retryFetchWithoutCommit(marker);
+					++amount;
+					
+					Logger.debug(this, "Cleared marker " + marker);
+					marker.checkedCommit(this);
+				}
+				catch(RuntimeException e) {
+					Persistent.checkedRollback(db, this, e);
+				}
+			}
+		}
+		
+		Logger.normal(this, "Finished clearing " + amount + " expired FetchFailedMarkers.");
+		
+		amount = 0;
+		
+		for(FetchFailedMarker marker : getNonExpiredFetchFailedMarkers(now)) {
+			final Date dateOfNextRetry = marker.getDateOfNextRetry();
+			
+			if(marker instanceof MessageFetchFailedMarker) {
+				scheduleFetchRetry(new FetchRetry(false, ((MessageFetchFailedMarker)marker).getMessageReference().getMessageID()), dateOfNextRetry);
+			} else if(marker instanceof MessageListFetchFailedMarker) {
+				final String messageListID = ((MessageListFetchFailedMarker)marker).getMessageListID();
+				
+				try {
+					getMessageList(messageListID);
+				} catch(NoSuchMessageListException e) {
+					Logger.error(this, "Invalid MessageListFetchFailedMarker: Date of next retry is in future but there is no ghost message list for it: " + marker);
+				}
+				
+				scheduleFetchRetry(new FetchRetry(true, messageListID), dateOfNextRetry);
+			} else {
+				Logger.error(this, "Unknown FetchFailedMarker type: " + marker);
+				continue;
+			}
+			
+			++amount;
+		}
+		
+		Logger.normal(this, "Number of non-expired FetchFailedMarkers: " + amount);
+	}
+	
+	/**
+	 * Makes the fetchers retry the fetch of the given marker: For a {@link MessageFetchFailedMarker}, the message is marked as not downloaded.
+	 * For a {@link MessageListFetchFailedMarker}, the ghost message list is deleted. The marker itself is kept so that the number of retries
+	 * is known if the fetch fails again.
+	 * 
+	 * You have to lock the database before calling this function.
+	 * 
+	 * @return The author of the message list if the marker is a MessageListFetchFailedMarker whose ghost list was deleted, null otherwise.
+	 */
+	private FTIdentity retryFetchWithoutCommit(FetchFailedMarker marker) {
+		if(marker instanceof MessageFetchFailedMarker) {
+			MessageFetchFailedMarker m = (MessageFetchFailedMarker)marker;
+			MessageReference ref = m.getMessageReference();
+			ref.clearMessageWasDownloadedFlag();
+			ref.storeWithoutCommit();
+			updateMessageFetchQueueWithoutCommit(ref.getMessageID());
+		} else if(marker instanceof MessageListFetchFailedMarker) {
+			MessageListFetchFailedMarker m = (MessageListFetchFailedMarker)marker;
+			try {
+				final MessageList ghostList = getMessageList(m.getMessageListID());
+				final FTIdentity author = ghostList.getAuthor();
+				final MessageListIndexTracker indices = getOrCreateMessageListIndexTrackerWithoutCommit(author);
+				ghostList.deleteWithoutCommit();
+				m.storeWithoutCommit(); // MessageList.deleteWithoutCommit deletes it.
+				indices.onListDeleted(ghostList.getIndex());
+				indices.storeWithoutCommit();
+				return author;
+			}
+			catch(NoSuchMessageListException e) {
+				// The marker was already processed.
+			}
+		} else
+			Logger.error(this, "Unknown FetchFailedMarker type: " + marker);
+		
+		return null;
+	}
+	
+	/**
+	 * Schedules the retry of a failed fetch for the given date. A retry which was scheduled before for the same message or message list
+	 * is replaced. Retries with the date of {@link Long#MAX_VALUE}, i.e. which shall never be done, are not scheduled.
+	 * 
+	 * Must only be called after the {@link FetchFailedMarker}s were committed: The {@link FetchRetryScheduler} retries the fetches of the
+	 * markers which are due in the database when the retry is due, so a retry of a marker which was rolled back does nothing.
+	 */
+	private void scheduleFetchRetry(FetchRetry retry, Date dateOfNextRetry) {
+		final long date = dateOfNextRetry.getTime();
+		
+		if(date == Long.MAX_VALUE)
+			return;
+		
+		synchronized(mFetchRetries) {
+			final Long previousDate = mFetchRetryDates.put(retry, date);
+			if(previousDate != null && previousDate == date)
+				return;
+			
+			retry.mDate = date;
+			mFetchRetries.add(retry);
+			
+			if(mFetchRetries.peek() == retry)
+				mFetchRetries.notifyAll(); // The scheduler must wake up earlier than it had planned.
+		}
+	}
+	
+	/**
+	 * Schedules the retry of the fetch of the given message list, see {@link scheduleFetchRetry}. To be called by the implementation of
+	 * {@link onMessageListFetchFailed} after it has committed the {@link MessageListFetchFailedMarker}.
+	 */
+	protected void scheduleMessageListFetchRetry(String messageListID, Date dateOfNextRetry) {
+		scheduleFetchRetry(new FetchRetry(true, messageListID), dateOfNextRetry);
+	}
+	
+	/**
+	 * @return The date of the earliest scheduled retry of a failed fetch, null if there is none. For unit tests.
+	 */
+	protected Date getDateOfNextFetchRetry() {
+		synchronized(mFetchRetries) {
+			final FetchRetry retry = pollOutdatedFetchRetries();
+			return retry != null ? new Date(retry.mDate) : null;
+		}
+	}
+	
+	/**
+	 * Removes the outdated retries from the head of {@link mFetchRetries}. You have to synchronize on mFetchRetries when using this function.
+	 * 
+	 * @return The earliest retry which is not outdated, null if there is none.
+	 */
+	private FetchRetry pollOutdatedFetchRetries() {
+		FetchRetry retry;
+		
+		while((retry = mFetchRetries.peek()) != null) {
+			final Long date = mFetchRetryDates.get(retry);
+			if(date != null && date == retry.mDate)
+				return retry;
+			
+			mFetchRetries.poll();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Retries the fetches of the scheduled retries which are due at the given date: Each due message or message list is processed in its
+	 * own transaction if its {@link FetchFailedMarker}s are still due in the database. Afterwards, the {@link MessageFetcher} and the
+	 * {@link MessageListFetcher} are notified so that they start the fetches immediately.
+	 * 
+	 * Only for being used by the {@link FetchRetryScheduler} and by unit tests.
+	 * 
+	 * @param now The current date. Retries with a later date are not processed.
+	 */
+	protected void retryDueFetches(Date now) {
+		final ArrayList<FetchRetry> dueRetries = new ArrayList<FetchRetry>();
+		
+		synchronized(mFetchRetries) {
+			FetchRetry retry;
+			while((retry = pollOutdatedFetchRetries()) != null && retry.mDate <= now.getTime()) {
+				mFetchRetries.poll();
+				mFetchRetryDates.remove(retry);
+				dueRetries.add(retry);
+			}
+		}
+		
+		if(dueRetries.size() == 0)
+			return;
+		
+		boolean retriedMessages = false;
+		final HashMap<String, FTIdentity> authorsOfRetriedMessageLists = new HashMap<String, FTIdentity>();
+		
+		for(FetchRetry retry : dueRetries) {
+			if(retry.mIsMessageList) {
+				final FTIdentity author = retryMessageListFetch(retry.mID, now);
+				if(author != null)
+					authorsOfRetriedMessageLists.put(author.getID(), author);
+				continue;
+			}
+			
+			synchronized(db.lock()) {
+				try {
+					if(retryMessageFetchWithoutCommit(retry.mID, now))
+						retriedMessages = true;
+					
+					Persistent.checkedCommit(db, this);
+				}
+				catch(RuntimeException e) {
+					Persistent.checkedRollback(db, this, e);
+				}
+			}
+		}
+		
+		Logger.normal(this, "Retried the fetches of " + dueRetries.size() + " messages and message lists.");
+		
+		final MessageFetcher messageFetcher = mMessageFetcher;
+		if(retriedMessages && messageFetcher != null)
+			messageFetcher.onFetchRetriesDue();
+		
+		final MessageListFetcher messageListFetcher = mMessageListFetcher;
+		if(messageListFetcher != null) {
+			for(FTIdentity author : authorsOfRetriedMessageLists.values())
+				messageListFetcher.onFetchRetryDue(author);
+		}
+	}
+	
+	/**
+	 * Retries the fetch of the given message if the {@link MessageFetchFailedMarker}s of its references are due. Schedules the retry of
+	 * the markers which are not due yet.
+	 * 
+	 * You have to lock the database before calling this function.
+	 * 
+	 * @return True if the fetch of the message is retried.
+	 */
+	private boolean retryMessageFetchWithoutCommit(String messageID, Date now) {
+		boolean retried = false;
+		Date earliestDateOfNextRetry = null;
+		
+		for(MessageReference ref : getAllReferencesToMessage(messageID)) {
+			final MessageFetchFailedMarker marker;
+			
+			try {
+				marker = getMessageFetchFailedMarker(ref);
+			} catch(NoSuchFetchFailedMarkerException e) {
+				continue; // The message was downloaded.
+			}
+			
+			final Date dateOfNextRetry = marker.getDateOfNextRetry();
+			
+			if(dateOfNextRetry.after(now)) {
+				if(earliestDateOfNextRetry == null || dateOfNextRetry.before(earliestDateOfNextRetry))
+					earliestDateOfNextRetry = dateOfNextRetry;
+				continue;
+			}
+			
+			retryFetchWithoutCommit(marker);
+			retried = true;
+		}
+		
+		if(earliestDateOfNextRetry != null)
+			scheduleFetchRetry(new FetchRetry(false, messageID), earliestDateOfNextRetry);
+		
+		return retried;
+	}
+	
+	/**
+	 * Retries the fetch of the given message list in its own transaction, see {@link retryMessageListFetchWithoutCommit}. Locks the stripe
+	 * of the author of the ghost list before the database: The retry deletes the ghost list and updates the {@link MessageListIndexTracker}
+	 * of the author.
+	 * 
+	 * @return The author of the message list if its fetch is retried, null otherwise.
+	 */
+	private FTIdentity retryMessageListFetch(String messageListID, Date now) {
+		final FTIdentity author;
+		
+		try {
+			author = getMessageList(messageListID).getAuthor();
+		} catch(NoSuchMessageListException e) {
+			return null; // There is no ghost list: The message list was downloaded or its fetch was retried already.
+		}
+		
+		synchronized(getIdentityLock(author)) {
+		synchronized(db.lock()) {
+			try {
+				final FTIdentity retriedAuthor = retryMessageListFetchWithoutCommit(messageListID, now);
+				Persistent.checkedCommit(db, this);
+				return retriedAuthor;
+			}
+			catch(RuntimeException e) {
+				Persistent.checkedRollback(db, this, e);
+				return null;
+			}
+		}
+		}
+	}
+	
+	/**
+	 * Retries the fetch of the given message list if its {@link MessageListFetchFailedMarker} is due. Schedules the retry if it is not
+	 * due yet.
+	 * 
+	 * You have to lock the stripe of the author of the message list (see {@link #getIdentityLock(FTIdentity)}) and the database before
+	 * calling this function.
+	 * 
+	 * @return The author of the message list if its fetch is retried, null otherwise.
+	 */
+	private FTIdentity retryMessageListFetchWithoutCommit(String messageListID, Date now) {
+		final MessageListFetchFailedMarker marker;
+		
+		try {
+			marker = getMessageListFetchFailedMarker(messageListID);
+		} catch(NoSuchFetchFailedMarkerException e) {
+			return null; // The message list was downloaded.
+		}
+		
+		if(marker.getDateOfNextRetry().after(now)) {
+			scheduleFetchRetry(new FetchRetry(true, messageListID), marker.getDateOfNextRetry());
+			return null;
+		}
+		
+		return retryFetchWithoutCommit(marker);
+	}
+	
+	/**
+	 * Sets the fetchers which are notified when retries of failed fetches are due. Set them to null before terminating them.
+	 */
+	public void setFetchers(MessageFetcher messageFetcher, MessageListFetcher messageListFetcher) {
+		mMessageFetcher = messageFetcher;
+		mMessageListFetcher = messageListFetcher;
+	}
+	
+	/**
+	 * Prevents the {@link FetchRetryScheduler} from processing further retries and waits until it has finished.
+	 */
+	private void terminateFetchRetryScheduler() {
+		synchronized(mFetchRetries) {
+			mFetchRetrySchedulerTerminated = true;
+			mFetchRetries.notifyAll();
+			
+			while(mFetchRetrySchedulerRunning) {
+				try {
+					mFetchRetries.wait();
+				} catch (InterruptedException e) {
+					Thread.interrupted();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * A scheduled retry of the fetch of a message or a message list. Identified by the type and the ID: The date is only used for the order
+	 * in {@link mFetchRetries}. For messages, the retry covers the {@link MessageFetchFailedMarker}s of all references to the message.
+	 */
+	private static final class FetchRetry implements Comparable<FetchRetry> {
+		
+		private final boolean mIsMessageList;
+		
+		private final String mID;
+		
+		/**
+		 * Set by {@link scheduleFetchRetry}.
+		 */
+		private long mDate;
+		
+		private FetchRetry(boolean isMessageList, String id) {
+			mIsMessageList = isMessageList;
+			mID = id;
+		}
+		
+		public int compareTo(FetchRetry other) {
+			return mDate < other.mDate ? -1 : (mDate == other.mDate ? 0 : 1);
+		}
+		
+		public boolean equals(Object obj) {
+			if(!(obj instanceof FetchRetry))
+				return false;
+			
+			final FetchRetry other = (FetchRetry)obj;
+			return mIsMessageList == other.mIsMessageList && mID.equals(other.mID);
+		}
+		
+		public int hashCode() {
+			return mID.hashCode();
 		}
 	}
 	
 	/**
-	 * Only for being used by the MessageManager itself and by unit tests.
+	 * Waits until the earliest scheduled retry of a failed fetch is due and retries the due fetches with {@link retryDueFetches}.
+	 * 
+	 * Replaces the periodic query of all {@link FetchFailedMarker}s by the MessageManager thread: The retries are loaded from the markers
+	 * during startup and scheduled by {@link onMessageFetchFailed} and {@link onMessageListFetchFailed}, so the fetches are retried exactly at
+	 * their date of next retry. Runs until the MessageManager is terminated.
 	 */
-	protected synchronized void clearExpiredFetchFailedMarkers() {
-		Logger.normal(this, "Clearing expired FetchFailedMarkers...");
-	
-		Date now = CurrentTimeUTC.get();
+	private final class FetchRetryScheduler implements Runnable {
 		
-		int amount = 0;
-		
-		for(FetchFailedMarker marker : getFetchFailedMarkers(now)) {
-			synchronized(db.lock()) {
-				try {
-					if(marker instanceof MessageFetchFailedMarker) {
-						MessageFetchFailedMarker m = (MessageFetchFailedMarker)marker;
-						MessageReference ref = m.getMessageReference();
-						ref.clearMessageWasDownloadedFlag();
-						ref.storeWithoutCommit();
-					} else if(marker instanceof MessageListFetchFailedMarker) {
-						MessageListFetchFailedMarker m = (MessageListFetchFailedMarker)marker;
-						try {
-							getMessageList(m.getMessageListID()).deleteWithoutCommit();
-							m.storeWithoutCommit(); // MessageList.deleteWithoutCommit deletes it.
-						}
-						catch(NoSuchMessageListException e) {
-							// The marker was already processed.
+		public void run() {
+			try {
+				while(true) {
+					synchronized(mFetchRetries) {
+						while(true) {
+							if(mFetchRetrySchedulerTerminated)
+								return;
+							
+							final FetchRetry retry = pollOutdatedFetchRetries();
+							final long delay = retry != null ? retry.mDate - CurrentTimeUTC.getInMillis() : 0;
+							
+							if(retry != null && delay <= 0)
+								break;
+							
+							try {
+								mFetchRetries.wait(delay);
+							} catch (InterruptedException e) {
+								Thread.interrupted();
+							}
 						}
-					} else
-						Logger.error(this, "Unknown FetchFailedMarker type: " + marker);
-					
-					++amount;
+					}
 					
-					Logger.debug(this, "Cleared marker " + marker);
-					marker.checkedCommit(this);
-				}
-				catch(RuntimeException e) {
-					Persistent.checkedRollback(db, this, e);
+					try {
+						retryDueFetches(CurrentTimeUTC.get());
+					}
+					catch(RuntimeException e) {
+						Logger.error(this, "Retrying failed fetches failed", e);
+					}
 				}
 			}
-		}
-		
-		Logger.normal(this, "Finished clearing " + amount + " expired FetchFailedMarkers.");
-		
-		// FIXME: Remove before release
-
-		Query q = db.query();
-		q.constrain(MessageListFetchFailedMarker.class);
-		q.descend("mDateOfNextRetry").constrain(now).greater();
-		@SuppressWarnings("unchecked")
-		ObjectSet<MessageListFetchFailedMarker> markers = q.execute();
-		
-		for(MessageListFetchFailedMarker marker : markers) {
-			try {
-				getMessageList(marker.getMessageListID());
-			} catch(NoSuchMessageListException e) {
-				Logger.error(this, "Invalid MessageListFetchFailedMarker: Date of next retry is in future but there is no ghost message list for it: " + marker);
+			finally {
+				synchronized(mFetchRetries) {
+					mFetchRetrySchedulerRunning = false;
+					mFetchRetries.notifyAll();
+				}
 			}
 		}
-		
-		Logger.normal(this, "Number of non-expired MessageListFetchFailedMarker: " + markers.size());
-		
-		q = db.query();
-		q.constrain(MessageFetchFailedMarker.class);
-		q.descend("mDateOfNextRetry").constrain(now).greater();
-		
-		Logger.normal(this, "Number of non-expired MessageFetchFailedMarker: " + q.execute().size());
+	}
+	
+	@SuppressWarnings("unchecked")
+	private ObjectSet<FetchFailedMarker> getNonExpiredFetchFailedMarkers(final Date now) {
+		final Query query = db.query();
+		query.constrain(FetchFailedMarker.class);
+		query.descend("mDateOfNextRetry").constrain(now).greater();
+		return new Persistent.InitializingObjectSet<FetchFailedMarker>(mFreetalk, query.execute());
 	}
 	
 	/**
@@ -908,7 +2084,7 @@ public abstract class MessageManager implements Runnable {
 	 * @throws NoSuchMessageException 
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized Message get(final String id) throws NoSuchMessageException {
+	public Message get(final String id) throws NoSuchMessageException {
 		final Query query = db.query();
 		query.constrain(Message.class);
 		query.constrain(OwnMessage.class).not();
@@ -934,7 +2110,7 @@ public abstract class MessageManager implements Runnable {
 	 * @throws NoSuchMessageListException 
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized MessageList getMessageList(final String id) throws NoSuchMessageListException {
+	public MessageList getMessageList(final String id) throws NoSuchMessageListException {
 		final Query query = db.query();
 		query.constrain(MessageList.class);
 		query.constrain(OwnMessageList.class).not();
@@ -954,7 +2130,7 @@ public abstract class MessageManager implements Runnable {
 	}
 	
 	@SuppressWarnings("unchecked")
-	public synchronized OwnMessageList getOwnMessageList(final String id) throws NoSuchMessageListException {
+	public OwnMessageList getOwnMessageList(final String id) throws NoSuchMessageListException {
 		final Query query = db.query();
 		query.constrain(OwnMessageList.class);
 		query.descend("mID").constrain(id);
@@ -978,7 +2154,7 @@ public abstract class MessageManager implements Runnable {
 	}
 	
 	@SuppressWarnings("unchecked")
-	public synchronized OwnMessage getOwnMessage(final String id) throws NoSuchMessageException {
+	public OwnMessage getOwnMessage(final String id) throws NoSuchMessageException {
 		final Query query = db.query();
 		query.constrain(OwnMessage.class);
 		query.descend("mID").constrain(id);
@@ -1001,7 +2177,7 @@ public abstract class MessageManager implements Runnable {
 	 * @throws NoSuchBoardException 
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized Board getBoardByName(String name) throws NoSuchBoardException {
+	public Board getBoardByName(String name) throws NoSuchBoardException {
 		name = name.toLowerCase();
 		
 		final Query query = db.query();
@@ -1027,11 +2203,12 @@ public abstract class MessageManager implements Runnable {
 	 * @param The name of the desired board
 	 * @throws InvalidParameterException If the name is invalid.
 	 */
-	public synchronized Board getOrCreateBoard(String name) throws InvalidParameterException {
+	public Board getOrCreateBoard(String name) throws InvalidParameterException {
 		name = name.toLowerCase();
 		
 		Board board;
 
+		synchronized(getBoardLock(name)) {
 		try {		
 			board = getBoardByName(name);
 		}
@@ -1050,6 +2227,7 @@ public abstract class MessageManager implements Runnable {
 			}
 			}
 		}
+		}
 		
 		return board;
 	}
@@ -1057,7 +2235,8 @@ public abstract class MessageManager implements Runnable {
 	/**
 	 * Get an iterator of all boards. The list is sorted ascending by name.
 	 * 
-	 * You have to synchronize on this MessageManager before calling this function and while processing the returned list.
+	 * Does not lock anything. If you need a consistent view of a board while processing the returned list, lock its stripe, see
+	 * {@link #getBoardLock(String)}.
 	 * The transient fields of the returned boards will be initialized already.
 	 */
 	@SuppressWarnings("unchecked")
@@ -1073,7 +2252,7 @@ public abstract class MessageManager implements Runnable {
 	 * Get all boards which are being subscribed to by at least one {@link FTOwnIdentity}, i.e. the boards from which we should download messages.
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized ObjectSet<Board> boardWithSubscriptionsIterator() {
+	public ObjectSet<Board> boardWithSubscriptionsIterator() {
 		final Query query = db.query();
 		query.constrain(Board.class);
 		query.descend("mHasSubscriptions").constrain(true);
@@ -1081,7 +2260,7 @@ public abstract class MessageManager implements Runnable {
 	}
 	
 	@SuppressWarnings("unchecked")
-	public synchronized ObjectSet<SubscribedBoard> subscribedBoardIterator() {
+	public ObjectSet<SubscribedBoard> subscribedBoardIterator() {
 		final Query query = db.query();
 		query.constrain(SubscribedBoard.class);
 		return new Persistent.InitializingObjectSet<SubscribedBoard>(mFreetalk, query.execute());
@@ -1090,7 +2269,7 @@ public abstract class MessageManager implements Runnable {
 	 * Get an iterator of boards which were first seen after the given Date, sorted ascending by the date they were first seen at.
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized ObjectSet<SubscribedBoard> subscribedBoardIteratorSortedByDate(final FTOwnIdentity subscriber, final Date seenAfter) {
+	public ObjectSet<SubscribedBoard> subscribedBoardIteratorSortedByDate(final FTOwnIdentity subscriber, final Date seenAfter) {
 		final Query query = db.query();
 		query.constrain(SubscribedBoard.class);
 		query.descend("mFirstSeenDate").constrain(seenAfter).greater();
@@ -1101,7 +2280,8 @@ public abstract class MessageManager implements Runnable {
 	/**
 	 * Get a list of all subscribed boards of the given identity. The list is sorted ascending by name.
 	 * 
-	 * You have to synchronize on this MessageManager before calling this function and while processing the returned list.
+	 * Does not lock anything. If you need a consistent view of a board while processing the returned list, lock its stripe, see
+	 * {@link #getBoardLock(String)}.
 	 * 
 	 * The transient fields of the returned objects will be initialized already. 
 	 */
@@ -1125,7 +2305,7 @@ public abstract class MessageManager implements Runnable {
     }
 	
     @SuppressWarnings("unchecked")
-	public synchronized SubscribedBoard getSubscription(final FTOwnIdentity subscriber, String boardName) throws NoSuchBoardException {
+	public SubscribedBoard getSubscription(final FTOwnIdentity subscriber, String boardName) throws NoSuchBoardException {
     	boardName = boardName.toLowerCase();
     	
     	final Query q = db.query();
@@ -1153,7 +2333,7 @@ public abstract class MessageManager implements Runnable {
 		synchronized(mIdentityManager) {
 			subscriber = mIdentityManager.getOwnIdentity(subscriber.getID()); // Ensure that the identity still exists so the caller does not have to synchronize.
 
-			synchronized(this) {
+			synchronized(getBoardLock(boardName)) {
 				Board board = getBoardByName(boardName);
 
 				try {
@@ -1171,6 +2351,7 @@ public abstract class MessageManager implements Runnable {
 								Logger.debug(this, "First subscription received for board " + board + ", setting it's HasSubscriptions flag.");
 								board.setHasSubscriptions(true);
 								board.storeWithoutCommit();
+								updateMessageFetchQueueWithoutCommit(board);
 							}
 							
 							subscribedBoard.checkedCommit(this);
@@ -1198,7 +2379,7 @@ public abstract class MessageManager implements Runnable {
 		synchronized(mIdentityManager) {
 		subscriber = mIdentityManager.getOwnIdentity(subscriber.getID()); // Ensure that the identity still exists so the caller does not have to synchronize.
 			
-		synchronized(this) {		
+		synchronized(getBoardLock(boardName)) {
 		SubscribedBoard subscribedBoard = getSubscription(subscriber, boardName);
 		
 		synchronized(subscribedBoard) {
@@ -1211,6 +2392,7 @@ public abstract class MessageManager implements Runnable {
 					Logger.debug(this, "Last subscription to board " + board + " removed, clearing it's HasSubscriptions flag.");
 					board.setHasSubscriptions(false);
 					board.storeWithoutCommit();
+					updateMessageFetchQueueWithoutCommit(board);
 				}
 				
 				subscribedBoard.checkedCommit(this);
@@ -1225,7 +2407,7 @@ public abstract class MessageManager implements Runnable {
 	}
 	
 	@SuppressWarnings("unchecked")
-	public synchronized ObjectSet<OwnMessage> notInsertedMessageIterator() {
+	public ObjectSet<OwnMessage> notInsertedMessageIterator() {
 		final Query query = db.query();
 		query.constrain(OwnMessage.class);
 		query.descend("mRealURI").constrain(null).identity();
@@ -1235,28 +2417,421 @@ public abstract class MessageManager implements Runnable {
 	}
 	
 	/**
-	 * Get a list of not downloaded messages. This function only returns messages which are posted to a board which an OwnIdentity wants to
-	 * receive messages from. However, it might also return messages which are from an author which nobody wants to receive messages from.
+	 * Get the queue of messages which are to be fetched, newest first. There is one entry per message, no matter how many message lists
+	 * reference it. This function only returns messages which are posted to a board which an OwnIdentity wants to receive messages from.
+	 * However, it might also return messages which are from an author which nobody wants to receive messages from.
 	 * Filtering out unwanted authors is done at MessageList-level: MessageLists are only downloaded from identities which we want to read
 	 * messages from.
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized ObjectSet<MessageList.MessageReference> notDownloadedMessageIterator() {
-		// TODO: This query is very slow!
+	public ObjectSet<MessageFetchQueueEntry> getMessageFetchQueue() {
 		final Query query = db.query();
-		query.constrain(MessageList.MessageReference.class);
-		query.constrain(OwnMessageList.OwnMessageReference.class).not();
-		query.descend("mWasDownloaded").constrain(false);
+		query.constrain(MessageFetchQueueEntry.class);
+		query.descend("mBoardHasSubscriptions").constrain(true);
 		query.descend("mDate").orderDescending();
-		query.descend("mBoard").descend("mHasSubscriptions").constrain(true);
 		
 		// TODO: The date only contains day, month and year (the XML does not contain more). We have some randomization by sorting by date but we might
 		// want even more maybe - are there any security issues with not downloading messages in perfectly random order? Probably not?
 
-		return new Persistent.InitializingObjectSet<MessageList.MessageReference>(mFreetalk, query.execute());		
+		return new Persistent.InitializingObjectSet<MessageFetchQueueEntry>(mFreetalk, query.execute());
+	}
+	
+	/**
+	 * Get the queue of messages which are the parent message or thread of a message which we have, newest first. They are fetched with
+	 * priority so that threads in which messages are missing fill in quickly. Unlike {@link getMessageFetchQueue}, this includes messages
+	 * of boards without subscriptions: The parent of a crossposted message might have been posted to a different board.
+	 */
+	@SuppressWarnings("unchecked")
+	public ObjectSet<MessageFetchQueueEntry> getPriorityMessageFetchQueue() {
+		final Query query = db.query();
+		query.constrain(MessageFetchQueueEntry.class);
+		query.descend("mIsParentOfStoredMessage").constrain(true);
+		query.descend("mDate").orderDescending();
+		return new Persistent.InitializingObjectSet<MessageFetchQueueEntry>(mFreetalk, query.execute());
+	}
+	
+	private MessageFetchQueueEntry getMessageFetchQueueEntry(final String messageID) throws NoSuchObjectException {
+		final Query query = db.query();
+		query.constrain(MessageFetchQueueEntry.class);
+		query.descend("mMessageID").constrain(messageID);
+		@SuppressWarnings("unchecked")
+		final ObjectSet<MessageFetchQueueEntry> result = query.execute();
+		
+		switch(result.size()) {
+			case 1:
+				final MessageFetchQueueEntry entry = result.next();
+				entry.initializeTransient(mFreetalk);
+				return entry;
+			case 0:
+				throw new NoSuchObjectException(messageID);
+			default:
+				throw new DuplicateElementException("Duplicate MessageFetchQueueEntry for " + messageID);
+		}
+	}
+	
+	/**
+	 * Creates, updates or deletes the {@link MessageFetchQueueEntry} of the given message so that it exists if and only if there is a
+	 * {@link MessageReference} to the message which is not marked as downloaded. To be called whenever such a reference was created,
+	 * deleted or its flag was changed.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	private void updateMessageFetchQueueWithoutCommit(final String messageID) {
+		MessageReference queuedReference = null;
+		Date newestDate = null;
+		boolean boardHasSubscriptions = false;
+		
+		for(MessageReference ref : getAllReferencesToMessage(messageID)) {
+			if(ref.wasMessageDownloaded())
+				continue;
+			
+			final boolean refBoardHasSubscriptions = ref.getBoard().hasSubscriptions();
+			
+			if(queuedReference == null || (refBoardHasSubscriptions && !boardHasSubscriptions))
+				queuedReference = ref;
+			
+			boardHasSubscriptions |= refBoardHasSubscriptions;
+			
+			final Date date = ref.getDate();
+			if(newestDate == null || (date != null && date.after(newestDate)))
+				newestDate = date;
+		}
+		
+		MessageFetchQueueEntry entry;
+		
+		try {
+			entry = getMessageFetchQueueEntry(messageID);
+		} catch(NoSuchObjectException e) {
+			entry = null;
+		}
+		
+		if(queuedReference == null) {
+			if(entry != null)
+				entry.deleteWithoutCommit();
+			return;
+		}
+		
+		if(entry == null) {
+			entry = new MessageFetchQueueEntry(messageID);
+			entry.initializeTransient(mFreetalk);
+			
+			if(isParentOfStoredMessage(messageID))
+				entry.markAsParentOfStoredMessage();
+		}
+		
+		entry.update(queuedReference, newestDate, boardHasSubscriptions);
+		entry.storeWithoutCommit();
+	}
+	
+	/**
+	 * @return True if a message which we have is a reply to the given message or belongs to the thread of it.
+	 */
+	private boolean isParentOfStoredMessage(final String messageID) {
+		Query query = db.query();
+		query.constrain(Message.class);
+		query.constrain(OwnMessage.class).not();
+		query.descend("mParentID").constrain(messageID);
+		if(query.execute().size() > 0)
+			return true;
+		
+		query = db.query();
+		query.constrain(Message.class);
+		query.constrain(OwnMessage.class).not();
+		query.descend("mThreadID").constrain(messageID);
+		return query.execute().size() > 0;
+	}
+	
+	/**
+	 * Marks the {@link MessageFetchQueueEntry}s of the parent message and the thread of the given stored message for being fetched with
+	 * priority, see {@link getPriorityMessageFetchQueue}. Does nothing for parents which are not queued, i.e. which we have already or whose
+	 * message list was not fetched yet: When their message list is stored, {@link updateMessageFetchQueueWithoutCommit} marks them.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	private void prioritizeParentsWithoutCommit(final Message message) {
+		final ArrayList<String> parentIDs = new ArrayList<String>(2);
+		
+		try {
+			parentIDs.add(message.getParentID());
+		} catch(NoSuchMessageException e) { }
+		
+		try {
+			final String threadID = message.getThreadID();
+			if(!parentIDs.contains(threadID))
+				parentIDs.add(threadID);
+		} catch(NoSuchMessageException e) { }
+		
+		for(String parentID : parentIDs) {
+			try {
+				final MessageFetchQueueEntry entry = getMessageFetchQueueEntry(parentID);
+				
+				if(!entry.isParentOfStoredMessage()) {
+					entry.markAsParentOfStoredMessage();
+					entry.storeWithoutCommit();
+					Logger.debug(this, "Fetching the parent of " + message + " with priority: " + entry);
+				}
+			} catch(NoSuchObjectException e) { }
+		}
+	}
+	
+	/**
+	 * Updates the {@link MessageFetchQueueEntry}s of all not downloaded messages of the given board. To be called when the board got its first
+	 * subscription or lost its last one.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	@SuppressWarnings("unchecked")
+	private void updateMessageFetchQueueWithoutCommit(final Board board) {
+		final Query query = db.query();
+		query.constrain(MessageList.MessageReference.class);
+		query.constrain(OwnMessageList.OwnMessageReference.class).not();
+		query.descend("mBoard").constrain(board).identity();
+		query.descend("mWasDownloaded").constrain(false);
+		
+		final HashSet<String> messageIDs = new HashSet<String>();
+		for(MessageReference ref : new Persistent.InitializingObjectSet<MessageList.MessageReference>(mFreetalk, query.execute()))
+			messageIDs.add(ref.getMessageID());
+		
+		for(String messageID : messageIDs)
+			updateMessageFetchQueueWithoutCommit(messageID);
+	}
+	
+	/**
+	 * Queues the messages of a received message list for fetching. The references to messages which we have already, for example because
+	 * another message list referenced them, are marked as downloaded instead so the messages are not fetched again.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	private void queueMessagesWithoutCommit(final MessageList list) {
+		final HashSet<String> messageIDs = new HashSet<String>();
+		
+		for(MessageReference ref : list) {
+			if(!messageIDs.add(ref.getMessageID()))
+				continue; // A further board of the same message.
+			
+			try {
+				get(ref.getMessageID());
+				
+				for(MessageReference downloadedRef : getAllReferencesToMessage(ref.getMessageID())) {
+					if(!downloadedRef.wasMessageDownloaded()) {
+						downloadedRef.setMessageWasDownloadedFlag();
+						downloadedRef.storeWithoutCommit();
+					}
+				}
+			}
+			catch(NoSuchMessageException e) { }
+			
+			updateMessageFetchQueueWithoutCommit(ref.getMessageID());
+		}
 	}
 
-
+	/**
+	 * Gets the {@link MessageListIndexTracker} of the given author.
+	 * 
+	 * @throws NoSuchObjectException If no tracker was created for the author yet.
+	 */
+	@SuppressWarnings("unchecked")
+	protected MessageListIndexTracker getMessageListIndexTracker(final FTIdentity author) throws NoSuchObjectException {
+		final Query query = db.query();
+		query.constrain(MessageListIndexTracker.class);
+		query.descend("mAuthor").constrain(author).identity();
+		final ObjectSet<MessageListIndexTracker> result = query.execute();
+		
+		switch(result.size()) {
+			case 1:
+				final MessageListIndexTracker tracker = result.next();
+				tracker.initializeTransient(mFreetalk);
+				return tracker;
+			case 0:
+				throw new NoSuchObjectException("No MessageListIndexTracker for " + author);
+			default:
+				throw new DuplicateElementException("Duplicate MessageListIndexTracker for " + author);
+		}
+	}
+	
+	/**
+	 * Gets the {@link MessageListIndexTracker} of the given author. If it does not exist, it is created from the message lists of the author which
+	 * are stored in the database and stored without committing the transaction. This is the case for authors of which no message list was stored
+	 * yet and for databases of Freetalk versions which did not have the tracker.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	protected MessageListIndexTracker getOrCreateMessageListIndexTrackerWithoutCommit(final FTIdentity author) {
+		try {
+			return getMessageListIndexTracker(author);
+		}
+		catch(NoSuchObjectException e) {
+			final MessageListIndexTracker tracker = new MessageListIndexTracker(author);
+			tracker.initializeTransient(mFreetalk);
+			
+			final ObjectSet<MessageList> lists = getMessageListsBy(author);
+			final int[] indices = new int[lists.size()];
+			int count = 0;
+			for(MessageList list : lists)
+				indices[count++] = list.getIndex();
+			
+			// Adding the indices in ascending order only appends ranges to the tracker.
+			Arrays.sort(indices, 0, count);
+			for(int i = 0; i < count; ++i)
+				tracker.onListAvailable(indices[i]);
+			
+			if(author instanceof FTOwnIdentity) {
+				for(OwnMessageList list : getOwnMessageListsBy((FTOwnIdentity)author))
+					tracker.onOwnListIndexTaken(list.getIndex());
+			}
+			
+			tracker.storeWithoutCommit();
+			Logger.debug(this, "Created " + tracker);
+			return tracker;
+		}
+	}
+	
+	/**
+	 * Updates the {@link MessageListIndexTracker} of the author of the given list. To be called after a received or ghost {@link MessageList} was stored.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	protected void onMessageListStoredWithoutCommit(final MessageList list) {
+		final MessageListIndexTracker indices = getOrCreateMessageListIndexTrackerWithoutCommit(list.getAuthor());
+		indices.onListAvailable(list.getIndex());
+		indices.storeWithoutCommit();
+	}
+	
+	/**
+	 * Updates the {@link MessageListIndexTracker} of the author of the given list. To be called after an {@link OwnMessageList} was created
+	 * or its index was changed.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	protected void onOwnMessageListIndexTakenWithoutCommit(final OwnMessageList list) {
+		final MessageListIndexTracker indices = getOrCreateMessageListIndexTrackerWithoutCommit(list.getAuthor());
+		indices.onOwnListIndexTaken(list.getIndex());
+		indices.storeWithoutCommit();
+	}
+	
+	/**
+	 * Gets the {@link MessageListIndexTracker} of the given author and creates it in a separate transaction if it does not exist.
+	 */
+	public MessageListIndexTracker getOrCreateMessageListIndexTracker(final FTIdentity author) {
+		try {
+			return getMessageListIndexTracker(author);
+		}
+		catch(NoSuchObjectException e) {
+			synchronized(db.lock()) {
+				try {
+					final MessageListIndexTracker tracker = getOrCreateMessageListIndexTrackerWithoutCommit(author);
+					tracker.checkedCommit(this);
+					return tracker;
+				}
+				catch(RuntimeException ex) {
+					Persistent.checkedRollbackAndThrow(db, this, ex);
+					throw ex; // Not reached, checkedRollbackAndThrow throws.
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the {@link IdentityStatistics} of the given identity.
+	 * 
+	 * Does not lock the MessageManager so it can be used by the UI while it holds the lock of a board.
+	 * 
+	 * @throws NoSuchObjectException If no message of the identity was stored yet.
+	 */
+	@SuppressWarnings("unchecked")
+	public IdentityStatistics getIdentityStatistics(final FTIdentity author) throws NoSuchObjectException {
+		final Query query = db.query();
+		query.constrain(IdentityStatistics.class);
+		query.descend("mAuthor").constrain(author).identity();
+		final ObjectSet<IdentityStatistics> result = query.execute();
+		
+		switch(result.size()) {
+			case 1:
+				final IdentityStatistics statistics = result.next();
+				statistics.initializeTransient(mFreetalk);
+				return statistics;
+			case 0:
+				throw new NoSuchObjectException("No IdentityStatistics for " + author);
+			default:
+				throw new DuplicateElementException("Duplicate IdentityStatistics for " + author);
+		}
+	}
+	
+	/**
+	 * Gets the number of messages of the given identity which {@link getMessagesBy} would return, without querying them.
+	 * 
+	 * Does not lock the MessageManager so it can be used by the UI while it holds the lock of a board.
+	 */
+	public int getMessageCountBy(final FTIdentity author) {
+		try {
+			return getIdentityStatistics(author).getPostCount();
+		}
+		catch(NoSuchObjectException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Updates the {@link IdentityStatistics} of the author of the given message. To be called after the message was stored.
+	 * If the statistics do not exist, they are created from the messages of the author which are stored in the database.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	protected void onMessageStoredWithoutCommit(final Message message) {
+		final FTIdentity author = message.getAuthor();
+		IdentityStatistics statistics;
+		
+		try {
+			statistics = getIdentityStatistics(author);
+			statistics.onMessageStored(message);
+		}
+		catch(NoSuchObjectException e) {
+			statistics = new IdentityStatistics(author);
+			statistics.initializeTransient(mFreetalk);
+			
+			boolean containsMessage = false;
+			for(Message authorMessage : getMessagesBy(author)) {
+				statistics.onMessageStored(authorMessage);
+				containsMessage |= authorMessage.getID().equals(message.getID());
+			}
+			
+			if(!containsMessage) // Not necessary if the query returns objects which were stored in the current transaction.
+				statistics.onMessageStored(message);
+			
+			Logger.debug(this, "Created " + statistics);
+		}
+		
+		statistics.storeWithoutCommit();
+	}
+	
+	/**
+	 * Updates the {@link IdentityStatistics} of the author of the given message if they exist. To be called after the message was deleted.
+	 * 
+	 * You have to lock the database before calling this function.
+	 */
+	protected void onMessageDeletedWithoutCommit(final Message message) {
+		final FTIdentity author = message.getAuthor();
+		final IdentityStatistics statistics;
+		
+		try {
+			statistics = getIdentityStatistics(author);
+		}
+		catch(NoSuchObjectException e) {
+			return;
+		}
+		
+		if(!statistics.onMessageDeleted(message)) {
+			final ArrayList<Message> remaining = new ArrayList<Message>();
+			for(Message authorMessage : getMessagesBy(author)) {
+				if(!authorMessage.getID().equals(message.getID())) // Not necessary if the query does not return deleted objects. 
+					remaining.add(authorMessage);
+			}
+			statistics.recomputeDates(remaining);
+		}
+		
+		statistics.storeWithoutCommit();
+	}
+	
 	/**
 	 * Get a list of all message lists from the given identity.
 	 * If the identity is an {@link FTOwnIdentity}, it's own message lists are only returned if they have been downloaded as normal message lists.
@@ -1268,7 +2843,7 @@ public abstract class MessageManager implements Runnable {
 	 * @return All message lists of the given identity except those of class OwnMessageList.
 	 */
 	@SuppressWarnings("unchecked")
-	protected synchronized ObjectSet<MessageList> getMessageListsBy(final FTIdentity author) {
+	protected ObjectSet<MessageList> getMessageListsBy(final FTIdentity author) {
 		final Query query = db.query();
 		query.constrain(MessageList.class);
 		query.constrain(OwnMessageList.class).not();
@@ -1289,7 +2864,7 @@ public abstract class MessageManager implements Runnable {
 	 * @return All own message lists of the given own identity.
 	 */
 	@SuppressWarnings("unchecked")
-	protected synchronized ObjectSet<OwnMessageList> getOwnMessageListsBy(final FTOwnIdentity author) {
+	protected ObjectSet<OwnMessageList> getOwnMessageListsBy(final FTOwnIdentity author) {
 		final Query query = db.query();
 		query.constrain(OwnMessageList.class);
 		query.descend("mAuthor").constrain(author).identity();
@@ -1304,7 +2879,8 @@ public abstract class MessageManager implements Runnable {
 	 * 
 	 * The purpose of this behavior is to ensure that own messages are only displayed to the user if they have been successfully inserted.
 	 * 
-	 * Does not lock the MessageManager, you have to do this while calling the function and parsing the returned list.
+	 * Does not lock anything. Lock the stripe of the identity (see {@link #getIdentityLock(FTIdentity)}) while calling the function and
+	 * processing the returned list if the messages must not be deleted meanwhile.
 	 * 
 	 * @param author An identity or own identity.
 	 * @return All messages of the given identity except those of class OwnMessage.
@@ -1331,7 +2907,7 @@ public abstract class MessageManager implements Runnable {
 	 * @return All own messages of the given own identity.
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized ObjectSet<OwnMessage> getOwnMessagesBy(final FTOwnIdentity author) {
+	public ObjectSet<OwnMessage> getOwnMessagesBy(final FTOwnIdentity author) {
 		final Query query = db.query();
 		query.constrain(OwnMessage.class);
 		query.descend("mAuthor").constrain(author).identity();
@@ -112,8 +112,8 @@ public abstract class MessageRating extends Persistent {
 	}
 	
 	public final Date getDate() {
-		// 1 is the default activation depth so we don't need to activate this because Date is a native type for db4o
-		// checkedActivate(1); assert(mDate != null);
+		checkedActivate(1); // Date is a native type for db4o so 1 is enough
+		assert(mDate != null);
 		return mDate;
 	}
 	
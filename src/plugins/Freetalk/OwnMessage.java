@@ -24,6 +24,7 @@ public abstract class OwnMessage extends Message {
 	/* Override for synchronization */
 	@Override
 	public synchronized MessageURI getURI() {
+		checkedActivate(3);
 		return mURI;
 	}
 
@@ -37,6 +38,7 @@ public abstract class OwnMessage extends Message {
 	 * @return The CHK URI of the message.
 	 */
 	public synchronized FreenetURI getRealURI() {
+		checkedActivate(2);
 		if(mRealURI == null)
 			throw new RuntimeException("getRealURI() called on the not inserted message " + this);
 		
@@ -48,6 +50,7 @@ public abstract class OwnMessage extends Message {
 	 * Stores this OwnMessage in the database without committing the transaction.
 	 */
 	public synchronized void setMessageList(OwnMessageList newMessageList) {
+		checkedActivate(1);
 		mMessageList = newMessageList;
 		storeWithoutCommit();
 	}
@@ -57,6 +60,7 @@ public abstract class OwnMessage extends Message {
 	 * The message might only become visible if the message list which lists it has been inserted. This is implementation dependent, for example {@see WoTOwnMessage}.
 	 */
 	public synchronized boolean wasInserted() {
+		checkedActivate(1);
 		return (mRealURI != null);
 	}
 
@@ -65,6 +69,7 @@ public abstract class OwnMessage extends Message {
 	 * Stores this OwnMessage in the database without committing the transaction. 
 	 */
 	public synchronized void markAsInserted(FreenetURI myRealURI) {
+		checkedActivate(1);
 		mRealURI = myRealURI;
 		storeWithoutCommit();
 	}
@@ -40,7 +40,7 @@ public abstract class OwnMessageList extends MessageList {
 	 * @return
 	 */
 	public FreenetURI getInsertURI() {
-		return generateURI(getAuthor().getInsertURI(), mIndex).sskForUSK();
+		return generateURI(getAuthor().getInsertURI(), getIndex()).sskForUSK();
 	}
 
 	/**
@@ -52,11 +52,13 @@ public abstract class OwnMessageList extends MessageList {
 	 */
 	public synchronized void addMessage(OwnMessage newMessage) {
 		synchronized(newMessage) {
+			checkedActivate();
+			
 			if(iAmBeingInserted || iWasInserted)
 				throw new IllegalStateException("Trying to add a message to a message list which is already being inserted.");
 			
-			if(newMessage.getAuthor() != mAuthor)
-				throw new IllegalStateException("Trying to add a message with wrong author " + newMessage.getAuthor() + " to an own message list of " + mAuthor);
+			if(newMessage.getAuthor() != getAuthor())
+				throw new IllegalStateException("Trying to add a message with wrong author " + newMessage.getAuthor() + " to an own message list of " + getAuthor());
 			
 			OwnMessageReference ref = new OwnMessageReference(newMessage);
 			mMessages.add(ref);
@@ -72,6 +74,7 @@ public abstract class OwnMessageList extends MessageList {
 	}
 	
 	public synchronized int getMessageCount() {
+		checkedActivate();
 		return mMessages.size();
 	}
 
@@ -86,6 +89,7 @@ public abstract class OwnMessageList extends MessageList {
 	 * Stores this OwnMessageList in the database without committing the transaction.
 	 */
 	public synchronized void beginOfInsert() {
+		checkedActivate(1);
 		iAmBeingInserted = true;
 		storeWithoutCommit();
 	}
@@ -94,6 +98,7 @@ public abstract class OwnMessageList extends MessageList {
 	 * Stores this OwnMessageList in the database without committing the transaction.
 	 */
 	public synchronized void cancelInsert() {
+		checkedActivate(1);
 		if(iWasInserted)
 			throw new RuntimeException("The OwnMessageList was already inserted.");
 		
@@ -102,6 +107,7 @@ public abstract class OwnMessageList extends MessageList {
 	}
 	
 	public synchronized boolean wasInserted() {
+		checkedActivate(1);
 		return iWasInserted;
 	}
 
@@ -109,6 +115,7 @@ public abstract class OwnMessageList extends MessageList {
 	 * Stores this OwnMessageList in the database without committing the transaction.
 	 */
 	public synchronized void markAsInserted() {
+		checkedActivate(1);
 		if(iAmBeingInserted == false)
 			throw new RuntimeException("Trying to mark a MessageList as 'inserted' which was not marked as 'being inserted': This MUST NOT happen:" +
 					" Messages can still be added to a list if it is not marked as being inserted. If it is being inserted already without being marked," +
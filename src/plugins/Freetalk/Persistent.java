@@ -8,6 +8,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -57,21 +58,33 @@ public abstract class Persistent {
 	}
 
 	/**
-	 * Only to be used by the extending classes, not to be called from the outside.
+	 * The activation profile of this class: The depth to which {@link #checkedActivate()} activates objects of it.<br /><br />
+	 * 
+	 * The database is configured with an activation depth of 1, so objects which are returned by queries only have their own member variables
+	 * loaded and objects which are reached through member variables are not activated at all. Therefore each getter and setter must activate
+	 * the object to the depth which the member variables it uses need before accessing them. 1 is sufficient for primitive types, Strings and
+	 * Dates. Member objects which are not Persistent, such as FreenetURIs, arrays and collections, need 2, or 3 if they contain other objects.
+	 * Persistent member objects do not need to be activated by their owner, their own getters activate them after initializeTransient()
+	 * was called on them.<br /><br />
 	 * 
-	 * Used by storeWithoutCommit/deleteWithoutCommit to check whether an object is active before storing it.<br /><br />
+	 * The profile is also the depth which is used by the default {@link #storeWithoutCommit()} and {@link #deleteWithoutCommit()}.
+	 * You have to override it if your class has member variables which need a depth of more than 1.
+	 */
+	protected int getActivationDepth() {
+		return 1;
+	}
+
+	/**
+	 * Only to be used by the extending classes, not to be called from the outside.
 	 * 
-	 * Logs an error if the object is not active.<br /><br />
+	 * Activates the given object to the specified depth if it is stored in the database.<br /><br />
 	 * 
-	 * Activates the object to the specified depth.<br /><br />
+	 * Objects which are not stored yet are always fully active, so nothing needs to be done for them. This includes objects which were
+	 * created in memory and on which initializeTransient() was not called yet.
 	 */
 	protected final void checkedActivate(final Object object, final int depth) {
-		if(mDB.isStored(object)) {
-			if(!mDB.isActive(object))
-				Logger.error(this, "Trying to store a non-active object: " + object);
-				
-			mDB.activate(this, depth);
-		}
+		if(mDB != null && mDB.isStored(object))
+			mDB.activate(object, depth);
 	}
 	
 	/**
@@ -83,15 +96,32 @@ public abstract class Persistent {
 		checkedActivate(this, depth);
 	}
 	
+	/**
+	 * Only to be used by the extending classes, not to be called from the outside.
+	 * 
+	 * Activates this object to the depth of its activation profile, see {@link #getActivationDepth()}.
+	 */
+	protected final void checkedActivate() {
+		checkedActivate(this, getActivationDepth());
+	}
+	
 	/**
 	 * Only to be used by the extending classes, not to be called from the outside.
 	 * 
 	 * Used by storeWithoutCommit for actually storing the object.<br /><br />
 	 * 
-	 * Currently does not any additional checks, it is used to 
-	 * @param object
+	 * Logs an error if the object is stored already but not active: Storing it would overwrite its member variables in the database
+	 * with the default values of the not activated object.
 	 */
 	protected final void checkedStore(final Object object) {
+		if(mDB.isStored(object)) {
+			if(!mDB.isActive(object))
+				Logger.error(this, "Trying to store a non-active object: " + object);
+			
+			if(object instanceof Persistent)
+				mFreetalk.getTransactionRecorder().onModified((Persistent)object);
+		}
+		
 		mDB.store(object);
 	}
 	
@@ -101,7 +131,7 @@ public abstract class Persistent {
 	 * Same as a call to {@link checkedStore(this)}
 	 */
 	protected final void checkedStore() {
-		mDB.store(this);
+		checkedStore(this);
 	}
 	
 	/**
@@ -113,8 +143,12 @@ public abstract class Persistent {
 	 * This is to be used as an integrity check in deleteWithoutCommit() implementations. 
 	 */
 	protected final void checkedDelete(final Object object) {
-		if(mDB.isStored(object))
+		if(mDB.isStored(object)) {
+			if(object instanceof Persistent)
+				mFreetalk.getTransactionRecorder().onModified((Persistent)object);
+			
 			mDB.delete(object);
+		}
 		else
 			Logger.error(this, "Trying to delete a inexistent object: " + object);
 	}
@@ -192,7 +226,7 @@ public abstract class Persistent {
 	/**
 	 * Only to be used by the extending classes, not to be called from the outside.
 	 * 
-	 * When your extending class needs a different activation depth for store than 1, you have to override storeWithoutCommit() and make it call this function.
+	 * When your extending class needs a different activation depth for store than its activation profile, you have to override storeWithoutCommit() and make it call this function.
 	 * If you need to store other objects than this object (that is member objects) then you might want to copy the body of this function so that 
 	 * checkedActivate() is not called twice.
 	 * 
@@ -200,7 +234,6 @@ public abstract class Persistent {
 	 */
 	protected void storeWithoutCommit(final int activationDepth) {
 		try {		
-			// 1 is the maximal depth of all getter functions. You have to adjust this when introducing new member variables.
 			checkedActivate(activationDepth);
 			checkedStore();
 		}
@@ -218,13 +251,13 @@ public abstract class Persistent {
 	 * } 
 	 */
 	protected void storeWithoutCommit() {
-		storeWithoutCommit(1);
+		storeWithoutCommit(getActivationDepth());
 	}
 	
 	/**
 	 * Only to be used by the extending classes, not to be called from the outside.
 	 * 
-	 * When your extending class needs a different activation depth for store than 1, you have to override storeWithoutCommit() and make it call this function.
+	 * When your extending class needs a different activation depth for store than its activation profile, you have to override storeWithoutCommit() and make it call this function.
 	 * If you need to store other objects than this object (that is member objects) then you might want to copy the body of this function so that 
 	 * checkedActivate() is not called twice.
 	 * 
@@ -232,7 +265,6 @@ public abstract class Persistent {
 	 */
 	protected void deleteWithoutCommit(final int activationDepth) {
 		try {
-			// 1 is the maximal depth of all getter functions. You have to adjust this when introducing new member variables.
 			checkedActivate(activationDepth);
 			checkedDelete(this);
 		}
@@ -250,7 +282,7 @@ public abstract class Persistent {
 	 * } 
 	 */
 	protected void deleteWithoutCommit() {
-		deleteWithoutCommit(1);
+		deleteWithoutCommit(getActivationDepth());
 	}
 	
 
@@ -281,6 +313,58 @@ public abstract class Persistent {
 		checkedCommit(mDB, loggingObject);
 	}
 	
+	/**
+	 * Records the stored objects which are modified or deleted by a transaction so that their state in memory can be reloaded from the
+	 * database if the transaction is rolled back: rollback() only restores the database, the objects in memory keep the changes of the
+	 * rolled back transaction. Storing them again in a further transaction would store those changes, for example counters would be
+	 * incremented twice.<br /><br />
+	 * 
+	 * Only the objects which are modified by the thread which started the recording are recorded. Objects which were not stored before
+	 * the transaction are not recorded because the rollback removes them from the database anyway.
+	 */
+	public static final class TransactionRecorder {
+		
+		private volatile Thread mThread = null;
+		
+		private final IdentityHashMap<Persistent, Persistent> mObjects = new IdentityHashMap<Persistent, Persistent>();
+		
+		/**
+		 * Starts recording the objects which are modified by the current thread. You have to lock the database before calling this function.
+		 */
+		public synchronized void start() {
+			mObjects.clear();
+			mThread = Thread.currentThread();
+		}
+		
+		public synchronized void stop() {
+			mThread = null;
+			mObjects.clear();
+		}
+		
+		private void onModified(final Persistent object) {
+			if(mThread != Thread.currentThread())
+				return;
+			
+			synchronized(this) {
+				mObjects.put(object, object);
+			}
+		}
+		
+		/**
+		 * Reloads the recorded objects which are still stored from the database to the depth of their activation profile. To be called after
+		 * rolling back the transaction. The recording continues with an empty set of objects.
+		 */
+		public synchronized void refreshRecordedObjects(final ExtObjectContainer db) {
+			for(Persistent object : mObjects.keySet()) {
+				if(db.isStored(object))
+					db.refresh(object, object.getActivationDepth());
+			}
+			
+			Logger.debug(this, "Refreshed " + mObjects.size() + " objects of a rolled back transaction.");
+			mObjects.clear();
+		}
+	}
+	
 	/**
 	 * An implementation of ObjectSet which encapsulates a given ObjectSet of objects which extend Persistent and calls initializeTransient() for each returned object
 	 * automatically.
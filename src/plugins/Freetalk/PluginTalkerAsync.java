@@ -0,0 +1,233 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import freenet.pluginmanager.FredPluginTalker;
+import freenet.pluginmanager.PluginNotFoundException;
+import freenet.pluginmanager.PluginRespirator;
+import freenet.support.Logger;
+import freenet.support.SimpleFieldSet;
+import freenet.support.api.Bucket;
+
+/**
+ * Sends FCP messages to another plugin and allows many requests to be outstanding at once.
+ *
+ * The node delivers the reply to a message with the connection identifier of the PluginTalker which sent it. Therefore, each request is sent with
+ * its own PluginTalker whose connection identifier is unique for the request, and onReply() uses the identifier to complete the {@link Request}
+ * which the reply belongs to. This replaces the former PluginTalkerBlocking which could only have a single request in flight.
+ *
+ * Please make sure that you only send messages for FCP functions which only send() a single reply: The request is completed by the first reply.
+ */
+public final class PluginTalkerAsync implements FredPluginTalker {
+
+	public static final long TIMEOUT = 3 * 60 * 1000;
+
+	private final PluginRespirator mPluginRespirator;
+
+	private final String mTargetPluginName;
+
+	private final String mIdentifierPrefix;
+
+	/**
+	 * The requests which did not receive a reply yet. Key = connection identifier of the request.
+	 */
+	private final ConcurrentHashMap<String, Request> mRequests = new ConcurrentHashMap<String, Request>();
+
+	private long mNextRequestNumber = 0;
+
+	public static final class Result {
+		final public SimpleFieldSet params;
+		final public Bucket data;
+
+		Result(SimpleFieldSet myParams, Bucket myData) {
+			params = myParams;
+			data = myData;
+		}
+	};
+
+	/**
+	 * A request which was sent to the target plugin. It is completed when the reply is received.
+	 */
+	public final class Request implements Future<Result> {
+
+		private final String mIdentifier;
+
+		private final SimpleFieldSet mParams;
+
+		private Result mResult = null;
+
+		private boolean mCancelled = false;
+
+		private Request(String myIdentifier, SimpleFieldSet myParams) {
+			mIdentifier = myIdentifier;
+			mParams = myParams;
+		}
+
+		private synchronized void onReply(Result result) {
+			if(mCancelled) {
+				Logger.error(PluginTalkerAsync.this, "Received onReply too late: " + result.params);
+				return;
+			}
+
+			mResult = result;
+			notifyAll();
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			synchronized(this) {
+				if(mResult != null || mCancelled)
+					return false;
+
+				mCancelled = true;
+				notifyAll();
+			}
+
+			mRequests.remove(mIdentifier);
+			return true;
+		}
+
+		public synchronized boolean isCancelled() {
+			return mCancelled;
+		}
+
+		public synchronized boolean isDone() {
+			return mResult != null || mCancelled;
+		}
+
+		public Result get() throws InterruptedException {
+			synchronized(this) {
+				while(mResult == null && !mCancelled)
+					wait();
+
+				if(mResult == null)
+					throw new CancellationException();
+
+				return mResult;
+			}
+		}
+
+		public Result get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			final long timeoutMillis = unit.toMillis(timeout);
+			final long startTime = System.currentTimeMillis();
+
+			synchronized(this) {
+				while(mResult == null && !mCancelled) {
+					final long remaining = timeoutMillis - (System.currentTimeMillis() - startTime);
+					if(remaining <= 0)
+						throw new TimeoutException();
+
+					wait(remaining);
+				}
+
+				if(mResult == null)
+					throw new CancellationException();
+
+				return mResult;
+			}
+		}
+
+		/**
+		 * Waits for the reply without being interruptible. Cancels the request and throws if it does not arrive within {@link TIMEOUT}.
+		 * @throws PluginNotFoundException If the timeout expired.
+		 */
+		public Result getBlocking() throws PluginNotFoundException {
+			final long startTime = System.currentTimeMillis();
+
+			synchronized(this) {
+				while(mResult == null && !mCancelled) {
+					final long remaining = TIMEOUT - (System.currentTimeMillis() - startTime);
+					if(remaining <= 0)
+						break;
+
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+					}
+				}
+
+				if(mResult != null)
+					return mResult;
+			}
+
+			cancel(false);
+			throw new PluginNotFoundException("Timeout while waiting for reply from target plugin, message was: " + mParams);
+		}
+	}
+
+	/**
+	 * @throws PluginNotFoundException If the target plugin is not loaded.
+	 */
+	public PluginTalkerAsync(PluginRespirator myPR, String myTargetPluginName, String myIdentifierPrefix) throws PluginNotFoundException {
+		mPluginRespirator = myPR;
+		mTargetPluginName = myTargetPluginName;
+		mIdentifierPrefix = myIdentifierPrefix;
+
+		// Check whether the target plugin is loaded now so that the constructor fails if it is not.
+		mPluginRespirator.getPluginTalker(this, mTargetPluginName, mIdentifierPrefix);
+	}
+
+	private synchronized String getNextIdentifier() {
+		return mIdentifierPrefix + "." + (mNextRequestNumber++);
+	}
+
+	/**
+	 * Sends a FCP message and returns immediately. The reply can be obtained from the returned {@link Request}.
+	 *
+	 * @throws PluginNotFoundException If the target plugin is not loaded.
+	 */
+	public Request send(SimpleFieldSet params, Bucket data) throws PluginNotFoundException {
+		final String identifier = getNextIdentifier();
+		final Request request = new Request(identifier, params);
+
+		mRequests.put(identifier, request);
+
+		try {
+			mPluginRespirator.getPluginTalker(this, mTargetPluginName, identifier).send(params, data);
+		}
+		catch(PluginNotFoundException e) {
+			mRequests.remove(identifier);
+			throw e;
+		}
+		catch(RuntimeException e) {
+			mRequests.remove(identifier);
+			throw e;
+		}
+
+		return request;
+	}
+
+	/**
+	 * Sends a FCP message and blocks execution until the answer was received and then returns the answer.
+	 * Other threads can send messages while this one is waiting, the requests do not block each other.
+	 *
+	 * @throws PluginNotFoundException If the target plugin is not loaded or did not reply within {@link TIMEOUT}.
+	 */
+	public Result sendBlocking(SimpleFieldSet params, Bucket data) throws PluginNotFoundException {
+		return send(params, data).getBlocking();
+	}
+
+	/**
+	 * @return The number of requests which are waiting for their reply.
+	 */
+	public int getPendingRequestCount() {
+		return mRequests.size();
+	}
+
+	public void onReply(String pluginname, String identifier, SimpleFieldSet params, Bucket data) {
+		final Request request = mRequests.remove(identifier);
+
+		if(request == null) {
+			Logger.error(this, "Received onReply for an unknown request, it might have timed out or the FCP function sent more than 1 reply: " + params);
+			return;
+		}
+
+		request.onReply(new Result(params, data));
+	}
+}
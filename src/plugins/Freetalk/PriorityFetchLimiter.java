@@ -0,0 +1,88 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.HashSet;
+
+/**
+ * Limits the parallel fetches of a fetcher which has a priority queue in addition to its regular queue, such as the message fetcher with the
+ * parent messages and threads of messages which we have, see {@link MessageManager#getPriorityMessageFetchQueue()}:
+ * - The priority fetches are limited by a fixed maximum.
+ * - The regular fetches are limited by a {@link FetchConcurrencyController}.
+ * The priority fetches are neither counted in the limit of the controller nor passed to it, so that the regular fetches cannot starve them,
+ * they cannot starve the regular fetches and their results do not change the limit of the regular fetches: They use a different priority
+ * class of the node, so their latencies and failures say nothing about how many regular fetches the node can handle.
+ *
+ * The fetcher must call {@link onFetchStarted} and {@link onFetchFinished} for each fetch instead of calling the controller.
+ *
+ * Not synchronized, the fetcher must synchronize the calls.
+ */
+public final class PriorityFetchLimiter {
+
+	private final int mMaxPriorityFetchCount;
+
+	private final FetchConcurrencyController mConcurrency;
+
+	/**
+	 * The running fetches of the priority queue.
+	 */
+	private final HashSet<Object> mPriorityFetches;
+
+
+	/**
+	 * @param maxPriorityFetchCount The maximal number of parallel fetches of the priority queue.
+	 * @param concurrency The controller of the regular fetches.
+	 */
+	public PriorityFetchLimiter(int maxPriorityFetchCount, FetchConcurrencyController concurrency) {
+		if(maxPriorityFetchCount < 1)
+			throw new IllegalArgumentException("Invalid limit: " + maxPriorityFetchCount);
+
+		mMaxPriorityFetchCount = maxPriorityFetchCount;
+		mConcurrency = concurrency;
+		mPriorityFetches = new HashSet<Object>(maxPriorityFetchCount * 2);
+	}
+
+	public boolean canStartPriorityFetch() {
+		return mPriorityFetches.size() < mMaxPriorityFetchCount;
+	}
+
+	/**
+	 * @param runningFetchCount The number of running fetches of the fetcher, including the priority fetches.
+	 * @param now The current time in milliseconds.
+	 */
+	public boolean canStartRegularFetch(int runningFetchCount, long now) {
+		return mConcurrency.canStartFetch(runningFetchCount - mPriorityFetches.size(), now);
+	}
+
+	/**
+	 * @param fetch An object which identifies the fetch, for example the ClientGetter. Must be passed to {@link onFetchFinished}.
+	 * @param priority True if the fetch is a fetch of the priority queue.
+	 * @param now The current time in milliseconds.
+	 */
+	public void onFetchStarted(Object fetch, boolean priority, long now) {
+		if(priority)
+			mPriorityFetches.add(fetch);
+		else
+			mConcurrency.onFetchStarted(fetch, now);
+	}
+
+	/**
+	 * Passes the result of the fetch to the controller unless it is a fetch of the priority queue.
+	 *
+	 * @param now The current time in milliseconds.
+	 */
+	public void onFetchFinished(Object fetch, FetchConcurrencyController.Result result, long now) {
+		if(!mPriorityFetches.remove(fetch))
+			mConcurrency.onFetchFinished(fetch, result, now);
+	}
+
+	public void onAllFetchesAborted() {
+		mPriorityFetches.clear();
+		mConcurrency.onAllFetchesAborted();
+	}
+
+	public int getPriorityFetchCount() {
+		return mPriorityFetches.size();
+	}
+}
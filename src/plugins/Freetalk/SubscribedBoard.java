@@ -1,7 +1,9 @@
 package plugins.Freetalk;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 
 import plugins.Freetalk.Persistent.Indexed;
 import plugins.Freetalk.exceptions.DuplicateMessageException;
@@ -35,6 +37,48 @@ public final class SubscribedBoard extends Board {
 	 * Index of the latest message which this board has pulled from it's parent board. 
 	 */
 	private int	mHighestSynchronizedParentMessageIndex = 0;
+	
+	/**
+	 * The number of {@link MessageReference} objects of this board, including ghost thread references and the thread references of forked threads.
+	 * Maintained by addMessage() and deleteMessage() so that {@link messageCount} does not need a query: Each reference is counted when it is
+	 * created and uncounted when it is deleted.
+	 */
+	private int mMessageCount = 0;
+	
+	/**
+	 * The number of {@link MessageReference} objects of this board whose "was read"-flag is false. Maintained by addMessage(), deleteMessage() and
+	 * the markAsRead() / markAsUnread() functions of the references.
+	 */
+	private int mUnreadMessageCount = 0;
+	
+	/**
+	 * False for boards which were stored by a Freetalk version which did not have the counters yet: db4o does not call the constructor when loading
+	 * objects so missing fields are false. The {@link MessageManager} calls {@link recountMessagesWithoutCommit} for those during startup.
+	 */
+	private boolean mCountersAreValid = true;
+	
+	/**
+	 * False for boards which were stored by a Freetalk version which did not store {@link MessageOverview} objects yet. The {@link MessageManager}
+	 * calls {@link rebuildOverviewsWithoutCommit} for those during startup.
+	 */
+	private boolean mOverviewsAreValid = true;
+	
+	/**
+	 * The snapshot of the thread index which the UIs read without locking this board, see {@link getSnapshot}. Null if it was not created yet
+	 * or was invalidated. Only assigned while holding the database lock.
+	 */
+	private transient volatile BoardSnapshot mSnapshot = null;
+	
+	/**
+	 * The version of the latest snapshot. Protected by the database lock.
+	 */
+	private transient long mSnapshotVersion = 0;
+	
+	/**
+	 * The references which were added, modified or deleted since the snapshot was published, by message index. Deleted references are mapped
+	 * to null. Protected by the lock of this board.
+	 */
+	private transient HashMap<Integer, MessageReference> mSnapshotChanges = null;
 
 	
 	public SubscribedBoard(Board myParentBoard, FTOwnIdentity mySubscriber) throws InvalidParameterException {
@@ -57,12 +101,16 @@ public final class SubscribedBoard extends Board {
 		// TODO: When deleting a subscribed board, check whether the objects of class Message are being used by a subscribed board of another own identity.
 		// If not, delete the messages.
 		try {
-			checkedActivate(3); // TODO: Figure out a suitable depth.
+			checkedActivate();
 			
 			for(MessageReference ref : getAllMessages(false)) {
 				ref.initializeTransient(mFreetalk);
 				ref.deleteWithoutCommit();
 			}
+			
+			for(MessageOverview overview : getMessageOverviews(0, Integer.MAX_VALUE)) {
+				overview.deleteWithoutCommit();
+			}
 
 			checkedDelete();
 		}
@@ -73,6 +121,7 @@ public final class SubscribedBoard extends Board {
 	}
 	
 	public FTOwnIdentity getSubscriber() {
+		checkedActivate(1);
     	if(mSubscriber instanceof Persistent) {
     		final Persistent subscriber = (Persistent)mSubscriber;
     		subscriber.initializeTransient(mFreetalk);
@@ -81,11 +130,13 @@ public final class SubscribedBoard extends Board {
 	}
 	
 	public Board getParentBoard() {
+		checkedActivate(1);
 		mParentBoard.initializeTransient(mFreetalk);
 		return mParentBoard;
 	}
 
     public synchronized String getDescription() {
+    	checkedActivate(1);
         return mDescription != null ? mDescription : super.getDescription(getSubscriber());
     }
     
@@ -125,17 +176,19 @@ public final class SubscribedBoard extends Board {
     
     /**
      * Called by the {@link MessageManager} when the parent board has received new messages.
-     * Does not delete messages, only adds new messages.
+     * Does not delete messages, only adds new messages. Publishes a new snapshot if messages were added, see {@link getSnapshot}.
      * 
      * @throws Exception If one of the addMessage calls fails. 
      */
     protected synchronized final void synchronizeWithoutCommit() throws Exception {
+    	checkedActivate(1);
     	for(Board.BoardMessageLink messageLink : getParentBoard().getMessagesAfterIndex(mHighestSynchronizedParentMessageIndex)) {
     		addMessage(messageLink.getMessage());
     		mHighestSynchronizedParentMessageIndex = messageLink.getMessageIndex();
     	}
     	
     	storeWithoutCommit();
+    	publishSnapshot();
     }
     
     /**
@@ -173,6 +226,8 @@ public final class SubscribedBoard extends Board {
     		ghostRef = getThreadLink(newMessage.getID());
     		ghostRef.setMessage(newMessage);
     		ghostRef.storeWithoutCommit();
+    		onSnapshotChanged(ghostRef);
+    		storeOverviewWithoutCommit(ghostRef.getIndex(), newMessage);
     		
     		linkThreadRepliesToNewParent(newMessage.getID(), newMessage);
     	}
@@ -182,6 +237,9 @@ public final class SubscribedBoard extends Board {
 	    		BoardThreadLink threadRef = new BoardThreadLink(this, newMessage, takeFreeMessageIndexWithoutCommit());
 	    		threadRef.initializeTransient(mFreetalk);
 	    		threadRef.storeWithoutCommit();
+	    		onMessageReferenceAdded(threadRef);
+	    		onSnapshotChanged(threadRef);
+	    		storeOverviewWithoutCommit(threadRef.getIndex(), newMessage);
 	    		
 	    		// We do not call linkThreadRepliesToNewParent() here because if there was no ghost reference for the new message this means that no replies to
 	    		// it were received yet.
@@ -203,7 +261,6 @@ public final class SubscribedBoard extends Board {
     		
     		// 3. Tell the parent thread that a new message was added. This updates the last reply date and the "was read"-flag of the thread.
     		parentThreadRef.onMessageAdded(newMessage);
-    		parentThreadRef.storeWithoutCommit();
     		
     		// 4. Store a BoardReplyLink for the new message
     		BoardReplyLink messageRef;
@@ -216,8 +273,15 @@ public final class SubscribedBoard extends Board {
     			messageRef = new BoardReplyLink(this, newMessage, takeFreeMessageIndexWithoutCommit());
     			messageRef.initializeTransient(mFreetalk);
     			messageRef.storeWithoutCommit();
+    			onMessageReferenceAdded(messageRef);
+    			onSnapshotChanged(messageRef);
+    			parentThreadRef.onReplyAdded(messageRef);
+    			storeOverviewWithoutCommit(messageRef.getIndex(), newMessage);
     		}
     		
+    		parentThreadRef.storeWithoutCommit();
+    		onSnapshotChanged(parentThreadRef);
+    		
     		// 5. Try to find the new message's parent message and tell it about it's parent message if it exists.
     		try {
     			// Try to find the parent message of the message
@@ -228,8 +292,8 @@ public final class SubscribedBoard extends Board {
     			newMessage.setParent(mFreetalk.getMessageManager().get(newMessage.getParentID()));
     		}
     		catch(NoSuchMessageException e) {
-    			// The parent message of the message was not downloaded yet
-    			// TODO: The MessageManager should try to download the parent message if it's poster has enough trust.
+    			// The parent message of the message was not downloaded yet. The MessageManager has queued it for being fetched with priority
+    			// if its message list is known, see MessageFetchQueueEntry.
     		}
 
     		linkThreadRepliesToNewParent(parentThreadRef.getThreadID(), newMessage);
@@ -245,6 +309,8 @@ public final class SubscribedBoard extends Board {
      * 
      * Does not delete the Message object itself, this is to be done by the callee.
      * 
+     * Publishes a new snapshot, see {@link getSnapshot}.
+     * 
      * @param message The message which is about to be deleted. It must still be stored within the database so that queries on it work.
      * @throws NoSuchMessageException If the message does not exist in this Board.
      */
@@ -253,14 +319,18 @@ public final class SubscribedBoard extends Board {
     	try {
     		// Check whether the message was listed as a thread.
     		BoardThreadLink threadLink = getThreadLink(message.getID());
+    		deleteOverviewWithoutCommit(threadLink.getIndex());
     		
     		// If it was listed as a thread and had no replies, we can delete it's ThreadLink.
-	    	if(threadReplyCount(message.getID()) == 0) {
+	    	if(threadLink.getReplyCount() == 0) {
+	    		onMessageReferenceDeleted(threadLink);
+	    		onSnapshotDeleted(threadLink);
 	    		threadLink.deleteWithoutCommit();
 	    	} else {
 	    		// We do not delete the ThreadLink if it has replies already: We want the replies to stay visible and therefore the ThreadLink has to be kept,
 	    		// so we mark it as a ghost thread.
 	    		threadLink.removeThreadMessage();
+	    		onSnapshotChanged(threadLink);
 	    	}
     	}
     	catch(NoSuchMessageException e) { // getThreadReference failed
@@ -272,17 +342,18 @@ public final class SubscribedBoard extends Board {
     	
     	if(message.isThread() == false) {
 			try {
-				final String parentThreadID;
-				
-				{ // Delete the reply itself.
-					BoardReplyLink replyLink = getReplyLink(message);
-					parentThreadID = replyLink.getThreadID();
-					replyLink.deleteWithoutCommit();
-				}
+				// Delete the reply itself.
+				final BoardReplyLink replyLink = getReplyLink(message);
+				final String parentThreadID = replyLink.getThreadID();
+				deleteOverviewWithoutCommit(replyLink.getIndex());
+				onMessageReferenceDeleted(replyLink);
+				onSnapshotDeleted(replyLink);
+				replyLink.deleteWithoutCommit();
 				
 				// Update the parent thread of the reply
 				
 				BoardThreadLink threadLink = getThreadLink(parentThreadID);
+				threadLink.onReplyRemoved(replyLink);
 				
 				try {
 					threadLink.getMessage();
@@ -291,20 +362,223 @@ public final class SubscribedBoard extends Board {
 					// If the thread itself is a ghost thread and it has no more replies, we must delete it:
 					// It might happen that the caller first calls deleteMessage(thread) and then deleteMessage(all replies). The call to
 					// deleteMessage(thread) did not delete the thread because it still had replies. Now it has no more replies and we must delete it.
-					if(threadReplyCount(parentThreadID) == 0) {
+					if(threadLink.getReplyCount() == 0) {
+						onMessageReferenceDeleted(threadLink);
+						onSnapshotDeleted(threadLink);
 						threadLink.deleteWithoutCommit();
 						threadLink = null;
 					} 
 				}
 				
-				if(threadLink != null)
+				if(threadLink != null) {
 					threadLink.onMessageRemoved(message);
+					threadLink.storeWithoutCommit();
+					onSnapshotChanged(threadLink);
+				}
 				
 			} catch (NoSuchMessageException e) {
 				Logger.error(this, "Should not happen: deleteMessage() called for a reply message which does not exist in this Board.", e);
+				// The changes which were remembered for the snapshot above must not be published with the next snapshot: The caller does not
+				// roll back for this exception. The next getSnapshot() creates the snapshot from the database instead.
+				invalidateSnapshot();
 				throw e;
 			}
     	}
+    	
+    	storeWithoutCommit();
+    	publishSnapshot();
+    }
+    
+    private void onMessageReferenceAdded(MessageReference ref) {
+    	checkedActivate(1);
+    	++mMessageCount;
+    	
+    	if(!ref.wasRead())
+    		++mUnreadMessageCount;
+    }
+    
+    private void onMessageReferenceDeleted(MessageReference ref) {
+    	checkedActivate(1);
+    	--mMessageCount;
+    	
+    	if(!ref.wasRead())
+    		--mUnreadMessageCount;
+    }
+    
+    /**
+     * Gets the snapshot of the thread index of this board. Does not lock this board and therefore never waits for the linking of messages.
+     * 
+     * The snapshot is created from the database by the first call. Afterwards, {@link synchronizeWithoutCommit} and {@link deleteMessage}
+     * publish a new snapshot copy-on-write when they have changed the board. They do so before the {@link MessageManager} commits their
+     * transaction, readers of the database could see the changes at that point already as well.
+     */
+    public BoardSnapshot getSnapshot() {
+    	final BoardSnapshot snapshot = mSnapshot;
+    	if(snapshot != null)
+    		return snapshot;
+    	
+    	// Writers hold the database lock while changing the references of this board so holding it is enough for taking a consistent snapshot.
+    	// Locking this board instead would make the reader wait for message linking.
+    	synchronized(mDB.lock()) {
+    		if(mSnapshot == null)
+    			mSnapshot = BoardSnapshot.create(++mSnapshotVersion, getAllMessages(false));
+    		
+    		return mSnapshot;
+    	}
+    }
+    
+    /**
+     * Remembers that the given reference was added or modified so that {@link publishSnapshot} includes it in the next snapshot.
+     */
+    private void onSnapshotChanged(MessageReference ref) {
+    	if(mSnapshotChanges == null)
+    		mSnapshotChanges = new HashMap<Integer, MessageReference>();
+    	
+    	mSnapshotChanges.put(ref.getIndex(), ref);
+    }
+    
+    /**
+     * Remembers that the given reference is being deleted so that {@link publishSnapshot} removes it from the next snapshot.
+     */
+    private void onSnapshotDeleted(MessageReference ref) {
+    	if(mSnapshotChanges == null)
+    		mSnapshotChanges = new HashMap<Integer, MessageReference>();
+    	
+    	mSnapshotChanges.put(ref.getIndex(), null);
+    }
+    
+    /**
+     * Publishes a copy of the current snapshot with the changes remembered by {@link onSnapshotChanged} and {@link onSnapshotDeleted}.
+     * You have to lock this board and the database before calling this function.
+     */
+    private void publishSnapshot() {
+    	if(mSnapshotChanges == null)
+    		return;
+    	
+    	// If no snapshot was created yet, the next getSnapshot() creates it from the database, which contains the changes already.
+    	if(mSnapshot != null)
+    		mSnapshot = mSnapshot.withChanges(++mSnapshotVersion, mSnapshotChanges);
+    	
+    	mSnapshotChanges = null;
+    }
+    
+    /**
+     * Discards the snapshot so that the next call to {@link getSnapshot} creates it from the database. Called by the {@link MessageManager} when it
+     * rolls back a transaction in which messages were added to or deleted from this board.
+     * 
+     * You have to lock this board and the database before calling this function.
+     */
+    protected void invalidateSnapshot() {
+    	mSnapshotChanges = null;
+    	mSnapshot = null;
+    }
+    
+    /**
+     * @return False if the message counters of this board were not initialized or are obviously wrong. {@link recountMessagesWithoutCommit} must be
+     * 	called then.
+     */
+    protected synchronized boolean countersAreValid() {
+    	checkedActivate(1);
+    	return mCountersAreValid && mMessageCount >= 0 && mUnreadMessageCount >= 0 && mUnreadMessageCount <= mMessageCount;
+    }
+    
+    /**
+     * Recomputes the message counters of this board and the reply counters of all of its threads with queries.
+     * Called by the {@link MessageManager} during startup for boards where {@link countersAreValid} returns false.
+     * 
+     * You have to lock this board and the database before calling this function.
+     */
+    @SuppressWarnings("unchecked")
+    protected synchronized void recountMessagesWithoutCommit() {
+    	checkedActivate(1);
+    	
+    	Query q = mDB.query();
+    	q.constrain(MessageReference.class);
+    	q.descend("mBoard").constrain(this).identity();
+    	mMessageCount = q.execute().size();
+    	
+    	q = mDB.query();
+    	q.constrain(MessageReference.class);
+    	q.descend("mBoard").constrain(this).identity();
+    	q.descend("mWasRead").constrain(false);
+    	mUnreadMessageCount = q.execute().size();
+    	
+    	for(BoardThreadLink thread : getThreads()) {
+    		q = mDB.query();
+    		q.constrain(BoardReplyLink.class);
+    		q.descend("mBoard").constrain(this).identity();
+    		q.descend("mThreadID").constrain(thread.getThreadID());
+    		final ObjectSet<BoardReplyLink> replies = q.execute();
+    		
+    		thread.mReplyCount = replies.size();
+    		thread.mUnreadReplyCount = 0;
+    		
+    		for(BoardReplyLink reply : replies) {
+    			if(!reply.wasRead())
+    				++thread.mUnreadReplyCount;
+    		}
+    		
+    		thread.storeWithoutCommit();
+    	}
+    	
+    	mCountersAreValid = true;
+    	storeWithoutCommit();
+    	invalidateSnapshot(); // The reply counts of the threads were changed.
+    }
+
+    /**
+     * Stores the {@link MessageOverview} for the given message index if it does not exist yet. Called whenever a message is linked into the board.
+     */
+    private void storeOverviewWithoutCommit(int messageIndex, Message message) {
+    	if(getMessageOverviews(messageIndex, messageIndex).size() > 0)
+    		return; // addMessage() was called already for the message, see the comment there.
+    	
+    	final MessageOverview overview = new MessageOverview(this, messageIndex, ArticleFormatter.getOverview(message));
+    	overview.initializeTransient(mFreetalk);
+    	overview.storeWithoutCommit();
+    }
+    
+    /**
+     * Deletes the {@link MessageOverview} of the given message index if there is one. Ghost thread references do not have an overview.
+     */
+    private void deleteOverviewWithoutCommit(int messageIndex) {
+    	for(MessageOverview overview : getMessageOverviews(messageIndex, messageIndex)) {
+    		overview.deleteWithoutCommit();
+    	}
+    }
+    
+    /**
+     * @return False if the {@link MessageOverview} objects of this board were not created yet. {@link rebuildOverviewsWithoutCommit} must be called then.
+     */
+    protected synchronized boolean overviewsAreValid() {
+    	checkedActivate(1);
+    	return mOverviewsAreValid;
+    }
+    
+    /**
+     * Deletes the {@link MessageOverview} objects of this board and creates them again for all references which point to a fetched message.
+     * Called by the {@link MessageManager} during startup for boards where {@link overviewsAreValid} returns false.
+     * 
+     * You have to lock this board and the database before calling this function.
+     */
+    protected synchronized void rebuildOverviewsWithoutCommit() {
+    	checkedActivate(1);
+    	
+    	for(MessageOverview overview : getMessageOverviews(0, Integer.MAX_VALUE)) {
+    		overview.deleteWithoutCommit();
+    	}
+    	
+    	for(MessageReference ref : getAllMessages(false)) {
+    		try {
+    			storeOverviewWithoutCommit(ref.getIndex(), ref.getMessage());
+    		}
+    		catch(MessageNotFetchedException e) {
+    			// Ghost thread references do not have an overview.
+    		}
+    	}
+    	
+    	mOverviewsAreValid = true;
+    	storeWithoutCommit();
     }
 
     /**
@@ -436,13 +710,16 @@ public final class SubscribedBoard extends Board {
     			BoardThreadLink parentThreadRef = new BoardThreadLink(this, parentThread, takeFreeMessageIndexWithoutCommit());
     			parentThreadRef.initializeTransient(mFreetalk);
     			parentThreadRef.storeWithoutCommit();
+    			onMessageReferenceAdded(parentThreadRef);
+    			storeOverviewWithoutCommit(parentThreadRef.getIndex(), parentThread);
     			return parentThreadRef;
     		}
     		catch(NoSuchMessageException ex) { 
     			// The message manager did not find the parentThreadID, so the parent thread was not downloaded yet, we create a ghost thread reference for it.
-    			BoardThreadLink ghostThreadRef = new BoardThreadLink(this, parentThreadID, newMessage.getDate(), takeFreeMessageIndexWithoutCommit());
+    			BoardThreadLink ghostThreadRef = new BoardThreadLink(this, parentThreadID, newMessage, takeFreeMessageIndexWithoutCommit());
     			ghostThreadRef.initializeTransient(mFreetalk);
     			ghostThreadRef.storeWithoutCommit();
+    			onMessageReferenceAdded(ghostThreadRef);
     			return ghostThreadRef;
     		}		
     	}
@@ -464,8 +741,50 @@ public final class SubscribedBoard extends Board {
     	return new Persistent.InitializingObjectSet<BoardThreadLink>(mFreetalk, q.execute());
     }
 
+    /**
+     * Get a page of the threads in the board, sorted like {@link getThreads}: Descending by the date of their last reply. Threads with the
+     * same date of last reply are sorted ascending by their ID so that the order is stable and the page can be continued with a cursor.
+     * 
+     * Only the returned threads are activated, so the cost of a page does not depend on the number of messages in the board.
+     * 
+     * @param cursorDate The date of last reply of the last thread on the previous page, null for the first page.
+     * @param cursorThreadID The ID of the last thread on the previous page, null for the first page.
+     * @param count The maximal number of threads to return.
+     */
     @SuppressWarnings("unchecked")
-    public synchronized ObjectSet<MessageReference> getAllMessages(final boolean sortByMessageIndexAscending) {
+    public synchronized ArrayList<BoardThreadLink> getThreads(final Date cursorDate, final String cursorThreadID, final int count) {
+    	final Query q = mDB.query();
+    	q.constrain(BoardThreadLink.class);
+    	q.descend("mBoard").constrain(SubscribedBoard.this).identity();
+    	if(cursorDate != null)
+    		q.descend("mLastReplyDate").constrain(cursorDate).greater().not();
+    	q.descend("mLastReplyDate").orderDescending();
+    	q.descend("mThreadID").orderAscending();
+    	final ObjectSet<BoardThreadLink> result = q.execute();
+    	
+    	final ArrayList<BoardThreadLink> threads = new ArrayList<BoardThreadLink>(count);
+    	
+    	while(result.hasNext() && threads.size() < count) {
+    		final BoardThreadLink thread = result.next();
+    		
+    		// Skip the threads which were on the previous pages already: Those with the same date as the cursor and an ID which is not larger.
+    		if(cursorDate != null && cursorThreadID != null && thread.getLastReplyDate().equals(cursorDate) 
+    				&& thread.getThreadID().compareTo(cursorThreadID) <= 0)
+    			continue;
+    		
+    		thread.initializeTransient(mFreetalk);
+    		threads.add(thread);
+    	}
+    	
+    	return threads;
+    }
+
+    /**
+     * Not synchronized so that it can be called while only holding the database lock, see {@link getSnapshot}. db4o executes the query while
+     * holding the database lock.
+     */
+    @SuppressWarnings("unchecked")
+    public ObjectSet<MessageReference> getAllMessages(final boolean sortByMessageIndexAscending) {
     	final Query q = mDB.query();
         q.constrain(MessageReference.class);
         q.descend("mBoard").constrain(this).identity();
@@ -503,13 +822,13 @@ public final class SubscribedBoard extends Board {
         return result.next().getIndex();
     }
     
+    /**
+     * Get the number of {@link MessageReference} objects of this board whose "was read"-flag is false. Ghost thread references and the
+     * thread references of forked threads are included, so a message which was forked off is counted twice. See {@link messageCount}.
+     */
 	public synchronized int getUnreadMessageCount() {
-        final Query q = mDB.query();
-        q.constrain(MessageReference.class);
-        q.descend("mBoard").constrain(this).identity();
-        q.descend("mWasRead").constrain(false);
-        
-        return q.execute().size();
+        checkedActivate(1);
+        return mUnreadMessageCount;
     }
 
     /**
@@ -518,12 +837,14 @@ public final class SubscribedBoard extends Board {
      * Index numbers are local to each subscribed board. Attention: If a subscription to a board is removed and re-created, different index numbers might
      * be assigned to each message. This can be detected by a changed ID of the subscribed board.
      * 
+     * Not synchronized so that readers of the {@link BoardSnapshot} do not need to lock this board.
+     * 
      * @param index The index number of the demanded message.
      * @return A reference to the demanded message.
      * @throws NoSuchMessageException If there is no such message index.
      */
     @SuppressWarnings("unchecked")
-    public synchronized MessageReference getMessageByIndex(int index) throws NoSuchMessageException {
+    public MessageReference getMessageByIndex(int index) throws NoSuchMessageException {
     	final Query q = mDB.query();
         q.constrain(MessageReference.class);
         q.descend("mBoard").constrain(this).identity();
@@ -585,37 +906,53 @@ public final class SubscribedBoard extends Board {
     }
 
     /**
-     * Get the number of messages in this board.
+     * Get the overviews of the messages whose index is in the given range, sorted ascending by index. Ghost thread references are not included.
+     * 
+     * This does not activate any {@link Message} objects and is therefore suitable for the NNTP OVER command, which is typically used on large ranges.
+     * Not synchronized so that the NNTP server does not need to lock this board.
      */
-    public synchronized int messageCount() {
+    @SuppressWarnings("unchecked")
+    public ObjectSet<MessageOverview> getMessageOverviews(final int minimumIndex, final int maximumIndex) {
     	final Query q = mDB.query();
-        q.constrain(MessageReference.class);
-        q.descend("mBoard").constrain(this).identity();
-        return q.execute().size();
+    	q.constrain(MessageOverview.class);
+    	q.descend("mBoard").constrain(this).identity();
+    	q.descend("mMessageIndex").constrain(minimumIndex).smaller().not();
+    	q.descend("mMessageIndex").constrain(maximumIndex).greater().not();
+    	q.descend("mMessageIndex").orderAscending();
+    	return new Persistent.InitializingObjectSet<MessageOverview>(mFreetalk, q.execute());
+    }
+
+    /**
+     * Get the number of {@link MessageReference} objects of this board. Ghost thread references and the thread references of forked threads
+     * are included.
+     */
+    public synchronized int messageCount() {
+        checkedActivate(1);
+        return mMessageCount;
     }
 
     /**
-     * Get the number of replies to the given thread.
+     * Get the number of replies to the given thread. If you have the {@link BoardThreadLink} already, use {@link BoardThreadLink.getReplyCount}.
      */
     public synchronized int threadReplyCount(String threadID) {
-    	final Query q = mDB.query();
-        q.constrain(BoardReplyLink.class);
-        q.descend("mBoard").constrain(this).identity();
-        q.descend("mThreadID").constrain(threadID);
-        return q.execute().size();
+    	try {
+    		return getThreadLink(threadID).getReplyCount();
+    	}
+    	catch(NoSuchMessageException e) {
+    		return 0;
+    	}
     }
     
     /**
-     * Get the number of unread replies to the given thread.
+     * Get the number of unread replies to the given thread. If you have the {@link BoardThreadLink} already, use {@link BoardThreadLink.getUnreadReplyCount}.
      */
     public synchronized int threadUnreadReplyCount(String threadID) {
-    	final Query q = mDB.query();
-        q.constrain(BoardReplyLink.class);
-        q.descend("mBoard").constrain(this).identity();
-        q.descend("mThreadID").constrain(threadID);
-        q.descend("mWasRead").constrain(false);
-        
-        return q.execute().size();
+    	try {
+    		return getThreadLink(threadID).getUnreadReplyCount();
+    	}
+    	catch(NoSuchMessageException e) {
+    		return 0;
+    	}
     }
 
     /**
@@ -671,6 +1008,11 @@ public final class SubscribedBoard extends Board {
     	protected final int mMessageIndex;
 
     	private boolean mWasRead = false;
+    	
+    	/**
+    	 * True if markAsRead() / markAsUnread() have changed the unread counters of the board, they are stored by the next storeWithoutCommit() of this reference.
+    	 */
+    	private transient boolean mCountersChanged = false;
 
 
     	private MessageReference(SubscribedBoard myBoard, int myMessageIndex) {
@@ -698,17 +1040,27 @@ public final class SubscribedBoard extends Board {
     		mMessageDate = mMessage.getDate();
     	}
     	
+        /**
+         * Get the board of this reference. Its transient fields are initialized already.
+         */
+        protected SubscribedBoard getBoard() {
+        	checkedActivate(1);
+        	mBoard.initializeTransient(mFreetalk);
+        	return mBoard;
+        }
+        
         /**
          * Get the message to which this reference points.
          * @throws MessageNotFetchedException If the message belonging to this reference was not fetched yet.
          */
         public Message getMessage() throws MessageNotFetchedException {
-        	checkedActivate(2);
+        	checkedActivate(1);
         	mMessage.initializeTransient(mFreetalk);
             return mMessage;
         }
         
         public Date getMessageDate() {
+        	checkedActivate(1);
         	return mMessageDate;
         }
         
@@ -716,27 +1068,70 @@ public final class SubscribedBoard extends Board {
          * This index number is needed for NNTP and for synchronization with client-applications: They can check whether they have all messages by querying
          * for the highest available index number. */
         public int getIndex() {
+        	checkedActivate(1);
         	return mMessageIndex;
         }
         
 		public boolean wasRead() {
+			checkedActivate(1);
 			return mWasRead;
 		}
 		
 		public void markAsRead() {
+			checkedActivate(1);
+			if(mWasRead)
+				return;
+			
 			mWasRead = true;
+			onReadStateChanged(-1);
 		}
 		
 		public void markAsUnread() { 
+			checkedActivate(1);
+			if(!mWasRead)
+				return;
+			
 			mWasRead = false;
+			onReadStateChanged(1);
+		}
+		
+		/**
+		 * Called when the "was read"-flag was changed, updates the unread counters.
+		 * @param unreadDelta 1 if the message was marked as unread, -1 if it was marked as read.
+		 */
+		protected void onReadStateChanged(int unreadDelta) {
+			final SubscribedBoard board = getBoard();
+			board.checkedActivate(1);
+			board.mUnreadMessageCount += unreadDelta;
+			mCountersChanged = true;
+		}
+		
+		/**
+		 * Stores the objects whose counters were changed by {@link onReadStateChanged}.
+		 */
+		protected void storeCountersWithoutCommit() {
+			getBoard().storeWithoutCommit();
+		}
+		
+		/**
+		 * Stores this reference and the counters which were changed by markAsRead() / markAsUnread().
+		 */
+		protected void storeWithoutCommit() {
+			super.storeWithoutCommit();
+			
+			if(mCountersChanged) {
+				storeCountersWithoutCommit();
+				mCountersChanged = false;
+			}
 		}
         
         /**
-         * Does not provide synchronization, you have to lock the MessageManager, this Board and then the database before calling this function.
+         * Does not provide synchronization, you have to lock the stripe of this board (see {@link MessageManager#getBoardLock(String)}),
+         * this Board and then the database before calling this function.
          */
         protected void storeWithoutCommit(ExtObjectContainer db) {
         	try {
-        		checkedActivate(3); // TODO: Figure out a suitable depth.
+        		checkedActivate();
         		throwIfNotStored(mBoard);
         		if(mMessage != null) throwIfNotStored(mMessage);
 
@@ -764,7 +1159,7 @@ public final class SubscribedBoard extends Board {
         
         
     	protected void deleteWithoutCommit(ExtObjectContainer db) {
-    		deleteWithoutCommit(3); // TODO: Figure out a suitable depth.
+    		deleteWithoutCommit();
 		}
     }
     
@@ -776,6 +1171,11 @@ public final class SubscribedBoard extends Board {
         
     	@Indexed
         private final String mThreadID;
+    	
+    	/**
+    	 * The thread whose unread reply counter was changed by onReadStateChanged(), it is stored by storeCountersWithoutCommit().
+    	 */
+    	private transient BoardThreadLink mThreadLink = null;
 
 
         protected BoardReplyLink(SubscribedBoard myBoard, Message myMessage, int myIndex) {
@@ -797,12 +1197,38 @@ public final class SubscribedBoard extends Board {
         }
         
         public String getThreadID() {
+        	checkedActivate(1);
         	return mThreadID;
         }
         
 		public Date getDate() {
+			checkedActivate(1);
 			return mMessageDate;
 		}
+		
+		/**
+		 * Also updates the unread reply counter of the thread.
+		 */
+		protected void onReadStateChanged(int unreadDelta) {
+			super.onReadStateChanged(unreadDelta);
+			
+			try {
+				mThreadLink = getBoard().getThreadLink(getThreadID());
+				mThreadLink.mUnreadReplyCount += unreadDelta;
+			}
+			catch(NoSuchMessageException e) {
+				Logger.error(this, "Should not happen: The thread of a BoardReplyLink does not exist.", e);
+			}
+		}
+		
+		protected void storeCountersWithoutCommit() {
+			super.storeCountersWithoutCommit();
+			
+			if(mThreadLink != null) {
+				mThreadLink.storeWithoutCommit();
+				mThreadLink = null;
+			}
+		}
 
     }
 
@@ -812,9 +1238,31 @@ public final class SubscribedBoard extends Board {
     	@Indexed
         private final String mThreadID;
         
+    	@Indexed
     	private Date mLastReplyDate;
     	
+    	/**
+    	 * The title of the thread message. For ghost threads, the title of the oldest reply. Stored so that the board page does not need to
+    	 * query the replies of ghost threads. Null for threads which were stored by a Freetalk version which did not store the title yet.
+    	 */
+    	private String mTitle;
+    	
+    	/**
+    	 * For ghost threads, the date of the reply whose title is used as {@link mTitle}. Null for threads whose message was fetched.
+    	 */
+    	private Date mTitleDate;
+    	
     	private boolean mWasThreadRead = false;
+    	
+    	/**
+    	 * The number of {@link BoardReplyLink} objects of this thread. Maintained by the {@link SubscribedBoard}.
+    	 */
+    	private int mReplyCount = 0;
+    	
+    	/**
+    	 * The number of {@link BoardReplyLink} objects of this thread whose "was read"-flag is false.
+    	 */
+    	private int mUnreadReplyCount = 0;
 
 
     	protected BoardThreadLink(SubscribedBoard myBoard, Message myThread, int myMessageIndex) {
@@ -825,13 +1273,18 @@ public final class SubscribedBoard extends Board {
     		
     		mThreadID = mMessage.getID();
     		mLastReplyDate = myThread.getDate();
+    		mTitle = myThread.getTitle();
+    		mTitleDate = null;
     	}
 
 		/**
-    	 * @param myLastReplyDate The date of the last reply to this thread. This parameter must be specified at creation to prevent threads from being hidden if
-    	 * 							the user of this constructor forgot to call updateLastReplyDate() - thread display is sorted descending by reply date!
+		 * Constructor for ghost thread references.
+		 * 
+    	 * @param myFirstReply The reply because of which the ghost thread is created. Its date is used as the date of the last reply to this
+    	 * 						thread, this must be specified at creation to prevent threads from being hidden if the user of this constructor forgot
+    	 * 						to call updateLastReplyDate() - thread display is sorted descending by reply date! 
     	 */
-    	protected BoardThreadLink(SubscribedBoard myBoard, String myThreadID, Date myLastReplyDate, int myMessageIndex) {
+    	protected BoardThreadLink(SubscribedBoard myBoard, String myThreadID, Message myFirstReply, int myMessageIndex) {
     		super(myBoard, myMessageIndex);
     		
     		if(myThreadID == null)
@@ -840,28 +1293,57 @@ public final class SubscribedBoard extends Board {
     		// TODO: We might validate the thread id here. Should be safe not to do so because it is taken from class Message which validates it.
     		
     		mThreadID = myThreadID;
-    		mLastReplyDate = myLastReplyDate;
+    		mLastReplyDate = myFirstReply.getDate();
+    		mTitle = myFirstReply.getTitle();
+    		mTitleDate = myFirstReply.getDate();
     	}
     	
     	protected void onMessageAdded(Message newMessage) {
+    		checkedActivate(1);
     		mWasThreadRead = false;
     		
     		Date newDate = newMessage.getDate();
 			if(newDate.after(mLastReplyDate))
 				mLastReplyDate = newDate;
+			
+			// A ghost thread uses the title of its oldest reply.
+			if(mMessage == null && mTitleDate != null && newDate.before(mTitleDate)) {
+				mTitle = newMessage.getTitle();
+				mTitleDate = newDate;
+			}
 		}
     	
+    	private void onReplyAdded(BoardReplyLink reply) {
+    		checkedActivate(1);
+    		++mReplyCount;
+    		
+    		if(!reply.wasRead())
+    			++mUnreadReplyCount;
+    	}
+    	
+    	private void onReplyRemoved(BoardReplyLink reply) {
+    		checkedActivate(1);
+    		--mReplyCount;
+    		
+    		if(!reply.wasRead())
+    			--mUnreadReplyCount;
+    	}
+    	
     	protected void onMessageRemoved(Message removedMessage) {
+    		checkedActivate(1);
+    		if(mMessage == null && mTitleDate != null && removedMessage.getDate().equals(mTitleDate))
+    			updateGhostTitle();
+    		
     		if(removedMessage.getDate().before(mLastReplyDate))
     			return;
     		
-    		synchronized(mBoard) {
+    		synchronized(getBoard()) {
     	    		// TODO: This assumes that getAllThreadReplies() obtains the sorted order using an index. This is not the case right now. If we do not
     	    		// optimize getAllThreadReplies() we should just iterate over the unsorted replies list and do maximum search.
     				
     				mLastReplyDate = mMessageDate;
     				
-    				for(BoardReplyLink reply : mBoard.getAllThreadReplies(mThreadID, true)) {
+    				for(BoardReplyLink reply : getBoard().getAllThreadReplies(mThreadID, true)) {
     					mLastReplyDate = reply.getDate();
     				}
     		}
@@ -872,25 +1354,95 @@ public final class SubscribedBoard extends Board {
     	
     	
     	public void removeThreadMessage() {
+    		checkedActivate(1);
     		mMessage = null;
     		mMessageDate = null;
     		
     		// TODO: This assumes that getAllThreadReplies() obtains the sorted order using an index. This is not the case right now. If we do not
     		// optimize getAllThreadReplies() we should just iterate over the unsorted replies list and do minimum search.
-    		for(BoardReplyLink reply : mBoard.getAllThreadReplies(mThreadID, true)) {
+    		for(BoardReplyLink reply : getBoard().getAllThreadReplies(mThreadID, true)) {
     			mLastReplyDate = reply.getDate();
-    			return;
+    			break;
     		}
+    		
+    		updateGhostTitle();
+		}
+    	
+    	/**
+    	 * Sets the title of this ghost thread to the title of its oldest reply.
+    	 */
+    	private void updateGhostTitle() {
+    		checkedActivate(1);
+    		mTitle = null;
+    		mTitleDate = null;
+    		
+    		for(BoardReplyLink reply : getBoard().getAllThreadReplies(mThreadID, true)) {
+    			try {
+    				mTitle = reply.getMessage().getTitle();
+    				mTitleDate = reply.getDate();
+    			}
+    			catch(MessageNotFetchedException e) {
+    				Logger.error(this, "Should not happen: BoardReplyLink objects are only created if a message was fetched already.", e);
+    			}
+    			break;
+    		}
+    	}
+		
+		/**
+		 * Get the title of the thread. For ghost threads this is the title of the oldest reply.
+		 * 
+		 * @return The title, null if it is not known.
+		 */
+		public String getTitle() {
+			checkedActivate(1);
+			if(mTitle != null)
+				return mTitle;
+			
+			// The thread was stored by a Freetalk version which did not store the title yet.
+			try {
+				return getMessage().getTitle();
+			}
+			catch(MessageNotFetchedException e) {
+				for(BoardReplyLink reply : getBoard().getAllThreadReplies(mThreadID, true)) {
+					try {
+						return reply.getMessage().getTitle();
+					}
+					catch(MessageNotFetchedException e1) {
+						Logger.error(this, "Should not happen: BoardReplyLink objects are only created if a message was fetched already.", e1);
+					}
+					break;
+				}
+				
+				return null;
+			}
 		}
 		
 		public Date getLastReplyDate() {
+			checkedActivate(1);
 			return mLastReplyDate;
 		}
     	
 		public String getThreadID() {
+			checkedActivate(1);
 			return mThreadID;
 		}
 		
+		/**
+		 * Get the number of replies to this thread.
+		 */
+		public int getReplyCount() {
+			checkedActivate(1);
+			return mReplyCount;
+		}
+		
+		/**
+		 * Get the number of replies to this thread whose "was read"-flag is false. Does not include the thread message itself.
+		 */
+		public int getUnreadReplyCount() {
+			checkedActivate(1);
+			return mUnreadReplyCount;
+		}
+		
 		/**
 		 * Gets the actual message of this thread.
 		 * 
@@ -898,6 +1450,7 @@ public final class SubscribedBoard extends Board {
 		 * thread was downloaded.
 		 */
 		public Message getMessage() throws MessageNotFetchedException {
+			checkedActivate(1);
 			if(mMessage == null)
 				throw new MessageNotFetchedException(mThreadID);
 			
@@ -905,6 +1458,7 @@ public final class SubscribedBoard extends Board {
 		}
 		
 		public void setMessage(Message myThread) {
+			checkedActivate(1);
 			if(myThread == null)
 				throw new NullPointerException();
 			
@@ -913,6 +1467,8 @@ public final class SubscribedBoard extends Board {
 			
 			mMessage = myThread;
 			mMessageDate = mMessage.getDate();
+			mTitle = mMessage.getTitle();
+			mTitleDate = null;
 			
 			markAsUnread(); // Mark the thread message itself as unread (not the whole thread).
 			
@@ -920,14 +1476,17 @@ public final class SubscribedBoard extends Board {
 		}
 		
 		public boolean wasThreadRead() {
+			checkedActivate(1);
 			return mWasThreadRead;
 		}
 		
 		public void markThreadAsRead() {
+			checkedActivate(1);
 			mWasThreadRead = true;
 		}
 		
 		public void markThreadAsUnread() {
+			checkedActivate(1);
 			markAsUnread();
 			mWasThreadRead = false;
 			
@@ -938,4 +1497,57 @@ public final class SubscribedBoard extends Board {
 		
     }
 
+    /**
+     * The overview of a message in this board as it is returned by the NNTP OVER command: All fields after the article number, separated by tabs.
+     * See {@link ArticleFormatter#getOverview(Message)}.
+     * 
+     * It is computed once when the message is linked into the board. Newsreaders request the overview of thousands of articles at once, the
+     * {@link MessageOverview} objects allow this without activating the {@link Message} objects and counting the bytes and lines of their text.
+     */
+    // @Indexed // I can't think of any query which would need to get all MessageOverview objects.
+    public static final class MessageOverview extends Persistent {
+    	
+    	@Indexed
+    	private final SubscribedBoard mBoard;
+    	
+    	@Indexed
+    	private final int mMessageIndex;
+    	
+    	private final String mOverview;
+    	
+    	
+    	private MessageOverview(SubscribedBoard myBoard, int myMessageIndex, String myOverview) {
+    		if(myBoard == null || myOverview == null)
+    			throw new NullPointerException();
+    		
+    		mBoard = myBoard;
+    		mMessageIndex = myMessageIndex;
+    		mOverview = myOverview;
+    	}
+    	
+    	/**
+    	 * Get the index of the message in the board, see {@link MessageReference#getIndex()}.
+    	 */
+    	public int getIndex() {
+    		checkedActivate(1);
+    		return mMessageIndex;
+    	}
+    	
+    	public String getOverview() {
+    		checkedActivate(1);
+    		return mOverview;
+    	}
+    	
+    	protected void storeWithoutCommit() {
+    		try {
+    			checkedActivate(1);
+    			throwIfNotStored(mBoard);
+    			checkedStore();
+    		}
+    		catch(RuntimeException e) {
+    			checkedRollbackAndThrow(e);
+    		}
+    	}
+    }
+
 }
@@ -21,8 +21,6 @@ import freenet.support.StringValidityChecker;
  * This means that WoTIdentity can be activated to a depth of only 1 when querying them from the database.
  * All methods automatically activate the object to any needed higher depth.
  * 
- * TODO: Change all code which queries for identities to use the lowest possible activation depth to benefit from automatic activation.
- * 
  * @author xor (xor@freenetproject.org)
  */
 @Indexed // TODO: Check whether we really need this index.
@@ -36,12 +34,14 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 	/** The requestURI used to fetch this identity from Freenet */
 	private final FreenetURI mRequestURI;
 	
-	/** The nickname of this Identity */
-	private final String mNickname;
+	/** The nickname of this Identity. Can change if the identity publishes a new nickname, see {@link #setNickname(String)}. */
+	private String mNickname;
 	
 	/**
 	 * Used for garbage collecting old identities which are not returned by the WoT plugin anymore.
 	 * We delete them if they were not received for a certain time interval.
+	 * The {@link WoTIdentityManager} keeps the current value in memory and only stores it when the identity is not received anymore, see
+	 * {@link WoTLastReceivedTimes}.
 	 */
 	private long mLastReceivedFromWoT;
 
@@ -64,8 +64,16 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 		mLastReceivedFromWoT = CurrentTimeUTC.getInMillis();
 	}
 
+	/**
+	 * The activation profile of identities: The request URI needs a depth of 3, see {@link #getRequestURI()}.
+	 */
+	@Override
+	protected int getActivationDepth() {
+		return 3;
+	}
+
 	public String getID() {
-		// activate(1);	// 1 is the default activation depth, no need to execute activate(1).
+		checkedActivate(1);
 		return mID;
 	}
 	
@@ -89,12 +97,25 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 	}
 
 	public String getNickname() {
-		// activate(1);	// 1 is the default activation depth, no need to execute activate(1)
+		checkedActivate(1);
 		return mNickname;
 	}
 
+	/**
+	 * Set the nickname of this identity to the one which the WoT plugin returned for it. Identities can change their nickname by publishing
+	 * a new identity XML.
+	 * 
+	 * @throws InvalidParameterException If the nickname is invalid, see {@link #validateNickname(String)}.
+	 */
+	protected synchronized void setNickname(String newNickname) throws InvalidParameterException {
+		validateNickname(newNickname);
+		checkedActivate(1);
+		mNickname = newNickname;
+		storeWithoutCommit(); // TODO: Move store() calls outside of class identity
+	}
+
 	protected String getNickname(int maxLength) {
-		// activate(1);	// 1 is the default activation depth, no need to execute activate(1)
+		checkedActivate(1);
 		if(mNickname.length() > maxLength) {
 			return mNickname.substring(0, maxLength) + "...";
 		}
@@ -106,7 +127,7 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 	}
 
 	public String getFreetalkAddress() {
-		// activate(1);	// 1 is the default activation depth, no need to execute activate(1)
+		checkedActivate(1);
 		return mNickname + "@" + mID + "." + Freetalk.WOT_CONTEXT.toLowerCase();	
 	}
 	
@@ -117,7 +138,7 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 	 * If the nickname does not fit in the maximal length it is NOT abbreviated, the full nickname is returned then.
 	 * 
 	 * The reason for this weird definition is to allow easy computation of nicknames which have a shortest unique length...
-	 * See {@link WoTIdentityManager.updateShortestUniqueNicknameCache} for how this is used.
+	 * See {@link WoTNicknameIndex} for how this is used.
 	 */
 	protected String getFreetalkAddress(int maxContentLength) {
 		final String address = getFreetalkAddress();
@@ -132,7 +153,7 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 	}
 
 	public synchronized long getLastReceivedFromWoT() {
-		// activate(1);	// 1 is the default activation depth, no need to execute activate(1)
+		checkedActivate(1);
 		return mLastReceivedFromWoT;
 	}
 	
@@ -141,6 +162,7 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 	 * @param time
 	 */
 	public synchronized void setLastReceivedFromWoT(long time) {
+		checkedActivate(1);
 		mLastReceivedFromWoT = time;
 		storeWithoutCommit(); // TODO: Move store() calls outside of class identity
 	}
@@ -184,8 +206,7 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 
 	protected void storeWithoutCommit() {
 		try {		
-			// 3 is the maximal depth of all getter functions. You have to adjust this when introducing new member variables.
-			checkedActivate(3);
+			checkedActivate();
 
 			// You have to take care to keep the list of stored objects synchronized with those being deleted in deleteWithoutCommit() !
 			
@@ -199,8 +220,7 @@ public class WoTIdentity extends Persistent implements FTIdentity {
 	
 	protected void deleteWithoutCommit() {
 		try {
-			// 3 is the maximal depth of all getter functions. You have to adjust this when introducing new member variables.
-			checkedActivate(this, 3);
+			checkedActivate();
 			
 			checkedDelete();
 			
@@ -3,12 +3,13 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package plugins.Freetalk.WoT;
 
+import java.net.MalformedURLException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Hashtable;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import plugins.Freetalk.FTIdentity;
@@ -17,7 +18,7 @@ import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.IdentityManager;
 import plugins.Freetalk.MessageManager;
 import plugins.Freetalk.Persistent;
-import plugins.Freetalk.PluginTalkerBlocking;
+import plugins.Freetalk.PluginTalkerAsync;
 import plugins.Freetalk.exceptions.DuplicateIdentityException;
 import plugins.Freetalk.exceptions.InvalidParameterException;
 import plugins.Freetalk.exceptions.NoSuchIdentityException;
@@ -60,11 +61,50 @@ public final class WoTIdentityManager extends IdentityManager {
 	/** The minimal amount of time between fetching own identities */
 	private static final int MINIMAL_OWN_IDENTITY_FETCH_DELAY = 1000;
 	
+	/**
+	 * How long a score stays in the {@link WoTScoreCache}. The cache is refilled in each iteration of the thread loop, which can take up to 1.5 * THREAD_PERIOD,
+	 * so the entries must live longer than that.
+	 */
+	private static final int SCORE_CACHE_TIME_TO_LIVE = 3 * THREAD_PERIOD;
+	
+	/**
+	 * The maximal amount of FCP messages which the batch queries such as {@link getTrustValues} keep in flight at once. Each message occupies
+	 * a thread of the node while WoT processes it so we must not send an unlimited amount.
+	 */
+	private static final int MAX_PIPELINED_REQUESTS = 32;
+	
+	/**
+	 * The maximal amount of identities which {@link parseIdentities} stores in a single transaction. The lock of this WoTIdentityManager
+	 * is released between the transactions to allow other threads to execute.
+	 */
+	private static final int IDENTITY_SYNC_BATCH_SIZE = 256;
+	
 	private boolean mIdentityFetchInProgress = false;
 	private boolean mOwnIdentityFetchInProgress = false;
 	private long mLastIdentityFetchTime = 0;
 	private long mLastOwnIdentityFetchTime = 0;
 	
+	/**
+	 * The nicknames of the identities of the latest reply of WoT to {@link fetchIdentities} / {@link fetchOwnIdentities}, by ID.
+	 * {@link parseIdentities} compares each reply to the previous one and only stores the differences in the database. Identities which could
+	 * not be stored are mapped to null so that they are stored again with the next reply. Before the first reply after startup they contain
+	 * the identities in the database, see {@link loadStoredIdentities}.
+	 */
+	private final HashMap<String, String> mReceivedIdentities = new HashMap<String, String>();
+	private final HashMap<String, String> mReceivedOwnIdentities = new HashMap<String, String>();
+	
+	/**
+	 * The time when each identity was last received from WoT. Refreshed in memory with each reply, the database is only written when an
+	 * identity is not received anymore. Used by {@link garbageCollectIdentities}. The times which are lost at shutdown are replaced by the
+	 * startup time, see {@link loadStoredIdentities}.
+	 */
+	private final WoTLastReceivedTimes mLastReceivedTimes = new WoTLastReceivedTimes();
+	
+	/**
+	 * True if {@link loadStoredIdentities} was executed.
+	 */
+	private boolean mStoredIdentitiesLoaded = false;
+	
 	/** If true, this identity manager is being use in a unit test - it will return 0 for any score / trust value then */
 	private final boolean mIsUnitTest;
 
@@ -72,15 +112,21 @@ public final class WoTIdentityManager extends IdentityManager {
 	private volatile boolean shutdownFinished = false;
 	private Thread mThread = null;
 
-	private PluginTalkerBlocking mTalker = null;
-	
+	/**
+	 * Not synchronized on this WoTIdentityManager so that FCP requests of concurrent callers do not block each other. Replaced by connectToWoT().
+	 */
+	private volatile PluginTalkerAsync mTalker = null;
 	
 	/**
-	 * Caches the shortest unique nickname for each identity. Key = Identity it, Value = Shortest nickname.
+	 * Caches the scores of identities in the trust trees of the own identities so that wantsMessagesFrom() does not need a FCP round-trip to WoT.
 	 */
-	private volatile Hashtable<String, String> mShortestUniqueNicknameCache = new Hashtable<String, String>();
+	private final WoTScoreCache mScoreCache = new WoTScoreCache(SCORE_CACHE_TIME_TO_LIVE);
+	
 	
-	private boolean mShortestUniqueNicknameCacheNeedsUpdate = true;
+	/**
+	 * The shortest unique nickname of each identity. Updated whenever an identity is created, deleted or changes its nickname.
+	 */
+	private final WoTNicknameIndex mShortestUniqueNicknames = new WoTNicknameIndex();
 	
 
 	public WoTIdentityManager(Freetalk myFreetalk, Executor myExecutor) {
@@ -98,23 +144,40 @@ public final class WoTIdentityManager extends IdentityManager {
 	
 	
 	/**
-	 * Sends a blocking FCP message to the WoT plugin, checks whether the reply is really the expected reply message and throws an exception
+	 * Sends a FCP message to the WoT plugin and returns immediately. Use {@link waitForReply} to obtain the reply.
+	 * Many requests can be in flight at once, this allows callers to send multiple requests before waiting for the first reply.
+	 * 
+	 * @throws WoTDisconnectedException If the connection to WoT was lost.
+	 */
+	private PluginTalkerAsync.Request sendFCPMessage(SimpleFieldSet params, Bucket data) throws WoTDisconnectedException {
+		final PluginTalkerAsync talker = mTalker;
+		
+		if(talker == null)
+			throw new WoTDisconnectedException();
+		
+		try {
+			return talker.send(params, data);
+		} catch (PluginNotFoundException e) {
+			throw new WoTDisconnectedException();
+		}
+	}
+	
+	/**
+	 * Waits for the reply to a FCP message which was sent with {@link sendFCPMessage}, checks whether the reply is really the expected reply message and throws an exception
 	 * if not. Also checks whether the reply is an error message and throws an exception if it is. Therefore, the purpose of this function
 	 * is that the callee can assume that no errors occurred if no exception is thrown.
 	 * 
+	 * @param request The request which was returned by sendFCPMessage.
 	 * @param params The params of the FCP message.
 	 * @param expectedReplyMessage The excepted content of the "Message" field of the SimpleFieldSet of the reply message.
 	 * @return The unmodified Result object which was returned by the PluginTalker.
 	 * @throws WoTDisconnectedException If the connection to WoT was lost. 
 	 * @throws Exception If the WoT plugin replied with an error message or not with the expected message.
 	 */
-	private PluginTalkerBlocking.Result sendFCPMessageBlocking(SimpleFieldSet params, Bucket data, String expectedReplyMessage) throws Exception {
-		if(mTalker == null)
-			throw new WoTDisconnectedException();
-		
-		PluginTalkerBlocking.Result result;
+	private PluginTalkerAsync.Result waitForReply(PluginTalkerAsync.Request request, SimpleFieldSet params, String expectedReplyMessage) throws Exception {
+		PluginTalkerAsync.Result result;
 		try {
-			result = mTalker.sendBlocking(params, data);
+			result = request.getBlocking();
 		} catch (PluginNotFoundException e) {
 			throw new WoTDisconnectedException();
 		}
@@ -134,6 +197,20 @@ public final class WoTIdentityManager extends IdentityManager {
 		return result;
 	}
 	
+	/**
+	 * Sends a FCP message to the WoT plugin and waits for the reply, see {@link waitForReply}.
+	 * Does not block other threads which send FCP messages.
+	 * 
+	 * @param params The params of the FCP message.
+	 * @param expectedReplyMessage The excepted content of the "Message" field of the SimpleFieldSet of the reply message.
+	 * @return The unmodified Result object which was returned by the PluginTalker.
+	 * @throws WoTDisconnectedException If the connection to WoT was lost. 
+	 * @throws Exception If the WoT plugin replied with an error message or not with the expected message.
+	 */
+	private PluginTalkerAsync.Result sendFCPMessageBlocking(SimpleFieldSet params, Bucket data, String expectedReplyMessage) throws Exception {
+		return waitForReply(sendFCPMessage(params, data), params, expectedReplyMessage);
+	}
+	
 	public synchronized WoTOwnIdentity createOwnIdentity(String newNickname, boolean publishesTrustList, boolean publishesIntroductionPuzzles) throws Exception  {
 		SimpleFieldSet params = new SimpleFieldSet(true);
 		params.putOverwrite("Message", "CreateIdentity");
@@ -141,7 +218,7 @@ public final class WoTIdentityManager extends IdentityManager {
 		params.putOverwrite("PublishTrustList", publishesTrustList ? "true" : "false");
 		params.putOverwrite("PublishIntroductionPuzzles", publishesIntroductionPuzzles ? "true" : "false");
 		params.putOverwrite("Context", Freetalk.WOT_CONTEXT);
-		PluginTalkerBlocking.Result result = sendFCPMessageBlocking(params, null, "IdentityCreated");
+		PluginTalkerAsync.Result result = sendFCPMessageBlocking(params, null, "IdentityCreated");
 		
 		WoTOwnIdentity identity = new WoTOwnIdentity(result.params.get("ID"),
 				new FreenetURI(result.params.get("RequestURI")),
@@ -173,7 +250,7 @@ public final class WoTIdentityManager extends IdentityManager {
 		params.putOverwrite("Context", Freetalk.WOT_CONTEXT);
 		params.putOverwrite("RequestURI", newRequestURI.toString());
 		params.putOverwrite("InsertURI", newInsertURI.toString());
-		PluginTalkerBlocking.Result result = sendFCPMessageBlocking(params, null, "IdentityCreated");
+		PluginTalkerAsync.Result result = sendFCPMessageBlocking(params, null, "IdentityCreated");
 		
 		/* We take the URIs which were returned by the WoT plugin instead of the requested ones because this allows the identity to work
 		 * even if the WoT plugin ignores our requested URIs: If we just stored the URIs we requested, we would store an identity with
@@ -263,27 +340,85 @@ public final class WoTIdentityManager extends IdentityManager {
 	 * Not synchronized, the involved identities might be deleted during the query - which is not really a problem.
 	 */
 	private String getProperty(FTOwnIdentity treeOwner, FTIdentity target, String property) throws Exception {
+		return sendFCPMessageBlocking(createGetIdentityMessage(treeOwner, target), null, "Identity").params.get(property);
+	}
+	
+	private static SimpleFieldSet createGetIdentityMessage(FTOwnIdentity treeOwner, FTIdentity target) {
 		SimpleFieldSet sfs = new SimpleFieldSet(true);
 		sfs.putOverwrite("Message", "GetIdentity");
 		sfs.putOverwrite("TreeOwner", treeOwner.getID());
 		sfs.putOverwrite("Identity", target.getID());
-
-		return sendFCPMessageBlocking(sfs, null, "Identity").params.get(property);
+		return sfs;
 	}
 
 	/**
+	 * Gets the score of the target in the trust tree of the tree owner. Uses the {@link WoTScoreCache} and only queries WoT if the score is not cached.
+	 * 
 	 * Not synchronized, the involved identities might be deleted during the query - which is not really a problem.
 	 */
 	public int getScore(WoTOwnIdentity treeOwner, WoTIdentity target) throws NotInTrustTreeException, Exception {
 		if(mIsUnitTest)
 			return 0;
 		
+		final WoTScoreCache.Entry cached = mScoreCache.get(treeOwner.getID(), target.getID(), true);
+		
+		if(cached == null)
+			return getScoreFromWoT(treeOwner, target);
+		
+		if(!cached.isInTrustTree())
+			throw new NotInTrustTreeException(treeOwner, target);
+		
+		return cached.getScore();
+	}
+	
+	/**
+	 * Queries the score of the target in the trust tree of the tree owner from WoT and stores it in the {@link WoTScoreCache}.
+	 */
+	private int getScoreFromWoT(WoTOwnIdentity treeOwner, WoTIdentity target) throws NotInTrustTreeException, Exception {
 		String score = getProperty(treeOwner, target, "Score");
 		
-		if(score.equals("null"))
+		if("null".equals(score)) {
+			mScoreCache.putNotInTrustTree(treeOwner.getID(), target.getID());
 			throw new NotInTrustTreeException(treeOwner, target);
+		}
+		
+		final int result = Integer.parseInt(score);
+		mScoreCache.putScore(treeOwner.getID(), target.getID(), result);
+		return result;
+	}
+	
+	/**
+	 * Returns true if the target has a score of zero or more in the trust tree of the tree owner, i.e. if the tree owner wants to read its messages.
+	 * Uses the {@link WoTScoreCache}, the bulk fill of the cache is sufficient to answer this without querying WoT.
+	 * 
+	 * Not synchronized, the involved identities might be deleted during the query - which is not really a problem.
+	 */
+	public boolean hasNonNegativeScore(WoTOwnIdentity treeOwner, WoTIdentity target) throws Exception {
+		if(mIsUnitTest)
+			return true;
+		
+		final WoTScoreCache.Entry cached = mScoreCache.get(treeOwner.getID(), target.getID(), false);
 		
-		return Integer.parseInt(score);
+		if(cached != null)
+			return cached.isNonNegative();
+		
+		try {
+			return getScoreFromWoT(treeOwner, target) >= 0;
+		}
+		catch(NotInTrustTreeException e) {
+			return false;
+		}
+	}
+	
+	public WoTScoreCache getScoreCache() {
+		return mScoreCache;
+	}
+
+	/**
+	 * @return The time when the identities were last fetched from WoT successfully, 0 if they were not fetched yet.
+	 */
+	public synchronized long getLastIdentityFetchTime() {
+		return mLastIdentityFetchTime;
 	}
 
 	/**
@@ -295,7 +430,7 @@ public final class WoTIdentityManager extends IdentityManager {
 		
 		String trust = getProperty(treeOwner, target, "Trust");
 		
-		if(trust.equals("null"))
+		if("null".equals(trust))
 			throw new NotTrustedException(treeOwner, target);
 		
 		return Byte.parseByte(trust);
@@ -313,7 +448,14 @@ public final class WoTIdentityManager extends IdentityManager {
 		request.putOverwrite("Value", Integer.toString(trust));
 		request.putOverwrite("Comment", comment);
 
-		sendFCPMessageBlocking(request, null, "TrustSet");
+		try {
+			sendFCPMessageBlocking(request, null, "TrustSet");
+		}
+		finally {
+			// A changed trust value can change the score of any identity in the trust tree of the tree owner, not only the one of the trustee.
+			// We also invalidate if the request failed because it might have been processed by WoT anyway.
+			mScoreCache.invalidateTrustTree(treeOwner.getID());
+		}
 	}
 
 	/**
@@ -373,20 +515,8 @@ public final class WoTIdentityManager extends IdentityManager {
 	 * 		values less than zero.
 	 */
 	public int getReceivedTrustsCount(FTIdentity trustee, int selection) throws Exception {
-		SimpleFieldSet request = new SimpleFieldSet(true);
-		request.putOverwrite("Message", "GetTrustersCount");
-		request.putOverwrite("Identity", trustee.getID());
-		request.putOverwrite("Context", Freetalk.WOT_CONTEXT);
-		
-		if(selection > 0)
-			request.putOverwrite("Selection", "+");
-		else if(selection == 0)
-			request.putOverwrite("Selection", "0");
-		else
-			request.putOverwrite("Selection", "-");
-		
 		try {
-			SimpleFieldSet answer = sendFCPMessageBlocking(request, null, "TrustersCount").params;
+			SimpleFieldSet answer = sendFCPMessageBlocking(createTrustsCountMessage("GetTrustersCount", trustee, selection), null, "TrustersCount").params;
 			return Integer.parseInt(answer.get("Value"));
 		}
 		catch(PluginNotFoundException e) {
@@ -395,8 +525,22 @@ public final class WoTIdentityManager extends IdentityManager {
 	}
 	
 	public int getGivenTrustsCount(FTIdentity trustee, int selection) throws Exception {
+		try {
+			SimpleFieldSet answer = sendFCPMessageBlocking(createTrustsCountMessage("GetTrusteesCount", trustee, selection), null, "TrusteesCount").params;
+			return Integer.parseInt(answer.get("Value"));
+		}
+		catch(PluginNotFoundException e) {
+			throw new WoTDisconnectedException();
+		}
+	}
+	
+	/**
+	 * @param message "GetTrustersCount" or "GetTrusteesCount"
+	 * @param selection See {@link getReceivedTrustsCount}.
+	 */
+	private static SimpleFieldSet createTrustsCountMessage(String message, FTIdentity trustee, int selection) {
 		SimpleFieldSet request = new SimpleFieldSet(true);
-		request.putOverwrite("Message", "GetTrusteesCount");
+		request.putOverwrite("Message", message);
 		request.putOverwrite("Identity", trustee.getID());
 		request.putOverwrite("Context", Freetalk.WOT_CONTEXT);
 		
@@ -407,13 +551,302 @@ public final class WoTIdentityManager extends IdentityManager {
 		else
 			request.putOverwrite("Selection", "-");
 		
-		try {
-			SimpleFieldSet answer = sendFCPMessageBlocking(request, null, "TrusteesCount").params;
-			return Integer.parseInt(answer.get("Value"));
+		return request;
+	}
+	
+	/**
+	 * The score, trust value and trust counts of a single identity as returned by {@link getTrustValues}.
+	 * The getters throw the same exceptions as the corresponding single queries of the WoTIdentityManager would have thrown.
+	 */
+	public static final class TrustValues {
+		
+		private final WoTOwnIdentity mTreeOwner;
+		
+		private final WoTIdentity mTarget;
+		
+		/* The values as they were returned by WoT. Null if the reply was not received yet or the query failed. */
+		private String mScore = null;
+		
+		private String mTrust = null;
+		
+		private Exception mIdentityError = null;
+		
+		/* Index 0 = positive, index 1 = negative */
+		
+		private final int[] mReceivedTrustsCounts = new int[2];
+		
+		private final int[] mGivenTrustsCounts = new int[2];
+		
+		private final Exception[] mReceivedTrustsCountErrors = new Exception[2];
+		
+		private final Exception[] mGivenTrustsCountErrors = new Exception[2];
+		
+		private TrustValues(WoTOwnIdentity myTreeOwner, WoTIdentity myTarget) {
+			mTreeOwner = myTreeOwner;
+			mTarget = myTarget;
 		}
-		catch(PluginNotFoundException e) {
-			throw new WoTDisconnectedException();
+		
+		public WoTIdentity getTarget() {
+			return mTarget;
+		}
+		
+		public int getScore() throws NotInTrustTreeException, Exception {
+			if(mIdentityError != null)
+				throw mIdentityError;
+			
+			if("null".equals(mScore))
+				throw new NotInTrustTreeException(mTreeOwner, mTarget);
+			
+			return Integer.parseInt(mScore);
+		}
+		
+		public byte getTrust() throws NotTrustedException, Exception {
+			if(mIdentityError != null)
+				throw mIdentityError;
+			
+			if("null".equals(mTrust))
+				throw new NotTrustedException(mTreeOwner, mTarget);
+			
+			return Byte.parseByte(mTrust);
+		}
+		
+		private static int getSelectionIndex(int selection) {
+			if(selection == 0)
+				throw new IllegalArgumentException("Only positive and negative trust values are counted in batch queries");
+			
+			return selection > 0 ? 0 : 1;
+		}
+		
+		/**
+		 * @param selection 1 for positive trust values, -1 for negative ones. See {@link WoTIdentityManager.getReceivedTrustsCount}.
+		 */
+		public int getReceivedTrustsCount(int selection) throws Exception {
+			final int idx = getSelectionIndex(selection);
+			
+			if(mReceivedTrustsCountErrors[idx] != null)
+				throw mReceivedTrustsCountErrors[idx];
+			
+			return mReceivedTrustsCounts[idx];
+		}
+		
+		/**
+		 * @param selection 1 for positive trust values, -1 for negative ones. See {@link WoTIdentityManager.getGivenTrustsCount}.
+		 */
+		public int getGivenTrustsCount(int selection) throws Exception {
+			final int idx = getSelectionIndex(selection);
+			
+			if(mGivenTrustsCountErrors[idx] != null)
+				throw mGivenTrustsCountErrors[idx];
+			
+			return mGivenTrustsCounts[idx];
+		}
+	}
+	
+	/**
+	 * Sends the given FCP messages to WoT and waits for all replies. The messages are pipelined: Up to {@link MAX_PIPELINED_REQUESTS} of them
+	 * are in flight at once so a batch costs roughly one round-trip to WoT per window instead of one round-trip per message.
+	 * 
+	 * @param expectedReplyMessages The expected reply message for each of the messages, see {@link waitForReply}.
+	 * @param replies Receives the reply of each message. Must have the same length as messages. Entries of failed messages are left null.
+	 * @param errors Receives the Exception which the wait for the reply of each message threw. Must have the same length as messages. 
+	 */
+	private void sendFCPMessagesPipelined(SimpleFieldSet[] messages, String[] expectedReplyMessages, SimpleFieldSet[] replies, Exception[] errors) {
+		final PluginTalkerAsync.Request[] requests = new PluginTalkerAsync.Request[MAX_PIPELINED_REQUESTS];
+		
+		for(int windowStart = 0; windowStart < messages.length; windowStart += MAX_PIPELINED_REQUESTS) {
+			final int windowEnd = Math.min(windowStart + MAX_PIPELINED_REQUESTS, messages.length);
+			
+			for(int i = windowStart; i < windowEnd; ++i) {
+				try {
+					requests[i - windowStart] = sendFCPMessage(messages[i], null);
+				}
+				catch(Exception e) {
+					requests[i - windowStart] = null;
+					errors[i] = e;
+				}
+			}
+			
+			for(int i = windowStart; i < windowEnd; ++i) {
+				if(requests[i - windowStart] == null)
+					continue;
+				
+				try {
+					replies[i] = waitForReply(requests[i - windowStart], messages[i], expectedReplyMessages[i]).params;
+				}
+				catch(Exception e) {
+					errors[i] = e;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the score and trust value in the trust tree of the tree owner and the positive and negative received and given trust counts of all
+	 * given identities. The queries for all identities are pipelined, see {@link sendFCPMessagesPipelined}, so this is much faster than querying
+	 * each value on its own. Use it for displaying many identities at once, for example the authors of all messages of a thread.
+	 * The obtained scores are stored in the {@link WoTScoreCache}.
+	 * 
+	 * Failures of single queries do not cause this function to fail, the getters of the affected {@link TrustValues} will throw instead.
+	 * 
+	 * Not synchronized, the involved identities might be deleted during the query - which is not really a problem.
+	 * 
+	 * @return Maps the ID of each of the given identities to its values.
+	 */
+	public Map<String, TrustValues> getTrustValues(WoTOwnIdentity treeOwner, Collection<? extends WoTIdentity> targets) {
+		final HashMap<String, TrustValues> result = new HashMap<String, TrustValues>(targets.size() * 2);
+		
+		for(WoTIdentity target : targets) {
+			if(!result.containsKey(target.getID()))
+				result.put(target.getID(), new TrustValues(treeOwner, target));
+		}
+		
+		if(mIsUnitTest) {
+			for(TrustValues values : result.values()) {
+				values.mScore = "0";
+				values.mTrust = "0";
+			}
+			return result;
+		}
+		
+		final TrustValues[] values = result.values().toArray(new TrustValues[result.size()]);
+		final int messagesPerIdentity = 5;
+		final SimpleFieldSet[] messages = new SimpleFieldSet[values.length * messagesPerIdentity];
+		final String[] expectedReplyMessages = new String[messages.length];
+		final SimpleFieldSet[] replies = new SimpleFieldSet[messages.length];
+		final Exception[] errors = new Exception[messages.length];
+		
+		for(int i = 0; i < values.length; ++i) {
+			final WoTIdentity target = values[i].mTarget;
+			final int base = i * messagesPerIdentity;
+			
+			messages[base] = createGetIdentityMessage(treeOwner, target);
+			expectedReplyMessages[base] = "Identity";
+			messages[base + 1] = createTrustsCountMessage("GetTrustersCount", target, 1);
+			expectedReplyMessages[base + 1] = "TrustersCount";
+			messages[base + 2] = createTrustsCountMessage("GetTrustersCount", target, -1);
+			expectedReplyMessages[base + 2] = "TrustersCount";
+			messages[base + 3] = createTrustsCountMessage("GetTrusteesCount", target, 1);
+			expectedReplyMessages[base + 3] = "TrusteesCount";
+			messages[base + 4] = createTrustsCountMessage("GetTrusteesCount", target, -1);
+			expectedReplyMessages[base + 4] = "TrusteesCount";
+		}
+		
+		sendFCPMessagesPipelined(messages, expectedReplyMessages, replies, errors);
+		
+		for(int i = 0; i < values.length; ++i) {
+			final TrustValues value = values[i];
+			final int base = i * messagesPerIdentity;
+			
+			if(errors[base] != null)
+				value.mIdentityError = errors[base];
+			else {
+				value.mScore = replies[base].get("Score");
+				value.mTrust = replies[base].get("Trust");
+				
+				if("null".equals(value.mScore))
+					mScoreCache.putNotInTrustTree(treeOwner.getID(), value.mTarget.getID());
+				else {
+					try {
+						mScoreCache.putScore(treeOwner.getID(), value.mTarget.getID(), Integer.parseInt(value.mScore));
+					}
+					catch(NumberFormatException e) { // Also thrown if the reply contains no Score field
+						value.mIdentityError = e;
+					}
+				}
+			}
+			
+			for(int j = 0; j < 2; ++j) {
+				value.mReceivedTrustsCountErrors[j] = errors[base + 1 + j];
+				value.mGivenTrustsCountErrors[j] = errors[base + 3 + j];
+				
+				try {
+					if(replies[base + 1 + j] != null)
+						value.mReceivedTrustsCounts[j] = Integer.parseInt(replies[base + 1 + j].get("Value"));
+					if(replies[base + 3 + j] != null)
+						value.mGivenTrustsCounts[j] = Integer.parseInt(replies[base + 3 + j].get("Value"));
+				}
+				catch(NumberFormatException e) {
+					Logger.error(this, "Invalid trust count in reply of WoT", e);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Ensures that the {@link WoTScoreCache} contains the scores of the given identities in the trust tree of the tree owner: The scores
+	 * of all identities which are not cached are queried from WoT with pipelined requests, see {@link sendFCPMessagesPipelined}.
+	 * Use this before calling {@link getScore} or {@link hasNonNegativeScore} for many identities.
+	 * 
+	 * Failures are logged and ignored, the subsequent calls of getScore() will query the score again.
+	 * 
+	 * Not synchronized, the involved identities might be deleted during the query - which is not really a problem.
+	 * 
+	 * @param needExactScores False if it is sufficient to know whether the scores are non-negative, see {@link hasNonNegativeScore}.
+	 */
+	public void prefetchScores(WoTOwnIdentity treeOwner, Collection<? extends WoTIdentity> targets, boolean needExactScores) {
+		if(mIsUnitTest)
+			return;
+		
+		final HashMap<String, WoTIdentity> missing = new HashMap<String, WoTIdentity>(targets.size() * 2);
+		
+		for(WoTIdentity target : targets) {
+			if(!missing.containsKey(target.getID()) && !mScoreCache.contains(treeOwner.getID(), target.getID(), needExactScores))
+				missing.put(target.getID(), target);
+		}
+		
+		if(missing.size() == 0)
+			return;
+		
+		final WoTIdentity[] identities = missing.values().toArray(new WoTIdentity[missing.size()]);
+		final SimpleFieldSet[] messages = new SimpleFieldSet[identities.length];
+		final String[] expectedReplyMessages = new String[identities.length];
+		final SimpleFieldSet[] replies = new SimpleFieldSet[identities.length];
+		final Exception[] errors = new Exception[identities.length];
+		
+		for(int i = 0; i < identities.length; ++i) {
+			messages[i] = createGetIdentityMessage(treeOwner, identities[i]);
+			expectedReplyMessages[i] = "Identity";
+		}
+		
+		sendFCPMessagesPipelined(messages, expectedReplyMessages, replies, errors);
+		
+		for(int i = 0; i < identities.length; ++i) {
+			if(errors[i] != null) {
+				Logger.normal(this, "Prefetching the score of " + identities[i] + " failed", errors[i]);
+				continue;
+			}
+			
+			final String score = replies[i].get("Score");
+			
+			try {
+				if("null".equals(score))
+					mScoreCache.putNotInTrustTree(treeOwner.getID(), identities[i].getID());
+				else
+					mScoreCache.putScore(treeOwner.getID(), identities[i].getID(), Integer.parseInt(score));
+			}
+			catch(NumberFormatException e) {
+				Logger.error(this, "Invalid score in reply of WoT: " + score, e);
+			}
+		}
+	}
+	
+	/**
+	 * Calls {@link prefetchScores} for all own identities.
+	 */
+	public void prefetchScoresOfAllOwnIdentities(Collection<? extends WoTIdentity> targets, boolean needExactScores) {
+		final ArrayList<WoTOwnIdentity> ownIdentities = new ArrayList<WoTOwnIdentity>();
+		
+		synchronized(this) {
+			final Query q = db.query();
+			q.constrain(WoTOwnIdentity.class);
+			for(WoTOwnIdentity ownIdentity : new Persistent.InitializingObjectSet<WoTOwnIdentity>(mFreetalk, q))
+				ownIdentities.add(ownIdentity);
 		}
+		
+		for(WoTOwnIdentity ownIdentity : ownIdentities)
+			prefetchScores(ownIdentity, targets, needExactScores);
 	}
 	
 	public static final class IntroductionPuzzle {
@@ -522,7 +955,7 @@ public final class WoTIdentityManager extends IdentityManager {
 	 * @throws Exception 
 	 */
 	private void fetchIdentities() throws Exception {		
-		// parseIdentities() acquires and frees the WoTIdentityManager-lock for each identity to allow other threads to access the identity manager while the
+		// parseIdentities() acquires and frees the WoTIdentityManager-lock for each batch of identities to allow other threads to access the identity manager while the
 		// parsing is in progress. Therefore, we do not take the lock for the whole execution of this function.
 		synchronized(this) {
 			if(mIdentityFetchInProgress)
@@ -541,7 +974,7 @@ public final class WoTIdentityManager extends IdentityManager {
 			p1.putOverwrite("Message", "GetIdentitiesByScore");
 			p1.putOverwrite("Selection", "+");
 			p1.putOverwrite("Context", Freetalk.WOT_CONTEXT);
-			parseIdentities(sendFCPMessageBlocking(p1, null, "Identities").params, false);
+			parseIdentities(sendFCPMessageBlocking(p1, null, "Identities").params, false, CurrentTimeUTC.getInMillis());
 			
 			synchronized(this) {
 				// We must update the fetch-time after the parsing and only if the parsing succeeded:
@@ -555,11 +988,6 @@ public final class WoTIdentityManager extends IdentityManager {
 				mIdentityFetchInProgress = false;
 			}
 		}
-	
-			
-		// We usually call garbageCollectIdentities() after calling this function, it updates the cache already...
-		// if(mShortestUniqueNicknameCacheNeedsUpdate)
-		//	updateShortestUniqueNicknameCache();
 	}
 	
 	/**
@@ -567,7 +995,7 @@ public final class WoTIdentityManager extends IdentityManager {
 	 * @throws Exception 
 	 */
 	private void fetchOwnIdentities() throws Exception {
-		// parseIdentities() acquires and frees the WoTIdentityManager-lock for each identity to allow other threads to access the identity manager while the
+		// parseIdentities() acquires and frees the WoTIdentityManager-lock for each batch of identities to allow other threads to access the identity manager while the
 		// parsing is in progress. Therefore, we do not take the lock for the whole execution of this function.
 		synchronized(this) {
 			if(mOwnIdentityFetchInProgress)
@@ -584,7 +1012,7 @@ public final class WoTIdentityManager extends IdentityManager {
 			Logger.debug(this, "Requesting own identities from WoT ...");
 			SimpleFieldSet p2 = new SimpleFieldSet(true);
 			p2.putOverwrite("Message","GetOwnIdentities");
-			parseIdentities(sendFCPMessageBlocking(p2, null, "OwnIdentities").params, true);
+			parseIdentities(sendFCPMessageBlocking(p2, null, "OwnIdentities").params, true, CurrentTimeUTC.getInMillis());
 			
 			synchronized(this) {
 				// We must update the fetch-time after the parsing and only if the parsing succeeded:
@@ -598,10 +1026,88 @@ public final class WoTIdentityManager extends IdentityManager {
 				mOwnIdentityFetchInProgress = false;
 			}
 		}
+	}
+	
+	/**
+	 * Fills the {@link WoTScoreCache} in bulk: For each own identity, requests all identities with positive, zero and negative score in its
+	 * trust tree from WoT. WoT only returns the identities of one sign per query so these are three queries per own identity, which are
+	 * pipelined, instead of one per (own identity, identity) pair.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private void fetchScores() throws Exception {
+		final ArrayList<String> ownIdentityIDs = new ArrayList<String>();
+		
+		synchronized(this) {
+			// We don't use ownIdentityIterator() because it would fetch the own identities from WoT again.
+			final Query q = db.query();
+			q.constrain(WoTOwnIdentity.class);
+			for(WoTOwnIdentity ownIdentity : (ObjectSet<WoTOwnIdentity>)q.execute())
+				ownIdentityIDs.add(ownIdentity.getID());
+		}
 		
-		// We usually call garbageCollectIdentities() after calling this function, it updates the cache already...
-		// if(mShortestUniqueNicknameCacheNeedsUpdate)
-		//	updateShortestUniqueNicknameCache();
+		final int[] selections = new int[] { 1, 0, -1 };
+		final SimpleFieldSet[] messages = new SimpleFieldSet[ownIdentityIDs.size() * selections.length];
+		final String[] expectedReplyMessages = new String[messages.length];
+		
+		for(int i = 0; i < messages.length; ++i) {
+			final int selection = selections[i % selections.length];
+			
+			messages[i] = new SimpleFieldSet(true);
+			messages[i].putOverwrite("Message", "GetIdentitiesByScore");
+			messages[i].putOverwrite("Truster", ownIdentityIDs.get(i / selections.length));
+			messages[i].putOverwrite("Selection", selection > 0 ? "+" : (selection == 0 ? "0" : "-"));
+			messages[i].putOverwrite("Context", Freetalk.WOT_CONTEXT);
+			expectedReplyMessages[i] = "Identities";
+		}
+		
+		Logger.debug(this, "Requesting the scores in the trust trees of " + ownIdentityIDs.size() + " own identities from WoT ...");
+		
+		final long startTime = CurrentTimeUTC.getInMillis();
+		final SimpleFieldSet[] replies = new SimpleFieldSet[messages.length];
+		final Exception[] errors = new Exception[messages.length];
+		sendFCPMessagesPipelined(messages, expectedReplyMessages, replies, errors);
+		
+		for(int i = 0; i < messages.length; ++i) {
+			final String ownIdentityID = ownIdentityIDs.get(i / selections.length);
+			
+			if(errors[i] != null)
+				Logger.error(this, "Requesting the scores in the trust tree of " + ownIdentityID + " failed", errors[i]);
+			else
+				parseScores(ownIdentityID, replies[i], selections[i % selections.length], startTime);
+		}
+		
+		mScoreCache.removeExpiredEntries();
+		Logger.normal(this, mScoreCache.toString());
+	}
+	
+	/**
+	 * Stores the scores of a reply to "GetIdentitiesByScore" in the {@link WoTScoreCache}.
+	 * 
+	 * @param selection The sign of the scores which were requested, see {@link WoTScoreCache#putScores(String, Map, int, long)}.
+	 */
+	private void parseScores(String treeOwnerID, SimpleFieldSet params, int selection, long date) {
+		final HashMap<String, Integer> scores = new HashMap<String, Integer>();
+		
+		for(int idx = 0; ; idx++) {
+			final String identityID = params.get("Identity"+idx);
+			if(identityID == null || identityID.equals("")) /* TODO: Figure out whether the second condition is necessary */
+				break;
+			
+			// Not all WoT versions include the score in the reply. If it is missing we only know its sign which suffices for wantsMessagesFrom().
+			final String score = params.get("Score"+idx);
+			
+			try {
+				scores.put(identityID, score != null ? Integer.valueOf(score) : null);
+			}
+			catch(NumberFormatException e) {
+				Logger.error(this, "Invalid score received from WoT: " + score);
+			}
+		}
+		
+		mScoreCache.putScores(treeOwnerID, scores, selection, date);
+		
+		Logger.debug(this, "parseScores received " + scores.size() + " scores for " + treeOwnerID);
 	}
 	
 	/**
@@ -622,21 +1128,86 @@ public final class WoTIdentityManager extends IdentityManager {
 			mFreetalk.getTaskManager().storeTaskWithoutCommit(introductionTask);
 		}
 		
-		mShortestUniqueNicknameCacheNeedsUpdate = true;
+		mLastReceivedTimes.put(newIdentity.getID(), newIdentity.getLastReceivedFromWoT());
+		mShortestUniqueNicknames.put(newIdentity.getID(), newIdentity.getNickname(), newIdentity.getFreetalkAddress());
 	}
 	
-	@SuppressWarnings("unchecked")
-	private void parseIdentities(SimpleFieldSet params, boolean bOwnIdentities) {
+	/**
+	 * Loads the IDs, nicknames and last received times of all identities in the database with a single query so that {@link parseIdentities}
+	 * only needs to access the database for identities which differ from the reply of WoT. Also fills the index of shortest unique nicknames.
+	 * Does nothing if it was executed already.
+	 * 
+	 * The last received times are not earlier than the given startup time: The database only contains the time when an identity was last
+	 * received if the identity had dropped out of the reply of WoT before the shutdown, for all other identities it is the time when they
+	 * were stored. If we loaded those times, the garbage collector would delete all identities which are not contained in the first reply
+	 * after startup immediately instead of after the grace period.
+	 * 
+	 * @param startupTime The time from which on the grace period of the garbage collector is granted to all stored identities.
+	 */
+	private synchronized void loadStoredIdentities(long startupTime) {
+		if(mStoredIdentitiesLoaded)
+			return;
+		
+		for(WoTIdentity identity : getAllIdentities()) {
+			final String identityID = identity.getID();
+			
+			if(identity instanceof WoTOwnIdentity)
+				mReceivedOwnIdentities.put(identityID, identity.getNickname());
+			else
+				mReceivedIdentities.put(identityID, identity.getNickname());
+			
+			mLastReceivedTimes.put(identityID, Math.max(identity.getLastReceivedFromWoT(), startupTime));
+			mShortestUniqueNicknames.put(identityID, identity.getNickname(), identity.getFreetalkAddress());
+		}
+		
+		mStoredIdentitiesLoaded = true;
+		Logger.normal(this, "Loaded " + mLastReceivedTimes.size() + " identities from the database.");
+	}
+	
+	/**
+	 * An identity as contained in a reply of WoT to GetIdentitiesByScore or GetOwnIdentities.
+	 */
+	private static final class ReceivedIdentity {
+		
+		private final String mID;
+		
+		private final FreenetURI mRequestURI;
+		
+		/** Null if the identity is not an own identity. */
+		private final FreenetURI mInsertURI;
+		
+		private final String mNickname;
+		
+		private ReceivedIdentity(String myID, FreenetURI myRequestURI, FreenetURI myInsertURI, String myNickname) {
+			mID = myID;
+			mRequestURI = myRequestURI;
+			mInsertURI = myInsertURI;
+			mNickname = myNickname;
+		}
+		
+	}
+	
+	/**
+	 * Parses a reply of WoT to GetIdentitiesByScore or GetOwnIdentities and stores the identities in the database.
+	 * 
+	 * The reply is parsed into memory and compared to the previous reply first. Only the identities which are new, changed their nickname or
+	 * are not contained in the reply anymore are written to the database, in transactions of {@link #IDENTITY_SYNC_BATCH_SIZE} identities.
+	 * The first reply after startup is compared to the identities in the database. The time when each identity was last received is only
+	 * refreshed in memory, see {@link #mLastReceivedTimes}.
+	 * 
+	 * @param receivedTime The time when the reply was received.
+	 */
+	private void parseIdentities(SimpleFieldSet params, boolean bOwnIdentities, long receivedTime) {
 		if(bOwnIdentities)
 			Logger.debug(this, "Parsing received own identities...");
 		else
 			Logger.debug(this, "Parsing received identities...");
 		
-		final PersistentTaskManager taskManager = mFreetalk.getTaskManager();
-	
-		int idx;
+		loadStoredIdentities(receivedTime);
 		
-		for(idx = 0; ; idx++) {
+		final HashMap<String, ReceivedIdentity> received = new HashMap<String, ReceivedIdentity>();
+	
+		for(int idx = 0; ; idx++) {
 			String identityID = params.get("Identity"+idx);
 			if(identityID == null || identityID.equals("")) /* TODO: Figure out whether the second condition is necessary */
 				break;
@@ -652,62 +1223,178 @@ public final class WoTIdentityManager extends IdentityManager {
 				continue;
 			}
 			
-			synchronized(this) { /* We lock here and not during the whole function to allow other threads to execute */
-			synchronized(taskManager) {
-				Query q = db.query();
-				q.constrain(WoTIdentity.class);
-				q.descend("mID").constrain(identityID);
-				ObjectSet<WoTIdentity> result = q.execute();
-				WoTIdentity id = null; 
-
-				if(result.size() == 0) {
-					synchronized(db.lock()) {
-						try {
-							Logger.debug(this, "Importing identity from WoT: " + requestURI);
-							id = bOwnIdentities ?	new WoTOwnIdentity(identityID, new FreenetURI(requestURI), new FreenetURI(insertURI), nickname) :
-								new WoTIdentity(identityID, new FreenetURI(requestURI), nickname);
-
-							id.initializeTransient(mFreetalk);
-							id.storeWithoutCommit();
-							
-							onIdentityCreated(id);
-							
-							db.commit(); Logger.debug(this, "COMMITED.");
-						}
-						catch(Exception e) {
-							Persistent.checkedRollback(db, this, e);
-						}
+			// Validate the identity now so that an invalid one cannot cause the rollback of the transaction of a whole batch.
+			try {
+				WoTIdentity.validateNickname(nickname);
+				received.put(identityID, new ReceivedIdentity(identityID, new FreenetURI(requestURI), 
+						bOwnIdentities ? new FreenetURI(insertURI) : null, nickname));
+			}
+			catch(InvalidParameterException e) {
+				Logger.error(this, "Invalid nickname received from WoT for " + requestURI, e);
+			}
+			catch(MalformedURLException e) {
+				Logger.error(this, "Invalid URI received from WoT for " + identityID, e);
+			}
+		}
+		
+		final HashMap<String, String> previous = bOwnIdentities ? mReceivedOwnIdentities : mReceivedIdentities;
+		final HashMap<String, String> nicknames = new HashMap<String, String>(received.size() * 2);
+		final ArrayList<ReceivedIdentity> changed = new ArrayList<ReceivedIdentity>();
+		final ArrayList<String> removed = new ArrayList<String>();
+		
+		synchronized(this) {
+			for(ReceivedIdentity identity : received.values()) {
+				nicknames.put(identity.mID, identity.mNickname);
+				
+				if(!identity.mNickname.equals(previous.get(identity.mID)))
+					changed.add(identity);
+			}
+			
+			for(String identityID : previous.keySet()) {
+				if(!received.containsKey(identityID))
+					removed.add(identityID);
+			}
+		}
+		
+		for(int start = 0; start < changed.size(); start += IDENTITY_SYNC_BATCH_SIZE) {
+			final List<ReceivedIdentity> batch = changed.subList(start, Math.min(start + IDENTITY_SYNC_BATCH_SIZE, changed.size()));
+			
+			if(!storeReceivedIdentities(batch, bOwnIdentities)) {
+				for(ReceivedIdentity identity : batch)
+					nicknames.put(identity.mID, null); // Store them again with the next reply.
+			}
+		}
+		
+		for(int start = 0; start < removed.size(); start += IDENTITY_SYNC_BATCH_SIZE) {
+			final List<String> batch = removed.subList(start, Math.min(start + IDENTITY_SYNC_BATCH_SIZE, removed.size()));
+			
+			if(!storeRemovedIdentities(batch)) {
+				for(String identityID : batch)
+					nicknames.put(identityID, previous.get(identityID)); // Remove them again with the next reply.
+			}
+		}
+		
+		synchronized(this) {
+			previous.clear();
+			previous.putAll(nicknames);
+			
+			for(String identityID : received.keySet())
+				mLastReceivedTimes.put(identityID, receivedTime);
+		}
+		
+		Logger.debug(this, "parseIdentities received " + received.size() + " identities, " + changed.size() + " new or changed, "
+				+ removed.size() + " removed. bOwnIdentities==" + bOwnIdentities);
+	}
+	
+	/**
+	 * Stores the given identities, which are new or have changed their nickname, in a single transaction.
+	 * 
+	 * @return False if storing failed and the transaction was rolled back.
+	 */
+	private boolean storeReceivedIdentities(List<ReceivedIdentity> identities, boolean bOwnIdentities) {
+		final PersistentTaskManager taskManager = mFreetalk.getTaskManager();
+		
+		synchronized(this) {
+		synchronized(taskManager) {
+		synchronized(db.lock()) {
+			try {
+				for(ReceivedIdentity received : identities) {
+					WoTIdentity id;
+					try {
+						id = getIdentity(received.mID);
+					}
+					catch(NoSuchIdentityException e) {
+						id = null;
 					}
-				} else {
-					Logger.debug(this, "Not importing already existing identity " + requestURI);
-					assert(result.size() == 1);
-					id = result.next();
-					id.initializeTransient(mFreetalk);
 					
-					synchronized(id) {
-					synchronized(db.lock()) {
-						try {
-							// TODO: The thread sometimes takes hours to parse the identities and I don't know why.
-							// So right now its better to re-query the time for each identity.
-							id.setLastReceivedFromWoT(CurrentTimeUTC.getInMillis());
-							id.checkedCommit(this);
-						}
-						catch(RuntimeException e) {
-							Persistent.checkedRollback(db, this, e);
+					if(id == null) {
+						Logger.debug(this, "Importing identity from WoT: " + received.mRequestURI);
+						id = bOwnIdentities ?	new WoTOwnIdentity(received.mID, received.mRequestURI, received.mInsertURI, received.mNickname) :
+							new WoTIdentity(received.mID, received.mRequestURI, received.mNickname);
+						
+						id.initializeTransient(mFreetalk);
+						id.storeWithoutCommit();
+						
+						onIdentityCreated(id);
+					} else {
+						Logger.debug(this, "Not importing already existing identity " + received.mRequestURI);
+						
+						if(!id.getNickname().equals(received.mNickname)) {
+							Logger.normal(this, "Identity changed its nickname to " + received.mNickname + ": " + id);
+							id.setNickname(received.mNickname);
+							mShortestUniqueNicknames.put(id.getID(), id.getNickname(), id.getFreetalkAddress());
 						}
 					}
+				}
+				
+				db.commit(); Logger.debug(this, "COMMITED.");
+				return true;
+			}
+			catch(Exception e) {
+				Persistent.checkedRollback(db, this, e);
+				return false;
+			}
+		}
+		}
+		}
+	}
+	
+	/**
+	 * Stores the time when the given identities, which are not contained in the reply of WoT anymore, were last received from WoT in the
+	 * database, in a single transaction. This preserves the time across restarts as far as the startup time allows, see
+	 * {@link loadStoredIdentities}: {@link garbageCollectIdentities} deletes them if they are not received again for a certain time.
+	 * 
+	 * @return False if storing failed and the transaction was rolled back.
+	 */
+	private boolean storeRemovedIdentities(List<String> identityIDs) {
+		synchronized(this) {
+		synchronized(db.lock()) {
+			try {
+				for(String identityID : identityIDs) {
+					final long lastReceivedTime = mLastReceivedTimes.get(identityID);
+					if(lastReceivedTime == WoTLastReceivedTimes.UNKNOWN)
+						continue;
+					
+					try {
+						getIdentity(identityID).setLastReceivedFromWoT(lastReceivedTime);
+					}
+					catch(NoSuchIdentityException e) {
+						// It was never stored because it was invalid or it was garbage collected already.
 					}
 				}
+				
+				db.commit(); Logger.debug(this, "COMMITED.");
+				return true;
 			}
+			catch(RuntimeException e) {
+				Persistent.checkedRollback(db, this, e);
+				return false;
 			}
-			Thread.yield();
 		}
+		}
+	}
+	
+	/**
+	 * Parses a reply of WoT to GetIdentitiesByScore or GetOwnIdentities as {@link fetchIdentities} / {@link fetchOwnIdentities} do, with the
+	 * given time as the time of the reply and of the fetch. For unit tests, which do not have a connection to WoT.
+	 */
+	protected void onIdentitiesReceived(SimpleFieldSet params, boolean bOwnIdentities, long time) {
+		parseIdentities(params, bOwnIdentities, time);
 		
-		Logger.debug(this, "parseIdentities received " + idx + " identities. bOwnIdentities==" + bOwnIdentities);
+		synchronized(this) {
+			if(bOwnIdentities)
+				mLastOwnIdentityFetchTime = time;
+			else
+				mLastIdentityFetchTime = time;
+		}
 	}
 	
-	@SuppressWarnings("unchecked")
-	private void garbageCollectIdentities() {
+	/**
+	 * Deletes the identities which were not received from WoT for three times the {@link #THREAD_PERIOD} before the last fetches.
+	 * 
+	 * Only for being used by the WoTIdentityManager itself and by unit tests.
+	 */
+	protected void garbageCollectIdentities() {
 		final MessageManager messageManager = mFreetalk.getMessageManager();
 		final PersistentTaskManager taskManager = mFreetalk.getTaskManager();
 		
@@ -720,19 +1407,18 @@ public final class WoTIdentityManager extends IdentityManager {
 		long lastAcceptTime = Math.min(mLastIdentityFetchTime, mLastOwnIdentityFetchTime) - THREAD_PERIOD * 3;
 		lastAcceptTime = Math.max(lastAcceptTime, 0); // This is not really needed but a time less than 0 does not make sense.;
 		
-		Query q = db.query();
-		q.constrain(WoTIdentity.class);
-		q.descend("mLastReceivedFromWoT").constrain(lastAcceptTime).smaller();
-		ObjectSet<WoTIdentity> result = q.execute();
-		
-		for(WoTIdentity identity : result) {
-			identity.initializeTransient(mFreetalk);
-			Logger.debug(this, "Garbage collecting identity " + identity);
-			deleteIdentity(identity, messageManager, taskManager);
+		for(String identityID : mLastReceivedTimes.getIdentitiesReceivedBefore(lastAcceptTime)) {
+			try {
+				final WoTIdentity identity = getIdentity(identityID);
+				Logger.debug(this, "Garbage collecting identity " + identity);
+				deleteIdentity(identity, messageManager, taskManager);
+			}
+			catch(NoSuchIdentityException e) {
+				// The transaction which created it was rolled back.
+				mLastReceivedTimes.remove(identityID);
+				mShortestUniqueNicknames.remove(identityID);
+			}
 		}
-		
-		if(mShortestUniqueNicknameCacheNeedsUpdate)
-			updateShortestUniqueNicknameCache();
 		}
 	}
 	
@@ -758,7 +1444,11 @@ public final class WoTIdentityManager extends IdentityManager {
 		}
 		}
 		
-		mShortestUniqueNicknameCacheNeedsUpdate = true;
+		mScoreCache.invalidateIdentity(identity.getID());
+		mLastReceivedTimes.remove(identity.getID());
+		mReceivedIdentities.remove(identity.getID());
+		mReceivedOwnIdentities.remove(identity.getID());
+		mShortestUniqueNicknames.remove(identity.getID());
 	}
 	
 	private synchronized boolean connectToWoT() {
@@ -776,7 +1466,7 @@ public final class WoTIdentityManager extends IdentityManager {
 		}
 		
 		try {
-			mTalker = new PluginTalkerBlocking(mFreetalk.getPluginRespirator());
+			mTalker = new PluginTalkerAsync(mFreetalk.getPluginRespirator(), Freetalk.WOT_NAME, Freetalk.PLUGIN_TITLE);
 			mFreetalk.handleWotConnected();
 			return true;
 		} catch(PluginNotFoundException e) {
@@ -795,9 +1485,9 @@ public final class WoTIdentityManager extends IdentityManager {
 		Random random = mFreetalk.getPluginRespirator().getNode().fastWeakRandom;
 		
 		try {
-			updateShortestUniqueNicknameCache();
+			loadStoredIdentities(CurrentTimeUTC.getInMillis());
 		} catch(Exception e) {
-			Logger.error(this, "Initializing shortest unique nickname cache failed", e);
+			Logger.error(this, "Loading the identities from the database failed", e);
 		}
 		
 		try {
@@ -816,6 +1506,7 @@ public final class WoTIdentityManager extends IdentityManager {
 					fetchIdentities();
 					fetchOwnIdentities();
 					garbageCollectIdentities();
+					fetchScores();
 				} catch (Exception e) {
 					Logger.error(this, "Fetching identities failed.", e);
 				}
@@ -869,65 +1560,10 @@ public final class WoTIdentityManager extends IdentityManager {
 	}
 
 	
-	// TODO: This function should be a feature of WoT.
-	@SuppressWarnings("unchecked")
-	private synchronized void updateShortestUniqueNicknameCache() {
-		Logger.debug(this, "Updating shortest unique nickname cache...");
-		
-		// We don't use getAllIdentities() because we do not need to have intializeTransient() called on each identity, we only query strings anyway.
-		final Query q = db.query();
-		q.constrain(WoTIdentity.class);
-		ObjectSet<WoTIdentity> result = q.execute();
-		final WoTIdentity[] identities = result.toArray(new WoTIdentity[result.size()]);
-		
-		Arrays.sort(identities, new Comparator<WoTIdentity>() {
-
-			public int compare(WoTIdentity i1, WoTIdentity i2) {
-				return i1.getFreetalkAddress().compareToIgnoreCase(i2.getFreetalkAddress());
-			}
-			
-		});
-		
-		final String[] nicknames = new String[identities.length];
-		
-		for(int i=0; i < identities.length; ++i) {
-			nicknames[i] = identities[i].getNickname();
-			
-			int minLength = nicknames[i].length();
-			int firstDuplicate;
-			
-			do {
-				firstDuplicate = i;
-				
-				while((firstDuplicate-1) > 0 && nicknames[firstDuplicate-1].equalsIgnoreCase(nicknames[i])) {
-					--firstDuplicate;
-				}
-			
-				if(firstDuplicate < i) {
-					++minLength;
-					
-					for(int j=i; j >= firstDuplicate; --j) {
-						nicknames[j] = identities[j].getFreetalkAddress(minLength);
-					}
-				}
-			} while(firstDuplicate != i);
-		}
-		
-		final Hashtable<String,String> newCache = new Hashtable<String, String>(identities.length * 2);
-		
-		for(int i = 0; i < identities.length; ++i)
-			newCache.put(identities[i].getID(), nicknames[i]);
-		
-		mShortestUniqueNicknameCache = newCache;
-		mShortestUniqueNicknameCacheNeedsUpdate = false;
-		
-		Logger.debug(this, "Finished updating shortest unique nickname cache.");
-	}
-
 	@Override
 	public String getShortestUniqueName(FTIdentity identity) {
 		// We must not synchronize anything according to the specification of this function (to prevent deadlocks)
-		String nickname = mShortestUniqueNicknameCache.get(identity.getID());
+		String nickname = mShortestUniqueNicknames.get(identity.getID());
 		
 		if(nickname == null)
 			nickname = identity.getFreetalkAddress();
@@ -0,0 +1,151 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the time when each identity was last received from the WoT plugin, by identity ID.
+ *
+ * The {@link WoTIdentityManager} refreshes the time of every identity in each reply of WoT. Storing it in the {@link WoTIdentity} objects
+ * would mean a database write for each identity in each reply, so it is kept in memory instead and only written to the database when an
+ * identity is not received anymore, see {@link WoTIdentity#setLastReceivedFromWoT(long)}.
+ *
+ * The table uses open addressing with linear probing in two arrays so that an entry costs a reference and a long instead of a map entry
+ * and a boxed Long. Not synchronized, the {@link WoTIdentityManager} only uses it while holding its own lock.
+ */
+public final class WoTLastReceivedTimes {
+
+	/**
+	 * Returned by {@link #get(String)} for identities which are not in the table.
+	 */
+	public static final long UNKNOWN = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** The IDs of the identities. Null for free slots. The length is always a power of two. */
+	private String[] mIDs = new String[INITIAL_CAPACITY];
+
+	/** The time when the identity at the same position of {@link #mIDs} was last received. */
+	private long[] mTimes = new long[INITIAL_CAPACITY];
+
+	private int mSize = 0;
+
+
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return The time when the given identity was last received, or {@link #UNKNOWN}.
+	 */
+	public long get(String identityID) {
+		final int slot = find(identityID);
+		return mIDs[slot] != null ? mTimes[slot] : UNKNOWN;
+	}
+
+	public void put(String identityID, long time) {
+		if(identityID == null) throw new NullPointerException();
+		if(time < 0) throw new IllegalArgumentException("Invalid time: " + time);
+
+		int slot = find(identityID);
+		if(mIDs[slot] == null) {
+			// Keep the load factor at 0.5 at most so that the probe sequences stay short.
+			if((mSize + 1) * 2 > mIDs.length) {
+				resize(mIDs.length * 2);
+				slot = find(identityID);
+			}
+
+			mIDs[slot] = identityID;
+			++mSize;
+		}
+
+		mTimes[slot] = time;
+	}
+
+	/**
+	 * @return True if the identity was in the table.
+	 */
+	public boolean remove(String identityID) {
+		int slot = find(identityID);
+		if(mIDs[slot] == null)
+			return false;
+
+		mIDs[slot] = null;
+		--mSize;
+
+		// Move the following entries of the probe sequence back so that find() does not stop at the new gap before reaching them.
+		final int mask = mIDs.length - 1;
+		for(int next = (slot + 1) & mask; mIDs[next] != null; next = (next + 1) & mask) {
+			final int home = slotOf(mIDs[next]);
+
+			// The entry can be moved to the gap if its home slot is not cyclically in (slot, next].
+			final boolean homeIsBetween = (slot <= next) ? (slot < home && home <= next) : (slot < home || home <= next);
+			if(!homeIsBetween) {
+				mIDs[slot] = mIDs[next];
+				mTimes[slot] = mTimes[next];
+				mIDs[next] = null;
+				slot = next;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the IDs of the identities which were last received before the given time.
+	 */
+	public List<String> getIdentitiesReceivedBefore(long time) {
+		final ArrayList<String> result = new ArrayList<String>();
+
+		for(int i = 0; i < mIDs.length; ++i) {
+			if(mIDs[i] != null && mTimes[i] < time)
+				result.add(mIDs[i]);
+		}
+
+		return result;
+	}
+
+	private int slotOf(String identityID) {
+		int hash = identityID.hashCode();
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return hash & (mIDs.length - 1);
+	}
+
+	/**
+	 * @return The slot of the given identity or the free slot where it would be inserted.
+	 */
+	private int find(String identityID) {
+		final int mask = mIDs.length - 1;
+		int slot = slotOf(identityID);
+
+		while(mIDs[slot] != null && !mIDs[slot].equals(identityID))
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+
+	private void resize(int capacity) {
+		final String[] oldIDs = mIDs;
+		final long[] oldTimes = mTimes;
+
+		mIDs = new String[capacity];
+		mTimes = new long[capacity];
+
+		for(int i = 0; i < oldIDs.length; ++i) {
+			if(oldIDs[i] != null) {
+				final int slot = find(oldIDs[i]);
+				mIDs[slot] = oldIDs[i];
+				mTimes[slot] = oldTimes[i];
+			}
+		}
+	}
+
+	public String toString() {
+		return super.toString() + " (" + mSize + " identities)";
+	}
+
+}
@@ -9,11 +9,16 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Random;
 
+import plugins.Freetalk.FetchConcurrencyController;
 import plugins.Freetalk.FetchFailedMarker;
 import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.Message;
+import plugins.Freetalk.MessageFetchQueueEntry;
 import plugins.Freetalk.MessageFetcher;
 import plugins.Freetalk.MessageList;
+import plugins.Freetalk.MessageManager;
+import plugins.Freetalk.Persistent;
+import plugins.Freetalk.PriorityFetchLimiter;
 import plugins.Freetalk.exceptions.NoSuchMessageException;
 import plugins.Freetalk.exceptions.NoSuchMessageListException;
 
@@ -31,6 +36,7 @@ import freenet.keys.FreenetURI;
 import freenet.node.Node;
 import freenet.node.RequestClient;
 import freenet.node.RequestStarter;
+import freenet.support.CurrentTimeUTC;
 import freenet.support.Logger;
 import freenet.support.api.Bucket;
 import freenet.support.io.Closer;
@@ -43,7 +49,7 @@ import freenet.support.io.NativeThread;
  * TODO: Change this to event-driven code: The MessageManager should raise an event if new messages are to be fetched, instead of having the MessageFetcher
  * wake up periodically.
  * 
- * Runs up to {@link MAX_PARALLEL_MESSAGE_FETCH_COUNT} fetches in parallel. As soon as a fetch succeeds/fails more fetches are started if unfetched message
+ * Runs as many fetches in parallel as the {@link FetchConcurrencyController} allows. As soon as a fetch succeeds/fails more fetches are started if unfetched message
  * URI are available in the database.  
  * 
  * @author xor (xor@freenetproject.org}
@@ -54,11 +60,26 @@ public final class WoTMessageFetcher extends MessageFetcher {
 	private static final int THREAD_PERIOD = Freetalk.FAST_DEBUG_MODE ? (3 * 60 * 1000) : (5 * 60 * 1000);
 	
 	/**
-	 * How many fetches are run in parallel? 
-	 * TODO: This should be a function of node speed. It's not severe right now that we have a static limit because if a fetch succeeds/fails
-	 * we immediately start a new one.
+	 * How many fetches are run in parallel initially? The number is adapted to the node speed by the {@link FetchConcurrencyController},
+	 * between MIN_PARALLEL_MESSAGE_FETCH_COUNT and MAX_PARALLEL_MESSAGE_FETCH_COUNT.
 	 */
-	private static final int MAX_PARALLEL_MESSAGE_FETCH_COUNT = 32;
+	private static final int INITIAL_PARALLEL_MESSAGE_FETCH_COUNT = 32;
+	
+	private static final int MIN_PARALLEL_MESSAGE_FETCH_COUNT = 4;
+	
+	private static final int MAX_PARALLEL_MESSAGE_FETCH_COUNT = 128;
+	
+	/**
+	 * The number of parallel fetches is increased while fetches succeed within this time, in milliseconds.
+	 */
+	private static final long MESSAGE_FETCH_LATENCY_TARGET = 2 * 60 * 1000;
+	
+	/**
+	 * How many fetches of parent messages and threads of messages which we have are run in parallel, see
+	 * {@link MessageManager#getPriorityMessageFetchQueue()}. They are not counted in the limit of the {@link FetchConcurrencyController} so that
+	 * the regular fetches cannot starve them and they cannot starve the regular fetches, see {@link PriorityFetchLimiter}.
+	 */
+	private static final int MAX_PARALLEL_PRIORITY_MESSAGE_FETCH_COUNT = 8;
 	
 	private final Random mRandom;
 	
@@ -68,13 +89,22 @@ public final class WoTMessageFetcher extends MessageFetcher {
 	 * For each <code>ClientGetter</code> (= an object associated with a fetch) this hashtable stores the ID of the MessageList to which the
 	 * message which is being fetched belongs.
 	 */
-	private final Hashtable<ClientGetter, String> mMessageLists = new Hashtable<ClientGetter, String>(MAX_PARALLEL_MESSAGE_FETCH_COUNT * 2);
+	private final Hashtable<ClientGetter, String> mMessageLists = new Hashtable<ClientGetter, String>(INITIAL_PARALLEL_MESSAGE_FETCH_COUNT * 2);
 	
 	
 	/**
 	 * Contains a list of messages we are currently trying to fetch. Used for preventing parallel fetch attempts of the same message.
 	 */
-	private final HashSet<FreenetURI> mMessages = new HashSet<FreenetURI>(MAX_PARALLEL_MESSAGE_FETCH_COUNT * 2);
+	private final HashSet<FreenetURI> mMessages = new HashSet<FreenetURI>(INITIAL_PARALLEL_MESSAGE_FETCH_COUNT * 2);
+	
+	private final FetchConcurrencyController mConcurrency = new FetchConcurrencyController(MIN_PARALLEL_MESSAGE_FETCH_COUNT,
+			INITIAL_PARALLEL_MESSAGE_FETCH_COUNT, MAX_PARALLEL_MESSAGE_FETCH_COUNT, MESSAGE_FETCH_LATENCY_TARGET);
+	
+	/**
+	 * Keeps track of the running fetches of parent messages and threads, i.e. of the priority queue. Only the other fetches are passed
+	 * to {@link mConcurrency}.
+	 */
+	private final PriorityFetchLimiter mLimiter = new PriorityFetchLimiter(MAX_PARALLEL_PRIORITY_MESSAGE_FETCH_COUNT, mConcurrency);
 	
 	private final WoTMessageXML mXML;
 	
@@ -89,7 +119,7 @@ public final class WoTMessageFetcher extends MessageFetcher {
 
 	@Override
 	protected Collection<ClientGetter> createFetchStorage() {
-		return new HashSet<ClientGetter>(MAX_PARALLEL_MESSAGE_FETCH_COUNT * 2);
+		return new HashSet<ClientGetter>(INITIAL_PARALLEL_MESSAGE_FETCH_COUNT * 2);
 	}
 
 	@Override
@@ -117,47 +147,79 @@ public final class WoTMessageFetcher extends MessageFetcher {
 		fetchMessages();
 	}
 	
+	@Override
+	public synchronized void onFetchRetriesDue() {
+		fetchMessages();
+	}
+	
+	@Override
+	public FetchConcurrencyController getConcurrencyController() {
+		return mConcurrency;
+	}
+	
 	/**
-	 * Checks the database for unfetched messages and starts message fetches until this fetches is running the maximum of MAX_PARALLEL_MESSAGE_FETCH_COUNT fetches.
+	 * Checks the database for unfetched messages and starts message fetches until this fetches is running the maximum number of fetches which
+	 * the {@link FetchConcurrencyController} allows. Before, it starts fetches of the messages of the priority queue, i.e. of the parent
+	 * messages and threads of messages which we have, until MAX_PARALLEL_PRIORITY_MESSAGE_FETCH_COUNT of them are running.
 	 * Does not abort fetches which were started by previous calls to this function: We use a finite retry count for each started fetch so the node should
 	 * call onFailure / onSuccess after a finite amount of time which causes not working message fetches to be aborted.
 	 * 
 	 * You have to synchronize on this <code>WoTMessageFetcher</code> when using this function.
 	 */
 	private void fetchMessages() {
-		if(fetchCount() >= MAX_PARALLEL_MESSAGE_FETCH_COUNT) { // Check before we do the expensive database query.
+		// Check before we do the expensive database queries.
+		if(!mLimiter.canStartPriorityFetch() && !mLimiter.canStartRegularFetch(fetchCount(), CurrentTimeUTC.getInMillis())) {
 			Logger.debug(this, "Got " + fetchCount() + "fetches, not fetching any more.");
 			return;
 		}
 		
-		synchronized(mMessageManager) { 
-			/* TODO: Obtain WoTMessageLists only, not all. */
-			final ObjectSet<MessageList.MessageReference> notDownloadedMessages = mMessageManager.notDownloadedMessageIterator();
-			
-			for(MessageList.MessageReference ref : notDownloadedMessages) {
+		if(mLimiter.canStartPriorityFetch()) {
+			for(MessageFetchQueueEntry entry : mMessageManager.getPriorityMessageFetchQueue()) {
 				try {
-					fetchMessage(ref);
+					fetchMessage(entry.getReference(), true);
 				}
 				catch(Exception e) {
-					Logger.error(this, "Error while trying to fetch message " + ref.getURI(), e);
+					Logger.error(this, "Error while trying to fetch parent message " + entry.getMessageID(), e);
 				}
 				
-				if(fetchCount() >= MAX_PARALLEL_MESSAGE_FETCH_COUNT) {
-					Logger.debug(this, "Got " + fetchCount() + "fetches, not fetching any more.");
+				if(!mLimiter.canStartPriorityFetch())
 					break;
-				}
+			}
+		}
+		
+		if(!mLimiter.canStartRegularFetch(fetchCount(), CurrentTimeUTC.getInMillis())) {
+			Logger.debug(this, "Got " + fetchCount() + "fetches, not fetching any more.");
+			return;
+		}
+		
+		/* TODO: Obtain WoTMessageLists only, not all. */
+		final ObjectSet<MessageFetchQueueEntry> queue = mMessageManager.getMessageFetchQueue();
+		
+		for(MessageFetchQueueEntry entry : queue) {
+			try {
+				fetchMessage(entry.getReference(), false);
+			}
+			catch(Exception e) {
+				Logger.error(this, "Error while trying to fetch message " + entry.getMessageID(), e);
+			}
+			
+			if(!mLimiter.canStartRegularFetch(fetchCount(), CurrentTimeUTC.getInMillis())) {
+				Logger.debug(this, "Got " + fetchCount() + "fetches, not fetching any more.");
+				break;
 			}
 		}
 	}
 	
-
 	/**
 	 * Starts a fetch for the given message.
 	 * Uses a finite amount of retries, so the fetch will definitely finish in a finite amount of time.
 	 * 
 	 * You have to synchronize on this <code>WoTMessageFetcher</code> when using this function.
+	 * 
+	 * @param priority True if the message is fetched for the priority queue. Then the fetch is counted in MAX_PARALLEL_PRIORITY_MESSAGE_FETCH_COUNT
+	 * 	instead of the limit of the {@link FetchConcurrencyController} and uses a higher priority class of the node.
 	 */
-	private void fetchMessage(MessageList.MessageReference ref) throws FetchException {
+	private void fetchMessage(MessageList.MessageReference ref, boolean priority) throws FetchException {
 		final FreenetURI uri = ref.getURI(); 
 		
 		if(mMessages.add(uri) == false)// The message is already being fetched.
@@ -168,10 +230,12 @@ public final class WoTMessageFetcher extends MessageFetcher {
 			// We MUST use a finite amount of retries because this function is specified to do so and the callers rely on that.
 			fetchContext.maxSplitfileBlockRetries = 2;
 			fetchContext.maxNonSplitfileRetries = 2;
-			ClientGetter g = mClient.fetch(uri, -1, requestClient, this, fetchContext, RequestStarter.UPDATE_PRIORITY_CLASS);
+			ClientGetter g = mClient.fetch(uri, -1, requestClient, this, fetchContext,
+					priority ? RequestStarter.INTERACTIVE_PRIORITY_CLASS : RequestStarter.UPDATE_PRIORITY_CLASS);
 			addFetch(g);
+			mLimiter.onFetchStarted(g, priority, CurrentTimeUTC.getInMillis());
 			mMessageLists.put(g, ref.getMessageList().getID());
-			Logger.debug(this, "Trying to fetch message from " + uri);
+			Logger.debug(this, "Trying to fetch " + (priority ? "parent " : "") + "message from " + uri);
 		}
 		catch(RuntimeException e) {
 			mMessages.remove(uri);
@@ -182,6 +246,7 @@ public final class WoTMessageFetcher extends MessageFetcher {
 	@Override
 	public synchronized void onSuccess(FetchResult result, ClientGetter state, ObjectContainer container) {
 		Logger.debug(this, "Fetched message: " + state.getURI());
+		mLimiter.onFetchFinished(state, FetchConcurrencyController.Result.Success, CurrentTimeUTC.getInMillis());
 		removeFetch(state); // This must be called before we call fetchMessages() because fetchMessages has a parallel fetch count limit.
 		
 		Bucket bucket = null;
@@ -190,15 +255,22 @@ public final class WoTMessageFetcher extends MessageFetcher {
 		
 		boolean fetchMoreMessages = false;
 		
-		synchronized(mMessageManager) {
 		try {
 			list = (WoTMessageList)mMessageManager.getMessageList(mMessageLists.get(state));
 			bucket = result.asBucket();
 			inputStream = bucket.getInputStream();
 			Message message = mXML.decode(mMessageManager, inputStream, list, state.getURI());
-			mMessageManager.onMessageReceived(message);
 			
-			fetchMoreMessages = true;
+			// The message is stored asynchronously by the MessageManager. It stays in mMessages until it was stored so that fetchMessages()
+			// does not fetch it again meanwhile. More messages are fetched when it was stored, see ReceivedMessageListener.
+			mMessages.add(state.getURI());
+			try {
+				mMessageManager.onMessageReceived(message, new ReceivedMessageListener(state.getURI()));
+			}
+			catch(RuntimeException e) {
+				mMessages.remove(state.getURI());
+				throw e;
+			}
 		}
 		catch (NoSuchMessageListException e) {
 			Logger.normal(this, "MessageList was deleted already, not importing message: " + state.getURI());
@@ -220,7 +292,6 @@ public final class WoTMessageFetcher extends MessageFetcher {
 			Closer.close(inputStream);
 			Closer.close(bucket);
 		}
-		}
 		
 		// We only call fetchMessages() if we know that the current message was marked as fetched in the database, otherwise the fetch thread could get stuck
 		// in a busy loop: "fetch(), onSuccess(), fetch(), onSuccess(), ..."
@@ -228,17 +299,37 @@ public final class WoTMessageFetcher extends MessageFetcher {
 			fetchMessages();
 	}
 	
+	/**
+	 * Removes a fetched message from {@link mMessages} when it was stored and fetches more messages.
+	 */
+	private final class ReceivedMessageListener implements MessageManager.ReceivedObjectListener {
+		
+		private final FreenetURI mURI;
+		
+		public ReceivedMessageListener(FreenetURI myURI) {
+			mURI = myURI;
+		}
+
+		public void onReceivedObjectCommitted(Persistent object, boolean success) {
+			synchronized(WoTMessageFetcher.this) {
+				mMessages.remove(mURI);
+				
+				// Also if storing failed, as onSuccess() did before the messages were stored asynchronously.
+				fetchMessages();
+			}
+		}
+	}
+	
 	@Override
 	public synchronized void onFailure(FetchException e, ClientGetter state, ObjectContainer container) {
+		mLimiter.onFetchFinished(state, getConcurrencyResult(e), CurrentTimeUTC.getInMillis());
 		removeFetch(state); // This must be called before we call fetchMessages() because fetchMessages has a parallel fetch count limit.
 		
 			switch(e.getMode()) {
 				case FetchException.DATA_NOT_FOUND:
 					try {
-						synchronized(mMessageManager) {
 						WoTMessageList list = (WoTMessageList)mMessageManager.getMessageList(mMessageLists.get(state));
 						mMessageManager.onMessageFetchFailed(list.getReference(state.getURI()), FetchFailedMarker.Reason.DataNotFound);
-						}
 						
 						// We only call fetchMessages() if we know that the message for which the fetch failed was marked as failed, otherwise the fetch
 						// thread could get stuck in a busy loop: "fetch(), onFailure(), fetch(), onFailure() ..."
@@ -271,6 +362,7 @@ public final class WoTMessageFetcher extends MessageFetcher {
 	@Override
 	protected synchronized void abortAllTransfers() {
 		super.abortAllTransfers();
+		mLimiter.onAllFetchesAborted();
 		mMessageLists.clear();
 		mMessages.clear();
 	}
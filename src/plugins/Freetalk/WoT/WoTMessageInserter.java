@@ -10,9 +10,6 @@ import java.util.Collection;
 import java.util.Hashtable;
 import java.util.Random;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-
 import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.MessageInserter;
 import plugins.Freetalk.OwnMessage;
@@ -107,14 +104,12 @@ public final class WoTMessageInserter extends MessageInserter {
 	protected synchronized void iterate() {
 		abortAllTransfers();
 		
-		synchronized(mMessageManager) {
-			for(WoTOwnMessage message : mMessageManager.getNotInsertedOwnMessages()) {
-				try {
-					insertMessage(message);
-				}
-				catch(Exception e) {
-					Logger.error(this, "Insert of message failed", e);
-				}
+		for(WoTOwnMessage message : mMessageManager.getNotInsertedOwnMessages()) {
+			try {
+				insertMessage(message);
+			}
+			catch(Exception e) {
+				Logger.error(this, "Insert of message failed", e);
 			}
 		}
 	}
@@ -122,7 +117,7 @@ public final class WoTMessageInserter extends MessageInserter {
 	/**
 	 * You have to synchronize on this <code>WoTMessageInserter</code> when using this function.
 	 */
-	protected void insertMessage(OwnMessage m) throws InsertException, IOException, TransformerException, ParserConfigurationException {
+	protected void insertMessage(OwnMessage m) throws InsertException, IOException {
 		Bucket tempB = mTBF.makeBucket(2048 + m.getText().length()); /* TODO: set to a reasonable value */
 		OutputStream os = null;
 		
@@ -3,13 +3,27 @@ package plugins.Freetalk.WoT;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Random;
 
+import plugins.Freetalk.FTIdentity;
+import plugins.Freetalk.FetchConcurrencyController;
 import plugins.Freetalk.FetchFailedMarker;
 import plugins.Freetalk.Freetalk;
+import plugins.Freetalk.IdentityStatistics;
+import plugins.Freetalk.MessageFetcher;
+import plugins.Freetalk.MessageListFetchScheduler;
 import plugins.Freetalk.MessageListFetcher;
+import plugins.Freetalk.MessageListIndexTracker;
+import plugins.Freetalk.MessageManager;
+import plugins.Freetalk.Persistent;
 import plugins.Freetalk.exceptions.NoSuchIdentityException;
+import plugins.Freetalk.exceptions.NoSuchMessageListException;
+import plugins.Freetalk.exceptions.NoSuchObjectException;
 
 import com.db4o.ObjectContainer;
 
@@ -25,7 +39,7 @@ import freenet.keys.FreenetURI;
 import freenet.node.Node;
 import freenet.node.RequestClient;
 import freenet.node.RequestStarter;
-import freenet.support.LRUQueue;
+import freenet.support.CurrentTimeUTC;
 import freenet.support.Logger;
 import freenet.support.api.Bucket;
 import freenet.support.io.Closer;
@@ -35,7 +49,9 @@ import freenet.support.io.NativeThread;
  * Periodically wakes up and fetches <code>MessageList</code>s from identities.
  * 
  * The policy currently is the following:
- * - When waking up, for each selected identity we try to fetch a <code>MessageList</code> with index =
+ * - When waking up, the identities are ranked by the {@link MessageListFetchScheduler} by how likely it is that they have published new
+ * <code>MessageList</code>s and the best ranked ones are selected.
+ * - For each selected identity we try to fetch a <code>MessageList</code> with index =
  * (latest known <code>MessageList</code> index + 1) with USK redirects enabled. This means that the node will fetch a hopefully recent and new
  * <code>MessageList</code>. Further, we also try to fetch an older MessageList than the latest available one.
  * - In the onSuccess() method, for each fetched <code>MessageList</code>, a fetch is started for an unavailable <code>MessageList</code> which is
@@ -53,23 +69,48 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 	private static final int THREAD_PERIOD = Freetalk.FAST_DEBUG_MODE ? (5 * 60 * 1000) : (15 * 60 * 1000);	// TODO: Make configurable
 	
 	/**
-	 * How many message lists do we attempt to fetch in parallel? TODO: This should be configurable.
+	 * How many message lists do we attempt to fetch in parallel initially? Two for each identity, see fetchMessageLists(). The number is adapted
+	 * to the node speed by the {@link FetchConcurrencyController}, between MIN_PARALLEL_MESSAGELIST_FETCH_COUNT and
+	 * MAX_PARALLEL_MESSAGELIST_FETCH_COUNT. TODO: This should be configurable.
 	 */
-	private static final int MAX_PARALLEL_MESSAGELIST_FETCH_COUNT = Freetalk.FAST_DEBUG_MODE ? 64 : 16;
+	private static final int INITIAL_PARALLEL_MESSAGELIST_FETCH_COUNT = Freetalk.FAST_DEBUG_MODE ? 128 : 32;
+	
+	private static final int MIN_PARALLEL_MESSAGELIST_FETCH_COUNT = 4;
+	
+	private static final int MAX_PARALLEL_MESSAGELIST_FETCH_COUNT = 4 * INITIAL_PARALLEL_MESSAGELIST_FETCH_COUNT;
 	
 	/**
-	 * How many identities do we keep in the LRU Hashtable? The hashtable is a queue which is used to ensure that we fetch message lists from different identities
-	 * and not always from the same ones.
+	 * The number of parallel fetches is increased while fetches succeed within this time, in milliseconds.
 	 */
-	private static final int IDENTITIES_LRU_QUEUE_SIZE_LIMIT = 1024;
-
+	private static final long MESSAGELIST_FETCH_LATENCY_TARGET = 2 * 60 * 1000;
+	
+	/**
+	 * How many candidate identities does iterate() check at once? Their scores are prefetched from WoT with a single batch query.
+	 */
+	private static final int SCORE_PREFETCH_CHUNK_SIZE = INITIAL_PARALLEL_MESSAGELIST_FETCH_COUNT;
+	
 	
 	private final WoTIdentityManager mIdentityManager;
 	private final WoTMessageManager mMessageManager;
 	private final ClientContext clientContext;
 	private final RequestClient mRequestClient;
 	
-	private final LRUQueue<String> mIdentities = new LRUQueue<String>();
+	/**
+	 * Ranks the identities by the expected amount of new message lists. This also ensures that we fetch message lists from different identities
+	 * and not always from the same ones because the priority of an identity grows with the time since its last fetch.
+	 */
+	private final MessageListFetchScheduler mScheduler = new MessageListFetchScheduler();
+	
+	private final FetchConcurrencyController mConcurrency = new FetchConcurrencyController(MIN_PARALLEL_MESSAGELIST_FETCH_COUNT,
+			INITIAL_PARALLEL_MESSAGELIST_FETCH_COUNT, MAX_PARALLEL_MESSAGELIST_FETCH_COUNT, MESSAGELIST_FETCH_LATENCY_TARGET);
+	
+	/**
+	 * The values of {@link MessageListFetchScheduler#getFetchCount()} and {@link MessageListFetchScheduler#getNewListCount()} at the
+	 * beginning of the last iteration, for logging the results of each iteration.
+	 */
+	private long mLastFetchCount = 0;
+	
+	private long mLastNewListCount = 0;
 	
 	private final Random mRandom;
 	
@@ -88,7 +129,7 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 
 	@Override
 	protected Collection<ClientGetter> createFetchStorage() {
-		return new HashSet<ClientGetter>(MAX_PARALLEL_MESSAGELIST_FETCH_COUNT * 2);
+		return new HashSet<ClientGetter>(INITIAL_PARALLEL_MESSAGELIST_FETCH_COUNT * 2);
 	}
 
 	@Override
@@ -112,10 +153,12 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 	}
 
 	/**
-	 * Starts fetches of MessageLists from MAX_PARALLEL_MESSAGELIST_FETCH_COUNT different identities. For each identity, it is attempted to start a fetch
+	 * Starts fetches of MessageLists from half as many different identities as the {@link FetchConcurrencyController} allows parallel fetches.
+	 * For each identity, it is attempted to start a fetch
 	 * of the latest news message list (by allowing USK redirects) and a fetch of an old message list.
 	 * 
-	 * The identities are put in a LRU queue, so in the next iteration, fetches will not be allowed from identities of the previous iteration.
+	 * The identities are taken in the order of their priority in the {@link MessageListFetchScheduler}, so the fetches are started for the
+	 * identities which are most likely to have published new message lists.
 	 *  
 	 * Further, for each succeeded/failed MessageList fetch, the onSuccess() / onFailure() method starts a new fetch from the same identity.
 	 * 
@@ -125,45 +168,128 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 	protected synchronized void iterate() {
 		abortAllTransfers();
 		
-		ArrayList<WoTIdentity> identitiesToFetchFrom = new ArrayList<WoTIdentity>(MAX_PARALLEL_MESSAGELIST_FETCH_COUNT + 1);
+		final long fetchCount = mScheduler.getFetchCount();
+		final long newListCount = mScheduler.getNewListCount();
+		Logger.normal(this, "Found " + (newListCount - mLastNewListCount) + " new message lists with " + (fetchCount - mLastFetchCount)
+				+ " fetches in the last iteration, " + mScheduler.getNewListsPerFetch() + " new lists per fetch in total.");
+		mLastFetchCount = fetchCount;
+		mLastNewListCount = newListCount;
 		
-		// TODO: Order the identities by date of modification
+		final ArrayList<WoTIdentity> identities = rankIdentities();
+		final int identityCount = Math.max(mConcurrency.getLimit() / 2, 1);
+		final ArrayList<WoTIdentity> identitiesToFetchFrom = new ArrayList<WoTIdentity>(identityCount + 1);
 		
-		synchronized(mIdentities) {
-			for(WoTIdentity identity : mIdentityManager.getAllIdentities()) {
-				if(!mIdentities.contains(identity.getID()) && mIdentityManager.anyOwnIdentityWantsMessagesFrom(identity)) {
-					identitiesToFetchFrom.add(identity);
-
-					if(identitiesToFetchFrom.size() >= MAX_PARALLEL_MESSAGELIST_FETCH_COUNT)
-						break;
+		selectIdentitiesToFetchFrom(identities.iterator(), identityCount, identitiesToFetchFrom);
+		
+		for(WoTIdentity identity : identitiesToFetchFrom) {
+			try {
+				fetchMessageLists((WoTIdentity)identity);
+			}
+			catch(Exception e) {
+				Logger.error(this, "Fetching of messages from " + identity.getNickname() + " failed.", e);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the identities which are new to the {@link MessageListFetchScheduler}, removes the deleted ones from it and sorts all identities by
+	 * their priority in it.
+	 * 
+	 * You have to synchronize on this <code>WoTMessageListFetcher</code> when using this function.
+	 * 
+	 * @return All identities, the one with the highest priority first.
+	 */
+	private ArrayList<WoTIdentity> rankIdentities() {
+		final ArrayList<WoTIdentity> identities = new ArrayList<WoTIdentity>();
+		final ArrayList<String> identityIDs = new ArrayList<String>();
+		
+		for(WoTIdentity identity : mIdentityManager.getAllIdentities()) {
+			final String id = identity.getID();
+			identities.add(identity);
+			identityIDs.add(id);
+			
+			if(!mScheduler.containsIdentity(id)) {
+				try {
+					final IdentityStatistics statistics = mMessageManager.getIdentityStatistics(identity);
+					mScheduler.addIdentity(id, statistics.getPostCount(), statistics.getFirstPostDate(), statistics.getLastPostDate());
+				}
+				catch(NoSuchObjectException e) {
+					mScheduler.addIdentity(id, 0, null, null);
 				}
 			}
 		}
 		
-		/* mIdentities contains all identities which are available, so we have to flush it. */
-		if(identitiesToFetchFrom.size() == 0) {
-			Logger.debug(this, "Ran out of identities to fetch from, clearing the LRUQueue...");
-			synchronized(mIdentities) {
-			mIdentities.clear();
+		mScheduler.retainIdentities(identityIDs);
+		
+		final long now = CurrentTimeUTC.getInMillis();
+		final HashMap<String, Double> priorities = new HashMap<String, Double>(identities.size() * 2);
+		for(String id : identityIDs)
+			priorities.put(id, mScheduler.getPriority(id, now));
+		
+		Collections.sort(identities, new Comparator<WoTIdentity>() {
+			public int compare(WoTIdentity i1, WoTIdentity i2) {
+				return priorities.get(i2.getID()).compareTo(priorities.get(i1.getID()));
 			}
+		});
+		
+		return identities;
+	}
 
-			for(WoTIdentity identity : mIdentityManager.getAllIdentities()) {
+	/**
+	 * Adds identities from which any own identity wants messages to the result list until it contains the given number of identities.
+	 * 
+	 * The candidates are taken from the iterator in chunks and the scores of each chunk are prefetched from WoT at once so that the
+	 * anyOwnIdentityWantsMessagesFrom() check does not cause a WoT query for each identity.
+	 * 
+	 * You have to synchronize on this <code>WoTMessageListFetcher</code> when using this function.
+	 */
+	private void selectIdentitiesToFetchFrom(Iterator<WoTIdentity> identities, int identityCount, ArrayList<WoTIdentity> result) {
+		final ArrayList<WoTIdentity> candidates = new ArrayList<WoTIdentity>(SCORE_PREFETCH_CHUNK_SIZE);
+		
+		while(identities.hasNext() && result.size() < identityCount) {
+			candidates.clear();
+			
+			while(identities.hasNext() && candidates.size() < SCORE_PREFETCH_CHUNK_SIZE)
+				candidates.add(identities.next());
+			
+			mIdentityManager.prefetchScoresOfAllOwnIdentities(candidates, false);
+			
+			for(WoTIdentity identity : candidates) {
 				if(mIdentityManager.anyOwnIdentityWantsMessagesFrom(identity)) {
-					identitiesToFetchFrom.add(identity);
-
-					if(identitiesToFetchFrom.size() >= MAX_PARALLEL_MESSAGELIST_FETCH_COUNT)
+					result.add(identity);
+					
+					if(result.size() >= identityCount)
 						break;
 				}
 			}
 		}
+	}
+
+	@Override
+	public FetchConcurrencyController getConcurrencyController() {
+		return mConcurrency;
+	}
+	
+	/**
+	 * Starts fetches of the message lists of the given identity, which include the one whose fetch retry is due.
+	 */
+	@Override
+	public synchronized void onFetchRetryDue(FTIdentity author) {
+		if(!(author instanceof WoTIdentity)) {
+			Logger.error(this, "Fetch retry is due for an identity which is no WoTIdentity: " + author);
+			return;
+		}
 		
-		for(WoTIdentity identity : identitiesToFetchFrom) {
-			try {
-				fetchMessageLists((WoTIdentity)identity);
-			}
-			catch(Exception e) {
-				Logger.error(this, "Fetching of messages from " + identity.getNickname() + " failed.", e);
-			}
+		final WoTIdentity identity = (WoTIdentity)author;
+		
+		if(!mIdentityManager.anyOwnIdentityWantsMessagesFrom(identity))
+			return;
+		
+		try {
+			fetchMessageLists(identity);
+		}
+		catch(Exception e) {
+			Logger.error(this, "Retrying the fetch of a message list of " + identity.getNickname() + " failed.", e);
 		}
 	}
 
@@ -172,11 +298,13 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 	 * @throws FetchException 
 	 */
 	private void fetchMessageLists(WoTIdentity identity) throws FetchException {
-		int newIndex = mMessageManager.getUnavailableNewMessageListIndex(identity);
+		// Both indices are taken from the MessageListIndexTracker of the identity, which does not require querying its message lists.
+		final MessageListIndexTracker indices = mMessageManager.getOrCreateMessageListIndexTracker(identity);
+		int newIndex = indices.getUnavailableNewIndex();
 		fetchMessageList(identity, newIndex, true);
 		
 		if(newIndex > 0) {
-			int oldIndex = mMessageManager.getUnavailableOldMessageListIndex(identity);
+			int oldIndex = indices.getUnavailableOldIndex();
 			if(oldIndex != newIndex)
 				fetchMessageList(identity, oldIndex, false); 
 		}
@@ -187,22 +315,9 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 	 * @param followRedirectsToHigherIndex If true, the USK redirects will be used to download the latest instead of the specified index.
 	 */
 	private void fetchMessageList(WoTIdentity identity, int index, boolean followRedirectsToHigherIndex) throws FetchException {
-		synchronized(mIdentities) {
-			// mIdentities contains up to IDENTITIES_LRU_QUEUE_SIZE_LIMIT identities of which we have recently downloaded MessageLists. This queue is used to ensure
-			// that we download MessageLists from different identities and not always from the same ones. 
-			// The oldest identity falls out of the LRUQueue if it has reached it size limit and therefore MessageList downloads from that one are allowed again.
-			
-			// We do not disallow fetches from the given identity if it is in the LRUQueue: This is done by iterate() which iterates with a delay of THREAD_PERIOD.
-			// - By not disallowing the fetches from the given identity here, we can make onSuccess()/onFailure() download the next message list of the identity. 
-		 
-			if(mIdentities.size() >= IDENTITIES_LRU_QUEUE_SIZE_LIMIT) {
-				// We first checked whether the identity was in the queue because if the given identity is already in the pipeline then downloading a list from it
-				// should NOT cause a different identity to fall out - the given identity should be moved to the top and the others should stay in the pipeline.
-				if(!mIdentities.contains(identity.getID()))
-					mIdentities.pop();
-			}
-			
-			mIdentities.push(identity.getID()); // put this identity at the beginning of the LRUQueue
+		if(!mConcurrency.canStartFetch(fetchCount(), CurrentTimeUTC.getInMillis())) {
+			Logger.debug(this, "Got " + fetchCount() + " fetches, not fetching MessageList " + index + " of " + identity);
+			return;
 		}
 		
 		FreenetURI uri = WoTMessageList.generateURI(identity, index);
@@ -213,37 +328,47 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 		fetchContext.maxNonSplitfileRetries = 2;
 		ClientGetter g = mClient.fetch(uri, -1, mRequestClient, this, fetchContext, RequestStarter.UPDATE_PRIORITY_CLASS);
 		addFetch(g);
+		mConcurrency.onFetchStarted(g, CurrentTimeUTC.getInMillis());
+		mScheduler.onFetchStarted(identity.getID(), CurrentTimeUTC.getInMillis());
 		Logger.debug(this, "Trying to fetch MessageList from " + uri);
-		
-		// Not necessary because it's not a HashSet but a fixed-length queue so the identity will get removed sometime anyway.
-		//catch(RuntimeException e) {
-		//	mIdentities.removeKey(identity);
-		//}
 	}
 
 	@Override
 	public synchronized void onSuccess(FetchResult result, ClientGetter state, ObjectContainer container) {
 		Logger.normal(this, "Fetched MessageList: " + state.getURI());
+		mConcurrency.onFetchFinished(state, FetchConcurrencyController.Result.Success, CurrentTimeUTC.getInMillis());
 
 		Bucket bucket = null;
 		InputStream inputStream = null;
 		WoTIdentity identity = null;
+		boolean listQueued = false;
 		
 		synchronized(mIdentityManager) {
 		try {
 			identity = (WoTIdentity)mIdentityManager.getIdentityByURI(state.getURI());
-			synchronized(mMessageManager) {
 			bucket = result.asBucket();			
 			inputStream = bucket.getInputStream();
 			WoTMessageList list = mXML.decode(mMessageManager, identity, state.getURI(), inputStream);
-			mMessageManager.onMessageListReceived(list);
+			
+			try {
+				mMessageManager.getMessageList(list.getID());
+				mScheduler.onNoNewListFound(identity.getID());
+			}
+			catch(NoSuchMessageListException e) {
+				mScheduler.onNewListFetched(identity.getID(), CurrentTimeUTC.getInMillis());
 			}
+			
+			// The list is stored asynchronously by the MessageManager. The index of the next list depends on the stored lists, so it is
+			// fetched when the list was stored, see ReceivedMessageListListener.
+			mMessageManager.onMessageListReceived(list, new ReceivedMessageListListener(identity, state.getURI()));
+			listQueued = true;
 		}
 		catch (NoSuchIdentityException e) {
 			Logger.normal(this, "Identity was deleted already, ignoring MessageList " + state.getURI());
 		}
 		catch (Exception e) {
 			Logger.error(this, "Parsing failed for MessageList " + state.getURI(), e);
+			mScheduler.onFetchFailed(WoTIdentity.getIDFromURI(state.getURI()));
 			mMessageManager.onMessageListFetchFailed(identity, state.getURI(), FetchFailedMarker.Reason.ParsingFailed);
 		}
 		finally {
@@ -253,19 +378,54 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 		}
 		}
 		
-		if(identity != null) {
+		if(identity != null && !listQueued)
+			fetchNextMessageList(identity, state.getURI());
+	}
+	
+	/**
+	 * Starts a fetch of the next message list of the given identity after the list with the given URI was processed.
+	 * 
+	 * You have to synchronize on this <code>WoTMessageListFetcher</code> when using this function.
+	 */
+	private void fetchNextMessageList(WoTIdentity identity, FreenetURI fetchedURI) {
 		try {
 			int unavailableIndex = mMessageManager.getUnavailableOldMessageListIndex(identity);
-			boolean unavailableIsNewer = unavailableIndex > state.getURI().getEdition(); /* Follow redirects then! */
+			boolean unavailableIsNewer = unavailableIndex > fetchedURI.getEdition(); /* Follow redirects then! */
 			fetchMessageList(identity, unavailableIndex , unavailableIsNewer);
 		} catch(Exception e) {
 			Logger.error(this, "Fetching of next MessageList failed.", e);
 		}
+	}
+	
+	/**
+	 * Fetches the next message list of the identity when a fetched list was stored.
+	 */
+	private final class ReceivedMessageListListener implements MessageManager.ReceivedObjectListener {
+		
+		private final WoTIdentity mIdentity;
+		
+		private final FreenetURI mURI;
+		
+		public ReceivedMessageListListener(WoTIdentity myIdentity, FreenetURI myURI) {
+			mIdentity = myIdentity;
+			mURI = myURI;
+		}
+
+		public void onReceivedObjectCommitted(Persistent object, boolean success) {
+			synchronized(WoTMessageListFetcher.this) {
+				fetchNextMessageList(mIdentity, mURI);
+			}
 		}
 	}
 
 	@Override
 	public synchronized void onFailure(FetchException e, ClientGetter state, ObjectContainer container) {
+		if(e.getMode() == FetchException.DATA_NOT_FOUND && !state.getURI().isSSK()) {
+			// Not finding the next edition of a USK is normal, it only means that the identity has not published a new MessageList yet.
+			mConcurrency.onFetchFinished(state, FetchConcurrencyController.Result.Failure, CurrentTimeUTC.getInMillis());
+		} else if(e.getMode() != FetchException.PERMANENT_REDIRECT) // The fetch is restarted then.
+			mConcurrency.onFetchFinished(state, MessageFetcher.getConcurrencyResult(e), CurrentTimeUTC.getInMillis());
+		
 		try {
 			switch(e.getMode()) {
 				case FetchException.DATA_NOT_FOUND:
@@ -273,19 +433,19 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 					// must have existed but has fallen out of Freenet, we mark it as DNF so it does not spam the request queue.
 					if(state.getURI().isSSK()) { 
 						Logger.normal(this, "DNF for old MessageList " + state.getURI());
+						mScheduler.onFetchFailed(WoTIdentity.getIDFromURI(state.getURI()));
 						
 						try {
 							synchronized(mIdentityManager) {
 							final WoTIdentity identity = (WoTIdentity)mIdentityManager.getIdentityByURI(state.getURI());
-							//synchronized(mMessageManager) {	// Would only be needed if we call more functions..
 							mMessageManager.onMessageListFetchFailed(identity, state.getURI(), FetchFailedMarker.Reason.DataNotFound);
-							//}
 							}
 						} catch (NoSuchIdentityException ex) {
 							Logger.normal(this, "Identity was deleted already, not marking MessageList as DNF: " + state.getURI());
 						}
 					} else { // The requested MessageList was a new USK index (higher than the latest known) and does not exist yet => Do not mark as DNF.
 						Logger.normal(this, "DNF for new MessageList " + state.getURI());
+						mScheduler.onNoNewListFound(WoTIdentity.getIDFromURI(state.getURI()));
 					}
 					
 					break;
@@ -304,6 +464,7 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 					
 				default:
 					Logger.error(this, "Downloading MessageList " + state.getURI() + " failed.", e);
+					mScheduler.onFetchFailed(WoTIdentity.getIDFromURI(state.getURI()));
 					break;
 			}
 		}
@@ -319,6 +480,7 @@ public final class WoTMessageListFetcher extends MessageListFetcher {
 	 */
 	protected synchronized void abortAllTransfers() {
 		super.abortAllTransfers();
+		mConcurrency.onAllFetchesAborted();
 	}
 	
 	/* Not needed functions, called for inserts */
@@ -6,9 +6,6 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Random;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-
 import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.MessageList;
 import plugins.Freetalk.MessageListInserter;
@@ -57,13 +54,11 @@ public final class WoTMessageListInserter extends MessageListInserter {
 	@Override
 	protected void clearBeingInsertedFlags() {
 		WoTMessageManager messageManager = (WoTMessageManager)super.mMessageManager;
-		synchronized(messageManager) {
-			for(WoTOwnMessageList list : messageManager.getBeingInsertedOwnMessageLists()) {
-				try {
-					messageManager.onMessageListInsertFailed(list.getURI(), false);
-				} catch (NoSuchMessageListException e) {
-					Logger.error(this, "SHOULD NOT HAPPEN", e);
-				}
+		for(WoTOwnMessageList list : messageManager.getBeingInsertedOwnMessageLists()) {
+			try {
+				messageManager.onMessageListInsertFailed(list.getURI(), false);
+			} catch (NoSuchMessageListException e) {
+				Logger.error(this, "SHOULD NOT HAPPEN", e);
 			}
 		}
 	}
@@ -98,30 +93,31 @@ public final class WoTMessageListInserter extends MessageListInserter {
 	protected synchronized void iterate() {
 		abortAllTransfers();
 		
-		synchronized(mMessageManager) {
-			for(WoTOwnMessageList list : mMessageManager.getNotInsertedOwnMessageLists()) {
-				try {
-					/* TODO: Ensure that after creation of a message list we wait for at least a few minutes so that if the author writes 
-					 * more messages they will be put in the same list */
+		for(WoTOwnMessageList list : mMessageManager.getNotInsertedOwnMessageLists()) {
+			try {
+				/* TODO: Ensure that after creation of a message list we wait for at least a few minutes so that if the author writes 
+				 * more messages they will be put in the same list */
+				synchronized(mMessageManager.getIdentityLock(list.getAuthor())) {
 					insertMessageList(list);
 				}
-				catch(Exception e) {
-					Logger.error(this, "Insert of WoTOwnMessageList failed", e);
-				}
+			}
+			catch(Exception e) {
+				Logger.error(this, "Insert of WoTOwnMessageList failed", e);
 			}
 		}
 	}
 	
 	/**
-	 * You have to synchronize on this <code>WoTMessageListInserter</code> and then on the <code>WoTMessageManager</code> when using this function.
+	 * You have to synchronize on this <code>WoTMessageListInserter</code> and then on the stripe of the author of the list
+	 * (see {@link WoTMessageManager#getIdentityLock(plugins.Freetalk.FTIdentity)}) when using this function.
 	 */
-	private void insertMessageList(WoTOwnMessageList list) throws TransformerException, ParserConfigurationException, NoSuchMessageException, IOException, InsertException {
+	private void insertMessageList(WoTOwnMessageList list) throws NoSuchMessageException, IOException, InsertException {
 		Bucket tempB = mTBF.makeBucket(4096); /* TODO: set to a reasonable value */
 		OutputStream os = null;
 		
 		try {
 			os = tempB.getOutputStream();
-			// This is what requires synchronization on the WoTMessageManager: While being marked as "being inserted", message lists cannot be modified anymore,
+			// This is what requires synchronization on the stripe of the author: While being marked as "being inserted", message lists cannot be modified anymore,
 			// so it must be guranteed that the "being inserted" mark does not change while we encode the XML etc.
 			mMessageManager.onMessageListInsertStarted(list);
 			
@@ -166,11 +162,11 @@ public final class WoTMessageListInserter extends MessageListInserter {
 			if(e.getMode() == InsertException.COLLISION) {
 				Logger.error(this, "WoTOwnMessageList insert collided, trying to insert with higher index ...");
 				try {
-					synchronized(mMessageManager) {
-						// We must call getOwnMessageList() before calling onMessageListInsertFailed() because the latter will increment the message list's
-						// index, resulting in the ID of the message list changing - getIDFromURI would fail with the old state.getURI() if we called it after
-						// onMessageListInsertFailed()
-						WoTOwnMessageList list = (WoTOwnMessageList)mMessageManager.getOwnMessageList(MessageList.getIDFromURI(state.getURI()));
+					// We must call getOwnMessageList() before calling onMessageListInsertFailed() because the latter will increment the message list's
+					// index, resulting in the ID of the message list changing - getIDFromURI would fail with the old state.getURI() if we called it after
+					// onMessageListInsertFailed()
+					WoTOwnMessageList list = (WoTOwnMessageList)mMessageManager.getOwnMessageList(MessageList.getIDFromURI(state.getURI()));
+					synchronized(mMessageManager.getIdentityLock(list.getAuthor())) {
 						mMessageManager.onMessageListInsertFailed(state.getURI(), true);
 						insertMessageList(list);
 					}
@@ -3,28 +3,13 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package plugins.Freetalk.WoT;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.DOMImplementation;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
 import plugins.Freetalk.Board;
 import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.Message;
@@ -37,46 +22,23 @@ public final class WoTMessageListXML {
 	
 	private static final int XML_FORMAT_VERSION = 1;
 	
-	private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-	
-	
-	private final DocumentBuilder mDocumentBuilder;
-	
-	private final DOMImplementation mDOM;
 	
-	private final Transformer mSerializer;
-	
-	
-	public WoTMessageListXML() {
-		try {
-			DocumentBuilderFactory xmlFactory = DocumentBuilderFactory.newInstance();
-			xmlFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-			// DOM parser uses .setAttribute() to pass to underlying Xerces
-			xmlFactory.setAttribute("http://apache.org/xml/features/disallow-doctype-decl", true);
-			mDocumentBuilder = xmlFactory.newDocumentBuilder(); 
-			mDOM = mDocumentBuilder.getDOMImplementation();
-
-			mSerializer = TransformerFactory.newInstance().newTransformer();
-			mSerializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-			mSerializer.setOutputProperty(OutputKeys.INDENT, "no");
-			mSerializer.setOutputProperty(OutputKeys.STANDALONE, "no");
-		}
-		catch(Exception e) {
-			throw new RuntimeException(e);
-		}
-	}
-
-	public void encode(WoTMessageManager messageManager, WoTOwnMessageList list, OutputStream os) throws TransformerException, ParserConfigurationException, NoSuchMessageException  {
+	/**
+	 * Encodes the message list with a streaming writer. The output is byte-compatible with the former DOM based encoder.
+	 * This function can be called by multiple threads concurrently, it does not use any shared state.
+	 */
+	public void encode(WoTMessageManager messageManager, WoTOwnMessageList list, OutputStream os) throws IOException, NoSuchMessageException  {
 		synchronized(list) {
-			Document xmlDoc;
-			synchronized(mDocumentBuilder) {
-				xmlDoc = mDOM.createDocument(null, Freetalk.PLUGIN_TITLE, null);
-			}
+			// The date format is not thread-safe so each encoding uses its own one.
+			final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+			
+			final WoTXMLStreamWriter xml = new WoTXMLStreamWriter(os);
 			
-			Element rootElement = xmlDoc.getDocumentElement();
+			xml.writeStartDocument();
+			xml.writeStartElement(Freetalk.PLUGIN_TITLE);
 
-			Element messageListTag = xmlDoc.createElement("MessageList");
-			messageListTag.setAttribute("Version", Integer.toString(XML_FORMAT_VERSION)); /* Version of the XML format */
+			xml.writeStartElement("MessageList");
+			xml.writeAttribute("Version", Integer.toString(XML_FORMAT_VERSION)); /* Version of the XML format */
 			
 			/* Important: A OwnMessageList contains a single reference for each message. A MessageList however contains a message reference
 			 * for each board a message is posted to. If this function is changed to be able to encode non-own MessageLists then you need
@@ -87,79 +49,83 @@ public final class WoTMessageListXML {
 				if(message.wasInserted() == false)
 					throw new RuntimeException("Trying to convert a MessageList to XML which contains a not inserted message.");
 				
-				Element messageTag = xmlDoc.createElement("Message");
-				messageTag.setAttribute("ID", message.getID());
-				messageTag.setAttribute("URI", message.getRealURI().toString());
-				synchronized(mDateFormat) {
-					messageTag.setAttribute("Date", mDateFormat.format(message.getDate()));
-				}
+				xml.writeStartElement("Message");
+				// The DOM serializer wrote the attributes sorted by name, we keep that order.
+				xml.writeAttribute("Date", dateFormat.format(message.getDate()));
+				xml.writeAttribute("ID", message.getID());
+				xml.writeAttribute("URI", message.getRealURI().toString());
 				
 				for(Board board : message.getBoards()) {
-					Element boardTag = xmlDoc.createElement("Board");
-					boardTag.setAttribute("Name", board.getName());
-					messageTag.appendChild(boardTag);
+					xml.writeStartElement("Board");
+					xml.writeAttribute("Name", board.getName());
+					xml.writeEndElement();
 				}
 	
-				messageListTag.appendChild(messageTag);
+				xml.writeEndElement();
 			}
 			
-			rootElement.appendChild(messageListTag);
-
-			DOMSource domSource = new DOMSource(xmlDoc);
-			StreamResult resultStream = new StreamResult(os);
-			synchronized(mSerializer) {
-				mSerializer.transform(domSource, resultStream);
-			}
+			xml.writeEndDocument();
 		}
 	}
 	
+	/**
+	 * Decodes a message list with a streaming parser. The limits of {@link MessageList#MAX_MESSAGES_PER_MESSAGELIST} and
+	 * {@link Message#MAX_BOARDS_PER_MESSAGE} are enforced while reading, so oversize input is rejected without reading it completely.
+	 * This function can be called by multiple threads concurrently.
+	 */
 	public WoTMessageList decode(WoTMessageManager messageManager, WoTIdentity author, FreenetURI uri, InputStream inputStream) throws Exception {
-		Document xml;
-		synchronized(mDocumentBuilder) {
-			xml = mDocumentBuilder.parse(inputStream);
-		}
+		final WoTXMLStreamReader xml = new WoTXMLStreamReader(inputStream);
 		
-		Element listElement = (Element)xml.getElementsByTagName("MessageList").item(0);
-		
-		if(Integer.parseInt(listElement.getAttribute("Version")) > XML_FORMAT_VERSION)
-			throw new Exception("Version " + listElement.getAttribute("Version") + " > " + XML_FORMAT_VERSION);
-				
-		NodeList messageElements = listElement.getElementsByTagName("Message");
-		
-		// The message list constructor does all validity checks for message lists, but we duplicate the easy size checks here to prevent memory DoS
-		if(messageElements.getLength() > MessageList.MAX_MESSAGES_PER_MESSAGELIST)
-			throw new IllegalArgumentException("Too many messages in MessageList: " + messageElements.getLength());
-		
-		/* The message count is multiplied by 2 because if a message is posted to multiple boards, a MessageReference has to be created for each */
-		ArrayList<MessageList.MessageReference> messages = new ArrayList<MessageList.MessageReference>(messageElements.getLength() * 2);
-		
-		for(int messageIndex = 0; messageIndex < messageElements.getLength(); ++messageIndex) {
-			Element messageElement = (Element)messageElements.item(messageIndex);
-			
-			String messageID = messageElement.getAttribute("ID");
-			FreenetURI messageURI = new FreenetURI(messageElement.getAttribute("URI"));
-			final Date messageDate;
+		try {
+			if(!xml.nextStartElement("MessageList"))
+				throw new Exception("No MessageList element found.");
 			
-			synchronized(mDateFormat) {
-				messageDate = mDateFormat.parse(messageElement.getAttribute("Date"));
-			}
-		
-			NodeList boardElements = messageElement.getElementsByTagName("Board");
+			final String version = xml.getAttribute("Version");
+			if(Integer.parseInt(version) > XML_FORMAT_VERSION)
+				throw new Exception("Version " + version + " > " + XML_FORMAT_VERSION);
 			
-			if(boardElements.getLength() > Message.MAX_BOARDS_PER_MESSAGE)
-				throw new IllegalArgumentException("Too many boards for message " + messageID + ": " + boardElements.getLength());
+			// The date format is not thread-safe so each decoding uses its own one.
+			final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 			
-			ArrayList<Board> messageBoards = new ArrayList<Board>(boardElements.getLength() + 1);
+			/* A MessageReference has to be created for each board of a message, most messages are posted to one or two boards */
+			final ArrayList<MessageList.MessageReference> messages = new ArrayList<MessageList.MessageReference>(32);
+			int messageCount = 0;
 			
-			for(int boardIndex = 0; boardIndex < boardElements.getLength(); ++boardIndex) {
-				Element boardElement = (Element)boardElements.item(boardIndex);
-				messageBoards.add(messageManager.getOrCreateBoard(boardElement.getAttribute("Name")));
+			while(xml.nextChild()) {
+				if(!xml.getName().equals("Message")) {
+					xml.skipElement();
+					continue;
+				}
+				
+				// The message list constructor does all validity checks for message lists, but we duplicate the easy size checks here to prevent memory DoS
+				if(++messageCount > MessageList.MAX_MESSAGES_PER_MESSAGELIST)
+					throw new IllegalArgumentException("Too many messages in MessageList, the maximum is " + MessageList.MAX_MESSAGES_PER_MESSAGELIST);
+				
+				final String messageID = xml.getAttribute("ID");
+				final FreenetURI messageURI = new FreenetURI(xml.getAttribute("URI"));
+				final Date messageDate = dateFormat.parse(xml.getAttribute("Date"));
+				
+				final ArrayList<Board> messageBoards = new ArrayList<Board>(4);
+				
+				while(xml.nextChild()) {
+					if(xml.getName().equals("Board")) {
+						if(messageBoards.size() >= Message.MAX_BOARDS_PER_MESSAGE)
+							throw new IllegalArgumentException("Too many boards for message " + messageID + ", the maximum is " + Message.MAX_BOARDS_PER_MESSAGE);
+						
+						messageBoards.add(messageManager.getOrCreateBoard(xml.getAttribute("Name")));
+					}
+					
+					xml.skipElement();
+				}
+				
+				for(Board board : messageBoards)
+					messages.add(new MessageList.MessageReference(messageID, messageURI, board, messageDate));
 			}
 			
-			for(Board board : messageBoards)
-				messages.add(new MessageList.MessageReference(messageID, messageURI, board, messageDate));
+			return new WoTMessageList(author, uri, messages);
+		}
+		finally {
+			xml.close();
 		}
-		
-		return new WoTMessageList(author, uri, messages);
 	}
 }
@@ -74,6 +74,27 @@ public final class WoTMessageManager extends MessageManager {
 	protected synchronized void clearExpiredFetchFailedMarkers() {
 		super.clearExpiredFetchFailedMarkers();
 	}
+	
+	/**
+	 * Only for being used by the MessageManager itself and by unit tests.
+	 */
+	protected void retryDueFetches(Date now) {
+		super.retryDueFetches(now);
+	}
+	
+	/**
+	 * For unit tests.
+	 */
+	protected Date getDateOfNextFetchRetry() {
+		return super.getDateOfNextFetchRetry();
+	}
+	
+	/**
+	 * For unit tests.
+	 */
+	protected void onObjectsReceived(List<? extends Persistent> objects, ReceivedObjectListener listener) {
+		super.onObjectsReceived(objects, listener);
+	}
 
 	public WoTOwnMessage postMessage(MessageURI myParentThreadURI, Message myParentMessage, Set<Board> myBoards, Board myReplyToBoard, 
 			FTOwnIdentity myAuthor, String myTitle, Date myDate, String myText, List<Attachment> myAttachments) throws Exception {
@@ -85,7 +106,7 @@ public final class WoTMessageManager extends MessageManager {
 		Date date = myDate!=null ? myDate : CurrentTimeUTC.get();
 		m = WoTOwnMessage.construct((WoTMessageURI)myParentThreadURI, myParentMessage, myBoards, myReplyToBoard, myAuthor, myTitle, date, myText, myAttachments);
 		m.initializeTransient(mFreetalk);
-		synchronized(this) {
+		synchronized(getIdentityLock(myAuthor)) {
 			m.storeAndCommit();
 		}
 
@@ -102,14 +123,18 @@ public final class WoTMessageManager extends MessageManager {
 	}
 	
 	@Override
-	public synchronized void onMessageListInsertFailed(FreenetURI uri,boolean collision) throws NoSuchMessageListException {
+	public void onMessageListInsertFailed(FreenetURI uri,boolean collision) throws NoSuchMessageListException {
+		final WoTOwnMessageList list = (WoTOwnMessageList)getOwnMessageList(MessageList.getIDFromURI(uri));
+		
+		synchronized(getIdentityLock(list.getAuthor())) {
 		synchronized(db.lock()) {
 			try {
-				WoTOwnMessageList list = (WoTOwnMessageList)getOwnMessageList(MessageList.getIDFromURI(uri));
 				list.cancelInsert();
 				
-				if(collision)
+				if(collision) {
 					list.incrementInsertIndex();
+					onOwnMessageListIndexTakenWithoutCommit(list);
+				}
 				
 				db.commit(); Logger.debug(this, "COMMITED.");
 			}
@@ -117,9 +142,14 @@ public final class WoTMessageManager extends MessageManager {
 				Persistent.checkedRollback(db, this, e);
 			}
 		}
+		}
 	}
 	
-	public synchronized void onMessageListFetchFailed(FTIdentity author, FreenetURI uri, FetchFailedMarker.Reason reason) {
+	/**
+	 * Locks the stripe of the author so that a received list cannot be stored between the check whether we have it and storing the ghost list.
+	 */
+	public void onMessageListFetchFailed(FTIdentity author, FreenetURI uri, FetchFailedMarker.Reason reason) {
+		synchronized(getIdentityLock(author)) {
 		WoTMessageList ghostList = new WoTMessageList(author, uri);
 		ghostList.initializeTransient(mFreetalk);
 		MessageList.MessageListFetchFailedMarker marker;
@@ -144,6 +174,7 @@ public final class WoTMessageManager extends MessageManager {
 					Date dateOfNextRetry;
 
 					ghostList.storeWithoutCommit();
+					onMessageListStoredWithoutCommit(ghostList);
 					
 					if(marker == null) {
 						dateOfNextRetry = calculateDateOfNextMessageListFetchRetry(reason, date, 0);
@@ -165,16 +196,20 @@ public final class WoTMessageManager extends MessageManager {
 					
 					db.commit();
 					Logger.debug(this, "COMMITED.");
+					
+					scheduleMessageListFetchRetry(ghostList.getID(), dateOfNextRetry);
 				}
 				catch(Exception ex) {
 					Persistent.checkedRollback(db, this, ex);
 				}
 			}
 			//}
+		}
 	}
 	
-	public synchronized void onOwnMessageInserted(String id, FreenetURI realURI) throws NoSuchMessageException {
+	public void onOwnMessageInserted(String id, FreenetURI realURI) throws NoSuchMessageException {
 		WoTOwnMessage message = (WoTOwnMessage) getOwnMessage(id);
+		synchronized(getIdentityLock(message.getAuthor())) {
 		synchronized(message) {
 		synchronized(db.lock()) {
 			try {
@@ -187,10 +222,12 @@ public final class WoTMessageManager extends MessageManager {
 			}
 		}
 		}
+		}
 	}
 	
 	/**
-	 * You have to synchronize on this MessageManager and on db.lock() when using this function.
+	 * You have to synchronize on the stripe of the author of the message (see {@link #getIdentityLock(FTIdentity)}) and on db.lock() when
+	 * using this function.
 	 */
 	private void addMessageToMessageList(WoTOwnMessage message) {
 		Query query = db.query();
@@ -218,10 +255,11 @@ public final class WoTMessageManager extends MessageManager {
 		// FIXME: list.addMessage is synchronized and the caller of this function synchronizes on db.lock() - wrong order! This could cause deadlocks.
 		list.addMessage(message);
 		list.storeWithoutCommit();
+		onOwnMessageListIndexTakenWithoutCommit(list);
 		Logger.debug(this, "Found no list with free space, created the new list " + list.getID() + " for own message " + message.getID());
 	}
 
-	public synchronized ObjectSet<WoTOwnMessage> getNotInsertedOwnMessages() {
+	public ObjectSet<WoTOwnMessage> getNotInsertedOwnMessages() {
 		final Query query = db.query();
 		query.constrain(WoTOwnMessage.class);
 		query.descend("mRealURI").constrain(null).identity();
@@ -233,14 +271,14 @@ public final class WoTMessageManager extends MessageManager {
 	 * being inserted, they are not filtered out because in the current implementation the WoTMessageListInserter will cancel all inserts
 	 * before using this function.
 	 */
-	public synchronized ObjectSet<WoTOwnMessageList> getNotInsertedOwnMessageLists() {
+	public ObjectSet<WoTOwnMessageList> getNotInsertedOwnMessageLists() {
 		Query query = db.query();
 		query.constrain(WoTOwnMessageList.class);
 		query.descend("iWasInserted").constrain(false);
 		return new Persistent.InitializingObjectSet<WoTOwnMessageList>(mFreetalk, query);
 	}
 	
-	public synchronized ObjectSet<WoTOwnMessageList> getBeingInsertedOwnMessageLists() {
+	public ObjectSet<WoTOwnMessageList> getBeingInsertedOwnMessageLists() {
 		Query query = db.query();
 		query.constrain(WoTOwnMessageList.class);
 		query.descend("iWasInserted").constrain(false);
@@ -248,64 +286,35 @@ public final class WoTMessageManager extends MessageManager {
 		return new Persistent.InitializingObjectSet<WoTOwnMessageList>(mFreetalk, query);
 	}
 
-	@SuppressWarnings("unchecked")
-	public synchronized int getUnavailableNewMessageListIndex(FTIdentity identity) {
-		Query query = db.query();
-		query.constrain(WoTMessageList.class);
-		query.constrain(WoTOwnMessageList.class).not();
-		query.descend("mAuthor").constrain(identity).identity();
-		query.descend("mIndex").orderDescending(); // TODO: This is inefficient!
-		ObjectSet<WoTMessageList> result = query.execute();
-		
-		if(result.size() == 0)
-			return 0;
-		
-		return result.next().getIndex() + 1;
+	/**
+	 * Gets the index of the next message list of the given identity which should be fetched: The index after the highest available index.
+	 * Uses the {@link MessageListIndexTracker} of the identity.
+	 */
+	public int getUnavailableNewMessageListIndex(FTIdentity identity) {
+		return getOrCreateMessageListIndexTracker(identity).getUnavailableNewIndex();
 	}
 
-	@SuppressWarnings("unchecked")
-	public synchronized int getUnavailableOldMessageListIndex(FTIdentity identity) {
-		Query query = db.query();
-		query.constrain(WoTMessageList.class);
-		query.constrain(WoTOwnMessageList.class).not();
-		query.descend("mAuthor").constrain(identity).identity();
-		query.descend("mIndex").orderDescending(); // TODO: This is inefficient!
-		ObjectSet<WoTMessageList> result = query.execute();
-		
-		if(result.size() == 0)
-			return 0;
-		
-		int latestAvailableIndex = result.next().getIndex();
-		int freeIndex = latestAvailableIndex - 1;
-		for(; result.hasNext() && result.next().getIndex() == freeIndex; ) {
-			--freeIndex;
-		}
-		
-		/* TODO: To avoid always checking ALL messagelists for a missing one, store somewhere in the FTIdentity what the latest index is up to
-		 * which all messagelists are available! */
-		
-		return freeIndex >= 0 ? freeIndex : latestAvailableIndex+1;
+	/**
+	 * Gets the highest index below the highest available index of the given identity for which no message list is available. Returns the index after
+	 * the highest available index if there is no such index. Uses the {@link MessageListIndexTracker} of the identity.
+	 */
+	public int getUnavailableOldMessageListIndex(FTIdentity identity) {
+		return getOrCreateMessageListIndexTracker(identity).getUnavailableOldIndex();
 	}
 
 	/**
-	 * Get the next free index for an OwnMessageList. You have to synchronize on this MessageManager while creating an OwnMessageList, this
-	 * function does not provide synchronization.
+	 * Get the next free index for an OwnMessageList. You have to synchronize on the stripe of the author (see {@link #getIdentityLock(FTIdentity)})
+	 * and the database while creating an OwnMessageList, this function does not provide synchronization. It might store the
+	 * {@link MessageListIndexTracker} of the author without committing.
 	 */
-	@SuppressWarnings("unchecked")
 	public int getFreeOwnMessageListIndex(WoTOwnIdentity messageAuthor)  {
-		Query q = db.query();
-		/* We query for MessageList and not OwnMessageList because the user might have deleted his own messages or lost his database */
-		q.constrain(MessageList.class);
-		q.descend("mAuthor").constrain(messageAuthor).identity();
-		q.descend("mIndex").orderDescending(); // TODO: This is inefficient!
-		ObjectSet<MessageList> result = q.execute();
-		
-		return result.size() > 0 ? result.next().getIndex()+1 : 0;
+		/* The tracker also counts MessageList objects and not only OwnMessageList because the user might have deleted his own messages or lost his database */
+		return getOrCreateMessageListIndexTrackerWithoutCommit(messageAuthor).getFreeOwnIndex();
 	}
 	
 	public WoTMessageRating rateMessage(final WoTOwnIdentity rater, final WoTMessage message, final byte value) {
 		synchronized(mIdentityManager) {
-		synchronized(this) {
+		synchronized(getIdentityLock(message.getAuthor())) { // The rating is deleted with the message
 			// We do not have to re-query the rater/message because MessageRating.storeWithout commit throws if they are not stored anymore
 			
 			final WoTMessageRating rating = new WoTMessageRating(rater, message, value);
@@ -318,7 +327,7 @@ public final class WoTMessageManager extends MessageManager {
 	}
 	
 	/**
-	 * This function is not synchronized to allow calls to it when only having locked a {@link Board} and not the whole MessageManager.
+	 * This function is not synchronized to allow calls to it when only having locked a {@link Board} and not its stripe.
 	 */
 	public WoTMessageRating getMessageRating(final FTOwnIdentity rater, final Message message) throws NoSuchMessageRatingException {
 		if(!(rater instanceof WoTOwnIdentity))
@@ -359,9 +368,9 @@ public final class WoTMessageManager extends MessageManager {
 			throw new IllegalArgumentException("No WoT rating: " + rating);
 		
 		final WoTMessageRating realRating = (WoTMessageRating)rating;
+		realRating.initializeTransient(mFreetalk);
 		
-		synchronized(this) {
-			realRating.initializeTransient(mFreetalk);
+		synchronized(getIdentityLock(realRating.getMessageAuthor())) {
 			realRating.deleteAndCommit();
 		}
 	}
@@ -42,12 +42,13 @@ public final class WoTMessageRating extends MessageRating {
 	}
 	
 	public byte getValue() {
+		checkedActivate(1);
 		return mValue;
 	}
 	
 	public String toString() {
 		if(mDB != null)
-			return getRater() + " has rated the message " + getMessage() + " with " + mValue + " points.";
+			return getRater() + " has rated the message " + getMessage() + " with " + getValue() + " points.";
 		else
 			return super.toString();
 	}
@@ -87,11 +88,11 @@ public final class WoTMessageRating extends MessageRating {
 	}
 	
 	private void addValueToWoTTrust() throws NoSuchIdentityException {
-		addValueToWoTTrust(mValue);
+		addValueToWoTTrust(getValue());
 	}
 	
 	private void substractValueFromWoTTrust() throws NoSuchIdentityException {
-		addValueToWoTTrust((byte)-mValue);
+		addValueToWoTTrust((byte)-getValue());
 	}
 	
 	protected void storeAndCommit() {
@@ -84,20 +84,30 @@ public final class WoTMessageURI extends MessageURI {
 		}
 	}
 
+	/**
+	 * The activation profile of message URIs: The FreenetURI needs a depth of 2.
+	 */
+	@Override
+	protected int getActivationDepth() {
+		return 2;
+	}
+
 	@Override
 	public FreenetURI getFreenetURI() {
+		checkedActivate(2);
 		return mFreenetURI;
 	}
 	
 	@Override
 	public String getMessageID() {
+		checkedActivate(1);
 		return mMessageID;
 	}
 
 	@Override
 	public boolean equals(Object obj) {
 		WoTMessageURI uri = (WoTMessageURI)obj;
-		return uri.getFreenetURI().equals(mFreenetURI) && uri.getMessageID().equals(mMessageID);
+		return uri.getFreenetURI().equals(getFreenetURI()) && uri.getMessageID().equals(getMessageID());
 	}
 
 	/**
@@ -108,13 +118,13 @@ public final class WoTMessageURI extends MessageURI {
 	 */
 	@Override
 	public String toString() {
-		return mFreenetURI.toString() + "#" + mMessageID.split("[@]", 2)[0];
+		return getFreenetURI().toString() + "#" + getMessageID().split("[@]", 2)[0];
 	}
 
 	@Override
 	protected void deleteWithoutCommit() {
 		try {
-			checkedActivate(3); // TODO: Figure out a suitable depth.
+			checkedActivate();
 			
 			checkedDelete();
 			
@@ -128,7 +138,7 @@ public final class WoTMessageURI extends MessageURI {
 	@Override
 	protected void storeWithoutCommit() {
 		try {
-			checkedActivate(3); // TODO: Figure out a suitable depth.
+			checkedActivate();
 			
 			// You have to take care to keep the list of stored objects synchronized with those being deleted in removeFrom() !
 			
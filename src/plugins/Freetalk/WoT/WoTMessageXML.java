@@ -1,5 +1,6 @@
 package plugins.Freetalk.WoT;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
@@ -8,23 +9,6 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.DOMImplementation;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
 import plugins.Freetalk.Board;
 import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.Message;
@@ -40,212 +24,237 @@ import freenet.keys.FreenetURI;
 public final class WoTMessageXML {
 	private static final int XML_FORMAT_VERSION = 1;
 	
-	private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-	private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("HH:mm:ss");
-	
-	
-	private final DocumentBuilder mDocumentBuilder;
-	
-	private final DOMImplementation mDOM;
-	
-	private final Transformer mSerializer;
-	
-	public WoTMessageXML() {
-		try {
-			DocumentBuilderFactory xmlFactory = DocumentBuilderFactory.newInstance();
-			xmlFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-			// DOM parser uses .setAttribute() to pass to underlying Xerces
-			xmlFactory.setAttribute("http://apache.org/xml/features/disallow-doctype-decl", true);
-			mDocumentBuilder = xmlFactory.newDocumentBuilder(); 
-			mDOM = mDocumentBuilder.getDOMImplementation();
-
-			mSerializer = TransformerFactory.newInstance().newTransformer();
-			mSerializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-			mSerializer.setOutputProperty(OutputKeys.INDENT, "no");
-			mSerializer.setOutputProperty(OutputKeys.STANDALONE, "no");
-		}
-		catch(Exception e) {
-			throw new RuntimeException(e);
-		}
-	}
+	/**
+	 * The maximal length of the decoded text of elements for which there is no specific limit, such as IDs, URIs and board names.
+	 */
+	private static final int MAX_FIELD_LENGTH = 4096;
 	
 	
-	public void encode(Message m, OutputStream os) throws TransformerException, ParserConfigurationException {
+	/**
+	 * Encodes the message with a streaming writer. The output is byte-compatible with the former DOM based encoder.
+	 * This function can be called by multiple threads concurrently, it does not use any shared state.
+	 */
+	public void encode(Message m, OutputStream os) throws IOException {
 		synchronized(m) {
-			Document xmlDoc;
-			synchronized(mDocumentBuilder) {
-				xmlDoc = mDOM.createDocument(null, Freetalk.PLUGIN_TITLE, null);
-			}
+			// The date formats are not thread-safe so each encoding uses its own ones.
+			final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+			final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
 			
-			Element rootElement = xmlDoc.getDocumentElement();
-
-			Element messageTag = xmlDoc.createElement("Message");
-			messageTag.setAttribute("version", Integer.toString(XML_FORMAT_VERSION)); /* Version of the XML format */
+			final WoTXMLStreamWriter xml = new WoTXMLStreamWriter(os);
 			
-			Element idTag = xmlDoc.createElement("MessageID");
-			idTag.appendChild(xmlDoc.createCDATASection(m.getID()));
-			messageTag.appendChild(idTag);
-
-			Element subjectTag = xmlDoc.createElement("Subject");
-			subjectTag.appendChild(xmlDoc.createCDATASection(m.getTitle()));
-			messageTag.appendChild(subjectTag);
+			xml.writeStartDocument();
+			xml.writeStartElement(Freetalk.PLUGIN_TITLE);
 			
-			Element dateTag = xmlDoc.createElement("Date");
-			synchronized(mDateFormat) {
-				dateTag.appendChild(xmlDoc.createTextNode(mDateFormat.format(m.getDate())));
-			}
-			messageTag.appendChild(dateTag);
+			xml.writeStartElement("Message");
+			xml.writeAttribute("version", Integer.toString(XML_FORMAT_VERSION)); /* Version of the XML format */
 			
-			Element timeTag = xmlDoc.createElement("Time");
-			synchronized(mTimeFormat) {
-				timeTag.appendChild(xmlDoc.createTextNode(mTimeFormat.format(m.getDate())));
-			}
-			messageTag.appendChild(timeTag);
+			xml.writeStartElement("MessageID"); xml.writeCData(m.getID()); xml.writeEndElement();
+			xml.writeStartElement("Subject"); xml.writeCData(m.getTitle()); xml.writeEndElement();
+			xml.writeStartElement("Date"); xml.writeCharacters(dateFormat.format(m.getDate())); xml.writeEndElement();
+			xml.writeStartElement("Time"); xml.writeCharacters(timeFormat.format(m.getDate())); xml.writeEndElement();
 			
-			Element boardsTag = xmlDoc.createElement("Boards");
+			xml.writeStartElement("Boards");
 			for(Board b : m.getBoards()) {
-				Element boardTag = xmlDoc.createElement("Board");
-				boardTag.appendChild(xmlDoc.createCDATASection(b.getName()));
-				boardsTag.appendChild(boardTag);
+				xml.writeStartElement("Board"); xml.writeCData(b.getName()); xml.writeEndElement();
 			}
-			messageTag.appendChild(boardsTag);
+			xml.writeEndElement();
 			
 			try {
 				final Board replyToBoard = m.getReplyToBoard();
-				Element replyBoardTag = xmlDoc.createElement("ReplyBoard");
-				replyBoardTag.appendChild(xmlDoc.createCDATASection(replyToBoard.getName()));
-				messageTag.appendChild(replyBoardTag);
+				xml.writeStartElement("ReplyBoard"); xml.writeCData(replyToBoard.getName()); xml.writeEndElement();
 			} catch(NoSuchBoardException e) {}
 
 			if(!m.isThread()) {
-				Element inReplyToTag = xmlDoc.createElement("InReplyTo");
+				xml.writeStartElement("InReplyTo");
+				
+				// The parent ID and URI are queried before writing the element so that nothing is written if they do not exist.
+				String parentID = null;
+				String parentURI = null;
 				try {
-					Element inReplyToMessage = xmlDoc.createElement("Message");
-						Element inReplyToOrder = xmlDoc.createElement("Order"); inReplyToOrder.appendChild(xmlDoc.createTextNode("0"));	/* For FMS compatibility, not used by Freetalk */
-						Element inReplyToID = xmlDoc.createElement("MessageID"); inReplyToID.appendChild(xmlDoc.createCDATASection(m.getParentID()));
-						Element inReplyToURI = xmlDoc.createElement("MessageURI"); inReplyToURI.appendChild(xmlDoc.createCDATASection(m.getParentURI().toString()));
-					inReplyToMessage.appendChild(inReplyToOrder);
-					inReplyToMessage.appendChild(inReplyToID);
-					inReplyToMessage.appendChild(inReplyToURI);
-					inReplyToTag.appendChild(inReplyToMessage);
+					parentID = m.getParentID();
+					parentURI = m.getParentURI().toString();
 				}
 				catch(NoSuchMessageException e) { }
-					
+				
+				if(parentID != null && parentURI != null) {
+					xml.writeStartElement("Message");
+						xml.writeStartElement("Order"); xml.writeCharacters("0"); xml.writeEndElement(); /* For FMS compatibility, not used by Freetalk */
+						xml.writeStartElement("MessageID"); xml.writeCData(parentID); xml.writeEndElement();
+						xml.writeStartElement("MessageURI"); xml.writeCData(parentURI); xml.writeEndElement();
+					xml.writeEndElement();
+				}
+				
+				String threadID = null;
+				String threadURI = null;
 				try {
-					Element inReplyToThread = xmlDoc.createElement("Thread");
-						Element inReplyToID = xmlDoc.createElement("MessageID"); inReplyToID.appendChild(xmlDoc.createCDATASection(m.getThreadID()));
-						Element inReplyToURI = xmlDoc.createElement("MessageURI"); inReplyToURI.appendChild(xmlDoc.createCDATASection(m.getThreadURI().toString()));
-					inReplyToThread.appendChild(inReplyToID);
-					inReplyToThread.appendChild(inReplyToURI);
-					inReplyToTag.appendChild(inReplyToThread);
+					threadID = m.getThreadID();
+					threadURI = m.getThreadURI().toString();
 				}
 				catch(NoSuchMessageException e) { }
 				
-				messageTag.appendChild(inReplyToTag);
+				if(threadID != null && threadURI != null) {
+					xml.writeStartElement("Thread");
+						xml.writeStartElement("MessageID"); xml.writeCData(threadID); xml.writeEndElement();
+						xml.writeStartElement("MessageURI"); xml.writeCData(threadURI); xml.writeEndElement();
+					xml.writeEndElement();
+				}
+				
+				xml.writeEndElement();
 			}
 
-			Element bodyTag = xmlDoc.createElement("Body");
-			bodyTag.appendChild(xmlDoc.createCDATASection(m.getText()));
-			messageTag.appendChild(bodyTag);
+			xml.writeStartElement("Body"); xml.writeCData(m.getText()); xml.writeEndElement();
 			
 			Attachment[] attachments = m.getAttachments();
 			if(attachments != null) {
-				Element attachmentsTag = xmlDoc.createElement("Attachments");
+				xml.writeStartElement("Attachments");
 				for(Attachment a : attachments) {
-					Element fileTag = xmlDoc.createElement("File"); 
-						Element keyTag = xmlDoc.createElement("Key"); keyTag.appendChild(xmlDoc.createCDATASection(a.getURI().toString()));
-						Element sizeTag = xmlDoc.createElement("Size"); sizeTag.appendChild(xmlDoc.createCDATASection(Long.toString(a.getSize())));
-					fileTag.appendChild(keyTag);
-					fileTag.appendChild(sizeTag);
-					attachmentsTag.appendChild(fileTag);
+					xml.writeStartElement("File");
+						xml.writeStartElement("Key"); xml.writeCData(a.getURI().toString()); xml.writeEndElement();
+						xml.writeStartElement("Size"); xml.writeCData(Long.toString(a.getSize())); xml.writeEndElement();
+					xml.writeEndElement();
 				}
-				messageTag.appendChild(attachmentsTag);
+				xml.writeEndElement();
 			}
 
-			rootElement.appendChild(messageTag);
-
-			DOMSource domSource = new DOMSource(xmlDoc);
-			StreamResult resultStream = new StreamResult(os);
-			synchronized(mSerializer) {
-				mSerializer.transform(domSource, resultStream);
-			}
+			xml.writeEndDocument();
 		}
 	}
 	
 	/**
+	 * Decodes a message with a streaming parser. The limits of {@link Message#MAX_BOARDS_PER_MESSAGE}, {@link Message#MAX_MESSAGE_TEXT_BYTE_LENGTH}
+	 * and of the title length are enforced while reading, so oversize input is rejected without reading it completely.
+	 * This function can be called by multiple threads concurrently.
 	 * 
-	 * @param db
-	 * @param inputStream
 	 * @param messageManager Needed for retrieving the Board object from the Strings of the board names.
-	 * @param messageList
-	 * @param uri
-	 * @return
-	 * @throws Exception
+	 * @param inputStream The encoded message.
+	 * @param messageList The message list which referenced the message.
+	 * @param uri The URI of the message.
 	 */
-	@SuppressWarnings("deprecation")
 	public Message decode(MessageManager messageManager, InputStream inputStream, WoTMessageList messageList, FreenetURI uri) throws Exception {
-		Document xml;
-		synchronized(mDocumentBuilder) {
-			xml = mDocumentBuilder.parse(inputStream);
-		}
-		
-		Element messageElement = (Element)xml.getElementsByTagName("Message").item(0);
-		
-		if(Integer.parseInt(messageElement.getAttribute("version")) > XML_FORMAT_VERSION)
-			throw new Exception("Version " + messageElement.getAttribute("version") + " > " + XML_FORMAT_VERSION);
-		
-		String messageID = messageElement.getElementsByTagName("MessageID").item(0).getTextContent();
-		
-		String messageTitle = messageElement.getElementsByTagName("Subject").item(0).getTextContent();
-
-		Date messageDate = mDateFormat.parse(messageElement.getElementsByTagName("Date").item(0).getTextContent());
-		Date messageTime = mTimeFormat.parse(messageElement.getElementsByTagName("Time").item(0).getTextContent());
-		messageDate.setHours(messageTime.getHours()); messageDate.setMinutes(messageTime.getMinutes()); messageDate.setSeconds(messageTime.getSeconds());
-		
-		Set<Board> messageBoards = new HashSet<Board>();
-		Element boardsElement = (Element)messageElement.getElementsByTagName("Boards").item(0);
-		NodeList boardList = boardsElement.getElementsByTagName("Board");
-		for(int i = 0; i < boardList.getLength(); ++i)
-			messageBoards.add(messageManager.getOrCreateBoard(boardList.item(i).getTextContent()));
-		
-		Node replyToBoardElement = messageElement.getElementsByTagName("ReplyBoard").item(0);
-		Board messageReplyToBoard =  replyToBoardElement != null ? messageManager.getOrCreateBoard(replyToBoardElement.getTextContent()) : null; 
-		
-		WoTMessageURI parentMessageURI = null;
-		WoTMessageURI parentThreadURI = null;
-		
-		Element inReplyToElement = (Element)messageElement.getElementsByTagName("InReplyTo").item(0);
-		if(inReplyToElement != null) {
-			NodeList parentMessages = inReplyToElement.getElementsByTagName("Message");
-			for(int i = 0; i < parentMessages.getLength(); ++i) {
-				Element parentMessage = (Element)parentMessages.item(i);
-				if(parentMessage.getElementsByTagName("Order").item(0).getTextContent().equals("0"))
-					parentMessageURI = new WoTMessageURI(parentMessage.getElementsByTagName("MessageURI").item(0).getTextContent());
-			}
-		
-			Element threadElement = (Element)inReplyToElement.getElementsByTagName("Thread").item(0);
-			if(threadElement != null)
-				parentThreadURI = new WoTMessageURI(threadElement.getElementsByTagName("MessageURI").item(0).getTextContent());
-		}
+		final WoTXMLStreamReader xml = new WoTXMLStreamReader(inputStream);
 		
-		String messageBody = messageElement.getElementsByTagName("Body").item(0).getTextContent();
-		
-		ArrayList<Message.Attachment> messageAttachments = null;
-		Element attachmentsElement = (Element)messageElement.getElementsByTagName("Attachments").item(0);
-		if(attachmentsElement != null) {
-			NodeList fileElements = attachmentsElement.getElementsByTagName("File");
-			messageAttachments = new ArrayList<Message.Attachment>(fileElements.getLength());
+		try {
+			if(!xml.nextStartElement("Message"))
+				throw new Exception("No Message element found.");
+			
+			final String version = xml.getAttribute("version");
+			if(Integer.parseInt(version) > XML_FORMAT_VERSION)
+				throw new Exception("Version " + version + " > " + XML_FORMAT_VERSION);
+			
+			String messageID = null;
+			String messageTitle = null;
+			String messageDateString = null;
+			String messageTimeString = null;
+			int boardCount = 0;
+			Set<Board> messageBoards = new HashSet<Board>();
+			Board messageReplyToBoard = null;
+			WoTMessageURI parentMessageURI = null;
+			WoTMessageURI parentThreadURI = null;
+			String messageBody = null;
+			ArrayList<Message.Attachment> messageAttachments = null;
 			
-			for(int i = 0; i < fileElements.getLength(); ++i) {
-				Element fileElement = (Element)fileElements.item(i);
-				Node keyElement = fileElement.getElementsByTagName("Key").item(0);
-				Node sizeElement = fileElement.getElementsByTagName("Size").item(0);
-				messageAttachments.add(new Message.Attachment(	new FreenetURI(keyElement.getTextContent()),
-																sizeElement != null ? Long.parseLong(sizeElement.getTextContent()) : -1));
+			while(xml.nextChild()) {
+				final String name = xml.getName();
+				
+				if(name.equals("MessageID"))
+					messageID = xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3);
+				else if(name.equals("Subject"))
+					messageTitle = xml.readText(Message.MAX_MESSAGE_TITLE_TEXT_LENGTH, Message.MAX_MESSAGE_TITLE_BYTE_LENGTH);
+				else if(name.equals("Date"))
+					messageDateString = xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3);
+				else if(name.equals("Time"))
+					messageTimeString = xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3);
+				else if(name.equals("Boards")) {
+					while(xml.nextChild()) {
+						if(!xml.getName().equals("Board")) {
+							xml.skipElement();
+							continue;
+						}
+						
+						if(++boardCount > Message.MAX_BOARDS_PER_MESSAGE)
+							throw new IllegalArgumentException("Too many boards, the maximum is " + Message.MAX_BOARDS_PER_MESSAGE);
+						
+						messageBoards.add(messageManager.getOrCreateBoard(xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3)));
+					}
+				}
+				else if(name.equals("ReplyBoard"))
+					messageReplyToBoard = messageManager.getOrCreateBoard(xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3));
+				else if(name.equals("InReplyTo")) {
+					while(xml.nextChild()) {
+						final String inReplyToName = xml.getName();
+						
+						if(inReplyToName.equals("Message")) {
+							String order = null;
+							String parentURI = null;
+							
+							while(xml.nextChild()) {
+								if(xml.getName().equals("Order"))
+									order = xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3);
+								else if(xml.getName().equals("MessageURI"))
+									parentURI = xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3);
+								else
+									xml.skipElement();
+							}
+							
+							if("0".equals(order) && parentURI != null)
+								parentMessageURI = new WoTMessageURI(parentURI);
+						}
+						else if(inReplyToName.equals("Thread")) {
+							while(xml.nextChild()) {
+								if(xml.getName().equals("MessageURI"))
+									parentThreadURI = new WoTMessageURI(xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3));
+								else
+									xml.skipElement();
+							}
+						}
+						else
+							xml.skipElement();
+					}
+				}
+				else if(name.equals("Body"))
+					messageBody = xml.readText(Message.MAX_MESSAGE_TEXT_LENGTH, Message.MAX_MESSAGE_TEXT_BYTE_LENGTH);
+				else if(name.equals("Attachments")) {
+					messageAttachments = new ArrayList<Message.Attachment>(4);
+					
+					while(xml.nextChild()) {
+						if(!xml.getName().equals("File")) {
+							xml.skipElement();
+							continue;
+						}
+						
+						String key = null;
+						long size = -1;
+						
+						while(xml.nextChild()) {
+							if(xml.getName().equals("Key"))
+								key = xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3);
+							else if(xml.getName().equals("Size"))
+								size = Long.parseLong(xml.readText(MAX_FIELD_LENGTH, MAX_FIELD_LENGTH * 3));
+							else
+								xml.skipElement();
+						}
+						
+						if(key == null)
+							throw new Exception("Key missing in attachment.");
+						
+						messageAttachments.add(new Message.Attachment(new FreenetURI(key), size));
+					}
+				}
+				else
+					xml.skipElement();
 			}
+			
+			if(messageID == null || messageTitle == null || messageDateString == null || messageTimeString == null || messageBody == null)
+				throw new Exception("Mandatory element missing in message.");
+			
+			// The date format is not thread-safe so each decoding uses its own one.
+			final Date messageDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(messageDateString + " " + messageTimeString);
+			
+			return WoTMessage.construct(messageList, uri, messageID, parentThreadURI, parentMessageURI, messageBoards, messageReplyToBoard,
+										messageList.getAuthor(), messageTitle, messageDate, messageBody, messageAttachments);
+		}
+		finally {
+			xml.close();
 		}
-		
-		return WoTMessage.construct(messageList, uri, messageID, parentThreadURI, parentMessageURI, messageBoards, messageReplyToBoard,
-									messageList.getAuthor(), messageTitle, messageDate, messageBody, messageAttachments);
 	}
 }
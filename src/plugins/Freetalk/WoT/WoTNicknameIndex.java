@@ -0,0 +1,205 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes the shortest unique name of each identity: Its nickname if no other identity has the same nickname, ignoring case. Otherwise its
+ * Freetalk address, abbreviated to the nickname and the shortest prefix of its ID which no other identity with the same nickname has, also
+ * ignoring case. See {@link WoTIdentity#getFreetalkAddress(int)} for the format.
+ *
+ * The identities are kept in a tree which is sorted by nickname and ID, case-insensitively. Identities with the same nickname are neighbours
+ * in the tree and the prefix of an identity only depends on its two neighbours: Any identity further away shares a shorter prefix with it.
+ * Therefore, adding or removing an identity only recomputes the names of the identity and its neighbours.
+ *
+ * The names are published in a concurrent map so {@link #get(String)} does not lock anything. The functions which modify the index are
+ * synchronized on it and do not call any other objects so you can use it everywhere without causing deadlocks.
+ */
+public final class WoTNicknameIndex {
+
+	/**
+	 * An identity in the tree.
+	 */
+	private static final class Entry implements Comparable<Entry> {
+
+		private final String mID;
+
+		private final String mNickname;
+
+		private final String mFreetalkAddress;
+
+		private final String mLowerCaseNickname;
+
+		private final String mLowerCaseID;
+
+		private Entry(String myID, String myNickname, String myFreetalkAddress) {
+			mID = myID;
+			mNickname = myNickname;
+			mFreetalkAddress = myFreetalkAddress;
+			mLowerCaseNickname = myNickname.toLowerCase();
+			mLowerCaseID = myID.toLowerCase();
+		}
+
+		private boolean hasSameNickname(Entry other) {
+			return other != null && mLowerCaseNickname.equals(other.mLowerCaseNickname);
+		}
+
+		public int compareTo(Entry other) {
+			int result = mLowerCaseNickname.compareTo(other.mLowerCaseNickname);
+			if(result != 0)
+				return result;
+
+			result = mLowerCaseID.compareTo(other.mLowerCaseID);
+			if(result != 0)
+				return result;
+
+			return mID.compareTo(other.mID); // IDs which only differ in case are different identities.
+		}
+	}
+
+	/**
+	 * All identities, sorted by nickname and ID.
+	 */
+	private final TreeSet<Entry> mTree = new TreeSet<Entry>();
+
+	private final HashMap<String, Entry> mEntriesByID = new HashMap<String, Entry>();
+
+	/**
+	 * Key = identity ID, value = shortest unique name.
+	 */
+	private final Map<String, String> mNames = new ConcurrentHashMap<String, String>();
+
+
+	/**
+	 * Get the shortest unique name of the given identity. Does not lock anything.
+	 *
+	 * @return The name or null if the identity is not in the index.
+	 */
+	public String get(String identityID) {
+		return mNames.get(identityID);
+	}
+
+	public synchronized int size() {
+		return mEntriesByID.size();
+	}
+
+	/**
+	 * Adds the given identity or updates its nickname. Recomputes the names of the identity and its neighbours.
+	 *
+	 * @param freetalkAddress The full Freetalk address of the identity, see {@link WoTIdentity#getFreetalkAddress()}.
+	 */
+	public synchronized void put(String identityID, String nickname, String freetalkAddress) {
+		final Entry old = mEntriesByID.get(identityID);
+		if(old != null) {
+			if(old.mNickname.equals(nickname) && old.mFreetalkAddress.equals(freetalkAddress))
+				return;
+
+			remove(identityID);
+		}
+
+		final Entry entry = new Entry(identityID, nickname, freetalkAddress);
+		mTree.add(entry);
+		mEntriesByID.put(identityID, entry);
+
+		final Entry previous = getPrevious(entry);
+		final Entry next = getNext(entry);
+
+		update(entry);
+		if(entry.hasSameNickname(previous))
+			update(previous);
+		if(entry.hasSameNickname(next))
+			update(next);
+	}
+
+	/**
+	 * Removes the given identity. Recomputes the names of its neighbours. Does nothing if the identity is not in the index.
+	 */
+	public synchronized void remove(String identityID) {
+		final Entry entry = mEntriesByID.remove(identityID);
+		if(entry == null)
+			return;
+
+		final Entry previous = getPrevious(entry);
+		final Entry next = getNext(entry);
+
+		mTree.remove(entry);
+		mNames.remove(identityID);
+
+		if(entry.hasSameNickname(previous))
+			update(previous);
+		if(entry.hasSameNickname(next))
+			update(next);
+	}
+
+	/**
+	 * Recomputes the name of the given entry from its neighbours.
+	 */
+	private void update(Entry entry) {
+		final Entry previous = getPrevious(entry);
+		final Entry next = getNext(entry);
+
+		final boolean previousIsDuplicate = entry.hasSameNickname(previous);
+		final boolean nextIsDuplicate = entry.hasSameNickname(next);
+
+		if(!previousIsDuplicate && !nextIsDuplicate) {
+			mNames.put(entry.mID, entry.mNickname);
+			return;
+		}
+
+		int prefixLength = 0;
+		if(previousIsDuplicate)
+			prefixLength = Math.max(prefixLength, getCommonPrefixLength(entry.mLowerCaseID, previous.mLowerCaseID));
+		if(nextIsDuplicate)
+			prefixLength = Math.max(prefixLength, getCommonPrefixLength(entry.mLowerCaseID, next.mLowerCaseID));
+		++prefixLength; // The first character which differs
+
+		// The IDs only differ in case, the full addresses must be shown.
+		if(prefixLength > entry.mID.length()) {
+			mNames.put(entry.mID, entry.mFreetalkAddress);
+			return;
+		}
+
+		// Same as WoTIdentity.getFreetalkAddress(nickname length + prefixLength): The nickname, "@" and the prefix of the ID.
+		final int length = entry.mNickname.length() + 1 + prefixLength;
+		final String address = entry.mFreetalkAddress;
+		mNames.put(entry.mID, (address.length() > length) ? (address.substring(0, length) + "...") : address);
+	}
+
+	private Entry getPrevious(Entry entry) {
+		final SortedSet<Entry> head = mTree.headSet(entry);
+		return head.isEmpty() ? null : head.last();
+	}
+
+	private Entry getNext(Entry entry) {
+		final Iterator<Entry> tail = mTree.tailSet(entry).iterator();
+		if(!tail.hasNext())
+			return null;
+
+		// The tail set starts with the entry itself if it is in the tree.
+		final Entry first = tail.next();
+		if(first != entry)
+			return first;
+
+		return tail.hasNext() ? tail.next() : null;
+	}
+
+	private static int getCommonPrefixLength(String a, String b) {
+		final int maxLength = Math.min(a.length(), b.length());
+		int length = 0;
+		while(length < maxLength && a.charAt(length) == b.charAt(length))
+			++length;
+		return length;
+	}
+
+	public String toString() {
+		return super.toString() + " (" + size() + " identities)";
+	}
+
+}
@@ -48,14 +48,10 @@ public final class WoTOwnIdentity extends WoTIdentity implements FTOwnIdentity {
 		if(!(identity instanceof WoTIdentity))
 			throw new IllegalArgumentException();
 		
-		try {
-			// TODO: Investigate whether we could make the lower limit configurable. It would require us not to delete the identities if the configurated limit is
-			// below zero. That would involve chaning WoT though. Or we could only allow positive limits.
-			return getScoreFor((WoTIdentity)identity) >= 0;
-		}
-		catch(NotInTrustTreeException e) {
-			return false;
-		}
+		// TODO: Investigate whether we could make the lower limit configurable. It would require us not to delete the identities if the configurated limit is
+		// below zero. That would involve chaning WoT though. Or we could only allow positive limits.
+		// The identity manager answers this from its score cache so this does not need a FCP round-trip to WoT usually.
+		return mFreetalk.getIdentityManager().hasNonNegativeScore(this, (WoTIdentity)identity);
 	}
 
 	public int getScoreFor(WoTIdentity identity) throws NotInTrustTreeException, Exception {
@@ -76,6 +72,7 @@ public final class WoTOwnIdentity extends WoTIdentity implements FTOwnIdentity {
      * @return Whether this Identity auto-subscribes to boards subscribed in NNTP client or not.
      */
     public boolean nntpAutoSubscribeBoards() {
+    	checkedActivate(1);
         return mNntpAutoSubscribeBoards;
     }
     
@@ -83,13 +80,13 @@ public final class WoTOwnIdentity extends WoTIdentity implements FTOwnIdentity {
      * Sets if this Identity auto-subscribes to boards subscribed in NNTP client. 
      */
     public void setNntpAutoSubscribeBoards(boolean nntpAutoSubscribeBoards) {
+    	checkedActivate(1);
         mNntpAutoSubscribeBoards = nntpAutoSubscribeBoards;
     }
     
 	public void storeWithoutCommit() {
 		try {
-			// 3 is the maximal depth of all getter functions. You have to adjust this when changing the set of member variables.
-			checkedActivate(3);
+			checkedActivate();
 			
 			// You have to take care to keep the list of stored objects synchronized with those being deleted in deleteWithoutCommit() !
 
@@ -103,9 +100,7 @@ public final class WoTOwnIdentity extends WoTIdentity implements FTOwnIdentity {
 
 	protected void deleteWithoutCommit() {	
 		try {
-			// super.deleteWithoutCommit() does the following already so there is no need to do it here
-			// 3 is the maximal depth of all getter functions. You have to adjust this when changing the set of member variables.
-			// DBUtil.checkedActivate(db, this, 3);
+			// super.deleteWithoutCommit() activates this object to the depth of its activation profile already
 			
 			super.deleteWithoutCommit();
 			
@@ -21,6 +21,7 @@ public final class WoTOwnMessageList extends OwnMessageList {
 	 * Only to be used by the WoTMessageManager, which provides the necessary synchronization.
 	 */
 	protected synchronized void incrementInsertIndex() {
+		checkedActivate(1);
 		int freeIndex = mFreetalk.getMessageManager().getFreeOwnMessageListIndex(getAuthor());
 		mIndex = Math.max(mIndex+1, freeIndex);
 		mID = calculateID();
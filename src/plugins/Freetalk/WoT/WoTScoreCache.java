@@ -0,0 +1,238 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import freenet.support.CurrentTimeUTC;
+
+/**
+ * Caches the scores which the WoT plugin has computed for identities in the trust trees of our own identities.
+ *
+ * Querying a score from WoT is a blocking FCP round-trip. {@link WoTOwnIdentity.wantsMessagesFrom} is called for every message which is added to a
+ * {@link SubscribedBoard} and for every identity in each iteration of the {@link WoTMessageListFetcher} so we must not query WoT each time.
+ *
+ * The cache is filled in bulk by the {@link WoTIdentityManager} when it synchronizes the identities with WoT and on demand for cache misses.
+ * Entries expire after a given amount of time. Entries of a tree owner are invalidated explicitly when it changes a trust value.
+ *
+ * All functions are synchronized on the cache and do not call any other objects so you can use it everywhere without causing deadlocks.
+ */
+public final class WoTScoreCache {
+
+	/**
+	 * A cached score of a target identity in the trust tree of a tree owner.
+	 */
+	public static final class Entry {
+
+		private final boolean mIsInTrustTree;
+
+		/**
+		 * False if we only know the sign of the score but not its actual value. This is the case if the entry was obtained from a WoT reply
+		 * which only lists the identities with a score of the given sign and does not contain the scores.
+		 */
+		private final boolean mScoreIsKnown;
+
+		/**
+		 * The score if {@link #mScoreIsKnown} is true. Otherwise 1 for positive scores and -1 for negative scores.
+		 */
+		private final int mScore;
+
+		private final long mDate;
+
+		private Entry(boolean isInTrustTree, boolean scoreIsKnown, int score, long date) {
+			mIsInTrustTree = isInTrustTree;
+			mScoreIsKnown = scoreIsKnown;
+			mScore = score;
+			mDate = date;
+		}
+
+		public boolean isInTrustTree() {
+			return mIsInTrustTree;
+		}
+
+		public boolean scoreIsKnown() {
+			return mScoreIsKnown;
+		}
+
+		/**
+		 * Only valid if {@link isInTrustTree} and {@link scoreIsKnown} are true.
+		 */
+		public int getScore() {
+			assert(mIsInTrustTree && mScoreIsKnown);
+			return mScore;
+		}
+
+		/**
+		 * @return True if the target is in the trust tree and has a score of zero or more. This is what decides whether the tree owner wants messages of the target.
+		 */
+		public boolean isNonNegative() {
+			return mIsInTrustTree && mScore >= 0;
+		}
+	}
+
+	/**
+	 * How long an entry is valid, in milliseconds.
+	 */
+	private final long mTimeToLive;
+
+	/**
+	 * Key = ID of the tree owner, value = the scores in the trust tree of it. The value maps the ID of a target identity to the cached score.
+	 */
+	private final HashMap<String, HashMap<String, Entry>> mTrustTrees = new HashMap<String, HashMap<String, Entry>>();
+
+	private long mHits = 0;
+
+	private long mMisses = 0;
+
+
+	public WoTScoreCache(long timeToLive) {
+		if(timeToLive <= 0)
+			throw new IllegalArgumentException("Invalid time to live: " + timeToLive);
+
+		mTimeToLive = timeToLive;
+	}
+
+	/**
+	 * Gets the cached score of the target in the trust tree of the tree owner.
+	 *
+	 * @param needExactScore If true, entries which only tell the sign of the score but not the actual value are treated as misses.
+	 * @return The entry or null if there is no valid entry.
+	 */
+	public synchronized Entry get(String treeOwnerID, String targetID, boolean needExactScore) {
+		final HashMap<String, Entry> trustTree = mTrustTrees.get(treeOwnerID);
+		final Entry entry = trustTree != null ? trustTree.get(targetID) : null;
+
+		if(entry == null || (needExactScore && entry.mIsInTrustTree && !entry.mScoreIsKnown)) {
+			++mMisses;
+			return null;
+		}
+
+		if((CurrentTimeUTC.getInMillis() - entry.mDate) > mTimeToLive) {
+			trustTree.remove(targetID);
+			++mMisses;
+			return null;
+		}
+
+		++mHits;
+		return entry;
+	}
+
+	/**
+	 * Same as {@link get} but does not count hits and misses and does not remove expired entries. For checking which scores need to be prefetched.
+	 */
+	public synchronized boolean contains(String treeOwnerID, String targetID, boolean needExactScore) {
+		final HashMap<String, Entry> trustTree = mTrustTrees.get(treeOwnerID);
+		final Entry entry = trustTree != null ? trustTree.get(targetID) : null;
+		
+		if(entry == null || (needExactScore && entry.mIsInTrustTree && !entry.mScoreIsKnown))
+			return false;
+		
+		return (CurrentTimeUTC.getInMillis() - entry.mDate) <= mTimeToLive;
+	}
+
+	private HashMap<String, Entry> getOrCreateTrustTree(String treeOwnerID) {
+		HashMap<String, Entry> trustTree = mTrustTrees.get(treeOwnerID);
+
+		if(trustTree == null) {
+			trustTree = new HashMap<String, Entry>(1024);
+			mTrustTrees.put(treeOwnerID, trustTree);
+		}
+
+		return trustTree;
+	}
+
+	public synchronized void putScore(String treeOwnerID, String targetID, int score) {
+		getOrCreateTrustTree(treeOwnerID).put(targetID, new Entry(true, true, score, CurrentTimeUTC.getInMillis()));
+	}
+
+	public synchronized void putNotInTrustTree(String treeOwnerID, String targetID) {
+		getOrCreateTrustTree(treeOwnerID).put(targetID, new Entry(false, false, 0, CurrentTimeUTC.getInMillis()));
+	}
+
+	/**
+	 * Stores the result of a bulk query of the identities with positive, zero or negative score in the trust tree of the tree owner.
+	 *
+	 * @param scores Maps the ID of each target to its score. The value may be null if the reply of WoT did not contain the actual score.
+	 * @param selection The sign of the scores which were queried: 1 for positive scores, 0 for a score of zero and -1 for negative scores.
+	 * @param date The time when the query was started, entries will expire relative to it.
+	 */
+	public synchronized void putScores(String treeOwnerID, Map<String, Integer> scores, int selection, long date) {
+		final HashMap<String, Entry> trustTree = getOrCreateTrustTree(treeOwnerID);
+
+		for(Map.Entry<String, Integer> score : scores.entrySet()) {
+			Integer value = score.getValue();
+
+			if(value == null && selection == 0)
+				value = 0;
+
+			if(value != null)
+				trustTree.put(score.getKey(), new Entry(true, true, value, date));
+			else {
+				// Do not overwrite an exact score which was obtained more recently than the bulk query was started.
+				final Entry existing = trustTree.get(score.getKey());
+				if(existing == null || !existing.mScoreIsKnown || existing.mDate < date)
+					trustTree.put(score.getKey(), new Entry(true, false, selection > 0 ? 1 : -1, date));
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries of the trust tree of the given tree owner. Must be called when the tree owner changes a trust value because that can
+	 * change the score of any identity in its trust tree.
+	 */
+	public synchronized void invalidateTrustTree(String treeOwnerID) {
+		mTrustTrees.remove(treeOwnerID);
+	}
+
+	/**
+	 * Removes all entries which involve the given identity, either as tree owner or as target. To be called when an identity is deleted.
+	 */
+	public synchronized void invalidateIdentity(String identityID) {
+		mTrustTrees.remove(identityID);
+
+		for(HashMap<String, Entry> trustTree : mTrustTrees.values())
+			trustTree.remove(identityID);
+	}
+
+	/**
+	 * Removes all expired entries. To be called periodically so that the cache does not keep entries of identities which are not queried anymore.
+	 */
+	public synchronized void removeExpiredEntries() {
+		final long minimalDate = CurrentTimeUTC.getInMillis() - mTimeToLive;
+
+		for(HashMap<String, Entry> trustTree : mTrustTrees.values()) {
+			final Iterator<Entry> iter = trustTree.values().iterator();
+			while(iter.hasNext()) {
+				if(iter.next().mDate < minimalDate)
+					iter.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		mTrustTrees.clear();
+	}
+
+	public synchronized int size() {
+		int size = 0;
+		for(HashMap<String, Entry> trustTree : mTrustTrees.values())
+			size += trustTree.size();
+		return size;
+	}
+
+	public synchronized long getHitCount() {
+		return mHits;
+	}
+
+	public synchronized long getMissCount() {
+		return mMisses;
+	}
+
+	public synchronized String toString() {
+		return "WoTScoreCache: size=" + size() + "; hits=" + mHits + "; misses=" + mMisses;
+	}
+
+}
@@ -0,0 +1,188 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A small wrapper around a StAX {@link XMLStreamReader} which is used by the decoders of {@link WoTMessageXML} and {@link WoTMessageListXML}.
+ *
+ * The decoders walk the document element by element instead of parsing it into a DOM first. This allows them to reject oversize input as soon
+ * as a limit is exceeded and it does not need a lock which is shared by all threads: Each decoding uses its own stream reader.
+ *
+ * Usage: After {@link #nextStartElement(String)} or {@link #nextChild()} returned true, the reader is positioned at the start tag of an element.
+ * The caller must consume the element completely, either by {@link #readText(int, int)}, by {@link #skipElement()} or by calling
+ * {@link #nextChild()} until it returns false.
+ */
+final class WoTXMLStreamReader {
+
+	/**
+	 * The StAX factory of the JRE is not thread-safe: It re-uses reader objects without synchronization. Therefore each thread gets its own.
+	 */
+	private static final ThreadLocal<XMLInputFactory> mFactory = new ThreadLocal<XMLInputFactory>() {
+		protected XMLInputFactory initialValue() {
+			final XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			// Text is delivered in chunks so that the length limits can be checked before a whole text was read.
+			factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+			return factory;
+		}
+	};
+
+	private final XMLStreamReader mReader;
+
+
+	public WoTXMLStreamReader(InputStream inputStream) throws XMLStreamException {
+		mReader = mFactory.get().createXMLStreamReader(inputStream);
+	}
+
+	private int next() throws XMLStreamException {
+		final int event = mReader.next();
+
+		if(event == XMLStreamConstants.DTD) // The DOM parser was configured with disallow-doctype-decl, we do the same.
+			throw new XMLStreamException("DOCTYPE is not allowed.", mReader.getLocation());
+
+		return event;
+	}
+
+	/**
+	 * Moves to the next start tag of an element with the given name, at any depth.
+	 * @return False if the end of the document was reached without finding such an element.
+	 */
+	public boolean nextStartElement(String name) throws XMLStreamException {
+		while(mReader.hasNext()) {
+			if(next() == XMLStreamConstants.START_ELEMENT && mReader.getLocalName().equals(name))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Moves to the start tag of the next child element of the current element.
+	 * @return False if the end tag of the current element was reached instead.
+	 */
+	public boolean nextChild() throws XMLStreamException {
+		while(true) {
+			switch(next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					return true;
+				case XMLStreamConstants.END_ELEMENT:
+					return false;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("Unexpected end of document.");
+				default:
+					break; // Ignore whitespace, comments and processing instructions between the elements.
+			}
+		}
+	}
+
+	/**
+	 * @return The name of the element whose start tag is the current position.
+	 */
+	public String getName() {
+		return mReader.getLocalName();
+	}
+
+	/**
+	 * @return The value of the given attribute of the element whose start tag is the current position.
+	 * @throws XMLStreamException If the element does not have the attribute.
+	 */
+	public String getAttribute(String name) throws XMLStreamException {
+		final String value = mReader.getAttributeValue(null, name);
+		if(value == null)
+			throw new XMLStreamException("Attribute " + name + " missing in element " + mReader.getLocalName(), mReader.getLocation());
+		return value;
+	}
+
+	/**
+	 * Reads the text content of the current element, which must not contain child elements. Afterwards the current position is the end tag of
+	 * the element.
+	 *
+	 * @param maxLength The maximal length of the text as of String.length().
+	 * @param maxByteLength The maximal length of the text when encoded as UTF-8.
+	 * @throws IllegalArgumentException As soon as the text exceeds one of the limits.
+	 */
+	public String readText(int maxLength, int maxByteLength) throws XMLStreamException {
+		final String name = mReader.getLocalName();
+		final StringBuilder text = new StringBuilder(32);
+		int byteLength = 0;
+
+		while(true) {
+			switch(next()) {
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					final char[] chars = mReader.getTextCharacters();
+					final int start = mReader.getTextStart();
+					final int length = mReader.getTextLength();
+
+					if(text.length() + length > maxLength)
+						throw new IllegalArgumentException("Text in element " + name + " is too long, the maximum is " + maxLength + " characters.");
+
+					for(int i = start; i < start + length; ++i) {
+						final char c = chars[i];
+						if(c < 0x80)
+							byteLength += 1;
+						else if(c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) // Each half of a surrogate pair accounts for 2 of the 4 bytes.
+							byteLength += 2;
+						else
+							byteLength += 3;
+					}
+
+					if(byteLength > maxByteLength)
+						throw new IllegalArgumentException("Text in element " + name + " is too long, the maximum is " + maxByteLength + " bytes.");
+
+					text.append(chars, start, length);
+					break;
+				case XMLStreamConstants.START_ELEMENT:
+					throw new XMLStreamException("Unexpected element " + mReader.getLocalName() + " in element " + name, mReader.getLocation());
+				case XMLStreamConstants.END_ELEMENT:
+					return text.toString();
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("Unexpected end of document.");
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Skips the current element including all its children. Afterwards the current position is the end tag of the element.
+	 */
+	public void skipElement() throws XMLStreamException {
+		int depth = 1;
+
+		while(depth > 0) {
+			switch(next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					++depth;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					--depth;
+					break;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("Unexpected end of document.");
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Frees the resources of the reader. Does not close the underlying InputStream.
+	 */
+	public void close() {
+		try {
+			mReader.close();
+		} catch (XMLStreamException e) {
+		}
+	}
+}
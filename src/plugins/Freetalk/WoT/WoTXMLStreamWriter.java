@@ -0,0 +1,175 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Writes XML directly to an output stream, it is used by the encoders of {@link WoTMessageXML} and {@link WoTMessageListXML}.
+ *
+ * The output is byte-compatible with what the DOM {@link javax.xml.transform.Transformer} of the JRE produced for the same document with the
+ * output properties which the encoders used: UTF-8, no indentation, standalone="no". This includes:
+ * - Elements without content are written as empty-element tags.
+ * - Attributes are written in the order in which they are added. The DOM serializer sorted them by name, so callers must add them sorted.
+ * - Empty text does not produce any output, so the element is written as empty-element tag.
+ * - A "]]>" in CDATA is split into two CDATA sections.
+ * - Characters outside of the Basic Multilingual Plane are written as character references, except in CDATA.
+ * - Line breaks in text are written as the line separator of the platform.
+ *
+ * Each encoding uses its own writer object so encoders do not need to share a lock.
+ */
+final class WoTXMLStreamWriter {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private final Writer mWriter;
+
+	private final ArrayList<String> mOpenElements = new ArrayList<String>(8);
+
+	/**
+	 * True if the start tag of the innermost open element was not closed with '>' yet because it might become an empty-element tag.
+	 */
+	private boolean mStartTagOpen = false;
+
+
+	public WoTXMLStreamWriter(OutputStream os) throws IOException {
+		mWriter = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+	}
+
+	public void writeStartDocument() throws IOException {
+		mWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+	}
+
+	private void closeStartTag() throws IOException {
+		if(mStartTagOpen) {
+			mWriter.write('>');
+			mStartTagOpen = false;
+		}
+	}
+
+	public void writeStartElement(String name) throws IOException {
+		closeStartTag();
+		mWriter.write('<');
+		mWriter.write(name);
+		mOpenElements.add(name);
+		mStartTagOpen = true;
+	}
+
+	/**
+	 * Adds an attribute to the element which was started last. Must be called before any content is written to the element.
+	 */
+	public void writeAttribute(String name, String value) throws IOException {
+		if(!mStartTagOpen)
+			throw new IllegalStateException("Attributes must be written directly after the start tag.");
+
+		mWriter.write(' ');
+		mWriter.write(name);
+		mWriter.write("=\"");
+
+		for(int i = 0; i < value.length(); ++i) {
+			final char c = value.charAt(i);
+			switch(c) {
+				case '&': mWriter.write("&amp;"); break;
+				case '<': mWriter.write("&lt;"); break;
+				case '>': mWriter.write("&gt;"); break;
+				case '"': mWriter.write("&quot;"); break;
+				case '\n': mWriter.write("&#10;"); break;
+				case '\r': mWriter.write("&#13;"); break;
+				case '\t': mWriter.write("&#9;"); break;
+				default: i = writeChar(value, i);
+			}
+		}
+
+		mWriter.write('"');
+	}
+
+	/**
+	 * Writes the character at the given position, a surrogate pair is written as a character reference.
+	 * @return The position of the last character which was written.
+	 */
+	private int writeChar(String text, int position) throws IOException {
+		final char c = text.charAt(position);
+
+		if(Character.isHighSurrogate(c) && position + 1 < text.length() && Character.isLowSurrogate(text.charAt(position + 1))) {
+			mWriter.write("&#");
+			mWriter.write(Integer.toString(Character.toCodePoint(c, text.charAt(position + 1))));
+			mWriter.write(';');
+			return position + 1;
+		}
+
+		mWriter.write(c);
+		return position;
+	}
+
+	public void writeCharacters(String text) throws IOException {
+		if(text.length() == 0)
+			return;
+
+		closeStartTag();
+
+		for(int i = 0; i < text.length(); ++i) {
+			final char c = text.charAt(i);
+			switch(c) {
+				case '&': mWriter.write("&amp;"); break;
+				case '<': mWriter.write("&lt;"); break;
+				case '>': mWriter.write("&gt;"); break;
+				case '\r': mWriter.write("&#13;"); break;
+				case '\n': mWriter.write(LINE_SEPARATOR); break;
+				default: i = writeChar(text, i);
+			}
+		}
+	}
+
+	public void writeCData(String text) throws IOException {
+		if(text.length() == 0)
+			return;
+
+		closeStartTag();
+		mWriter.write("<![CDATA[");
+
+		for(int i = 0; i < text.length(); ++i) {
+			final char c = text.charAt(i);
+
+			if(c == '\n')
+				mWriter.write(LINE_SEPARATOR);
+			else if(c == ']' && text.startsWith("]]>", i)) {
+				// "]]>" would end the section, so the section is ended after "]]" and the ">" goes into a new one.
+				mWriter.write("]]]]><![CDATA[>");
+				i += 2;
+			}
+			else
+				mWriter.write(c);
+		}
+
+		mWriter.write("]]>");
+	}
+
+	public void writeEndElement() throws IOException {
+		final String name = mOpenElements.remove(mOpenElements.size() - 1);
+
+		if(mStartTagOpen) {
+			mWriter.write("/>");
+			mStartTagOpen = false;
+		} else {
+			mWriter.write("</");
+			mWriter.write(name);
+			mWriter.write('>');
+		}
+	}
+
+	/**
+	 * Ends all open elements and flushes the output. Does not close the underlying OutputStream.
+	 */
+	public void writeEndDocument() throws IOException {
+		while(!mOpenElements.isEmpty())
+			writeEndElement();
+
+		mWriter.flush();
+	}
+}
@@ -61,9 +61,9 @@ public abstract class PersistentTask extends Persistent {
 	protected abstract void process();
 	
 	/**
-	 * ATTENTION: Returned web page objects MUST NOT synchronize on the identity manager or message manager.
+	 * ATTENTION: Returned web page objects MUST NOT synchronize on the identity manager.
 	 * The reason is that WebPageImpl.toHTML() locks the PersistentTaskManager before calling display() but does not lock
-	 * the IdentityManager and MessageManager before - the locking order requires those to be locked before the task manager.
+	 * the IdentityManager before - the locking order requires it to be locked before the task manager, see {@link plugins.Freetalk.MessageManager}.
 	 */
 	public abstract WebPage display(WebInterface myWebInterface);
 	
@@ -72,9 +72,19 @@ public abstract class PersistentTask extends Persistent {
 	 */
 	public abstract void onHideForSomeTime();
 	
+	/**
+	 * Get the own identity to which this task belongs. Its transient fields are initialized already.
+	 */
+	protected FTOwnIdentity getOwner() {
+		checkedActivate(1);
+		if(mOwner instanceof Persistent)
+			((Persistent)mOwner).initializeTransient(mFreetalk);
+		return mOwner;
+	}
+	
 	protected void storeWithoutCommit() {
 		try {
-			checkedActivate(3); // TODO: Figure out a suitable depth.
+			checkedActivate();
 			
 			// We cannot throw because PersistentTasks are usually created within the transaction which is used to create the owner.
 			//DBUtil.throwIfNotStored(mDB, mOwner);
@@ -96,7 +106,7 @@ public abstract class PersistentTask extends Persistent {
 	}
 	
 	protected void deleteWithoutCommit() {
-		deleteWithoutCommit(3);
+		deleteWithoutCommit(getActivationDepth());
 	}
 
 }
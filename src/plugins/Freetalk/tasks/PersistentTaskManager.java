@@ -126,8 +126,8 @@ public class PersistentTaskManager implements Runnable {
 		
 		deleteExpiredTasks(time);
 		
+		// Not locking the MessageManager: The tasks only query it and its functions which modify the database lock what they need.
 		synchronized(mFreetalk.getIdentityManager()) {
-		synchronized(mFreetalk.getMessageManager()) {
 		synchronized(this) {
 		ObjectSet<PersistentTask> pendingTasks = query.execute();
 		
@@ -145,7 +145,6 @@ public class PersistentTaskManager implements Runnable {
 		
 		}
 		}
-		}
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -201,7 +200,7 @@ public class PersistentTaskManager implements Runnable {
 		
 		q.descend("mNextDisplayTime").orderDescending();
 		
-		return q.execute();
+		return new Persistent.InitializingObjectSet<PersistentTask>(mFreetalk, q);
 	}
 	
 	/**
@@ -235,8 +234,8 @@ public class PersistentTaskManager implements Runnable {
 	/**
 	 * Called by the {@link MessageManager} when an own message was posted.
 	 * 
-	 * Attention: This function locks the IdentityManager and the MessageManager, therefore the message manager should not lock itself prior to calling it if it
-	 * does not lock the identity manager before.
+	 * Attention: This function locks the IdentityManager, therefore the message manager must not hold any of its locks when calling it, see the
+	 * lock hierarchy in the documentation of {@link MessageManager}.
 	 */
 	public void onOwnMessagePosted(OwnMessage message) {
 		proccessTasks(getOwnMessageTasks((FTOwnIdentity)message.getAuthor()), CurrentTimeUTC.getInMillis());
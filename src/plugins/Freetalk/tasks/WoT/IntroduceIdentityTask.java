@@ -1,6 +1,7 @@
 package plugins.Freetalk.tasks.WoT;
 
 import plugins.Freetalk.Config;
+import plugins.Freetalk.FTOwnIdentity;
 import plugins.Freetalk.MessageManager;
 import plugins.Freetalk.WoT.WoTIdentityManager;
 import plugins.Freetalk.WoT.WoTOwnIdentity;
@@ -39,10 +40,13 @@ public class IntroduceIdentityTask extends OwnMessageTask {
 	}
 
 	public synchronized WebPage display(WebInterface myWebInterface) {
-		return new IntroduceIdentityPage(myWebInterface, (WoTOwnIdentity)mOwner, mID, mPuzzlesToSolve, myWebInterface.l10n());
+		checkedActivate(1);
+		return new IntroduceIdentityPage(myWebInterface, (WoTOwnIdentity)getOwner(), mID, mPuzzlesToSolve, myWebInterface.l10n());
 	}
 
 	public synchronized void process() {
+		checkedActivate(1);
+		final FTOwnIdentity owner = getOwner();
 		WoTIdentityManager identityManager = (WoTIdentityManager)mFreetalk.getIdentityManager();
 		
 		long now = CurrentTimeUTC.getInMillis(); 
@@ -51,13 +55,13 @@ public class IntroduceIdentityTask extends OwnMessageTask {
 			MessageManager messageManager = mFreetalk.getMessageManager();
 			
 			// We must tell the user to solve puzzles if he as written a message ...
-			if(messageManager.getOwnMessagesBy(mOwner).size() > 0  
-				|| messageManager.getMessagesBy(mOwner).size() > 0) { // Also check for messages which are not stored as own messages anymore.  
+			if(messageManager.getOwnMessagesBy(owner).size() > 0  
+				|| messageManager.getMessageCountBy(owner) > 0) { // Also check for messages which are not stored as own messages anymore.  
 				
 				int minimumTrusterCount = mFreetalk.getConfig().getInt(Config.MINIMUM_TRUSTER_COUNT); 
 				
 				// ... and if he has not received enough trust values.
-				if(identityManager.getReceivedTrustsCount(mOwner) < minimumTrusterCount) {
+				if(identityManager.getReceivedTrustsCount(owner) < minimumTrusterCount) {
 					mPuzzlesToSolve = minimumTrusterCount * 2;  
 					mNextDisplayTime = now;
 					mNextProcessingTime = Long.MAX_VALUE; // Task is in display mode now, no need to proccess it anymore
@@ -79,6 +83,7 @@ public class IntroduceIdentityTask extends OwnMessageTask {
 	}
 	
 	public synchronized void onHideForSomeTime() {
+		checkedActivate(1);
 		mPuzzlesToSolve = 0;
 		mNextProcessingTime = CurrentTimeUTC.getInMillis() + PROCESSING_INTERVAL;
 		mNextDisplayTime = Long.MAX_VALUE;
@@ -87,6 +92,7 @@ public class IntroduceIdentityTask extends OwnMessageTask {
 	}
 	
 	public synchronized void onPuzzleSolved() {
+		checkedActivate(1);
 		if(mPuzzlesToSolve > 0) 
 			--mPuzzlesToSolve;
 		
@@ -99,6 +105,7 @@ public class IntroduceIdentityTask extends OwnMessageTask {
 	}
 	
 	public synchronized int getNumberOfPuzzlesToSolve() {
+		checkedActivate(1);
 		return mPuzzlesToSolve;
 	}
 }
@@ -12,9 +12,11 @@ import java.util.List;
 import java.util.Set;
 
 import plugins.Freetalk.Board;
+import plugins.Freetalk.BoardSnapshot;
 import plugins.Freetalk.FTIdentity;
 import plugins.Freetalk.FTOwnIdentity;
 import plugins.Freetalk.Freetalk;
+import plugins.Freetalk.IdentityStatistics;
 import plugins.Freetalk.Message;
 import plugins.Freetalk.SubscribedBoard;
 import plugins.Freetalk.Message.Attachment;
@@ -28,6 +30,7 @@ import plugins.Freetalk.exceptions.MessageNotFetchedException;
 import plugins.Freetalk.exceptions.NoSuchBoardException;
 import plugins.Freetalk.exceptions.NoSuchIdentityException;
 import plugins.Freetalk.exceptions.NoSuchMessageException;
+import plugins.Freetalk.exceptions.NoSuchObjectException;
 import freenet.keys.FreenetURI;
 import freenet.pluginmanager.FredPluginFCP;
 import freenet.pluginmanager.PluginNotFoundException;
@@ -154,19 +157,17 @@ public final class FCPInterface implements FredPluginFCP {
     private void handleListBoards(final PluginReplySender replysender, final SimpleFieldSet params)
     throws PluginNotFoundException
     {
-        synchronized(mFreetalk.getMessageManager()) {
-            final Iterator<Board> boards = mFreetalk.getMessageManager().boardIteratorSortedByName(); // TODO: Optimization: Use a non-sorting function.
-            while(boards.hasNext()) {
-                final Board board = boards.next();
+        final Iterator<Board> boards = mFreetalk.getMessageManager().boardIteratorSortedByName(); // TODO: Optimization: Use a non-sorting function.
+        while(boards.hasNext()) {
+            final Board board = boards.next();
 
-                final SimpleFieldSet sfs = new SimpleFieldSet(true);
-                sfs.putOverwrite("Message", "Board");
-                sfs.putOverwrite("ID", board.getID());
-                sfs.putOverwrite("Name", board.getName());
-                sfs.put("FirstSeenDate", board.getFirstSeenDate().getTime());
+            final SimpleFieldSet sfs = new SimpleFieldSet(true);
+            sfs.putOverwrite("Message", "Board");
+            sfs.putOverwrite("ID", board.getID());
+            sfs.putOverwrite("Name", board.getName());
+            sfs.put("FirstSeenDate", board.getFirstSeenDate().getTime());
 
-                replysender.send(sfs);
-            }
+            replysender.send(sfs);
         }
 
         final SimpleFieldSet sfs = new SimpleFieldSet(true);
@@ -194,24 +195,22 @@ public final class FCPInterface implements FredPluginFCP {
         final String ownIdentityID = getMandatoryParameter(params, "OwnIdentityID");
         FTOwnIdentity ownIdentity = mFreetalk.getIdentityManager().getOwnIdentity(ownIdentityID);
         
-        synchronized(mFreetalk.getMessageManager()) {
-        	// TODO: Optimization: Use a non sorting function.
-            final Iterator<SubscribedBoard> boards = mFreetalk.getMessageManager().subscribedBoardIteratorSortedByName(ownIdentity);
-            while(boards.hasNext()) {
-                final SubscribedBoard board = boards.next();
-                
-                final SimpleFieldSet sfs = new SimpleFieldSet(true);
-                sfs.putOverwrite("Message", "SubscribedBoard");
-                sfs.putOverwrite("Name", board.getName());
-                sfs.putOverwrite("ID", board.getID());
-                sfs.put("FirstSeenDate", board.getFirstSeenDate().getTime());
-                String desc = board.getDescription();
-                if (desc != null) {
-                    sfs.putOverwrite("Description", desc);
-                }
-                
-                replysender.send(sfs);
+    	// TODO: Optimization: Use a non sorting function.
+        final Iterator<SubscribedBoard> boards = mFreetalk.getMessageManager().subscribedBoardIteratorSortedByName(ownIdentity);
+        while(boards.hasNext()) {
+            final SubscribedBoard board = boards.next();
+            
+            final SimpleFieldSet sfs = new SimpleFieldSet(true);
+            sfs.putOverwrite("Message", "SubscribedBoard");
+            sfs.putOverwrite("Name", board.getName());
+            sfs.putOverwrite("ID", board.getID());
+            sfs.put("FirstSeenDate", board.getFirstSeenDate().getTime());
+            String desc = board.getDescription();
+            if (desc != null) {
+                sfs.putOverwrite("Description", desc);
             }
+            
+            replysender.send(sfs);
         }
         
         final SimpleFieldSet sfs = new SimpleFieldSet(true);
@@ -246,34 +245,39 @@ public final class FCPInterface implements FredPluginFCP {
         //throws exception when not found
         final SubscribedBoard board = mFreetalk.getMessageManager().getSubscription(mFreetalk.getIdentityManager().getOwnIdentity(ownIdentityID), boardName);
 
-        synchronized(board) {
-            for(BoardThreadLink threadReference : board.getThreads()) {
-                final SimpleFieldSet sfs = new SimpleFieldSet(true);
-                sfs.putOverwrite("Message", "MessageThread");
-                sfs.putOverwrite("ID", threadReference.getThreadID());
-                sfs.put("ReplyCount", board.threadReplyCount(threadReference.getThreadID()));
-                sfs.put("LastReplyDate", threadReference.getLastReplyDate().getTime());
-                
+        // Read the snapshot of the board instead of locking it so that listing the threads does not block the linking of messages.
+        for(BoardSnapshot.ThreadEntry threadEntry : board.getSnapshot().getThreads()) {
+            final SimpleFieldSet sfs = new SimpleFieldSet(true);
+            sfs.putOverwrite("Message", "MessageThread");
+            sfs.putOverwrite("ID", threadEntry.getThreadID());
+            sfs.put("ReplyCount", threadEntry.getReplyCount());
+            sfs.put("LastReplyDate", threadEntry.getLastReplyDate().getTime());
+            
+            if(threadEntry.wasFetched()) {
                 try {
-                final Message thread = threadReference.getMessage();
-	                sfs.putOverwrite("Title", thread.getTitle());
-	                sfs.putOverwrite("Author", thread.getAuthor().getFreetalkAddress());
-	                sfs.put("Date", thread.getDate().getTime());
-	                sfs.put("FetchDate", thread.getFetchDate().getTime());
-	                sfs.put("IsThread", thread.isThread());
+                    final Message thread = mFreetalk.getMessageManager().get(threadEntry.getThreadID());
+                    sfs.putOverwrite("Title", thread.getTitle());
+                    sfs.putOverwrite("Author", thread.getAuthor().getFreetalkAddress());
+                    sfs.put("Date", thread.getDate().getTime());
+                    sfs.put("FetchDate", thread.getFetchDate().getTime());
+                    sfs.put("IsThread", thread.isThread());
                 }
-                catch(MessageNotFetchedException e) {
-                	// The thread was not downloaded yet.
-                	// TODO: Add guesses for title and author ID.
-                	// Title guess = title of first reply. See BoardPage for how to obtain.
-                	// Further, the author can be reconstructed from the thread id because it contains the id of the author. We just need to figure out
-                	// what the proper place for a function "getIdentityIDFromThreadID" is and whether I have already written one which can do that, and if
-                	// yes, where it is.
-                	// IMPORTANT: Those guesses should be marked as guesses in the reply (by using different field names) because it is not guranteed that
-                	// the author of the thread reply did not specify a faked thread ID / thread title.
+                catch(NoSuchMessageException e) {
+                    // The thread was deleted after the snapshot was taken.
                 }
-                replysender.send(sfs);
             }
+            else {
+                // The thread was not downloaded yet.
+                // TODO: Add guesses for title and author ID.
+                // Title guess = title of first reply. See BoardPage for how to obtain.
+                // Further, the author can be reconstructed from the thread id because it contains the id of the author. We just need to figure out
+                // what the proper place for a function "getIdentityIDFromThreadID" is and whether I have already written one which can do that, and if
+                // yes, where it is.
+                // IMPORTANT: Those guesses should be marked as guesses in the reply (by using different field names) because it is not guranteed that
+                // the author of the thread reply did not specify a faked thread ID / thread title.
+            }
+            
+            replysender.send(sfs);
         }
 
         final SimpleFieldSet sfs = new SimpleFieldSet(true);
@@ -540,6 +544,10 @@ public final class FCPInterface implements FredPluginFCP {
      *   ID=id
      *   Nickname=name
      *   FreetalkAddress=freetalkAddr
+     *   PostCount=123
+     *   ThreadCount=12
+     *   FirstPostDate=utcMillis      (optional, not send if PostCount is 0)
+     *   LastPostDate=utcMillis       (optional, not send if PostCount is 0)
      */
     private void handleListKnownIdentities(final PluginReplySender replysender, final SimpleFieldSet params)
     throws PluginNotFoundException
@@ -553,6 +561,20 @@ public final class FCPInterface implements FredPluginFCP {
             sfs.putOverwrite("ID", id.getID());
             sfs.putOverwrite("Nickname", id.getNickname());
             sfs.putOverwrite("FreetalkAddress", id.getFreetalkAddress());
+            
+            try {
+                final IdentityStatistics statistics = mFreetalk.getMessageManager().getIdentityStatistics(id);
+                sfs.put("PostCount", statistics.getPostCount());
+                sfs.put("ThreadCount", statistics.getThreadCount());
+                if(statistics.getPostCount() > 0) {
+                    sfs.put("FirstPostDate", statistics.getFirstPostDate().getTime());
+                    sfs.put("LastPostDate", statistics.getLastPostDate().getTime());
+                }
+            } catch(NoSuchObjectException e) {
+                sfs.put("PostCount", 0);
+                sfs.put("ThreadCount", 0);
+            }
+            
             replysender.send(sfs);
         }
 
@@ -734,7 +756,7 @@ public final class FCPInterface implements FredPluginFCP {
             }
 
             Board board;
-            synchronized(mFreetalk.getMessageManager()) {
+            synchronized(mFreetalk.getMessageManager().getBoardLock(boardName)) {
 
                 try {
                     mFreetalk.getMessageManager().getBoardByName(boardName);
@@ -787,151 +809,148 @@ public final class FCPInterface implements FredPluginFCP {
     private void handlePutMessage(final PluginReplySender replysender, final SimpleFieldSet params, final Bucket data)
     throws PluginNotFoundException, InvalidParameterException
     {
-        synchronized(mFreetalk.getMessageManager()) {
-
-            try {
-            	
-                // evaluate parentThread
-                final String parentThreadID = params.get("ParentThreadID"); // may be null
-                final Message parentThread;
-                if(parentThreadID != null) {
-                    try {
-                        parentThread = mFreetalk.getMessageManager().get(parentThreadID);
-                    } catch(final NoSuchMessageException e) {
-                        throw new InvalidParameterException("Message specified by ParentThreadID was not found");
-                    }
-                } else {
-                	parentThread = null;
+        try {
+        	
+            // evaluate parentThread
+            final String parentThreadID = params.get("ParentThreadID"); // may be null
+            final Message parentThread;
+            if(parentThreadID != null) {
+                try {
+                    parentThread = mFreetalk.getMessageManager().get(parentThreadID);
+                } catch(final NoSuchMessageException e) {
+                    throw new InvalidParameterException("Message specified by ParentThreadID was not found");
                 }
-                
-                // evaluate parentMessage
-                final String parentMsgId = params.get("ParentID"); // may be null
-                Message parentMessage = null;
-                if (parentMsgId != null) {
-                    try {
-                        parentMessage = mFreetalk.getMessageManager().get(parentMsgId);
-                    } catch(final NoSuchMessageException e) {
-                        throw new InvalidParameterException("Message specified by ParentID was not found");
-                    }
+            } else {
+            	parentThread = null;
+            }
+            
+            // evaluate parentMessage
+            final String parentMsgId = params.get("ParentID"); // may be null
+            Message parentMessage = null;
+            if (parentMsgId != null) {
+                try {
+                    parentMessage = mFreetalk.getMessageManager().get(parentMsgId);
+                } catch(final NoSuchMessageException e) {
+                    throw new InvalidParameterException("Message specified by ParentID was not found");
                 }
+            }
 
-                // evaluate targetBoards
-                final String targetBoardsString = getMandatoryParameter(params, "TargetBoards");
-                final String[] targetBoardsArray = targetBoardsString.split(",");
-                if (targetBoardsArray.length == 0) {
+            // evaluate targetBoards
+            final String targetBoardsString = getMandatoryParameter(params, "TargetBoards");
+            final String[] targetBoardsArray = targetBoardsString.split(",");
+            if (targetBoardsArray.length == 0) {
+                throw new InvalidParameterException("Invalid TargetBoards parameter specified");
+            }
+            final Set<Board> targetBoards = new HashSet<Board>();
+            for(String targetBoardName : targetBoardsArray) {
+                targetBoardName = targetBoardName.trim();
+                if (targetBoardName.length() == 0) {
                     throw new InvalidParameterException("Invalid TargetBoards parameter specified");
                 }
-                final Set<Board> targetBoards = new HashSet<Board>();
-                for(String targetBoardName : targetBoardsArray) {
-                    targetBoardName = targetBoardName.trim();
-                    if (targetBoardName.length() == 0) {
-                        throw new InvalidParameterException("Invalid TargetBoards parameter specified");
-                    }
-                    try {
-                        final Board board = mFreetalk.getMessageManager().getBoardByName(targetBoardName);
-                        targetBoards.add(board);
-                    } catch(final NoSuchBoardException e) {
-                        throw new InvalidParameterException("TargetBoard '"+targetBoardName+"' does not exist");
-                    }
-                }
-
-                // evaluate replyToBoard
-                final String replyToBoardName = params.get("ReplyToBoard"); // may be null
-                Board replyToBoard = null;
-                if (replyToBoardName != null ) {
-                    try {
-                        replyToBoard = mFreetalk.getMessageManager().getBoardByName(replyToBoardName);
-                    } catch(final NoSuchBoardException e) {
-                        throw new InvalidParameterException("ReplyToBoard '"+replyToBoardName+"' does not exist");
-                    }
-                    if (!targetBoards.contains(replyToBoard)) {
-                        throw new InvalidParameterException("ReplyToBoard is not contained in TargetBoards");
-                    }
+                try {
+                    final Board board = mFreetalk.getMessageManager().getBoardByName(targetBoardName);
+                    targetBoards.add(board);
+                } catch(final NoSuchBoardException e) {
+                    throw new InvalidParameterException("TargetBoard '"+targetBoardName+"' does not exist");
                 }
+            }
 
-                // evaluate authorIdentity
-                final String authorIdentityIDString = getMandatoryParameter(params, "AuthorIdentityID");
-                final FTOwnIdentity authorIdentity;
+            // evaluate replyToBoard
+            final String replyToBoardName = params.get("ReplyToBoard"); // may be null
+            Board replyToBoard = null;
+            if (replyToBoardName != null ) {
                 try {
-                    authorIdentity = mFreetalk.getIdentityManager().getOwnIdentity(authorIdentityIDString);
-                } catch(final NoSuchIdentityException e) {
-                    throw new InvalidParameterException("No own identity found for AuthorIdentityID");
+                    replyToBoard = mFreetalk.getMessageManager().getBoardByName(replyToBoardName);
+                } catch(final NoSuchBoardException e) {
+                    throw new InvalidParameterException("ReplyToBoard '"+replyToBoardName+"' does not exist");
                 }
+                if (!targetBoards.contains(replyToBoard)) {
+                    throw new InvalidParameterException("ReplyToBoard is not contained in TargetBoards");
+                }
+            }
 
-                // evaluate attachments
-                int attachmentCount;
+            // evaluate authorIdentity
+            final String authorIdentityIDString = getMandatoryParameter(params, "AuthorIdentityID");
+            final FTOwnIdentity authorIdentity;
+            try {
+                authorIdentity = mFreetalk.getIdentityManager().getOwnIdentity(authorIdentityIDString);
+            } catch(final NoSuchIdentityException e) {
+                throw new InvalidParameterException("No own identity found for AuthorIdentityID");
+            }
+
+            // evaluate attachments
+            int attachmentCount;
+            try {
+                attachmentCount = Integer.parseInt(params.get("FileAttachmentCount"));
+            } catch(final Exception e) {
+                attachmentCount = 0;
+            }
+            final List<Attachment> attachments = new ArrayList<Attachment>(attachmentCount);
+            for (int x=1; x <= attachmentCount; x++) {
+                final String uriString = getMandatoryParameter(params, "FileAttachmentURI."+x);
+                final String sizeString = getMandatoryParameter(params, "FileAttachmentSize."+x);
+                long fileSize;
+                FreenetURI freenetUri;
                 try {
-                    attachmentCount = Integer.parseInt(params.get("FileAttachmentCount"));
+                    freenetUri = new FreenetURI(uriString);
+                    fileSize = Long.parseLong(sizeString);
                 } catch(final Exception e) {
-                    attachmentCount = 0;
-                }
-                final List<Attachment> attachments = new ArrayList<Attachment>(attachmentCount);
-                for (int x=1; x <= attachmentCount; x++) {
-                    final String uriString = getMandatoryParameter(params, "FileAttachmentURI."+x);
-                    final String sizeString = getMandatoryParameter(params, "FileAttachmentSize."+x);
-                    long fileSize;
-                    FreenetURI freenetUri;
-                    try {
-                        freenetUri = new FreenetURI(uriString);
-                        fileSize = Long.parseLong(sizeString);
-                    } catch(final Exception e) {
-                        throw new InvalidParameterException("Invalid FileAttachment specified ("+x+")");
-                    }
-                    attachments.add(new Attachment(freenetUri, fileSize));
+                    throw new InvalidParameterException("Invalid FileAttachment specified ("+x+")");
                 }
+                attachments.add(new Attachment(freenetUri, fileSize));
+            }
 
-                // evaluate messageTitle
-                final String messageTitle = getMandatoryParameter(params, "Title");
-                if (messageTitle.length() > Message.MAX_MESSAGE_TITLE_TEXT_LENGTH) {
-                    throw new InvalidParameterException("Message title is longer than 256 characters");
-                }
+            // evaluate messageTitle
+            final String messageTitle = getMandatoryParameter(params, "Title");
+            if (messageTitle.length() > Message.MAX_MESSAGE_TITLE_TEXT_LENGTH) {
+                throw new InvalidParameterException("Message title is longer than 256 characters");
+            }
 
-                // evaluate messageText
-                // we expect Data containing the message text
-                if (data == null) {
-                    throw new InvalidParameterException("No Message text sent");
-                }
-                if (data.size() > Message.MAX_MESSAGE_TEXT_BYTE_LENGTH) {
-                    throw new InvalidParameterException("Message text is longer than 64KB");
-                }
+            // evaluate messageText
+            // we expect Data containing the message text
+            if (data == null) {
+                throw new InvalidParameterException("No Message text sent");
+            }
+            if (data.size() > Message.MAX_MESSAGE_TEXT_BYTE_LENGTH) {
+                throw new InvalidParameterException("Message text is longer than 64KB");
+            }
 
-                // convert to UTF-8
-                final byte[] utf8Bytes = new byte[(int)data.size()];
-                final InputStream is = data.getInputStream();
-                try {
-                    if (is.read(utf8Bytes) != utf8Bytes.length) {
-                        throw new InvalidParameterException("Internal error reading data from Bucket");
-                    }
-                } finally {
-                    is.close();
+            // convert to UTF-8
+            final byte[] utf8Bytes = new byte[(int)data.size()];
+            final InputStream is = data.getInputStream();
+            try {
+                if (is.read(utf8Bytes) != utf8Bytes.length) {
+                    throw new InvalidParameterException("Internal error reading data from Bucket");
                 }
+            } finally {
+                is.close();
+            }
 
-                final String messageText = new String(utf8Bytes, "UTF-8");
+            final String messageText = new String(utf8Bytes, "UTF-8");
 
-                // post new message
-                mFreetalk.getMessageManager().postMessage(parentThread.getURI(),
-                        parentMessage,
-                        targetBoards,
-                        replyToBoard,
-                        authorIdentity,
-                        messageTitle,
-                        null,           // date, use current
-                        messageText,
-                        attachments);
+            // post new message
+            mFreetalk.getMessageManager().postMessage(parentThread.getURI(),
+                    parentMessage,
+                    targetBoards,
+                    replyToBoard,
+                    authorIdentity,
+                    messageTitle,
+                    null,           // date, use current
+                    messageText,
+                    attachments);
 
-                final SimpleFieldSet sfs = new SimpleFieldSet(true);
-                sfs.putOverwrite("Message", "PutMessageReply");
-                sfs.putOverwrite("MessageEnqueued", "true");
-                replysender.send(sfs);
+            final SimpleFieldSet sfs = new SimpleFieldSet(true);
+            sfs.putOverwrite("Message", "PutMessageReply");
+            sfs.putOverwrite("MessageEnqueued", "true");
+            replysender.send(sfs);
 
-            } catch(final Exception e) {
-                final SimpleFieldSet sfs = new SimpleFieldSet(true);
-                sfs.putOverwrite("Message", "PutMessageReply");
-                sfs.putOverwrite("MessageEnqueued", "false");
-                sfs.putOverwrite("ErrorDescription", e.getLocalizedMessage());
-                replysender.send(sfs);
-            }
-        } // synchronized(mFreetalk.getMessageManager())
+        } catch(final Exception e) {
+            final SimpleFieldSet sfs = new SimpleFieldSet(true);
+            sfs.putOverwrite("Message", "PutMessageReply");
+            sfs.putOverwrite("MessageEnqueued", "false");
+            sfs.putOverwrite("ErrorDescription", e.getLocalizedMessage());
+            replysender.send(sfs);
+        }
     }
 
     /**
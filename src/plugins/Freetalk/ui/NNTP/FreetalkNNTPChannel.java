@@ -0,0 +1,429 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.ui.NNTP;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+import freenet.support.Logger;
+
+/**
+ * A connection to a single NNTP client in the non-blocking mode of the {@link FreetalkNNTPServer}.
+ *
+ * The selector thread of the server reads the bytes which the client sent into an input buffer and writes the queued response buffers to the
+ * client. It never blocks on a single client. The commands are parsed from the input buffer and executed by a worker thread of the server:
+ * When complete lines are available and no worker is busy with this connection already, the server schedules {@link #processInput()}.
+ * Therefore the commands of a single client are executed one after another and in order, just like by the blocking handler.
+ *
+ * The {@link FreetalkNNTPHandler} executes the commands as usual. Its output goes to {@link #getOutputStream()}, which queues the bytes as
+ * buffers when the handler flushes them. If the client reads slower than the handler writes, the worker thread waits for the selector thread
+ * to send the queued output once {@link #MAX_QUEUED_OUTPUT_SIZE} is reached. So a client which requests a big response, for example with
+ * OVER on a large range, and does not read it cannot make the server buffer the whole response.
+ */
+final class FreetalkNNTPChannel {
+
+	/**
+	 * The maximal amount of bytes which are buffered from the client without being processed. This must be large enough for the biggest
+	 * article which a client can POST.
+	 */
+	public static final int MAX_INPUT_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * The size of the buffers which are queued for sending.
+	 */
+	private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * The maximal amount of bytes which are queued for sending. When it is reached, the worker thread waits until the selector thread has sent
+	 * some of the output before it continues to execute the command.
+	 */
+	public static final int MAX_QUEUED_OUTPUT_SIZE = 16 * OUTPUT_BUFFER_SIZE;
+
+	/**
+	 * The time in milliseconds for which the worker thread waits for the client to read queued output before the connection is closed.
+	 * Limits the time for which a stalled client can occupy a worker thread.
+	 */
+	public static final long OUTPUT_TIMEOUT = 60 * 1000;
+
+	private final FreetalkNNTPServer mServer;
+
+	private final SocketChannel mChannel;
+
+	private SelectionKey mKey;
+
+	private final FreetalkNNTPHandler mHandler;
+
+	/**
+	 * Bytes which were received from the client and not processed yet. In "write mode", i.e. not flipped.
+	 * Synchronized on this FreetalkNNTPChannel.
+	 */
+	private ByteBuffer mInput = ByteBuffer.allocate(4096);
+
+	/**
+	 * The buffers which are waiting to be sent to the client. Synchronized on this FreetalkNNTPChannel.
+	 */
+	private final LinkedList<ByteBuffer> mOutputQueue = new LinkedList<ByteBuffer>();
+
+	/**
+	 * The amount of bytes in {@link #mOutputQueue} which were not sent yet. Synchronized on this FreetalkNNTPChannel.
+	 */
+	private int mQueuedOutputSize = 0;
+
+	/**
+	 * True while a worker thread is executing {@link #processInput()}. Synchronized on this FreetalkNNTPChannel.
+	 * Initially true because {@link #start()} has to be executed before any input is processed.
+	 */
+	private boolean mProcessing = true;
+
+	/**
+	 * True if the client closed its side of the connection. Synchronized on this FreetalkNNTPChannel.
+	 */
+	private boolean mEndOfInput = false;
+
+	/**
+	 * True if the connection shall be closed as soon as all queued output was sent. Synchronized on this FreetalkNNTPChannel.
+	 */
+	private boolean mCloseRequested = false;
+
+	private volatile boolean mClosed = false;
+
+	/**
+	 * The command line of a command which expects a text block, null if no text block is being received.
+	 * Only accessed by the worker thread which executes processInput().
+	 */
+	private String mTextCommand = null;
+
+	/**
+	 * The text block which is being received for mTextCommand.
+	 * Only accessed by the worker thread which executes processInput().
+	 */
+	private ByteBuffer mTextBlock = null;
+
+	/**
+	 * The stream into which the handler writes its responses. Only used by the worker thread which executes the commands.
+	 */
+	private final OutputStream mOutputStream = new OutputStream() {
+		private ByteBuffer mBuffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+
+		public void write(int b) throws IOException {
+			if(!mBuffer.hasRemaining())
+				flushBuffer();
+			mBuffer.put((byte)b);
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while(length > 0) {
+				if(!mBuffer.hasRemaining())
+					flushBuffer();
+
+				final int amount = Math.min(length, mBuffer.remaining());
+				mBuffer.put(bytes, offset, amount);
+				offset += amount;
+				length -= amount;
+			}
+		}
+
+		public void flush() throws IOException {
+			if(mBuffer.position() > 0)
+				flushBuffer();
+		}
+
+		private void flushBuffer() throws IOException {
+			mBuffer.flip();
+			queueOutput(mBuffer);
+			mBuffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+		}
+	};
+
+
+	public FreetalkNNTPChannel(FreetalkNNTPServer myServer, SocketChannel myChannel) {
+		mServer = myServer;
+		mChannel = myChannel;
+		mHandler = new FreetalkNNTPHandler(mServer.getFreetalk(), this);
+	}
+
+	public SocketChannel getChannel() {
+		return mChannel;
+	}
+
+	public void setSelectionKey(SelectionKey key) {
+		mKey = key;
+	}
+
+	public SelectionKey getSelectionKey() {
+		return mKey;
+	}
+
+	public FreetalkNNTPHandler getHandler() {
+		return mHandler;
+	}
+
+	public OutputStream getOutputStream() {
+		return mOutputStream;
+	}
+
+	public boolean isOpen() {
+		return !mClosed;
+	}
+
+	/**
+	 * Called by the worker thread when the handler flushed output. Queues the buffer and asks the selector thread to send it.
+	 * Waits while {@link #MAX_QUEUED_OUTPUT_SIZE} bytes are queued already.
+	 *
+	 * @throws IOException If the connection was closed or if the client did not read any output for {@link #OUTPUT_TIMEOUT}.
+	 */
+	private void queueOutput(ByteBuffer buffer) throws IOException {
+		if(mClosed)
+			throw new IOException("Connection closed.");
+
+		synchronized(this) {
+			final long timeout = System.currentTimeMillis() + OUTPUT_TIMEOUT;
+
+			while(mQueuedOutputSize >= MAX_QUEUED_OUTPUT_SIZE) {
+				final long remainingTime = timeout - System.currentTimeMillis();
+				if(remainingTime <= 0)
+					throw new IOException("Client does not read its output.");
+
+				try {
+					wait(remainingTime);
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for the client to read its output.");
+				}
+
+				if(mClosed)
+					throw new IOException("Connection closed.");
+			}
+
+			mOutputQueue.add(buffer);
+			mQueuedOutputSize += buffer.remaining();
+		}
+
+		mServer.requestWrite(this);
+	}
+
+	/**
+	 * @return True if there is output which was not sent yet.
+	 */
+	public synchronized boolean hasQueuedOutput() {
+		return !mOutputQueue.isEmpty();
+	}
+
+	/**
+	 * Called by the selector thread when the channel is writable. Writes as much of the queued output as the channel accepts.
+	 * @return True if all queued output was sent.
+	 */
+	public boolean writeQueuedOutput() throws IOException {
+		synchronized(this) {
+			while(!mOutputQueue.isEmpty()) {
+				final ByteBuffer buffer = mOutputQueue.getFirst();
+				mQueuedOutputSize -= mChannel.write(buffer);
+				notifyAll(); // Wake up the worker thread if it waits in queueOutput()
+
+				if(buffer.hasRemaining())
+					return false;
+
+				mOutputQueue.removeFirst();
+			}
+
+			if(mCloseRequested)
+				close();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Called by the selector thread when the channel is readable. Reads the available bytes into the input buffer.
+	 * @return True if complete lines are available and no worker is processing them yet, i.e. {@link #processInput()} has to be scheduled.
+	 */
+	public boolean readInput() throws IOException {
+		synchronized(this) {
+			if(!mInput.hasRemaining()) {
+				if(mInput.capacity() >= MAX_INPUT_BUFFER_SIZE)
+					throw new IOException("Too much unprocessed input from client.");
+
+				final ByteBuffer newInput = ByteBuffer.allocate(Math.min(mInput.capacity() * 2, MAX_INPUT_BUFFER_SIZE));
+				mInput.flip();
+				newInput.put(mInput);
+				mInput = newInput;
+			}
+
+			if(mChannel.read(mInput) < 0)
+				mEndOfInput = true; // The remaining lines are processed, then the connection is closed.
+
+			if(mProcessing)
+				return false;
+
+			if(!hasCompleteLine()) {
+				if(mEndOfInput)
+					closeAfterOutput();
+				return false;
+			}
+
+			mProcessing = true;
+			return true;
+		}
+	}
+
+	/**
+	 * @return True if the client closed its side of the connection. The server must not select the channel for reading anymore then.
+	 */
+	public synchronized boolean isEndOfInput() {
+		return mEndOfInput;
+	}
+
+	/**
+	 * @return True if the input buffer contains a LF.
+	 */
+	private boolean hasCompleteLine() {
+		for(int i = 0; i < mInput.position(); ++i) {
+			if(mInput.get(i) == '\n')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the next line including the terminating LF from the input buffer.
+	 * @return The line, null if there is no complete line in the input buffer.
+	 */
+	private ByteBuffer takeLine() {
+		for(int i = 0; i < mInput.position(); ++i) {
+			if(mInput.get(i) == '\n') {
+				final ByteBuffer line = ByteBuffer.allocate(i + 1);
+				mInput.flip();
+				mInput.get(line.array(), 0, i + 1);
+				mInput.compact();
+				return line;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Sends the welcome message and then processes the input which arrived meanwhile. Executed by a worker thread of the server after the
+	 * connection was accepted.
+	 */
+	public void start() {
+		try {
+			mHandler.onConnected();
+		}
+		catch(Throwable e) {
+			Logger.error(this, "Error in NNTP handler, closing connection: " + e.getMessage());
+			close();
+			return;
+		}
+
+		processInput();
+	}
+
+	/**
+	 * Executes the commands in the input buffer until there is no complete line left. Executed by a worker thread of the server.
+	 * Handles the text block of the POST command like readTextDataBytes() of the blocking handler.
+	 */
+	public void processInput() {
+		try {
+			while(true) {
+				final ByteBuffer line;
+
+				synchronized(this) {
+					line = mClosed ? null : takeLine();
+
+					if(line == null) {
+						mProcessing = false;
+
+						if(mEndOfInput)
+							closeAfterOutput();
+
+						return;
+					}
+				}
+
+				if(mTextCommand == null) {
+					final String command = mHandler.onCommandLine(line);
+					if(command != null) {
+						mTextCommand = command;
+						mTextBlock = ByteBuffer.allocate(4096);
+					}
+				} else
+					appendTextLine(line);
+			}
+		}
+		catch(Throwable e) {
+			Logger.error(this, "Error in NNTP handler, closing connection: " + e.getMessage());
+			synchronized(this) {
+				mProcessing = false;
+			}
+			close();
+		}
+	}
+
+	private void appendTextLine(ByteBuffer line) throws IOException {
+		if(line.get(0) == '.') {
+			if((line.remaining() == 2 && line.get(1) == '\n')
+					|| (line.remaining() == 3 && line.get(1) == '\r' && line.get(2) == '\n')) {
+				final String command = mTextCommand;
+				final ByteBuffer text = mTextBlock;
+				mTextCommand = null;
+				mTextBlock = null;
+				text.flip();
+				mHandler.onTextBlock(command, text);
+				return;
+			}
+			else {
+				// Initial dot must always be skipped (even if the second character isn't a dot)
+				line.get();
+			}
+		}
+
+		if(line.remaining() > mTextBlock.remaining()) {
+			final ByteBuffer newText = ByteBuffer.allocate((mTextBlock.position() + line.remaining()) * 2);
+			mTextBlock.flip();
+			newText.put(mTextBlock);
+			mTextBlock = newText;
+		}
+		mTextBlock.put(line);
+	}
+
+	/**
+	 * Closes the connection as soon as all queued output was sent.
+	 */
+	public void closeAfterOutput() {
+		synchronized(this) {
+			mCloseRequested = true;
+		}
+
+		mServer.requestWrite(this);
+	}
+
+	/**
+	 * Closes the connection immediately.
+	 */
+	public void close() {
+		if(mClosed)
+			return;
+
+		mClosed = true;
+
+		if(mKey != null)
+			mKey.cancel();
+
+		try {
+			mChannel.close();
+		} catch (IOException e) {
+			// ignore
+		}
+
+		synchronized(this) {
+			mOutputQueue.clear();
+			mQueuedOutputSize = 0;
+			notifyAll(); // Wake up the worker thread if it waits in queueOutput()
+		}
+	}
+}
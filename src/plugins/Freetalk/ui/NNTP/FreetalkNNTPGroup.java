@@ -6,6 +6,8 @@ package plugins.Freetalk.ui.NNTP;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import plugins.Freetalk.ArticleFormatter;
+import plugins.Freetalk.BoardSnapshot;
 import plugins.Freetalk.Message;
 import plugins.Freetalk.SubscribedBoard;
 import plugins.Freetalk.exceptions.MessageNotFetchedException;
@@ -16,6 +18,9 @@ import freenet.support.Logger;
  * Object representing a newsgroup, as seen from the NNTP client's
  * point of view.
  *
+ * The article numbers are read from the {@link BoardSnapshot} of the
+ * board so that the board does not need to be locked.
+ *
  * @author Benjamin Moody
  */
 public final class FreetalkNNTPGroup {
@@ -36,10 +41,7 @@ public final class FreetalkNNTPGroup {
      * Convert a Freetalk board name into an NNTP group name.
      */
     public static String boardToGroupName(final String name) {
-        // TODO: This does nothing at the moment.  In the future it
-        // could be used to quote names in ASCII, for older
-        // newsreaders that only allow ASCII group names
-        return name;
+        return ArticleFormatter.boardToGroupName(name);
     }
 
     /**
@@ -60,7 +62,7 @@ public final class FreetalkNNTPGroup {
      * Estimate number of messages that have been posted.
      */
     public long messageCount() {
-        return mBoard.getAllMessages(false).size();
+        return mBoard.getSnapshot().getMessageCount();
     }
 
     /**
@@ -68,7 +70,7 @@ public final class FreetalkNNTPGroup {
      */
     public int firstMessage() {
     	try {
-    		return mBoard.getFirstMessageIndex();
+    		return mBoard.getSnapshot().getFirstMessageIndex();
     	}
     	catch(NoSuchMessageException e) {
     		return 0; // TODO: Does NNTP expect this if there are no messages??
@@ -80,7 +82,7 @@ public final class FreetalkNNTPGroup {
      */
     public int lastMessage() {
     	try {
-    		return mBoard.getLastMessageIndex();
+    		return mBoard.getSnapshot().getLastMessageIndex();
     	}
     	catch(NoSuchMessageException e) {
     		return 0; // TODO: Does NNTP expect this if there are no messages??
@@ -89,38 +91,33 @@ public final class FreetalkNNTPGroup {
 
     /**
      * Get an iterator for articles in the given range.
-     * You have to embed the call to this function and processing of the returned Iterator in a synchronized(thisGroup.getBoard())!
+     * Articles which are deleted while the iterator is used are skipped.
      */
     public Iterator<FreetalkNNTPArticle> getMessageIterator(int start, int end) throws NoSuchMessageException {
-            if (start < firstMessage())
-                start = firstMessage();
-
-            if (end == -1 || end > lastMessage())
-                end = lastMessage();
-
-            final int startIndex = start;
-            final int endIndex = end;
+            final BoardSnapshot snapshot = mBoard.getSnapshot();
+            final int[] indices = snapshot.getMessageIndices(start, end == -1 ? Integer.MAX_VALUE : end);
 
             final Iterator<FreetalkNNTPArticle> iter = new Iterator<FreetalkNNTPArticle>() {
-                private int currentIndex = startIndex;
+                private int currentPosition = 0;
                 private Message currentMessage = null;
 
                 public boolean hasNext() {
                     if (currentMessage != null)
                         return true;
 
-                    while (currentIndex <= endIndex) {
+                    while (currentPosition < indices.length) {
                         try {
-                            currentMessage = mBoard.getMessageByIndex(currentIndex).getMessage();
+                            currentMessage = mBoard.getMessageByIndex(indices[currentPosition]).getMessage();
                             return true;
                         }
                         catch (MessageNotFetchedException e) {
                         	// Skip this one
                         }
-                        catch (NoSuchMessageException e) { // Should not happen because endIndex == board.getLastMessageIndex();
-                            Logger.error(this, "NoSuchMessageException for currentIndex (" + currentIndex + ") <= endIndex (" + endIndex + ")", e);
+                        catch (NoSuchMessageException e) {
+                        	// The message was deleted after the snapshot was taken.
+                        	Logger.debug(this, "Message index " + indices[currentPosition] + " of " + snapshot + " does not exist anymore.");
                         }
-                        currentIndex++;
+                        currentPosition++;
                     }
                     return false;
                 }
@@ -131,7 +128,7 @@ public final class FreetalkNNTPGroup {
                     else {
                         Message msg = currentMessage;
                         currentMessage = null;
-                        return new FreetalkNNTPArticle(msg, currentIndex++);
+                        return new FreetalkNNTPArticle(msg, indices[currentPosition++]);
                     }
                 }
 
@@ -7,6 +7,7 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
@@ -22,7 +23,9 @@ import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import plugins.Freetalk.ArticleFormatter;
 import plugins.Freetalk.Board;
+import plugins.Freetalk.BoardSnapshot;
 import plugins.Freetalk.FTOwnIdentity;
 import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.IdentityManager;
@@ -51,7 +54,10 @@ public final class FreetalkNNTPHandler implements Runnable {
     private final IdentityManager mIdentityManager;
     private final MessageManager mMessageManager;
 
+    /** The socket of the client in blocking mode, null in non-blocking mode */
     private final Socket mSocket;
+    /** The connection to the client in non-blocking mode, null in blocking mode */
+    private final FreetalkNNTPChannel mChannel;
     private BufferedWriter mOutput;
 
     /** Current board (selected by the GROUP command) */
@@ -80,12 +86,33 @@ public final class FreetalkNNTPHandler implements Runnable {
         mIdentityManager = ft.getIdentityManager();
         mMessageManager = ft.getMessageManager();
         this.mSocket = socket;
+        mChannel = null;
+    }
+
+    /**
+     * Constructor for the non-blocking mode of the server: The commands are parsed by the {@link FreetalkNNTPChannel} and passed to
+     * {@link #onCommandLine(ByteBuffer)} and {@link #onTextBlock(String, ByteBuffer)}, the output is queued by the channel.
+     */
+    FreetalkNNTPHandler(final Freetalk ft, final FreetalkNNTPChannel channel) {
+        mIdentityManager = ft.getIdentityManager();
+        mMessageManager = ft.getMessageManager();
+        mSocket = null;
+        mChannel = channel;
+        try {
+            mOutput = new BufferedWriter(new OutputStreamWriter(channel.getOutputStream(), "UTF-8"), 8192);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
      * Check if handler is still active.
      */
     public boolean isAlive() {
+        if (mChannel != null)
+            return mChannel.isOpen();
+
         return !mSocket.isClosed(); // This is synchronized
     }
 
@@ -93,6 +120,11 @@ public final class FreetalkNNTPHandler implements Runnable {
      * Close the connection to the client immediately.
      */
     public synchronized void terminate() {
+        if (mChannel != null) {
+            mChannel.close();
+            return;
+        }
+
         try {
             mSocket.close();
         }
@@ -139,7 +171,7 @@ public final class FreetalkNNTPHandler implements Runnable {
      * CR+LF and dot-stuffing as necessary.)
      */
     private void printText(final String text) throws IOException {
-        String[] lines = FreetalkNNTPArticle.mEndOfLinePattern.split(text);
+        String[] lines = ArticleFormatter.mEndOfLinePattern.split(text);
         for (int i = 0; i < lines.length; i++) {
             printTextResponseLine(lines[i]);
         }
@@ -154,7 +186,8 @@ public final class FreetalkNNTPHandler implements Runnable {
      * followed by a dash and a second number, indicating a bounded
      * range.)  Print an error message if it can't be found.
      * 
-     * You have to embed the call to this function and processing of the returned Iterator in a synchronized(mCurrentGroup.getBoard())!
+     * The board does not need to be locked: The range is resolved using a {@link plugins.Freetalk.BoardSnapshot} and articles which are
+     * deleted while the iterator is used are skipped.
      */
     private Iterator<FreetalkNNTPArticle> getArticleRangeIterator(final String desc, final boolean single) throws IOException {
 		if (mAuthenticatedUser == null) {
@@ -251,7 +284,6 @@ public final class FreetalkNNTPHandler implements Runnable {
             printStatusLine("412 No newsgroup selected");
             return;
         }
-        synchronized(mCurrentGroup.getBoard())  {
 		final Iterator<FreetalkNNTPArticle> iter = getArticleRangeIterator(desc, true);
 
         if (iter == null)
@@ -282,7 +314,6 @@ public final class FreetalkNNTPHandler implements Runnable {
         else {
             printStatusLine("223 " + article.getMessageNum() + " <" + article.getMessage().getID() + ">");
         }
-        }
     }
 
     /**
@@ -297,13 +328,13 @@ public final class FreetalkNNTPHandler implements Runnable {
         	final String boardName = FreetalkNNTPGroup.groupToBoardName(name);
         	final SubscribedBoard board = mMessageManager.getSubscription(mAuthenticatedUser, boardName);
             mCurrentGroup = new FreetalkNNTPGroup(board);
-            synchronized (board) {
-                mCurrentMessageNum = mCurrentGroup.firstMessage();
-                printStatusLine("211 " + mCurrentGroup.messageCount()
-                        + " " + mCurrentGroup.firstMessage()
-                        + " " + mCurrentGroup.lastMessage()
-                        + " " + mCurrentGroup.getGroupName());
-            }
+            // Use a single snapshot so that count, first and last article are consistent.
+            final BoardSnapshot snapshot = board.getSnapshot();
+            mCurrentMessageNum = firstMessage(snapshot);
+            printStatusLine("211 " + snapshot.getMessageCount()
+                    + " " + firstMessage(snapshot)
+                    + " " + lastMessage(snapshot)
+                    + " " + mCurrentGroup.getGroupName());
         }
         catch(NoSuchBoardException e) {
             printStatusLine("411 No such group");
@@ -362,26 +393,40 @@ public final class FreetalkNNTPHandler implements Runnable {
             return;
         }
 
-        synchronized (mCurrentGroup.getBoard()) {
-            mCurrentMessageNum = mCurrentGroup.firstMessage();
-            printStatusLine("211 " + mCurrentGroup.messageCount()
-                    + " " + mCurrentGroup.firstMessage()
-                    + " " + mCurrentGroup.lastMessage()
-                    + " " + mCurrentGroup.getGroupName());
+        final BoardSnapshot snapshot = mCurrentGroup.getBoard().getSnapshot();
+        mCurrentMessageNum = firstMessage(snapshot);
+        printStatusLine("211 " + snapshot.getMessageCount()
+                + " " + firstMessage(snapshot)
+                + " " + lastMessage(snapshot)
+                + " " + mCurrentGroup.getGroupName());
 
-            if (end == -1)
-                end = mCurrentGroup.lastMessage();
+        for (final int index : snapshot.getMessageIndices(start, end == -1 ? Integer.MAX_VALUE : end))
+            printTextResponseLine(Integer.toString(index));
 
-            // TODO: Optimization: Write a getAllMessages() which allows the specification of a range!
-            for(final SubscribedBoard.MessageReference ref : mCurrentGroup.getBoard().getAllMessages(true)) {
-                final int index = ref.getIndex();
-                if (index > end)
-                    break;
-                else if (index >= start)
-                    printTextResponseLine(Integer.toString(index));
-            }
+        endTextResponse();
+    }
 
-            endTextResponse();
+    /**
+     * Get the first article number of the given snapshot, or 0 if it is empty, like {@link FreetalkNNTPGroup#firstMessage()}.
+     */
+    private static int firstMessage(final BoardSnapshot snapshot) {
+        try {
+            return snapshot.getFirstMessageIndex();
+        }
+        catch (NoSuchMessageException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Get the last article number of the given snapshot, or 0 if it is empty, like {@link FreetalkNNTPGroup#lastMessage()}.
+     */
+    private static int lastMessage(final BoardSnapshot snapshot) {
+        try {
+            return snapshot.getLastMessageIndex();
+        }
+        catch (NoSuchMessageException e) {
+            return 0;
         }
     }
 
@@ -396,7 +441,6 @@ public final class FreetalkNNTPHandler implements Runnable {
         // TODO: filter by wildmat
         printStatusLine("215 List of newsgroups follows:");
 
-        synchronized(mMessageManager) {
         // TODO: Optimization: Use a non sorting function
         for (final SubscribedBoard board : mMessageManager.subscribedBoardIteratorSortedByName(mAuthenticatedUser)) {
         	final FreetalkNNTPGroup group = new FreetalkNNTPGroup(board);
@@ -405,7 +449,6 @@ public final class FreetalkNNTPHandler implements Runnable {
                     + " " + group.firstMessage()
                     + " " + group.postingStatus());
         }
-        }
         endTextResponse();
     }
 
@@ -419,12 +462,10 @@ public final class FreetalkNNTPHandler implements Runnable {
 		}
         // TODO: add filtering
         printStatusLine("215 Information follows:");
-        synchronized(mMessageManager) {
         for (final Board board : mMessageManager.boardIteratorSortedByName()) { // TODO: Optimization: Use a non-sorting function.
             final String groupName = FreetalkNNTPGroup.boardToGroupName(board.getName());
             printTextResponseLine(groupName	+ " " + board.getDescription(mAuthenticatedUser));
         }
-        }
         endTextResponse();
     }
 
@@ -442,7 +483,6 @@ public final class FreetalkNNTPHandler implements Runnable {
 
         printStatusLine("231 List of new newsgroups follows");
         final Date date = df.parse(datestr, new ParsePosition(0));
-        synchronized(mMessageManager) {
         for (SubscribedBoard board : mMessageManager.subscribedBoardIteratorSortedByDate(mAuthenticatedUser, date)) {
             final FreetalkNNTPGroup group = new FreetalkNNTPGroup(board);
             printTextResponseLine(board.getName()
@@ -450,7 +490,6 @@ public final class FreetalkNNTPHandler implements Runnable {
                     + " " + group.firstMessage()
                     + " " + group.postingStatus());
         }
-        }
         endTextResponse();
     }
 
@@ -468,25 +507,23 @@ public final class FreetalkNNTPHandler implements Runnable {
             return;
         }
         
-		synchronized(mCurrentGroup.getBoard()) {
-			final Iterator<FreetalkNNTPArticle> iter = getArticleRangeIterator(articleDesc, false);
+		final Iterator<FreetalkNNTPArticle> iter = getArticleRangeIterator(articleDesc, false);
 
-			if (iter == null)
-				return;
+		if (iter == null)
+			return;
         
-            printStatusLine("224 Header contents follow");
-            while (iter.hasNext()) {
-            	final FreetalkNNTPArticle article = iter.next();
-
-                if (header.equalsIgnoreCase(":bytes"))
-                    printTextResponseLine(article.getMessageNum() + " " + article.getByteCount());
-                else if (header.equalsIgnoreCase(":lines"))
-                    printTextResponseLine(article.getMessageNum() + " " + article.getBodyLineCount());
-                else
-                    printTextResponseLine(article.getMessageNum() + " " + article.getHeaderByName(header));
-            }
-            endTextResponse();
-		}
+        printStatusLine("224 Header contents follow");
+        while (iter.hasNext()) {
+        	final FreetalkNNTPArticle article = iter.next();
+
+            if (header.equalsIgnoreCase(":bytes"))
+                printTextResponseLine(article.getMessageNum() + " " + article.getByteCount());
+            else if (header.equalsIgnoreCase(":lines"))
+                printTextResponseLine(article.getMessageNum() + " " + article.getBodyLineCount());
+            else
+                printTextResponseLine(article.getMessageNum() + " " + article.getHeaderByName(header));
+        }
+        endTextResponse();
     }
 
     /**
@@ -503,26 +540,64 @@ public final class FreetalkNNTPHandler implements Runnable {
             return;
         }
 		
-        synchronized(mCurrentGroup.getBoard()) {
-        	final Iterator<FreetalkNNTPArticle> iter = getArticleRangeIterator(articleDesc, false);
+        final Matcher matcher = (articleDesc != null) ? rangePattern.matcher(articleDesc) : null;
+
+        if (matcher == null || !matcher.matches()) {
+            // The current article or a message-ID: A single article, its overview is computed directly.
+            final Iterator<FreetalkNNTPArticle> iter = getArticleRangeIterator(articleDesc, false);
+
+            if (iter == null)
+            	return;
 
-        	if (iter == null)
-        		return;
-        
             printStatusLine("224 Overview follows");
             while (iter.hasNext()) {
             	final FreetalkNNTPArticle article = iter.next();
-
-                printTextResponseLine(article.getMessageNum() + "\t" + article.getHeader(FreetalkNNTPArticle.Header.SUBJECT)
-                        + "\t" + article.getHeader(FreetalkNNTPArticle.Header.FROM)
-                        + "\t" + article.getHeader(FreetalkNNTPArticle.Header.DATE)
-                        + "\t" + article.getHeader(FreetalkNNTPArticle.Header.MESSAGE_ID)
-                        + "\t" + article.getHeader(FreetalkNNTPArticle.Header.REFERENCES)
-                        + "\t" + article.getByteCount()
-                        + "\t" + article.getBodyLineCount());
+                printTextResponseLine(article.getMessageNum() + "\t" + article.getOverview());
             }
             endTextResponse();
+            return;
         }
+
+        final String startStr = matcher.group(1);
+        final String dashStr = matcher.group(2);
+        final String endStr = matcher.group(3);
+
+        int start, end;
+
+        try {
+            start = Integer.parseInt(startStr);
+
+            if (dashStr == null)
+                end = start;
+            else if (endStr == null)
+                end = Integer.MAX_VALUE;
+            else
+                end = Integer.parseInt(endStr);
+        }
+        catch (NumberFormatException e) {
+            printStatusLine("501 Syntax error");
+            return;
+        }
+
+        // A range of articles: The overviews are stored in the database, the messages themselves are not needed.
+        // They are copied while the board is locked so that none of them is deleted while the query result is iterated. The lock is
+        // released before writing to the client so that a slow client does not block the linking of messages.
+        final SubscribedBoard board = mCurrentGroup.getBoard();
+        final ArrayList<String> overviews = new ArrayList<String>();
+        synchronized(board) {
+            for (final SubscribedBoard.MessageOverview overview : board.getMessageOverviews(start, end))
+                overviews.add(overview.getIndex() + "\t" + overview.getOverview());
+        }
+
+        if (overviews.isEmpty()) {
+            printStatusLine("423 No articles in that range");
+            return;
+        }
+
+        printStatusLine("224 Overview follows");
+        for (final String overview : overviews)
+            printTextResponseLine(overview);
+        endTextResponse();
     }
 
     /**
@@ -784,7 +859,10 @@ public final class FreetalkNNTPHandler implements Runnable {
         }
         else if (command.equalsIgnoreCase("QUIT")) {
             printStatusLine("205 Have a nice day.");
-            mSocket.close();
+            if (mChannel != null)
+                mChannel.closeAfterOutput();
+            else
+                mSocket.close();
         }
         else if (command.equalsIgnoreCase("STAT")) {
             if (tokens.length == 2) {
@@ -822,36 +900,34 @@ public final class FreetalkNNTPHandler implements Runnable {
                 return;
             }
 
-            synchronized(mMessageManager) {
+            try {
+                Message parentMessage;
                 try {
-                    Message parentMessage;
-                    try {
-                        parentMessage = mMessageManager.get(parser.getParentID());
-                    }
-                    catch (NoSuchFieldException e) {
-                        parentMessage = null;
-                    }
-                    catch (NoSuchMessageException e) {
-                        parentMessage = null;
-                    }
-                    
-                	// FIXME: When replying to forked threads, this code will always sent the replies to the original thread. We need to find a way
-                	// to figure out whether the user wanted to reply to a forked thread - does NNTP pass a thread ID?
-                    
-                    MessageURI parentMessageURI = null;
-                    if (parentMessage != null) {
-                        parentMessageURI = parentMessage.isThread() ? parentMessage.getURI() : parentMessage.getThreadURI();
-                    }
-
-                    final HashSet<String> boardSet = new HashSet<String>(parser.getBoards());
-                    final OwnMessage message = mMessageManager.postMessage(parentMessageURI,
-                    		parentMessage, boardSet, parser.getReplyToBoard(), mAuthenticatedUser, parser.getTitle(), null, parser.getText(), null);
-                    printStatusLine("240 Message posted; ID is <" + message.getID() + ">");
+                    parentMessage = mMessageManager.get(parser.getParentID());
+                }
+                catch (NoSuchFieldException e) {
+                    parentMessage = null;
                 }
-                catch (Exception e) {
-                    Logger.error(this, "Error posting message: ", e);
-                    printStatusLine("441 Posting failed");
+                catch (NoSuchMessageException e) {
+                    parentMessage = null;
                 }
+                
+            	// FIXME: When replying to forked threads, this code will always sent the replies to the original thread. We need to find a way
+            	// to figure out whether the user wanted to reply to a forked thread - does NNTP pass a thread ID?
+                
+                MessageURI parentMessageURI = null;
+                if (parentMessage != null) {
+                    parentMessageURI = parentMessage.isThread() ? parentMessage.getURI() : parentMessage.getThreadURI();
+                }
+
+                final HashSet<String> boardSet = new HashSet<String>(parser.getBoards());
+                final OwnMessage message = mMessageManager.postMessage(parentMessageURI,
+                		parentMessage, boardSet, parser.getReplyToBoard(), mAuthenticatedUser, parser.getTitle(), null, parser.getText(), null);
+                printStatusLine("240 Message posted; ID is <" + message.getID() + ">");
+            }
+            catch (Exception e) {
+                Logger.error(this, "Error posting message: ", e);
+                printStatusLine("441 Posting failed");
             }
         }
     }
@@ -925,6 +1001,40 @@ public final class FreetalkNNTPHandler implements Runnable {
     }
 
 
+    /**
+     * Called by the {@link FreetalkNNTPChannel} when the connection was accepted.
+     */
+    void onConnected() throws IOException {
+        printStatusLine("200 Welcome to Freetalk");
+    }
+
+    /**
+     * Called by the {@link FreetalkNNTPChannel} for each command line which the client sent.
+     * 
+     * @return The command line if the command requires a text data section, null otherwise. The channel then collects the text and passes
+     *     it to {@link #onTextBlock(String, ByteBuffer)}.
+     */
+    String onCommandLine(final ByteBuffer lineBytes) throws IOException {
+        final String line = Charset.forName("UTF-8").decode(lineBytes).toString();
+        synchronized(this) {
+            final boolean expectsText = beginCommand(line);
+            // Not all responses are flushed by the command functions, e.g. the one of DATE. The blocking mode flushes them with the next
+            // status line, we cannot wait for that because the client might wait for the response before it sends the next command.
+            mOutput.flush();
+            return expectsText ? line : null;
+        }
+    }
+
+    /**
+     * Called by the {@link FreetalkNNTPChannel} when the text data section of a command was received completely.
+     */
+    void onTextBlock(final String line, final ByteBuffer text) throws IOException {
+        synchronized(this) {
+            finishCommand(line, text);
+            mOutput.flush();
+        }
+    }
+
     /**
      * Main command loop
      */
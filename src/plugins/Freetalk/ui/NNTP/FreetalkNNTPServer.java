@@ -4,14 +4,25 @@
 package plugins.Freetalk.ui.NNTP;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import plugins.Freetalk.Freetalk;
+import freenet.io.AllowedHosts;
 import freenet.io.NetworkInterface;
 import freenet.node.Node;
+import freenet.support.Executor;
 import freenet.support.Logger;
 
 /**
@@ -21,6 +32,12 @@ import freenet.support.Logger;
  * connections from clients.  Each handler runs in its own thread as
  * well.  Use terminate() to shut everything down.
  *
+ * In non-blocking mode, the background thread instead waits for all
+ * connections with a {@link Selector}, see {@link FreetalkNNTPChannel}.
+ * The commands of all clients are executed by a pool of
+ * {@link #WORKER_THREAD_COUNT} threads, so a few threads can serve
+ * hundreds of clients.
+ *
  * @author Benjamin Moody
  * @author xor (xor@freenetproject.org)
  */
@@ -28,6 +45,9 @@ public final class FreetalkNNTPServer implements Runnable {
 
 	private final Freetalk mFreetalk;
 
+	/** Executes the server thread and, in blocking mode, the client handlers. */
+	private final Executor mExecutor;
+
 	/** Comma-separated list of addresses to bind to. */
 	private final String mBindTo;
 	/** Port to listen on for connections. */
@@ -41,30 +61,69 @@ public final class FreetalkNNTPServer implements Runnable {
 
 	private final ArrayList<FreetalkNNTPHandler> clientHandlers;
 
-	public FreetalkNNTPServer(Freetalk ft, int port, String bindTo, String allowedHosts) {
+	/** The number of threads which execute the commands of the clients in non-blocking mode. */
+	public static final int WORKER_THREAD_COUNT = 4;
+
+	/** True if the server uses a selector instead of a thread per client. */
+	private final boolean mNonBlocking;
+	private Selector mSelector;
+	private ExecutorService mWorkers;
+	/** The local port of the first address the server is bound to, -1 while the server is not listening yet. */
+	private int mLocalPort = -1;
+	/** The channels whose output has to be sent. Filled by the worker threads, processed by the selector thread. */
+	private final ConcurrentLinkedQueue<FreetalkNNTPChannel> mWriteRequests = new ConcurrentLinkedQueue<FreetalkNNTPChannel>();
+
+	public FreetalkNNTPServer(Freetalk ft, Executor executor, int port, String bindTo, String allowedHosts) {
+		this(ft, executor, port, bindTo, allowedHosts, false);
+	}
+
+	public FreetalkNNTPServer(Freetalk ft, Executor executor, int port, String bindTo, String allowedHosts, boolean nonBlocking) {
 		mFreetalk = ft;
+		mExecutor = executor;
 		mBindTo = bindTo;
 		mPort = port;
 		mAllowedHosts = allowedHosts;
+		mNonBlocking = nonBlocking;
 		mIsShuttingDown = mIsShutdownFinished = false;
 		clientHandlers = new ArrayList<FreetalkNNTPHandler>();
 	}
 	
 	public void start() {
-		mFreetalk.getPluginRespirator().getNode().executor.execute(this, "Freetalk " + this.getClass().getSimpleName());
+		mExecutor.execute(this, "Freetalk " + this.getClass().getSimpleName());
 		Logger.debug(this, "Started.");
 	}
 
+	Freetalk getFreetalk() {
+		return mFreetalk;
+	}
+
+	/**
+	 * Waits until the server is listening.
+	 * @return The local port of the first address the server is bound to, -1 if starting the server failed.
+	 */
+	synchronized int getLocalPort() throws InterruptedException {
+		while(mLocalPort == -1 && !mIsShutdownFinished)
+			wait();
+		return mLocalPort;
+	}
+
 	/**
 	 * Shut down the server and disconnect any currently-connected clients.
 	 */
 	public void terminate() {
 		mIsShuttingDown = true;
-		try {
-			mInterface.close();
-		}
-		catch (IOException e) {
-			Logger.error(this, "Error shutting down NNTP server", e);
+		if(mNonBlocking) {
+			synchronized(this) {
+				if(mSelector != null)
+					mSelector.wakeup();
+			}
+		} else {
+			try {
+				mInterface.close();
+			}
+			catch (IOException e) {
+				Logger.error(this, "Error shutting down NNTP server", e);
+			}
 		}
 		
 		synchronized (this) {
@@ -83,8 +142,13 @@ public final class FreetalkNNTPServer implements Runnable {
 	 * Main server connection loop
 	 */
 	public void run() {
+		if(mNonBlocking) {
+			runNonBlocking();
+			return;
+		}
+		
 		try {
-			mInterface = NetworkInterface.create(mPort, mBindTo, mAllowedHosts, mFreetalk.getPluginRespirator().getNode().executor, true);
+			mInterface = NetworkInterface.create(mPort, mBindTo, mAllowedHosts, mExecutor, true);
 			/* TODO: NetworkInterface.accept() currently does not support being interrupted by Thread.interrupt(),
 			 * shutdown works by timeout. This sucks and should be changed. As long as it is still like that,
 			 * we have to use a low timeout. */
@@ -114,11 +178,182 @@ public final class FreetalkNNTPServer implements Runnable {
 
 			synchronized (this) {
 				mIsShutdownFinished = true;
-				notify();
+				notifyAll();
 			}
 		}
 	}
 	
+	/**
+	 * Main server loop of the non-blocking mode: Accepts connections, reads the input of the clients and sends the responses.
+	 * The commands are executed by the worker threads.
+	 */
+	private void runNonBlocking() {
+		final ArrayList<ServerSocketChannel> serverChannels = new ArrayList<ServerSocketChannel>();
+		
+		try {
+			synchronized(this) {
+				mSelector = Selector.open();
+			}
+			
+			mWorkers = Executors.newFixedThreadPool(WORKER_THREAD_COUNT, new ThreadFactory() {
+				private int mThreadNumber = 0;
+				
+				public synchronized Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Freetalk NNTP worker " + (++mThreadNumber));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			
+			final AllowedHosts allowedHosts = new AllowedHosts(mAllowedHosts);
+			
+			for(String address : mBindTo.split(",")) {
+				final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+				serverChannels.add(serverChannel);
+				serverChannel.configureBlocking(false);
+				serverChannel.socket().setReuseAddress(true);
+				serverChannel.socket().bind(new InetSocketAddress(address.trim(), mPort));
+				serverChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+			}
+			
+			synchronized(this) {
+				mLocalPort = serverChannels.get(0).socket().getLocalPort();
+				notifyAll();
+			}
+			
+			while (!mIsShuttingDown) {
+				mSelector.select();
+				
+				processWriteRequests();
+				
+				for(final Iterator<SelectionKey> i = mSelector.selectedKeys().iterator(); i.hasNext(); ) {
+					final SelectionKey key = i.next();
+					i.remove();
+					
+					if(!key.isValid())
+						continue;
+					
+					if(key.isAcceptable()) {
+						try {
+							acceptChannel((ServerSocketChannel)key.channel(), allowedHosts);
+						} catch(IOException e) {
+							Logger.error(this, "Accepting connection failed.", e);
+						}
+						continue;
+					}
+					
+					final FreetalkNNTPChannel channel = (FreetalkNNTPChannel)key.attachment();
+					
+					try {
+						if(key.isReadable()) {
+							if(channel.readInput())
+								scheduleProcessing(channel);
+							
+							if(channel.isEndOfInput() && key.isValid())
+								key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+						}
+						
+						if(key.isValid() && key.isWritable()) {
+							if(channel.writeQueuedOutput() && key.isValid())
+								key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+						}
+					}
+					catch(IOException e) {
+						Logger.debug(this, "Closing NNTP connection: " + e.getMessage());
+						channel.close();
+					}
+				}
+			}
+			
+			Logger.debug(this, "NNTP Server exiting...");
+		}
+		catch (IOException e) {
+			Logger.error(this, "Unable to start NNTP server", e);
+		}
+		finally {
+			for(ServerSocketChannel serverChannel : serverChannels) {
+				try {
+					serverChannel.close();
+				} catch(IOException e) { }
+			}
+			
+			if(mSelector != null) {
+				Logger.debug(this, "Closing client connections...");
+				for(SelectionKey key : mSelector.keys()) {
+					if(key.attachment() instanceof FreetalkNNTPChannel)
+						((FreetalkNNTPChannel)key.attachment()).close();
+				}
+				
+				try {
+					mSelector.close();
+				} catch(IOException e) { }
+			}
+			
+			if(mWorkers != null)
+				mWorkers.shutdownNow();
+			
+			synchronized (this) {
+				mIsShutdownFinished = true;
+				notifyAll();
+			}
+		}
+	}
+	
+	private void acceptChannel(ServerSocketChannel serverChannel, AllowedHosts allowedHosts) throws IOException {
+		final SocketChannel socketChannel = serverChannel.accept();
+		if(socketChannel == null)
+			return;
+		
+		if(!allowedHosts.allowed(socketChannel.socket().getInetAddress())) {
+			Logger.normal(this, "Denied NNTP connection from " + socketChannel.socket().getInetAddress());
+			socketChannel.close();
+			return;
+		}
+		
+		socketChannel.configureBlocking(false);
+		
+		final FreetalkNNTPChannel channel = new FreetalkNNTPChannel(this, socketChannel);
+		channel.setSelectionKey(socketChannel.register(mSelector, SelectionKey.OP_READ, channel));
+		
+		mWorkers.execute(new Runnable() {
+			public void run() {
+				channel.start();
+			}
+		});
+		
+		Logger.debug(this, "Accepted an NNTP connection from " + socketChannel.socket().getInetAddress());
+	}
+	
+	private void scheduleProcessing(final FreetalkNNTPChannel channel) {
+		mWorkers.execute(new Runnable() {
+			public void run() {
+				channel.processInput();
+			}
+		});
+	}
+	
+	/**
+	 * Called by the worker threads when output was queued for the given channel or when it shall be closed after sending its output.
+	 */
+	void requestWrite(FreetalkNNTPChannel channel) {
+		mWriteRequests.add(channel);
+		mSelector.wakeup();
+	}
+	
+	/**
+	 * Selects the channels for which {@link #requestWrite(FreetalkNNTPChannel)} was called for writing.
+	 * Executed by the selector thread because changing the interest set from another thread can block while the selector is selecting.
+	 */
+	private void processWriteRequests() {
+		FreetalkNNTPChannel channel;
+		
+		while((channel = mWriteRequests.poll()) != null) {
+			final SelectionKey key = channel.getSelectionKey();
+			if(key != null && key.isValid())
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		}
+	}
+	
 	private void acceptConnection(Socket clientSocket) throws SocketException {
 		final FreetalkNNTPHandler handler = new FreetalkNNTPHandler(mFreetalk, clientSocket);
 
@@ -126,7 +361,7 @@ public final class FreetalkNNTPServer implements Runnable {
 			clientHandlers.add(handler);
 		}
 		
-		mFreetalk.getPluginRespirator().getNode().executor.execute(handler, "Freetalk NNTP Client " + clientSocket.getInetAddress());
+		mExecutor.execute(handler, "Freetalk NNTP Client " + clientSocket.getInetAddress());
 		Logger.debug(this, "Accepted an NNTP connection from " + clientSocket.getInetAddress());
 	}
 	
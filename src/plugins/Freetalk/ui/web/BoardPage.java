@@ -4,8 +4,11 @@
 package plugins.Freetalk.ui.web;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 
 import plugins.Freetalk.Board;
+import plugins.Freetalk.Config;
 import plugins.Freetalk.FTOwnIdentity;
 import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.Message;
@@ -13,6 +16,7 @@ import plugins.Freetalk.SubscribedBoard;
 import plugins.Freetalk.SubscribedBoard.BoardReplyLink;
 import plugins.Freetalk.SubscribedBoard.BoardThreadLink;
 import plugins.Freetalk.WoT.WoTIdentity;
+import plugins.Freetalk.WoT.WoTIdentityManager;
 import plugins.Freetalk.WoT.WoTOwnIdentity;
 import plugins.Freetalk.exceptions.MessageNotFetchedException;
 import plugins.Freetalk.exceptions.NoSuchBoardException;
@@ -31,11 +35,31 @@ public final class BoardPage extends WebPageImpl {
 
 	private final SubscribedBoard mBoard;
     private final boolean mMarkAllThreadsAsRead;
+    
+    /**
+     * The date of last reply of the last thread on the previous page, null if the first page is shown.
+     */
+    private final Date mCursorDate;
+    
+    /**
+     * The ID of the last thread on the previous page, null if the first page is shown.
+     */
+    private final String mCursorThreadID;
 	
 	public BoardPage(WebInterface myWebInterface, FTOwnIdentity viewer, HTTPRequest request, BaseL10n _baseL10n) throws NoSuchBoardException {
 		super(myWebInterface, viewer, request, _baseL10n);
 		mBoard = mFreetalk.getMessageManager().getSubscription(viewer, request.getParam("name"));
 		mMarkAllThreadsAsRead = mRequest.isPartSet("MarkAllThreadsAsRead");
+		
+		final long cursorDate = request.getLongParam("CursorDate", -1);
+		final String cursorThreadID = request.getParam("CursorThreadID");
+		if(cursorDate >= 0 && cursorThreadID.length() > 0) {
+			mCursorDate = new Date(cursorDate);
+			mCursorThreadID = cursorThreadID;
+		} else {
+			mCursorDate = null;
+			mCursorThreadID = null;
+		}
 	}
 
 	public final void make() {
@@ -85,22 +109,50 @@ public final class BoardPage extends WebPageImpl {
 		
 		HTMLNode table = threadsTable.addChild("tbody");
 		
+		final int threadsPerPage = mFreetalk.getConfig().getInt(Config.BOARD_PAGE_THREADS_PER_PAGE);
+		BoardThreadLink lastThread = null;
+		boolean hasNextPage;
+		
+		final ArrayList<WoTIdentity> authors = new ArrayList<WoTIdentity>(threadsPerPage);
+		
 		synchronized(mBoard) {
+            // mark threads read if requested ...
+            if (mMarkAllThreadsAsRead) {
+            	for(BoardThreadLink threadReference : mBoard.getThreads()) {
+            		markThreadRead(threadReference);
+            	}
+            }
+			
+			for(BoardThreadLink threadReference : mBoard.getThreads(mCursorDate, mCursorThreadID, threadsPerPage)) {
+				try {
+					authors.add((WoTIdentity)threadReference.getMessage().getAuthor());
+				}
+				catch(MessageNotFetchedException e) { }
+			}
+		}
+		
+		// Query the scores of all authors at once instead of one query per thread, getScoreFor() will then use the cached scores.
+		// This is a blocking query to WoT, so it must not be done while the board is locked. If the threads of the page change
+		// meanwhile, getScoreFor() queries the scores of the new authors itself.
+		((WoTIdentityManager)mFreetalk.getIdentityManager()).prefetchScores((WoTOwnIdentity)mOwnIdentity, authors, true);
+		
+		synchronized(mBoard) {
+			// One more thread than displayed is queried to find out whether there is a next page.
+			final ArrayList<BoardThreadLink> threads = mBoard.getThreads(mCursorDate, mCursorThreadID, threadsPerPage + 1);
+			hasNextPage = threads.size() > threadsPerPage;
+			if(hasNextPage)
+				threads.remove(threadsPerPage);
 		    
-			for(BoardThreadLink threadReference : mBoard.getThreads()) {
+			for(BoardThreadLink threadReference : threads) {
 				Message thread;
-				String threadTitle;
+				String threadTitle = threadReference.getTitle();
 				String authorText;
 				String authorScore; 
-
-                // mark thread read if requested ...
-                if (mMarkAllThreadsAsRead) {
-                    markThreadRead(threadReference);
-                }
+				
+				lastThread = threadReference;
 
 				try {
 					thread = threadReference.getMessage();
-					threadTitle = thread.getTitle();
 					authorText = thread.getAuthor().getShortestUniqueName();
 					
 					try {
@@ -121,7 +173,6 @@ public final class BoardPage extends WebPageImpl {
 				}
 				catch(MessageNotFetchedException e) {
 					thread = null;
-					threadTitle = "UNKNOWN";
 					
 	            	// TODO: The author can be reconstructed from the thread id because it contains the id of the author. We just need to figure out
 	            	// what the proper place for a function "getIdentityIDFromThreadID" is and whether I have already written one which can do that, and if
@@ -129,17 +180,10 @@ public final class BoardPage extends WebPageImpl {
 					// thread-IDs can be spoofed - dunno how to do that in the table, maybe with colors? 
 					authorText = "UNKNOWN";
 					authorScore = "UNKNOWN";
-					
-					// The thread was not downloaded yet, we use the title of it's first reply as it's title.
-					for(BoardReplyLink messageRef : mBoard.getAllThreadReplies(threadReference.getThreadID(), true)) {
-						try {
-							threadTitle = messageRef.getMessage().getTitle();
-						} catch(MessageNotFetchedException e1) {
-							throw new RuntimeException(e1); // Should not happen: BoardReplyLink objects are only created if a message was fetched already.
-						}
-						break;
-					}
 				}
+				
+				if(threadTitle == null)
+					threadTitle = "UNKNOWN";
 
 				row = table.addChild("tr");
 				threadTitle = maxLength(threadTitle, 70); // TODO: Adjust
@@ -164,7 +208,7 @@ public final class BoardPage extends WebPageImpl {
 
 				/* Reply count */
 				row.addChild("td", new String[] { "align" }, new String[] { "center" }, 
-						Integer.toString(mBoard.threadReplyCount(threadReference.getThreadID())));
+						Integer.toString(threadReference.getReplyCount()));
 				
 				/* Unread count */
 				int unreadCount = 0;
@@ -173,12 +217,20 @@ public final class BoardPage extends WebPageImpl {
 						unreadCount++;
 					}
 					
-					unreadCount += mBoard.threadUnreadReplyCount(threadReference.getThreadID());
+					unreadCount += threadReference.getUnreadReplyCount();
 				}
 				
 				row.addChild(threadWasRead ? "td" : "th", new String[] { "align" }, new String[] { "center" }, Integer.toString(unreadCount));
 			}
 		}
+		
+		// Links to the other pages
+		HTMLNode pageRow = threadsBox.addChild("div", "class", "button-row");
+		if(mCursorDate != null)
+			pageRow.addChild("span", "style", "float: left;").addChild("a", "href", getURI(mBoard), l10n().getString("BoardPage.FirstPageLink"));
+		if(hasNextPage) 
+			pageRow.addChild("span", "style", "float: right;").addChild("a", "href", getURI(mBoard, lastThread), l10n().getString("BoardPage.NextPageLink"));
+		threadsBox.addChild("div", "style", "clear: both;");
 	}
 
     /**
@@ -231,4 +283,12 @@ public final class BoardPage extends WebPageImpl {
 	public static String getURI(String boardName) {
 		return Freetalk.PLUGIN_URI + "/showBoard?name=" + boardName;
 	}
+	
+	/**
+	 * Get the URI of the page which starts with the thread after the given one.
+	 */
+	public static String getURI(Board board, BoardThreadLink lastThreadOfPreviousPage) {
+		return getURI(board) + "&CursorDate=" + lastThreadOfPreviousPage.getLastReplyDate().getTime()
+			+ "&CursorThreadID=" + lastThreadOfPreviousPage.getThreadID();
+	}
 }
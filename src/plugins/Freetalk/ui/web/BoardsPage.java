@@ -55,45 +55,43 @@ public final class BoardsPage extends WebPageImpl {
 		
 		int boardCount = 0;
 		
-		synchronized(mFreetalk.getMessageManager()) {
-			Iterator<SubscribedBoard> boards = mFreetalk.getMessageManager().subscribedBoardIteratorSortedByName(mOwnIdentity); // TODO: Optimization: Use a non-sorting function.
-			while(boards.hasNext()) {
-				++boardCount;
-				
-				final SubscribedBoard board = boards.next();
-				row = boardsTable.addChild("tr");
-
-				HTMLNode nameCell = row.addChild("th", new String[] { "align" }, new String[] { "left" });
-				nameCell.addChild(new HTMLNode("a", "href", Freetalk.PLUGIN_URI + "/showBoard?identity=" + mOwnIdentity.getID() + "&name=" + board.getName(),
-						board.getName()));
-
-				/* Description */
-				row.addChild("td", new String[] { "align" }, new String[] { "center" },  board.getDescription());
-
-				/* Message count */
-				row.addChild("td", new String[] { "align" }, new String[] { "center" }, Integer.toString(board.messageCount()));
-				
-				/* Count unread messages + find latest message date */
-				final int unreadMessageCount = board.getUnreadMessageCount();
-				
-				MessageReference latestMessage;
-				String latestMessageDateString;
-				
-				try {
-					latestMessage = board.getLatestMessage();
-					latestMessageDateString = dateFormat.format(latestMessage.getMessageDate());
-				} catch (NoSuchMessageException e) {
-					latestMessage = null;
-			        latestMessageDateString = "-";
-				} 
-				
-			    /* Unread messages count, bold when there are unread messages */
-	            row.addChild((unreadMessageCount == 0) ? "td" : "th", new String[] { "align" }, new String[] { "center" }, Integer.toString(unreadMessageCount));
-
-			    /* Latest message date, bold when the latest message is unread */
-				row.addChild((latestMessage == null || latestMessage.wasRead()) ? "td" : "th", new String[] { "align" }, new String[] { "center" },
-						latestMessageDateString);
-			}
+		Iterator<SubscribedBoard> boards = mFreetalk.getMessageManager().subscribedBoardIteratorSortedByName(mOwnIdentity); // TODO: Optimization: Use a non-sorting function.
+		while(boards.hasNext()) {
+			++boardCount;
+			
+			final SubscribedBoard board = boards.next();
+			row = boardsTable.addChild("tr");
+
+			HTMLNode nameCell = row.addChild("th", new String[] { "align" }, new String[] { "left" });
+			nameCell.addChild(new HTMLNode("a", "href", Freetalk.PLUGIN_URI + "/showBoard?identity=" + mOwnIdentity.getID() + "&name=" + board.getName(),
+					board.getName()));
+
+			/* Description */
+			row.addChild("td", new String[] { "align" }, new String[] { "center" },  board.getDescription());
+
+			/* Message count */
+			row.addChild("td", new String[] { "align" }, new String[] { "center" }, Integer.toString(board.messageCount()));
+			
+			/* Count unread messages + find latest message date */
+			final int unreadMessageCount = board.getUnreadMessageCount();
+			
+			MessageReference latestMessage;
+			String latestMessageDateString;
+			
+			try {
+				latestMessage = board.getLatestMessage();
+				latestMessageDateString = dateFormat.format(latestMessage.getMessageDate());
+			} catch (NoSuchMessageException e) {
+				latestMessage = null;
+		        latestMessageDateString = "-";
+			} 
+			
+		    /* Unread messages count, bold when there are unread messages */
+            row.addChild((unreadMessageCount == 0) ? "td" : "th", new String[] { "align" }, new String[] { "center" }, Integer.toString(unreadMessageCount));
+
+		    /* Latest message date, bold when the latest message is unread */
+			row.addChild((latestMessage == null || latestMessage.wasRead()) ? "td" : "th", new String[] { "align" }, new String[] { "center" },
+					latestMessageDateString);
 		}
 
 		final String[] l10nLinkSubstitutionInput = new String[] { "link", "/link" };
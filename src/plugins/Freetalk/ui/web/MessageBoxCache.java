@@ -0,0 +1,225 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.ui.web;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Caches the rendered HTML of the message boxes of the {@link ThreadPage}.
+ *
+ * Rendering a message box is expensive: The message body has to be converted, the post count of the author has to be queried and the trust values
+ * of the author have to be queried from WoT. When a long thread is viewed again, usually only a few of its messages have changed, so the page
+ * only renders the boxes which are not in the cache.
+ *
+ * An entry is keyed by the viewer, the board, the thread, the message and the "was read"-flag, see {@link getKey}. It becomes invalid when:
+ * - The post count of the author changed, i.e. a message of the author was added or deleted. The page passes the current count to {@link get}.
+ * - The viewer changed a trust value or rating, see {@link invalidateViewer}.
+ * - The trust values were refreshed from WoT, see {@link onTrustValuesRefreshed}.
+ * - The language of the interface was changed, see {@link clear}.
+ *
+ * The cache is bounded by the approximate amount of memory which the entries use. If it is full, the least recently used entries are removed.
+ *
+ * To prevent outdated renderings from being stored after an invalidation which happened while they were being rendered, the page must obtain a
+ * ticket with {@link getTicket} before querying the data of a message box and pass it to {@link put}.
+ *
+ * All functions are synchronized on the cache and do not call any other objects so you can use it everywhere without causing deadlocks.
+ */
+public final class MessageBoxCache {
+
+	/**
+	 * The default maximal amount of memory which the entries of the cache use, in bytes.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * The approximate amount of memory which an entry uses in addition to the characters of its key and HTML, in bytes.
+	 */
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private static final class Entry {
+
+		private final String mHTML;
+
+		private final String mViewerID;
+
+		private final int mAuthorPostCount;
+
+		private final long mSize;
+
+		private Entry(String key, String html, String viewerID, int authorPostCount) {
+			mHTML = html;
+			mViewerID = viewerID;
+			mAuthorPostCount = authorPostCount;
+			mSize = 2 * (key.length() + html.length()) + ENTRY_OVERHEAD;
+		}
+	}
+
+	private final long mMaxSize;
+
+	/**
+	 * The entries in access order: The first entry is the least recently used one.
+	 */
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+
+	private long mSize = 0;
+
+	private long mNextTicket = 1;
+
+	/**
+	 * Renderings with a ticket which is not larger than this were started before the last call to {@link clear} and are not stored.
+	 */
+	private long mClearTicket = 0;
+
+	/**
+	 * Key = ID of a viewer, value = the ticket of the last call to {@link invalidateViewer} for it.
+	 */
+	private final HashMap<String, Long> mViewerInvalidationTickets = new HashMap<String, Long>();
+
+	/**
+	 * The time of the last refresh of the trust values which was passed to {@link onTrustValuesRefreshed}.
+	 */
+	private long mTrustRefreshTime = 0;
+
+	private long mHits = 0;
+
+	private long mMisses = 0;
+
+
+	public MessageBoxCache(long maxSize) {
+		if(maxSize <= 0)
+			throw new IllegalArgumentException("Invalid maximal size: " + maxSize);
+
+		mMaxSize = maxSize;
+	}
+
+	public static String getKey(String viewerID, String boardName, String threadID, String messageID, boolean wasRead) {
+		return viewerID + "|" + boardName + "|" + threadID + "|" + messageID + "|" + wasRead;
+	}
+
+	/**
+	 * Gets a ticket which must be passed to {@link put}. It must be obtained before the data of the message box is queried.
+	 */
+	public synchronized long getTicket() {
+		return mNextTicket++;
+	}
+
+	/**
+	 * @param authorPostCount The current number of messages of the author of the message.
+	 * @return The HTML of the message box or null if there is no valid entry.
+	 */
+	public synchronized String get(String key, int authorPostCount) {
+		final Entry entry = mEntries.get(key);
+
+		if(entry == null) {
+			++mMisses;
+			return null;
+		}
+
+		if(entry.mAuthorPostCount != authorPostCount) {
+			remove(key);
+			++mMisses;
+			return null;
+		}
+
+		++mHits;
+		return entry.mHTML;
+	}
+
+	/**
+	 * Stores the HTML of a message box. Does nothing if the cache was invalidated for the viewer after the ticket was obtained.
+	 *
+	 * @param authorPostCount The number of messages of the author of the message which was used for rendering.
+	 * @param ticket The ticket which was obtained with {@link getTicket} before rendering.
+	 */
+	public synchronized void put(String key, String viewerID, int authorPostCount, long ticket, String html) {
+		if(ticket <= mClearTicket)
+			return;
+
+		final Long invalidationTicket = mViewerInvalidationTickets.get(viewerID);
+		if(invalidationTicket != null && ticket <= invalidationTicket)
+			return;
+
+		final Entry entry = new Entry(key, html, viewerID, authorPostCount);
+
+		if(entry.mSize > mMaxSize)
+			return;
+
+		remove(key);
+		mEntries.put(key, entry);
+		mSize += entry.mSize;
+
+		final Iterator<Entry> iter = mEntries.values().iterator();
+		while(mSize > mMaxSize) {
+			mSize -= iter.next().mSize;
+			iter.remove();
+		}
+	}
+
+	private void remove(String key) {
+		final Entry entry = mEntries.remove(key);
+		if(entry != null)
+			mSize -= entry.mSize;
+	}
+
+	/**
+	 * Removes all entries of the given viewer. Must be called when the viewer changes a trust value or rates a message because that can change
+	 * the score of any identity in its trust tree and the rating buttons of the message.
+	 */
+	public synchronized void invalidateViewer(String viewerID) {
+		mViewerInvalidationTickets.put(viewerID, mNextTicket++);
+
+		final Iterator<Entry> iter = mEntries.values().iterator();
+		while(iter.hasNext()) {
+			final Entry entry = iter.next();
+			if(entry.mViewerID.equals(viewerID)) {
+				mSize -= entry.mSize;
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries if the trust values were refreshed from WoT since the last call, i.e. if the given time differs from the one of the
+	 * last call.
+	 *
+	 * @param refreshTime The time of the last refresh of the trust values.
+	 */
+	public synchronized void onTrustValuesRefreshed(long refreshTime) {
+		if(refreshTime == mTrustRefreshTime)
+			return;
+
+		mTrustRefreshTime = refreshTime;
+		clear();
+	}
+
+	/**
+	 * Removes all entries. Must be called when the language of the interface is changed.
+	 */
+	public synchronized void clear() {
+		mClearTicket = mNextTicket++;
+		mEntries.clear();
+		mSize = 0;
+	}
+
+	/**
+	 * @return The approximate amount of memory which the entries use, in bytes.
+	 */
+	public synchronized long getSize() {
+		return mSize;
+	}
+
+	public synchronized int getEntryCount() {
+		return mEntries.size();
+	}
+
+	public synchronized long getHits() {
+		return mHits;
+	}
+
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+}
@@ -59,20 +59,18 @@ public class MessagePage extends WebPageImpl {
 		try {
 			MessageManager messageManager = mFreetalk.getMessageManager();
 			
-			synchronized(messageManager) {
-				mMessage = messageManager.get(mMessageID);
-				
-				try {
-					mBoard = messageManager.getSubscription(mOwnIdentity, mBoardName);
-					mThread = mBoard.getThreadLink(mThreadID);
-				}
-				catch(NoSuchBoardException e) { }
-				catch(NoSuchMessageException e) { }
-				
-				makeBreadcrumbs();
-				
-				// ThreadPage.addMessageBox(mContentNode, mMessage);
+			mMessage = messageManager.get(mMessageID);
+			
+			try {
+				mBoard = messageManager.getSubscription(mOwnIdentity, mBoardName);
+				mThread = mBoard.getThreadLink(mThreadID);
 			}
+			catch(NoSuchBoardException e) { }
+			catch(NoSuchMessageException e) { }
+			
+			makeBreadcrumbs();
+			
+			// ThreadPage.addMessageBox(mContentNode, mMessage);
 			
 			
 		} catch(NoSuchMessageException e) {
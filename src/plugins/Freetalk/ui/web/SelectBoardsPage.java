@@ -100,67 +100,65 @@ public class SelectBoardsPage extends WebPageImpl {
 		
 		MessageManager messageManager = mFreetalk.getMessageManager(); 
 		
-		synchronized(messageManager) {
-			Iterator<Board> boards = messageManager.boardIteratorSortedByName();
+		Iterator<Board> boards = messageManager.boardIteratorSortedByName();
+		
+		while(boards.hasNext()) {
+			Board board = boards.next();
+			row = boardsTable.addChild("tr", "id", board.getName());
+
+			// Name
+			
+			HTMLNode nameCell = row.addChild("th", new String[] { "align" }, new String[] { "left" });
 			
-			while(boards.hasNext()) {
-				Board board = boards.next();
-				row = boardsTable.addChild("tr", "id", board.getName());
+			//.addChild(new HTMLNode("a", "href", Freetalk.PLUGIN_URI + "/SubscribeToBoard?identity=" + mOwnIdentity.getID() + "&name=" + board.getName(),
+			//		board.getName()));
 
-				// Name
-				
-				HTMLNode nameCell = row.addChild("th", new String[] { "align" }, new String[] { "left" });
-				
-				//.addChild(new HTMLNode("a", "href", Freetalk.PLUGIN_URI + "/SubscribeToBoard?identity=" + mOwnIdentity.getID() + "&name=" + board.getName(),
-				//		board.getName()));
+			// Description
+			row.addChild("td", new String[] { "align" }, new String[] { "center" },  board.getDescription(mOwnIdentity));
 
-				// Description
-				row.addChild("td", new String[] { "align" }, new String[] { "center" },  board.getDescription(mOwnIdentity));
+			// First seen
+			row.addChild("td", new String[] { "align" }, new String[] { "center" }, dateFormat.format(board.getFirstSeenDate()));
+			
+			// Latest message
+			HTMLNode latestMessageCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
+			
+			// Message count
+			HTMLNode messageCountCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
 
-				// First seen
-				row.addChild("td", new String[] { "align" }, new String[] { "center" }, dateFormat.format(board.getFirstSeenDate()));
+			HTMLNode subscribeCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
+			HTMLNode unsubscribeCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
+			
+			try {
+				SubscribedBoard subscribedBoard = messageManager.getSubscription(mOwnIdentity, board.getName());
 				
-				// Latest message
-				HTMLNode latestMessageCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
+				// We are subscribed to that board so we can display some more information.
 				
-				// Message count
-				HTMLNode messageCountCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
-
-				HTMLNode subscribeCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
-				HTMLNode unsubscribeCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
+				nameCell.addChild(new HTMLNode("a", "href", Freetalk.PLUGIN_URI + "/showBoard?identity=" + mOwnIdentity.getID() + "&name=" + board.getName(),
+						board.getName()));
 				
 				try {
-					SubscribedBoard subscribedBoard = messageManager.getSubscription(mOwnIdentity, board.getName());
-					
-					// We are subscribed to that board so we can display some more information.
-					
-					nameCell.addChild(new HTMLNode("a", "href", Freetalk.PLUGIN_URI + "/showBoard?identity=" + mOwnIdentity.getID() + "&name=" + board.getName(),
-							board.getName()));
-					
-					try {
-						latestMessageCell.addChild("#", dateFormat.format(subscribedBoard.getLatestMessage().getMessageDate()));
-					} catch(NoSuchMessageException e) {
-						latestMessageCell.addChild("#", "-");
-					}
-					
-					messageCountCell.addChild("#", Integer.toString(subscribedBoard.messageCount()));
-					
-					HTMLNode unsubscribeForm = addFormChild(unsubscribeCell, Freetalk.PLUGIN_URI + "/SelectBoards" + "#" + board.getName(), "Unsubscribe");
-					unsubscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "hidden", "OwnIdentityID", mOwnIdentity.getID()});
-					unsubscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "hidden", "BoardName", board.getName()});
-					unsubscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "submit", "Unsubscribe", l10n().getString("SelectBoardsPage.BoardTable.UnsubscribeButton") });
-				} catch(NoSuchBoardException e) {
-					// We are not subscribed to that board so we cannot fill all cells with information.
-					
-					nameCell.addChild("#", board.getName());
+					latestMessageCell.addChild("#", dateFormat.format(subscribedBoard.getLatestMessage().getMessageDate()));
+				} catch(NoSuchMessageException e) {
 					latestMessageCell.addChild("#", "-");
-					messageCountCell.addChild("#", "-");
-					
-					HTMLNode subscribeForm = addFormChild(subscribeCell, Freetalk.PLUGIN_URI + "/SelectBoards" + "#" + board.getName(), "Subscribe");
-					subscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "hidden", "OwnIdentityID", mOwnIdentity.getID()});
-					subscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "hidden", "BoardName", board.getName()});
-					subscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "submit", "Subscribe", l10n().getString("SelectBoardsPage.BoardTable.SubscribeButton") });
 				}
+				
+				messageCountCell.addChild("#", Integer.toString(subscribedBoard.messageCount()));
+				
+				HTMLNode unsubscribeForm = addFormChild(unsubscribeCell, Freetalk.PLUGIN_URI + "/SelectBoards" + "#" + board.getName(), "Unsubscribe");
+				unsubscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "hidden", "OwnIdentityID", mOwnIdentity.getID()});
+				unsubscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "hidden", "BoardName", board.getName()});
+				unsubscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "submit", "Unsubscribe", l10n().getString("SelectBoardsPage.BoardTable.UnsubscribeButton") });
+			} catch(NoSuchBoardException e) {
+				// We are not subscribed to that board so we cannot fill all cells with information.
+				
+				nameCell.addChild("#", board.getName());
+				latestMessageCell.addChild("#", "-");
+				messageCountCell.addChild("#", "-");
+				
+				HTMLNode subscribeForm = addFormChild(subscribeCell, Freetalk.PLUGIN_URI + "/SelectBoards" + "#" + board.getName(), "Subscribe");
+				subscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "hidden", "OwnIdentityID", mOwnIdentity.getID()});
+				subscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "hidden", "BoardName", board.getName()});
+				subscribeForm.addChild("input", new String[] {"type", "name", "value"}, new String[] { "submit", "Subscribe", l10n().getString("SelectBoardsPage.BoardTable.SubscribeButton") });
 			}
 		}
 	}
@@ -21,6 +21,10 @@ import freenet.support.api.HTTPRequest;
  */
 public class SettingsPage extends WebPageImpl {
 
+    private static final int MIN_THREADS_PER_PAGE = 1;
+
+    private static final int MAX_THREADS_PER_PAGE = 1000;
+
     public SettingsPage(WebInterface myWebInterface, FTOwnIdentity viewer, HTTPRequest request, BaseL10n _baseL10n) {
         super(myWebInterface, viewer, request, _baseL10n);
     }
@@ -35,6 +39,7 @@ public class SettingsPage extends WebPageImpl {
         if (mRequest.isPartSet("submit") && mRequest.getMethod().equals("POST")) {
             
             boolean enableNntpServer = mRequest.getPartAsString("EnableNntpServer", 4).equals("true");
+            boolean nntpServerNonBlocking = mRequest.getPartAsString("NntpServerNonBlocking", 4).equals("true");
             String nntpServerBindTo = mRequest.getPartAsString("nntpServerBindTo", 1024);
 			if ("127.0.0.1".equals(nntpServerBindTo)) {
 				nntpServerBindTo = null;
@@ -43,10 +48,20 @@ public class SettingsPage extends WebPageImpl {
 			if ("127.0.0.1".equals(nntpServerAllowedHosts)) {
 				nntpServerAllowedHosts = null;
 			}
+			int threadsPerPage;
+			try {
+				threadsPerPage = Integer.parseInt(mRequest.getPartAsString("BoardPageThreadsPerPage", 10).trim());
+				threadsPerPage = Math.max(MIN_THREADS_PER_PAGE, Math.min(threadsPerPage, MAX_THREADS_PER_PAGE));
+			}
+			catch (NumberFormatException e) {
+				threadsPerPage = mFreetalk.getConfig().getInt(Config.BOARD_PAGE_THREADS_PER_PAGE);
+			}
             synchronized (mFreetalk.getConfig()) {
                 mFreetalk.getConfig().set(Config.NNTP_SERVER_ENABLED, enableNntpServer);
+                mFreetalk.getConfig().set(Config.NNTP_SERVER_NON_BLOCKING, nntpServerNonBlocking);
                 mFreetalk.getConfig().set(Config.NNTP_SERVER_BINDTO, nntpServerBindTo);
                 mFreetalk.getConfig().set(Config.NNTP_SERVER_ALLOWED_HOSTS, nntpServerAllowedHosts);
+                mFreetalk.getConfig().set(Config.BOARD_PAGE_THREADS_PER_PAGE, threadsPerPage);
                 mFreetalk.getConfig().storeAndCommit();
             }
             
@@ -136,6 +151,17 @@ public class SettingsPage extends WebPageImpl {
 		}
 		item.addChild("input", new String[] { "type", "name", "value" }, new String[] { "text", "nntpServerAllowedHosts", allowedHosts });
 		item.addChild("span", "class", "configlongdesc", l10n().getString("SettingsPage.GlobalSettings.NNTPAllowedHosts.Long"));
+
+		item = list.addChild("li");
+		item.addChild("span", new String[] { "class", "title", "style" }, new String[] { "configshortdesc", booleanDefaultString(false), "cursor: help;" }, l10n().getString("SettingsPage.GlobalSettings.NNTPNonBlocking.Short"));
+		item.addChild("span", "class", "config");
+		item.addChild(addBooleanComboBox(mFreetalk.getConfig().getBoolean(Config.NNTP_SERVER_NON_BLOCKING), "NntpServerNonBlocking", false));
+		item.addChild("span", "class", "configlongdesc", l10n().getString("SettingsPage.GlobalSettings.NNTPNonBlocking.Long"));
+
+		item = list.addChild("li");
+		item.addChild("span", new String[] { "class", "title", "style" }, new String[] { "configshortdesc", defaultString("50"), "cursor: help;" }, l10n().getString("SettingsPage.GlobalSettings.BoardPageThreadsPerPage.Short"));
+		item.addChild("input", new String[] { "type", "name", "value" }, new String[] { "text", "BoardPageThreadsPerPage", Integer.toString(mFreetalk.getConfig().getInt(Config.BOARD_PAGE_THREADS_PER_PAGE)) });
+		item.addChild("span", "class", "configlongdesc", l10n().getString("SettingsPage.GlobalSettings.BoardPageThreadsPerPage.Long"));
     }
 
 	private String booleanDefaultString(boolean value) {
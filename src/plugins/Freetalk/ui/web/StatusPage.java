@@ -0,0 +1,95 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.ui.web;
+
+import plugins.Freetalk.FTOwnIdentity;
+import plugins.Freetalk.FetchConcurrencyController;
+import plugins.Freetalk.Freetalk;
+import freenet.clients.http.RedirectException;
+import freenet.l10n.BaseL10n;
+import freenet.support.HTMLNode;
+import freenet.support.api.HTTPRequest;
+
+/**
+ * Shows the state of the message fetcher and the message list fetcher: The current limit of parallel fetches of their
+ * {@link FetchConcurrencyController} and the latency histogram of the succeeded fetches.
+ */
+public final class StatusPage extends WebPageImpl {
+
+	public StatusPage(WebInterface myWebInterface, FTOwnIdentity viewer, HTTPRequest request, BaseL10n _baseL10n) {
+		super(myWebInterface, viewer, request, _baseL10n);
+	}
+
+	public void make() throws RedirectException {
+		makeBreadcrumbs();
+
+		if(mFreetalk.getMessageFetcher() != null)
+			makeFetcherBox(l10n().getString("StatusPage.MessageFetcher.Header"), mFreetalk.getMessageFetcher().getConcurrencyController());
+
+		if(mFreetalk.getMessageListFetcher() != null)
+			makeFetcherBox(l10n().getString("StatusPage.MessageListFetcher.Header"), mFreetalk.getMessageListFetcher().getConcurrencyController());
+	}
+
+	private void makeFetcherBox(String title, FetchConcurrencyController controller) {
+		final HTMLNode box = addContentBox(title);
+
+		// Copy the values first so that they are consistent, the controller is used by the fetcher concurrently.
+		final int limit;
+		final int runningFetchCount;
+		final long latencyTarget;
+		final long successCount;
+		final long failureCount;
+		final long decreaseCount;
+		final long[] histogram;
+
+		synchronized(controller) {
+			limit = controller.getLimit();
+			runningFetchCount = controller.getRunningFetchCount();
+			latencyTarget = controller.getLatencyTarget();
+			successCount = controller.getSuccessCount();
+			failureCount = controller.getFailureCount();
+			decreaseCount = controller.getDecreaseCount();
+			histogram = controller.getLatencyHistogram();
+		}
+
+		final HTMLNode list = box.addChild("ul");
+		list.addChild("li", l10n().getString("StatusPage.Fetcher.Limit", "limit", Integer.toString(limit)));
+		list.addChild("li", l10n().getString("StatusPage.Fetcher.Running", "count", Integer.toString(runningFetchCount)));
+		list.addChild("li", l10n().getString("StatusPage.Fetcher.LatencyTarget", "seconds", Long.toString(latencyTarget / 1000)));
+		list.addChild("li", l10n().getString("StatusPage.Fetcher.Succeeded", "count", Long.toString(successCount)));
+		list.addChild("li", l10n().getString("StatusPage.Fetcher.Failed", "count", Long.toString(failureCount)));
+		list.addChild("li", l10n().getString("StatusPage.Fetcher.Decreases", "count", Long.toString(decreaseCount)));
+
+		final HTMLNode table = box.addChild("table", "border", "0");
+		HTMLNode row = table.addChild("tr");
+		row.addChild("th", l10n().getString("StatusPage.Fetcher.LatencyTableHeader.Latency"));
+		row.addChild("th", l10n().getString("StatusPage.Fetcher.LatencyTableHeader.Fetches"));
+
+		for(int bucket = 0; bucket < histogram.length; ++bucket) {
+			final long upperBound = FetchConcurrencyController.getHistogramBucketUpperBound(bucket);
+			final String latency;
+
+			if(upperBound < 0) {
+				final long lowerBound = FetchConcurrencyController.getHistogramBucketUpperBound(bucket - 1);
+				latency = l10n().getString("StatusPage.Fetcher.LatencyAtLeast", "seconds", Long.toString(lowerBound / 1000));
+			} else
+				latency = l10n().getString("StatusPage.Fetcher.LatencyBelow", "seconds", Long.toString(upperBound / 1000));
+
+			row = table.addChild("tr");
+			row.addChild("td", latency);
+			row.addChild("td", new String[] { "align" }, new String[] { "right" }, Long.toString(histogram[bucket]));
+		}
+	}
+
+	private void makeBreadcrumbs() {
+		BreadcrumbTrail trail = new BreadcrumbTrail(l10n());
+		Welcome.addBreadcrumb(trail);
+		StatusPage.addBreadcrumb(trail);
+		mContentNode.addChild(trail.getHTMLNode());
+	}
+
+	public static void addBreadcrumb(BreadcrumbTrail trail) {
+		trail.addBreadcrumbInfo(trail.getL10n().getString("Breadcrumb.Status"), Freetalk.PLUGIN_URI + "/Status");
+	}
+}
@@ -4,12 +4,15 @@
 package plugins.Freetalk.ui.web;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import plugins.Freetalk.Board;
-import plugins.Freetalk.FTIdentity;
 import plugins.Freetalk.FTOwnIdentity;
 import plugins.Freetalk.Freetalk;
 import plugins.Freetalk.Message;
@@ -42,6 +45,29 @@ public final class ThreadPage extends WebPageImpl {
     private final String mThreadID;
     private BoardThreadLink mThread;
     private final boolean mMarktThreadAsUnread;
+    
+    /**
+     * The score, trust and trust counts of all authors of the thread. They are queried from WoT at once before the page is rendered
+     * instead of querying them for each message.
+     */
+    private Map<String, WoTIdentityManager.TrustValues> mTrustValues;
+    
+    private final MessageBoxCache mMessageBoxCache;
+    
+    /**
+     * The ticket which was obtained from the {@link MessageBoxCache} before the data of the message boxes was queried.
+     */
+    private long mMessageBoxCacheTicket;
+    
+    /**
+     * Key = message ID, value = the HTML of the message box of the message which was found in the {@link MessageBoxCache}.
+     */
+    private final HashMap<String, String> mCachedMessageBoxes = new HashMap<String, String>();
+    
+    /**
+     * Key = author ID, value = the number of messages of the author. Each count is only queried once per page, not for each message.
+     */
+    private final HashMap<String, Integer> mAuthorPostCounts = new HashMap<String, Integer>();
 
     private static final DateFormat mLocalDateFormat = DateFormat.getDateTimeInstance();
 
@@ -61,13 +87,17 @@ public final class ThreadPage extends WebPageImpl {
         
         mBoard = mFreetalk.getMessageManager().getSubscription(mOwnIdentity, boardName);
         mThreadID = threadID;
+        mMessageBoxCache = mWebInterface.getMessageBoxCache();
     }
 
     public final void make() {
+    	// Must be done before locking the board because the identity manager must be locked before the message manager and the board.
+    	mMessageBoxCache.onTrustValuesRefreshed(((WoTIdentityManager)mFreetalk.getIdentityManager()).getLastIdentityFetchTime());
+    	
 		try {
 			synchronized (mLocalDateFormat) {
         	
-        	// Normally, we would have to lock the MessageManager because we call storeAndCommit() on MessageReference objects:
+        	// Normally, we would have to lock the stripe of the board because we call storeAndCommit() on MessageReference objects:
         	// The board might be deleted between getSubscription() and the synchronized(mBoard) - the storeAndCommit() would result in orphan objects.
         	// BUT MessageReference.storeAndCommit() does a db.isStored() check and throws if the MessageReference is not stored anymore.
         	
@@ -81,6 +111,12 @@ public final class ThreadPage extends WebPageImpl {
         			mThread.storeAndCommit();
         		}
             	
+            	final ArrayList<BoardReplyLink> replies = new ArrayList<BoardReplyLink>();
+            	for(BoardReplyLink reference : mBoard.getAllThreadReplies(mThread.getThreadID(), true))
+            		replies.add(reference);
+            	
+            	lookUpCachedMessageBoxes(replies);
+            	
             	try {
             		Message threadMessage = mThread.getMessage();
             		
@@ -99,7 +135,7 @@ public final class ThreadPage extends WebPageImpl {
 	            	mThread.storeAndCommit();
         		}
 
-                for(BoardReplyLink reference : mBoard.getAllThreadReplies(mThread.getThreadID(), true)) {
+                for(BoardReplyLink reference : replies) {
                 	if(mMarktThreadAsUnread && reference.wasRead()) { // If requested, mark the messages of the thread as unread
                     	reference.markAsUnread();
                      	reference.storeAndCommit();
@@ -136,6 +172,64 @@ public final class ThreadPage extends WebPageImpl {
         }
     }
     
+    /**
+     * Looks up the message boxes of the thread message and the given replies in the {@link MessageBoxCache}.
+     * Queries the trust values of the authors of the messages whose box is not cached from WoT with a single batch query.
+     */
+    private void lookUpCachedMessageBoxes(ArrayList<BoardReplyLink> replies) {
+    	mMessageBoxCacheTicket = mMessageBoxCache.getTicket();
+    	
+    	final ArrayList<WoTIdentity> authors = new ArrayList<WoTIdentity>(replies.size() + 1);
+    	
+    	try {
+    		lookUpCachedMessageBox(mThread.getMessage(), mThread.wasRead(), authors);
+    	}
+    	catch(MessageNotFetchedException e) { }
+    	
+    	for(BoardReplyLink reference : replies) {
+    		try {
+    			// If requested, the replies are marked as unread before they are displayed.
+    			lookUpCachedMessageBox(reference.getMessage(), !mMarktThreadAsUnread && reference.wasRead(), authors);
+    		} catch(NoSuchMessageException e) {
+    			throw new RuntimeException(e); // getMessage() should never fail for BoardReplyLink.
+    		}
+    	}
+    	
+    	if(authors.size() > 0)
+    		mTrustValues = ((WoTIdentityManager)mFreetalk.getIdentityManager()).getTrustValues((WoTOwnIdentity)mOwnIdentity, authors);
+    	else
+    		mTrustValues = Collections.emptyMap();
+    }
+    
+    /**
+     * @param wasRead The "was read"-flag which the reference to the message will have when the message is displayed.
+     * @param uncachedAuthors The author of the message is added to this list if its message box is not cached.
+     */
+    private void lookUpCachedMessageBox(Message message, boolean wasRead, ArrayList<WoTIdentity> uncachedAuthors) {
+    	final WoTIdentity author = (WoTIdentity)message.getAuthor();
+    	final String html = mMessageBoxCache.get(getMessageBoxCacheKey(message, wasRead), getAuthorPostCount(author));
+    	
+    	if(html != null)
+    		mCachedMessageBoxes.put(message.getID(), html);
+    	else
+    		uncachedAuthors.add(author);
+    }
+    
+    private String getMessageBoxCacheKey(Message message, boolean wasRead) {
+    	return MessageBoxCache.getKey(mOwnIdentity.getID(), mBoard.getName(), mThread.getThreadID(), message.getID(), wasRead);
+    }
+    
+    private int getAuthorPostCount(WoTIdentity author) {
+    	Integer count = mAuthorPostCounts.get(author.getID());
+    	
+    	if(count == null) {
+    		count = mFreetalk.getMessageManager().getMessageCountBy(author);
+    		mAuthorPostCounts.put(author.getID(), count);
+    	}
+    	
+    	return count;
+    }
+    
     private void addThreadNotDownloadedWarning(BoardThreadLink ref) {
         HTMLNode table = mContentNode.addChild("table", new String[] {"border", "width" }, new String[] { "0", "100%" });
         HTMLNode row = table.addChild("tr");
@@ -195,7 +289,8 @@ public final class ThreadPage extends WebPageImpl {
     }
 
     /**
-     * Shows the given message.
+     * Shows the given message. Uses the HTML from the {@link MessageBoxCache} if it was found by {@link lookUpCachedMessageBoxes}, otherwise
+     * renders the message box and stores it in the cache.
      * 
      * You have to synchronize on mLocalDateFormat when using this function
      * 
@@ -203,19 +298,31 @@ public final class ThreadPage extends WebPageImpl {
      * @param ref A reference to the message which is to be displayed. Can be null, then the "message was read?" information will be unavailable. 
      */
     private void addMessageBox(Message message, MessageReference ref) {
+    	String html = mCachedMessageBoxes.get(message.getID());
+    	
+    	if(html == null) {
+    		html = makeMessageBox(message, ref).generate();
+    		mMessageBoxCache.put(getMessageBoxCacheKey(message, ref == null || ref.wasRead()), mOwnIdentity.getID(),
+    				getAuthorPostCount((WoTIdentity)message.getAuthor()), mMessageBoxCacheTicket, html);
+    	}
     	
+    	mContentNode.addChild("%", html);
+    }
+    
+    private HTMLNode makeMessageBox(Message message, MessageReference ref) {
     	final WoTIdentity author = (WoTIdentity)message.getAuthor();
+    	final WoTIdentityManager.TrustValues trustValues = mTrustValues.get(author.getID());
 
-		HTMLNode table = mContentNode.addChild("table", new String[] { "border", "width", "class" }, new String[] { "0", "100%", "message" });
+		final HTMLNode table = new HTMLNode("table", new String[] { "border", "width", "class" }, new String[] { "0", "100%", "message" });
 		HTMLNode row = table.addChild("tr", "class", "message");
 		HTMLNode authorNode = row.addChild("td", new String[] { "align", "valign", "rowspan", "width", "class" }, new String[] { "left", "top", "2", "15%", "author" }, "");
 		authorNode.addChild("a", new String[] { "class", "href", "title" }, new String[] { "identity-link", "/WoT/ShowIdentity?id=" + author.getID(), "Web of Trust Page" }).addChild("abbr", new String[] { "title" }, new String[] { message.getAuthor().getID() }).addChild("span", "class", "name", message.getAuthor().getShortestUniqueName());
         authorNode.addChild("br");
-        authorNode.addChild("#", l10n().getString("ThreadPage.Author.Posts") + ": " + mFreetalk.getMessageManager().getMessagesBy(author).size());
+        authorNode.addChild("#", l10n().getString("ThreadPage.Author.Posts") + ": " + getAuthorPostCount(author));
         authorNode.addChild("br");
         authorNode.addChild("#", l10n().getString("ThreadPage.Author.TrustersCount") + ": ");
         try {
-        	addTrustersInfo(authorNode, author);
+        	addTrustersInfo(authorNode, trustValues);
         }
         catch(Exception e) {
         	Logger.error(this, "addTrustersInfo() failed", e);
@@ -225,7 +332,7 @@ public final class ThreadPage extends WebPageImpl {
         authorNode.addChild("br");
         authorNode.addChild("#", l10n().getString("ThreadPage.Author.TrusteesCount") + ": ");
         try {
-        	addTrusteesInfo(authorNode, author);
+        	addTrusteesInfo(authorNode, trustValues);
         }
         catch(Exception e) {
         	Logger.error(this, "addTrusteesInfo() failed", e);
@@ -245,7 +352,7 @@ public final class ThreadPage extends WebPageImpl {
 	        
 	        String trust;
 	        try {
-	            intTrust = ((WoTOwnIdentity)mOwnIdentity).getTrustIn(author);
+	            intTrust = (int)trustValues.getTrust();
 	            trust = Integer.toString(intTrust); 
 	        } catch (NotTrustedException e) {
 	            trust = l10n().getString("ThreadPage.Author.YourTrustNone");
@@ -262,7 +369,7 @@ public final class ThreadPage extends WebPageImpl {
 	        
 	        String txtScore;
 	        try {
-	        	final int score = ((WoTIdentityManager)mFreetalk.getIdentityManager()).getScore((WoTOwnIdentity)mOwnIdentity, author);
+	        	final int score = trustValues.getScore();
 	        	txtScore = Integer.toString(score);
 	        } catch(NotInTrustTreeException e) {
 	        	txtScore = l10n().getString("Common.WebOfTrust.ScoreNull");
@@ -309,13 +416,13 @@ public final class ThreadPage extends WebPageImpl {
         String messageBody = message.getText();
         text.addChild(convertMessageBody(messageBody, null));
         addReplyButton(text, message);
+        
+        return table;
     }
 
-    private void addTrustersInfo(HTMLNode parent, FTIdentity author) throws Exception {
-    	WoTIdentityManager identityManager = (WoTIdentityManager)mFreetalk.getIdentityManager();
-
-        int trustedBy = identityManager.getReceivedTrustsCount(author, 1);
-        int distrustedBy = identityManager.getReceivedTrustsCount(author, -1);
+    private void addTrustersInfo(HTMLNode parent, WoTIdentityManager.TrustValues trustValues) throws Exception {
+        int trustedBy = trustValues.getReceivedTrustsCount(1);
+        int distrustedBy = trustValues.getReceivedTrustsCount(-1);
 
         parent.addChild("abbr", new String[]{"title", "class"}, new String[]{ l10n().getString("Common.WebOfTrust.TrustedByCount.Description"), "trust-count"},
         		String.valueOf(trustedBy));
@@ -326,11 +433,9 @@ public final class ThreadPage extends WebPageImpl {
         		String.valueOf(distrustedBy));
     }
     
-    private void addTrusteesInfo(HTMLNode parent, FTIdentity author) throws Exception {
-    	WoTIdentityManager identityManager = (WoTIdentityManager)mFreetalk.getIdentityManager();
-
-        int trustsCount = identityManager.getGivenTrustsCount(author, 1);
-        int distrustsCount = identityManager.getGivenTrustsCount(author, -1);
+    private void addTrusteesInfo(HTMLNode parent, WoTIdentityManager.TrustValues trustValues) throws Exception {
+        int trustsCount = trustValues.getGivenTrustsCount(1);
+        int distrustsCount = trustValues.getGivenTrustsCount(-1);
 
         parent.addChild("abbr", new String[]{"title", "class"},
         		new String[]{ l10n().getString("Common.WebOfTrust.PositiveGivenTrustsCount.Description"), "trust-count"}, 
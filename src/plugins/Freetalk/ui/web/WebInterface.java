@@ -54,12 +54,15 @@ public final class WebInterface {
 	
 	private final SessionManager mSessionManager;
 	
+	private final MessageBoxCache mMessageBoxCache = new MessageBoxCache(MessageBoxCache.DEFAULT_MAX_SIZE);
+	
 	// Visible
 	private final WebInterfaceToadlet homeToadlet;
 	private final WebInterfaceToadlet subscribedBoardsToadlet;
 	private final WebInterfaceToadlet selectBoardsToadlet;
 	private final WebInterfaceToadlet identitiesToadlet;
 	private final WebInterfaceToadlet settingsToadlet;
+	private final WebInterfaceToadlet statusToadlet;
 	private final WebInterfaceToadlet logOutToadlet;
 	
 	// Invisible
@@ -186,6 +189,25 @@ public final class WebInterface {
 	    }
 	}
 	
+	class StatusWebInterfaceToadlet extends WebInterfaceToadlet {
+		
+		protected StatusWebInterfaceToadlet(HighLevelSimpleClient client, WebInterface wi, NodeClientCore core, String pageTitle) {
+			super(client, wi, core, pageTitle);
+		}
+		
+		@Override
+		WebPage makeWebPage(HTTPRequest req, ToadletContext context) throws RedirectException {
+			if(!mFreetalk.wotConnected())
+				return new WoTIsMissingPage(webInterface, req, mFreetalk.wotOutdated(), l10n());
+			return new StatusPage(webInterface, getLoggedInOwnIdentity(context), req, l10n());
+		}
+		
+		@Override
+		public boolean isEnabled(ToadletContext ctx) {
+			return super.isEnabled(ctx) && mSessionManager.sessionExists(ctx);
+		}
+	}
+	
 	protected final URI logIn;
 	
 	class LogOutWebInterfaceToadlet extends WebInterfaceToadlet {
@@ -276,15 +298,18 @@ public final class WebInterface {
 					boolean removeRating = request.getPartAsString("RemoveRating", 16).equals("true");
 					
 					try {						
-						synchronized (messageManager) {
+						WoTMessage message = (WoTMessage)messageManager.get(request.getPartAsString("MessageID", 128));
+						synchronized(messageManager.getIdentityLock(message.getAuthor())) {
 						synchronized(own) {
-							WoTMessage message = (WoTMessage)messageManager.get(request.getPartAsString("MessageID", 128));
 							if(removeRating)
 								messageManager.deleteMessageRating(messageManager.getMessageRating(own, message));
 							else
 								messageManager.rateMessage(own, message, Byte.parseByte(request.getPartAsString("TrustChange", 5)));
 						}
 						}
+						
+						// Rating changes the trust value of the author and therefore possibly the scores of all identities in the trust tree
+						mMessageBoxCache.invalidateViewer(own.getID());
 					} catch (NoSuchMessageException e) {
 						errorPage = new ErrorPage(webInterface, own, request, "Rating the message failed", e, l10n());
 					}
@@ -666,6 +691,7 @@ public final class WebInterface {
 		selectBoardsToadlet = new SelectBoardsWebInterfaceToadlet(null, this, clientCore, "SelectBoards");
 		identitiesToadlet = new IdentitiesWebInterfaceToadlet(null, this, clientCore, "identities");
 		settingsToadlet = new SettingsWebInterfaceToadlet(null, this, clientCore, "Settings");
+		statusToadlet = new StatusWebInterfaceToadlet(null, this, clientCore, "Status");
 		logOutToadlet = new LogOutWebInterfaceToadlet(null, this, clientCore, "LogOut");
 
 		container.register(homeToadlet, "WebInterface.DiscussionMenuName", Freetalk.PLUGIN_URI+"/", true, "WebInterface.DiscussionMenuItem.Home", "WebInterface.DiscussionMenuItem.Home.Tooltip", false, homeToadlet);
@@ -674,6 +700,7 @@ public final class WebInterface {
 		container.register(selectBoardsToadlet, "WebInterface.DiscussionMenuName", Freetalk.PLUGIN_URI+"/SelectBoards", true, "WebInterface.DiscussionMenuItem.SelectBoards", "WebInterface.DiscussionMenuItem.SelectBoards.Tooltip", false, selectBoardsToadlet);
 		container.register(identitiesToadlet, "WebInterface.DiscussionMenuName", Freetalk.PLUGIN_URI+"/identities", true, "WebInterface.DiscussionMenuItem.Identities", "WebInterface.DiscussionMenuItem.Identities.Tooltip", false, identitiesToadlet);
 		container.register(settingsToadlet, "WebInterface.DiscussionMenuName", Freetalk.PLUGIN_URI+"/Settings", true, "WebInterface.DiscussionMenuItem.Settings", "WebInterface.DiscussionMenuItem.Settings.Tooltip", false, settingsToadlet);
+		container.register(statusToadlet, "WebInterface.DiscussionMenuName", Freetalk.PLUGIN_URI+"/Status", true, "WebInterface.DiscussionMenuItem.Status", "WebInterface.DiscussionMenuItem.Status.Tooltip", false, statusToadlet);
 		container.register(logOutToadlet, "WebInterface.DiscussionMenuName", Freetalk.PLUGIN_URI+"/LogOut", true, "WebInterface.DiscussionMenuItem.LogOut", "WebInterface.DiscussionMenuItem.LogOut.Tooltip", false, logOutToadlet);
 		
 		// Invisible pages
@@ -710,6 +737,10 @@ public final class WebInterface {
 		return mPageMaker;
 	}
 	
+	public final MessageBoxCache getMessageBoxCache() {
+		return mMessageBoxCache;
+	}
+	
 	public void terminate() {
 		ToadletContainer container = mFreetalk.getPluginRespirator().getToadletContainer();
 		for(Toadlet t : new Toadlet[] { 
@@ -718,6 +749,7 @@ public final class WebInterface {
 				selectBoardsToadlet,
 				identitiesToadlet,
 				settingsToadlet,
+				statusToadlet,
 				logOutToadlet,
 				logInToadlet,
 				createIdentityToadlet,
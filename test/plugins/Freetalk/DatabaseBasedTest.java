@@ -8,6 +8,7 @@ import java.io.File;
 import junit.framework.TestCase;
 
 import com.db4o.Db4o;
+import com.db4o.config.Configuration;
 import com.db4o.ext.ExtObjectContainer;
 
 /**
@@ -48,8 +49,10 @@ public class DatabaseBasedTest extends TestCase {
 		assertFalse(databaseFile.exists());
 
 		
-		db = Db4o.openFile(getDatabaseFilename()).ext();
-		db.configure().exceptionsOnNotStorable(true);
+		Configuration cfg = Db4o.newConfiguration();
+		cfg.exceptionsOnNotStorable(true);
+		cfg.activationDepth(1); // Same as Freetalk.openDatabase(): The Persistent classes must activate themselves.
+		db = Db4o.openFile(cfg, getDatabaseFilename()).ext();
 	}
 
 	/**
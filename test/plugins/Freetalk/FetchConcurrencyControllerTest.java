@@ -0,0 +1,324 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+import plugins.Freetalk.FetchConcurrencyController.Result;
+
+public class FetchConcurrencyControllerTest extends TestCase {
+
+	private static final long SECOND = 1000;
+
+	private static final long LATENCY_TARGET = 60 * SECOND;
+
+	/** A latency which counts as timed out. */
+	private static final long TIMEOUT = LATENCY_TARGET * FetchConcurrencyController.TIMEOUT_FACTOR + 1;
+
+	private FetchConcurrencyController mController;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mController = new FetchConcurrencyController(2, 8, 64, LATENCY_TARGET);
+	}
+
+	public void testInvalidArguments() {
+		try {
+			new FetchConcurrencyController(0, 8, 64, LATENCY_TARGET);
+			fail("Minimal limit of 0 was accepted");
+		} catch(IllegalArgumentException e) { }
+
+		try {
+			new FetchConcurrencyController(2, 128, 64, LATENCY_TARGET);
+			fail("Initial limit above maximal limit was accepted");
+		} catch(IllegalArgumentException e) { }
+
+		try {
+			new FetchConcurrencyController(2, 8, 64, 0);
+			fail("Latency target of 0 was accepted");
+		} catch(IllegalArgumentException e) { }
+	}
+
+	public void testCanStartFetch() {
+		assertTrue(mController.canStartFetch(7, 0));
+		assertFalse(mController.canStartFetch(8, 0));
+	}
+
+	public void testRunningFetchTimeout() {
+		final Object[] fetches = new Object[2];
+		for(int i = 0; i < fetches.length; ++i) {
+			fetches[i] = new Object();
+			mController.onFetchStarted(fetches[i], 0);
+		}
+
+		// Before the timeout the running fetches do not change the limit
+		assertTrue(mController.canStartFetch(2, TIMEOUT - 1));
+		assertEquals(8, mController.getLimit());
+		assertEquals(0, mController.getFailureCount());
+
+		// Afterwards they count as failed even though they did not finish, and halve the limit once
+		assertTrue(mController.canStartFetch(2, TIMEOUT));
+		assertEquals(4, mController.getLimit());
+		assertEquals(2, mController.getFailureCount());
+		assertEquals(1, mController.getDecreaseCount());
+		assertEquals(2, mController.getRunningFetchCount());
+
+		// They are counted once: Neither further checks nor their completion count them again
+		final Object fetch = new Object();
+		mController.onFetchStarted(fetch, 2 * TIMEOUT);
+		mController.onFetchFinished(fetches[0], Result.Success, 2 * TIMEOUT);
+		mController.onFetchFinished(fetches[1], Result.Overload, 2 * TIMEOUT);
+		assertEquals(4, mController.getLimit());
+		assertEquals(2, mController.getFailureCount());
+		assertEquals(0, mController.getSuccessCount());
+		assertEquals(1, mController.getDecreaseCount());
+		assertEquals(1, mController.getRunningFetchCount());
+
+		// The latency of the late success is still added to the histogram
+		long histogramSum = 0;
+		for(long count : mController.getLatencyHistogram())
+			histogramSum += count;
+		assertEquals(1, histogramSum);
+
+		// A fetch which is started later and times out while running halves the limit again
+		mController.onFetchStarted(new Object(), 3 * TIMEOUT);
+		assertEquals(2, mController.getLimit());
+		assertEquals(3, mController.getFailureCount());
+	}
+
+	public void testAdditiveIncrease() {
+		// Each fast fetch increases the limit of 8 by about 1/8
+		for(int i = 0; i < 9; ++i) {
+			final Object fetch = new Object();
+			mController.onFetchStarted(fetch, 0);
+			mController.onFetchFinished(fetch, Result.Success, SECOND);
+		}
+
+		assertEquals(9, mController.getLimit());
+		assertEquals(9, mController.getSuccessCount());
+		assertEquals(0, mController.getRunningFetchCount());
+
+		// Slow fetches below the timeout do not change it
+		for(int i = 0; i < 20; ++i) {
+			final Object fetch = new Object();
+			mController.onFetchStarted(fetch, 0);
+			mController.onFetchFinished(fetch, Result.Success, 2 * LATENCY_TARGET);
+		}
+
+		assertEquals(9, mController.getLimit());
+		assertEquals(0, mController.getDecreaseCount());
+	}
+
+	public void testMaximalLimit() {
+		for(int i = 0; i < 10000; ++i) {
+			final Object fetch = new Object();
+			mController.onFetchStarted(fetch, 0);
+			mController.onFetchFinished(fetch, Result.Success, SECOND);
+		}
+
+		assertEquals(64, mController.getLimit());
+	}
+
+	public void testDecreaseOncePerWindow() {
+		final Object[] fetches = new Object[4];
+		for(int i = 0; i < fetches.length; ++i) {
+			fetches[i] = new Object();
+			mController.onFetchStarted(fetches[i], 0);
+		}
+
+		// The first overload halves the limit, the others were started before the decrease and do not halve it again
+		mController.onFetchFinished(fetches[0], Result.Overload, SECOND);
+		mController.onFetchFinished(fetches[1], Result.Overload, 2 * SECOND);
+		mController.onFetchFinished(fetches[2], Result.Success, TIMEOUT);
+		assertEquals(4, mController.getLimit());
+		assertEquals(1, mController.getDecreaseCount());
+
+		// A fetch which is started afterwards and times out halves it again
+		final Object fetch = new Object();
+		mController.onFetchStarted(fetch, 3 * SECOND);
+		mController.onFetchFinished(fetch, Result.Success, 3 * SECOND + TIMEOUT);
+		assertEquals(2, mController.getLimit());
+
+		// The limit is not decreased below the minimum
+		mController.onFetchFinished(fetches[3], Result.Overload, 3 * SECOND + TIMEOUT);
+		final Object fetch2 = new Object();
+		mController.onFetchStarted(fetch2, 4 * SECOND + TIMEOUT);
+		mController.onFetchFinished(fetch2, Result.Overload, 5 * SECOND + TIMEOUT);
+		assertEquals(2, mController.getLimit());
+	}
+
+	public void testDataNotFoundBurst() {
+		for(int i = 0; i < FetchConcurrencyController.DATA_NOT_FOUND_BURST_SIZE - 1; ++i) {
+			final Object fetch = new Object();
+			mController.onFetchStarted(fetch, i);
+			mController.onFetchFinished(fetch, Result.DataNotFound, i + SECOND);
+		}
+
+		assertEquals(8, mController.getLimit());
+
+		// A success in between resets the burst
+		Object fetch = new Object();
+		mController.onFetchStarted(fetch, 0);
+		mController.onFetchFinished(fetch, Result.Success, 2 * LATENCY_TARGET);
+
+		for(int i = 0; i < FetchConcurrencyController.DATA_NOT_FOUND_BURST_SIZE - 1; ++i) {
+			fetch = new Object();
+			mController.onFetchStarted(fetch, i);
+			mController.onFetchFinished(fetch, Result.DataNotFound, i + SECOND);
+		}
+
+		assertEquals(8, mController.getLimit());
+
+		fetch = new Object();
+		mController.onFetchStarted(fetch, 0);
+		mController.onFetchFinished(fetch, Result.DataNotFound, SECOND);
+
+		assertEquals(4, mController.getLimit());
+		assertEquals(2 * FetchConcurrencyController.DATA_NOT_FOUND_BURST_SIZE - 1, mController.getFailureCount());
+	}
+
+	public void testIgnoredResults() {
+		final Object fetch = new Object();
+		mController.onFetchStarted(fetch, 0);
+		mController.onFetchFinished(fetch, Result.Cancelled, TIMEOUT);
+		// Not running anymore
+		mController.onFetchFinished(fetch, Result.Overload, TIMEOUT);
+		// Never started
+		mController.onFetchFinished(new Object(), Result.Overload, TIMEOUT);
+
+		final Object fetch2 = new Object();
+		mController.onFetchStarted(fetch2, 0);
+		mController.onFetchFinished(fetch2, Result.Failure, SECOND);
+
+		final Object fetch3 = new Object();
+		mController.onFetchStarted(fetch3, 0);
+		mController.onAllFetchesAborted();
+		mController.onFetchFinished(fetch3, Result.Overload, SECOND);
+
+		assertEquals(8, mController.getLimit());
+		assertEquals(0, mController.getDecreaseCount());
+		assertEquals(1, mController.getFailureCount());
+		assertEquals(0, mController.getRunningFetchCount());
+	}
+
+	public void testLatencyHistogram() {
+		final long[] latencies = { 0, 999, 1000, 3 * SECOND, 100 * SECOND, 10000 * SECOND };
+
+		for(long latency : latencies) {
+			final Object fetch = new Object();
+			mController.onFetchStarted(fetch, 0);
+			mController.onFetchFinished(fetch, Result.Success, latency);
+		}
+
+		final long[] histogram = mController.getLatencyHistogram();
+		assertEquals(FetchConcurrencyController.HISTOGRAM_BUCKET_COUNT, histogram.length);
+		assertEquals(2, histogram[0]); // < 1s
+		assertEquals(1, histogram[1]); // < 2s
+		assertEquals(1, histogram[2]); // < 4s
+		assertEquals(1, histogram[7]); // < 128s
+		assertEquals(1, histogram[histogram.length - 1]);
+
+		assertEquals(1000, FetchConcurrencyController.getHistogramBucketUpperBound(0));
+		assertEquals(-1, FetchConcurrencyController.getHistogramBucketUpperBound(FetchConcurrencyController.HISTOGRAM_BUCKET_COUNT - 1));
+	}
+
+	/**
+	 * A simulated node: Completes each fetch after a base latency. If more fetches are running than its capacity, the latency grows with the
+	 * overload and fetches are rejected because of overload with a probability which also grows with it.
+	 */
+	private static final class SimulatedBackend {
+
+		private static final class Fetch {
+			final long mEnd;
+			final Result mResult;
+
+			Fetch(long end, Result result) {
+				mEnd = end;
+				mResult = result;
+			}
+		}
+
+		private final int mCapacity;
+
+		private final long mBaseLatency;
+
+		private final ArrayList<Fetch> mRunning = new ArrayList<Fetch>();
+
+		private long mSeed = 42;
+
+		SimulatedBackend(int capacity, long baseLatency) {
+			mCapacity = capacity;
+			mBaseLatency = baseLatency;
+		}
+
+		/** A deterministic pseudo random number in [0, 1) so that the test is reproducible. */
+		private double random() {
+			mSeed = (mSeed * 0x5DEECE66DL + 0xBL) & ((1L << 48) - 1);
+			return (double)(mSeed >>> 17) / (1L << 31);
+		}
+
+		Fetch start(long now) {
+			final int load = mRunning.size() + 1;
+			final double overload = Math.max((double)load / mCapacity, 1);
+			final long latency = (long)(mBaseLatency * overload * overload * (0.5 + random()));
+			final Result result = (overload > 1 && random() < (overload - 1) / 4) ? Result.Overload : Result.Success;
+
+			final Fetch fetch = new Fetch(now + latency, result);
+			mRunning.add(fetch);
+			return fetch;
+		}
+
+		int runningCount() {
+			return mRunning.size();
+		}
+	}
+
+	/**
+	 * Runs a fetcher with the controller against a simulated node and checks that the limit settles near the capacity of the node.
+	 */
+	private void runSimulation(int capacity, long baseLatency) {
+		final SimulatedBackend backend = new SimulatedBackend(capacity, baseLatency);
+		final long step = SECOND;
+		final long duration = 12 * 60 * 60 * SECOND;
+
+		long limitSum = 0;
+		int samples = 0;
+
+		for(long now = 0; now < duration; now += step) {
+			final Iterator<SimulatedBackend.Fetch> iter = backend.mRunning.iterator();
+			while(iter.hasNext()) {
+				final SimulatedBackend.Fetch fetch = iter.next();
+				if(fetch.mEnd <= now) {
+					iter.remove();
+					mController.onFetchFinished(fetch, fetch.mResult, now);
+				}
+			}
+
+			while(mController.canStartFetch(backend.runningCount(), now))
+				mController.onFetchStarted(backend.start(now), now);
+
+			// Ignore the first hour, the controller needs time to converge
+			if(now >= 60 * 60 * SECOND) {
+				limitSum += mController.getLimit();
+				++samples;
+			}
+		}
+
+		final double averageLimit = (double)limitSum / samples;
+		assertTrue("Average limit " + averageLimit + " too low for capacity " + capacity, averageLimit >= capacity / 2.0);
+		assertTrue("Average limit " + averageLimit + " too high for capacity " + capacity, averageLimit <= capacity * 2.0);
+		assertTrue(mController.getDecreaseCount() > 0);
+	}
+
+	public void testSimulatedFastNode() {
+		runSimulation(32, 5 * SECOND);
+	}
+
+	public void testSimulatedSlowNode() {
+		runSimulation(6, 20 * SECOND);
+	}
+}
@@ -0,0 +1,120 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class LockStripesTest extends TestCase {
+
+	private LockStripes mStripes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mStripes = new LockStripes(16);
+	}
+
+	public void testInvalidStripeCount() {
+		try {
+			new LockStripes(0);
+			fail("Stripe count of 0 was accepted");
+		} catch(IllegalArgumentException e) { }
+
+		try {
+			new LockStripes(12);
+			fail("Stripe count which is no power of two was accepted");
+		} catch(IllegalArgumentException e) { }
+
+		assertEquals(1, new LockStripes(1).getStripeCount());
+	}
+
+	public void testSameKeySameStripe() {
+		for(int i = 0; i < 100; ++i) {
+			final String key = "en.board" + i;
+			assertSame(mStripes.get(key), mStripes.get(new String(key)));
+
+			final int index = mStripes.getStripeIndex(key);
+			assertTrue(index >= 0 && index < mStripes.getStripeCount());
+			assertSame(mStripes.getStripe(index), mStripes.get(key));
+		}
+	}
+
+	public void testKeysAreSpread() {
+		final boolean[] used = new boolean[mStripes.getStripeCount()];
+		for(int i = 0; i < 1000; ++i)
+			used[mStripes.getStripeIndex("en.board" + i)] = true;
+
+		for(int i = 0; i < used.length; ++i)
+			assertTrue("Stripe " + i + " is not used", used[i]);
+	}
+
+	public void testStripeIndices() {
+		final ArrayList<String> keys = new ArrayList<String>();
+		for(int i = 0; i < 100; ++i) {
+			keys.add("identity" + i);
+			keys.add("identity" + i); // Duplicates must not result in duplicate indices
+		}
+
+		final int[] indices = mStripes.getStripeIndices(keys);
+		assertTrue(indices.length <= mStripes.getStripeCount());
+
+		for(int i = 1; i < indices.length; ++i)
+			assertTrue("Indices are not sorted and distinct: " + Arrays.toString(indices), indices[i - 1] < indices[i]);
+
+		for(String key : keys)
+			assertTrue(Arrays.binarySearch(indices, mStripes.getStripeIndex(key)) >= 0);
+	}
+
+	/**
+	 * Tests whether a thread which holds the stripe of a key does not block threads which lock the stripe of a key in a different stripe.
+	 */
+	public void testDifferentStripesDoNotBlock() throws InterruptedException {
+		final String blockedKey = "en.blocked";
+		String freeKey = null;
+		for(int i = 0; freeKey == null; ++i) {
+			if(mStripes.getStripeIndex("en.free" + i) != mStripes.getStripeIndex(blockedKey))
+				freeKey = "en.free" + i;
+		}
+
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Thread holder = new Thread() {
+			public void run() {
+				synchronized(mStripes.get(blockedKey)) {
+					locked.countDown();
+					try {
+						release.await();
+					} catch(InterruptedException e) { }
+				}
+			}
+		};
+		holder.start();
+
+		try {
+			assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+			final CountDownLatch acquired = new CountDownLatch(1);
+			final String key = freeKey;
+			final Thread worker = new Thread() {
+				public void run() {
+					synchronized(mStripes.get(key)) {
+						acquired.countDown();
+					}
+				}
+			};
+			worker.start();
+
+			assertTrue("Locking a different stripe was blocked", acquired.await(10, TimeUnit.SECONDS));
+		}
+		finally {
+			release.countDown();
+			holder.join();
+		}
+	}
+}
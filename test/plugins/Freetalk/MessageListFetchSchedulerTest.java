@@ -0,0 +1,98 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class MessageListFetchSchedulerTest extends TestCase {
+
+	private static final long HOUR = 60 * 60 * 1000;
+
+	private static final long DAY = 24 * HOUR;
+
+	private static final long NOW = 1000 * DAY;
+
+	private MessageListFetchScheduler mScheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mScheduler = new MessageListFetchScheduler();
+	}
+
+	public void testUnknownIdentity() {
+		assertFalse(mScheduler.containsIdentity("unknown"));
+		assertEquals(0.0, mScheduler.getPriority("unknown", NOW), 0.0);
+	}
+
+	public void testActiveIdentitiesFirst() {
+		mScheduler.addIdentity("active", 100, new Date(NOW - 10 * DAY), new Date(NOW - HOUR));
+		mScheduler.addIdentity("inactive", 100, new Date(NOW - 400 * DAY), new Date(NOW - 300 * DAY));
+		mScheduler.addIdentity("silent", 0, null, null);
+
+		assertTrue(mScheduler.containsIdentity("silent"));
+
+		final double active = mScheduler.getPriority("active", NOW);
+		final double inactive = mScheduler.getPriority("inactive", NOW);
+		final double silent = mScheduler.getPriority("silent", NOW);
+
+		assertTrue(active > inactive);
+		assertTrue(inactive > silent);
+		assertEquals(MessageListFetchScheduler.MINIMAL_ACTIVITY_RATE, silent, 0.0001);
+	}
+
+	public void testPriorityGrowsWithTimeSinceLastFetch() {
+		mScheduler.addIdentity("identity", 10, new Date(NOW - 10 * DAY), new Date(NOW));
+		mScheduler.onFetchStarted("identity", NOW);
+
+		assertEquals(0.0, mScheduler.getPriority("identity", NOW), 0.0);
+
+		final double afterHour = mScheduler.getPriority("identity", NOW + HOUR);
+		final double afterTwoHours = mScheduler.getPriority("identity", NOW + 2 * HOUR);
+		assertTrue(afterHour > 0);
+		assertTrue(afterTwoHours > afterHour);
+
+		// The interval is capped
+		assertEquals(mScheduler.getPriority("identity", NOW + 2 * MessageListFetchScheduler.MAXIMAL_FETCH_INTERVAL),
+				mScheduler.getPriority("identity", NOW + 2 * MessageListFetchScheduler.MAXIMAL_FETCH_INTERVAL + HOUR), 0.01);
+	}
+
+	public void testNewListsAndFailures() {
+		mScheduler.addIdentity("identity1", 0, null, null);
+		mScheduler.addIdentity("identity2", 0, null, null);
+
+		final double initial = mScheduler.getPriority("identity1", NOW);
+
+		mScheduler.onFetchStarted("identity1", NOW - DAY);
+		mScheduler.onNewListFetched("identity1", NOW - DAY);
+		assertTrue(mScheduler.getPriority("identity1", NOW) > initial);
+
+		mScheduler.onFetchStarted("identity2", NOW - DAY);
+		mScheduler.onFetchFailed("identity2");
+		assertEquals(initial / 2, mScheduler.getPriority("identity2", NOW), 0.0001);
+		mScheduler.onFetchFailed("identity2");
+		assertEquals(initial / 3, mScheduler.getPriority("identity2", NOW), 0.0001);
+		mScheduler.onNoNewListFound("identity2");
+		assertEquals(initial, mScheduler.getPriority("identity2", NOW), 0.0001);
+
+		assertEquals(2, mScheduler.getFetchCount());
+		assertEquals(1, mScheduler.getNewListCount());
+		assertEquals(0.5, mScheduler.getNewListsPerFetch(), 0.0001);
+	}
+
+	public void testRetainIdentities() {
+		mScheduler.addIdentity("identity1", 0, null, null);
+		mScheduler.addIdentity("identity2", 0, null, null);
+
+		mScheduler.retainIdentities(Arrays.asList(new String[] { "identity2", "identity3" }));
+
+		assertFalse(mScheduler.containsIdentity("identity1"));
+		assertTrue(mScheduler.containsIdentity("identity2"));
+		assertFalse(mScheduler.containsIdentity("identity3"));
+		assertEquals(1, mScheduler.getIdentityCount());
+	}
+}
@@ -0,0 +1,129 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import java.net.MalformedURLException;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import plugins.Freetalk.WoT.WoTIdentity;
+import freenet.keys.FreenetURI;
+
+/**
+ * A test for class plugins.Freetalk.MessageListIndexTracker. Compares the tracker with a plain set of the available indices.
+ */
+public class MessageListIndexTrackerTest extends TestCase {
+
+	private MessageListIndexTracker mTracker;
+
+	/**
+	 * The available indices.
+	 */
+	private BitSet mAvailable;
+
+	public void setUp() throws MalformedURLException {
+		final FreenetURI requestURI = new FreenetURI("USK@SZmdqGtog7v1wN3buILoMpucyD6V5krsYrVqFUfHosg,SLsRq9Q9ZlrmUS9KeyK2pmheJ4wbtW602UwX0o0E~w0,AQACAAE/WoT/0");
+		mTracker = new MessageListIndexTracker(new WoTIdentity(WoTIdentity.getIDFromURI(requestURI), requestURI, "Nickname"));
+		mAvailable = new BitSet();
+	}
+
+	private void add(int index) {
+		mTracker.onListAvailable(index);
+		mAvailable.set(index);
+		verify();
+	}
+
+	private void delete(int index) {
+		mTracker.onListDeleted(index);
+		mAvailable.clear(index);
+		verify();
+	}
+
+	private void verify() {
+		final int highest = mAvailable.length() - 1;
+		assertEquals(highest + 1, mTracker.getUnavailableNewIndex());
+
+		int oldIndex = highest + 1;
+		for(int i = highest - 1; i >= 0; --i) {
+			if(!mAvailable.get(i)) {
+				oldIndex = i;
+				break;
+			}
+		}
+		assertEquals(oldIndex, mTracker.getUnavailableOldIndex());
+
+		int ranges = 0;
+		for(int i = 0; i < highest; ++i) {
+			if(!mAvailable.get(i) && (i == 0 || mAvailable.get(i - 1)))
+				++ranges;
+		}
+		assertEquals(ranges, mTracker.getMissingRangeCount());
+	}
+
+	public void testEmpty() {
+		assertEquals(0, mTracker.getUnavailableNewIndex());
+		assertEquals(0, mTracker.getUnavailableOldIndex());
+		assertEquals(0, mTracker.getFreeOwnIndex());
+	}
+
+	public void testAscending() {
+		for(int i = 0; i < 10; ++i)
+			add(i);
+
+		assertEquals(0, mTracker.getMissingRangeCount());
+	}
+
+	public void testNewestFirst() {
+		add(10);
+		assertEquals(9, mTracker.getUnavailableOldIndex());
+
+		for(int i = 9; i >= 0; --i)
+			add(i);
+
+		assertEquals(11, mTracker.getUnavailableOldIndex());
+	}
+
+	public void testSplitAndMerge() {
+		add(10);
+		add(5);
+		assertEquals(2, mTracker.getMissingRangeCount());
+
+		delete(5);
+		assertEquals(1, mTracker.getMissingRangeCount());
+
+		add(3);
+		add(7);
+		delete(10);
+		assertEquals(7, mTracker.getUnavailableNewIndex());
+
+		delete(7);
+		assertEquals(4, mTracker.getUnavailableNewIndex());
+
+		delete(3);
+		assertEquals(0, mTracker.getUnavailableNewIndex());
+	}
+
+	public void testOwnIndex() {
+		add(3);
+		assertEquals(4, mTracker.getFreeOwnIndex());
+
+		mTracker.onOwnListIndexTaken(7);
+		assertEquals(8, mTracker.getFreeOwnIndex());
+		assertEquals(4, mTracker.getUnavailableNewIndex());
+	}
+
+	public void testRandom() {
+		final Random random = new Random(1234);
+
+		for(int i = 0; i < 2000; ++i) {
+			final int index = random.nextInt(64);
+
+			if(random.nextInt(3) == 0)
+				delete(index);
+			else
+				add(index);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk;
+
+import junit.framework.TestCase;
+import plugins.Freetalk.FetchConcurrencyController.Result;
+
+public class PriorityFetchLimiterTest extends TestCase {
+
+	private static final long SECOND = 1000;
+
+	private static final long LATENCY_TARGET = 60 * SECOND;
+
+	/** A latency which counts as timed out. */
+	private static final long TIMEOUT = LATENCY_TARGET * FetchConcurrencyController.TIMEOUT_FACTOR + 1;
+
+	private FetchConcurrencyController mController;
+
+	private PriorityFetchLimiter mLimiter;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mController = new FetchConcurrencyController(2, 8, 64, LATENCY_TARGET);
+		mLimiter = new PriorityFetchLimiter(4, mController);
+	}
+
+	public void testLimits() {
+		for(int i = 0; i < 4; ++i) {
+			assertTrue(mLimiter.canStartPriorityFetch());
+			mLimiter.onFetchStarted(new Object(), true, 0);
+		}
+		assertFalse(mLimiter.canStartPriorityFetch());
+		assertEquals(4, mLimiter.getPriorityFetchCount());
+
+		// The priority fetches are not counted in the limit of the regular ones
+		assertTrue(mLimiter.canStartRegularFetch(4 + 7, 0));
+		assertFalse(mLimiter.canStartRegularFetch(4 + 8, 0));
+		assertEquals(0, mController.getRunningFetchCount());
+
+		mLimiter.onFetchStarted(new Object(), false, 0);
+		assertEquals(1, mController.getRunningFetchCount());
+		assertEquals(4, mLimiter.getPriorityFetchCount());
+
+		mLimiter.onAllFetchesAborted();
+		assertTrue(mLimiter.canStartPriorityFetch());
+		assertEquals(0, mLimiter.getPriorityFetchCount());
+		assertEquals(0, mController.getRunningFetchCount());
+	}
+
+	public void testPriorityFailuresDoNotChangeLimit() {
+		final Object[] fetches = new Object[4];
+		for(int i = 0; i < fetches.length; ++i) {
+			fetches[i] = new Object();
+			mLimiter.onFetchStarted(fetches[i], true, 0);
+		}
+
+		// Priority fetches which time out while running are not counted
+		assertTrue(mLimiter.canStartRegularFetch(fetches.length, TIMEOUT));
+
+		mLimiter.onFetchFinished(fetches[0], Result.Overload, TIMEOUT);
+		mLimiter.onFetchFinished(fetches[1], Result.Success, TIMEOUT);
+		for(int i = 0; i < FetchConcurrencyController.DATA_NOT_FOUND_BURST_SIZE; ++i) {
+			final Object fetch = new Object();
+			mLimiter.onFetchStarted(fetch, true, TIMEOUT);
+			mLimiter.onFetchFinished(fetch, Result.DataNotFound, TIMEOUT + SECOND);
+		}
+
+		assertEquals(8, mController.getLimit());
+		assertEquals(0, mController.getDecreaseCount());
+		assertEquals(0, mController.getFailureCount());
+		assertEquals(0, mController.getSuccessCount());
+		assertEquals(2, mLimiter.getPriorityFetchCount());
+
+		// Regular failures still change the limit
+		final Object fetch = new Object();
+		mLimiter.onFetchStarted(fetch, false, TIMEOUT);
+		mLimiter.onFetchFinished(fetch, Result.Overload, TIMEOUT + SECOND);
+		assertEquals(4, mController.getLimit());
+		assertEquals(1, mController.getFailureCount());
+	}
+}
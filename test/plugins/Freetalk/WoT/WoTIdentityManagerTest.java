@@ -0,0 +1,196 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.net.MalformedURLException;
+
+import plugins.Freetalk.DatabaseBasedTest;
+import plugins.Freetalk.Freetalk;
+import plugins.Freetalk.exceptions.NoSuchIdentityException;
+
+import com.db4o.query.Query;
+
+import freenet.keys.FreenetURI;
+import freenet.support.CurrentTimeUTC;
+import freenet.support.SimpleFieldSet;
+
+public class WoTIdentityManagerTest extends DatabaseBasedTest {
+
+	private static final long MINUTE = 60 * 1000;
+
+	private static final long DAY = 24 * 60 * MINUTE;
+
+	private static final String[] REQUEST_URIS = new String[] {
+		"SSK@lY~N0Nk5NQpt6brGgtckFHPY11GzgkDn4VDszL6fwPg,GDQlSg9ncBBF8XIS-cXYb-LM9JxE3OiSydyOaZgCS4k,AQACAAE/WoT",
+		"SSK@WcOyByjhHpYE-GeA4f0QTm8WxIMLeuTeHH0OvoIySLI,m2xhPKGLhq1yqpqdYp0Yvbs~qdnJU4PD0NmWga1cwRE,AQACAAE/WoT",
+		"SSK@OHIaAMNpKIgdbkWPCOb9phCQoa015NAoiA0ud-9a4TM,5Jp16w6-yS~AiQweFljj-gJck0AYxzu-Nfs6BjKXPsk,AQACAAE/WoT",
+		"SSK@VMFi2tyuli54KgLNmMHz4k-XHKlNhlDVGOCFdLL5VRU,00v-jVRVF8P5xrd3kuiAWXHN7RPDxb5kJP9Z8XUqe~A,AQACAAE/WoT",
+		"SSK@HH~V2XmCbZp~738qtE67jUg1M5L5flVvQfc2bYpE1o4,c8H39jkp08cao-EJVTV~rISHlcMnlTlpNFICzL4gmZ4,AQACAAE/WoT",
+		"SSK@egaZBiTrPGsiLVBJGT91MOX5jtC6pFIDFDyjt3FcsRI,GDQlSg9ncBBF8XIS-cXYb-LM9JxE3OiSydyOaZgCS4k,AQACAAE/WoT"
+	};
+
+	private Freetalk mFreetalk;
+
+	private WoTIdentityManager mIdentityManager;
+
+	private String[] mIDs;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mFreetalk = new Freetalk(db);
+		mIdentityManager = mFreetalk.getIdentityManager();
+
+		mIDs = new String[REQUEST_URIS.length];
+		for(int i = 0; i < REQUEST_URIS.length; ++i)
+			mIDs[i] = WoTIdentity.getIDFromURI(new FreenetURI(REQUEST_URIS[i]));
+	}
+
+	/**
+	 * @param identities The indices of the identities in {@link #REQUEST_URIS} which the reply contains.
+	 * @param nicknames The nicknames of the identities.
+	 */
+	private SimpleFieldSet createIdentitiesReply(int[] identities, String[] nicknames) {
+		final SimpleFieldSet params = new SimpleFieldSet(true);
+		params.putOverwrite("Message", "Identities");
+
+		for(int i = 0; i < identities.length; ++i) {
+			params.putOverwrite("Identity" + i, mIDs[identities[i]]);
+			params.putOverwrite("RequestURI" + i, REQUEST_URIS[identities[i]]);
+			params.putOverwrite("Nickname" + i, nicknames[i]);
+		}
+
+		return params;
+	}
+
+	/**
+	 * Passes the given reply to GetIdentitiesByScore and an empty reply to GetOwnIdentities to the identity manager, received at the given time.
+	 */
+	private void receiveIdentities(int[] identities, String[] nicknames, long time) {
+		mIdentityManager.onIdentitiesReceived(createIdentitiesReply(identities, nicknames), false, time);
+		mIdentityManager.onIdentitiesReceived(createIdentitiesReply(new int[0], new String[0]), true, time);
+	}
+
+	/**
+	 * @return The identity as it is stored in the database, not as it is in memory.
+	 */
+	private WoTIdentity getStoredIdentity(int index) throws NoSuchIdentityException {
+		final WoTIdentity identity = mIdentityManager.getIdentity(mIDs[index]);
+		db.deactivate(identity, 3);
+		return identity;
+	}
+
+	private void assertNotStored(int index) {
+		try {
+			mIdentityManager.getIdentity(mIDs[index]);
+			fail("Identity " + index + " is stored.");
+		}
+		catch(NoSuchIdentityException e) { }
+	}
+
+	private int countIdentities() {
+		final Query q = db.query();
+		q.constrain(WoTIdentity.class);
+		return q.execute().size();
+	}
+
+	/**
+	 * Tests whether the differences between subsequent replies of WoT are stored, including a batch which failed and is stored with the
+	 * next reply, and whether the garbage collector only deletes the identities which were not received for the grace period.
+	 */
+	public void testIdentitySync() throws NoSuchIdentityException, MalformedURLException {
+		final long start = CurrentTimeUTC.getInMillis() - 10 * DAY;
+
+		// New identities
+
+		receiveIdentities(new int[] { 0, 1, 2 }, new String[] { "alice", "bob", "carol" }, start);
+		assertEquals(3, countIdentities());
+		assertEquals("alice", getStoredIdentity(0).getNickname());
+		assertEquals("bob", getStoredIdentity(1).getNickname());
+		assertEquals("carol", getStoredIdentity(2).getNickname());
+
+		// A renamed identity, a dropped identity and a new identity
+
+		receiveIdentities(new int[] { 0, 1, 3 }, new String[] { "alice", "bobby", "dave" }, start + MINUTE);
+		assertEquals(4, countIdentities());
+		assertEquals("bobby", getStoredIdentity(1).getNickname());
+		assertEquals("dave", getStoredIdentity(3).getNickname());
+		// The time when the dropped identity was last received is written from memory so that it survives a restart
+		assertEquals(start, getStoredIdentity(2).getLastReceivedFromWoT());
+
+		// Neither the received identities nor the dropped one are collected before the grace period is over
+		mIdentityManager.garbageCollectIdentities();
+		assertEquals(4, countIdentities());
+
+		// A batch which fails because the database contains a duplicate of one of its identities
+
+		final WoTIdentity duplicate1 = new WoTIdentity(mIDs[4], new FreenetURI(REQUEST_URIS[4]), "duplicate");
+		final WoTIdentity duplicate2 = new WoTIdentity(mIDs[4], new FreenetURI(REQUEST_URIS[4]), "duplicate");
+		duplicate1.initializeTransient(mFreetalk);
+		duplicate1.storeWithoutCommit();
+		duplicate2.initializeTransient(mFreetalk);
+		duplicate2.storeWithoutCommit();
+		db.commit();
+
+		receiveIdentities(new int[] { 0, 1, 3, 4, 5 }, new String[] { "alice", "bobby", "dave", "erin", "frank" }, start + 2 * MINUTE);
+		assertNotStored(5);
+		assertEquals(6, countIdentities());
+
+		// The failed batch is stored again with the next reply even though the identities did not change
+
+		duplicate2.deleteWithoutCommit();
+		db.commit();
+
+		receiveIdentities(new int[] { 0, 1, 3, 4, 5 }, new String[] { "alice", "bobby", "dave", "erin", "frank" }, start + 3 * MINUTE);
+		assertEquals("erin", getStoredIdentity(4).getNickname());
+		assertEquals("frank", getStoredIdentity(5).getNickname());
+		assertEquals(6, countIdentities());
+
+		// After the grace period, only the identity which is not received anymore is collected
+
+		receiveIdentities(new int[] { 0, 1, 3, 4, 5 }, new String[] { "alice", "bobby", "dave", "erin", "frank" }, start + DAY);
+		mIdentityManager.garbageCollectIdentities();
+		assertNotStored(2);
+		assertEquals(5, countIdentities());
+		assertEquals("alice", getStoredIdentity(0).getNickname());
+
+		// An identity which is received again after it was dropped is not collected
+
+		receiveIdentities(new int[] { 0, 1, 4, 5 }, new String[] { "alice", "bobby", "erin", "frank" }, start + DAY + MINUTE);
+		receiveIdentities(new int[] { 0, 1, 3, 4, 5 }, new String[] { "alice", "bobby", "dave", "erin", "frank" }, start + 2 * DAY);
+		mIdentityManager.garbageCollectIdentities();
+		assertEquals(5, countIdentities());
+	}
+
+	/**
+	 * Tests whether an identity which is not contained in the first reply of WoT after a restart is granted the grace period of the garbage
+	 * collector even though the time when it was last received before the restart was only kept in memory.
+	 */
+	public void testGarbageCollectionAfterRestart() throws NoSuchIdentityException {
+		final long start = CurrentTimeUTC.getInMillis();
+
+		receiveIdentities(new int[] { 0, 1, 2 }, new String[] { "alice", "bob", "carol" }, start);
+		receiveIdentities(new int[] { 0, 1, 2 }, new String[] { "alice", "bob", "carol" }, start + DAY);
+		// The database still contains the time when the identity was created.
+		assertTrue(getStoredIdentity(2).getLastReceivedFromWoT() < start + DAY);
+
+		// Restart: The times which were only kept in memory are lost.
+
+		mFreetalk = new Freetalk(db);
+		mIdentityManager = mFreetalk.getIdentityManager();
+
+		receiveIdentities(new int[] { 0, 1 }, new String[] { "alice", "bob" }, start + 2 * DAY);
+		assertEquals(start + 2 * DAY, getStoredIdentity(2).getLastReceivedFromWoT());
+		mIdentityManager.garbageCollectIdentities();
+		assertEquals(3, countIdentities());
+
+		// After the grace period, it is collected.
+
+		receiveIdentities(new int[] { 0, 1 }, new String[] { "alice", "bob" }, start + 3 * DAY);
+		mIdentityManager.garbageCollectIdentities();
+		assertNotStored(2);
+		assertEquals(2, countIdentities());
+	}
+}
@@ -0,0 +1,94 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class WoTLastReceivedTimesTest extends TestCase {
+
+	private WoTLastReceivedTimes mTimes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mTimes = new WoTLastReceivedTimes();
+	}
+
+	public void testPutGetRemove() {
+		assertEquals(WoTLastReceivedTimes.UNKNOWN, mTimes.get("a"));
+		assertFalse(mTimes.remove("a"));
+
+		mTimes.put("a", 10);
+		mTimes.put("b", 20);
+		assertEquals(2, mTimes.size());
+		assertEquals(10, mTimes.get("a"));
+		assertEquals(20, mTimes.get("b"));
+
+		mTimes.put("a", 30); // Refreshing must not add a second entry
+		assertEquals(2, mTimes.size());
+		assertEquals(30, mTimes.get("a"));
+
+		assertTrue(mTimes.remove("a"));
+		assertEquals(1, mTimes.size());
+		assertEquals(WoTLastReceivedTimes.UNKNOWN, mTimes.get("a"));
+		assertEquals(20, mTimes.get("b"));
+
+		try {
+			mTimes.put("c", -1);
+			fail("Negative time was accepted");
+		} catch(IllegalArgumentException e) { }
+	}
+
+	public void testIdentitiesReceivedBefore() {
+		for(int i = 0; i < 100; ++i)
+			mTimes.put("identity" + i, i);
+
+		final HashSet<String> expected = new HashSet<String>();
+		for(int i = 0; i < 40; ++i)
+			expected.add("identity" + i);
+
+		assertEquals(expected, new HashSet<String>(mTimes.getIdentitiesReceivedBefore(40)));
+		assertEquals(0, mTimes.getIdentitiesReceivedBefore(0).size());
+	}
+
+	/**
+	 * Compares the table to a HashMap for a random sequence of operations. The keys are chosen from a small set so that the table grows and
+	 * entries whose probe sequences overlap are removed.
+	 */
+	public void testRandomOperations() {
+		final Random random = new Random(0);
+		final HashMap<String, Long> expected = new HashMap<String, Long>();
+
+		for(int i = 0; i < 100000; ++i) {
+			final String identityID = "identity" + random.nextInt(2000);
+
+			if(random.nextInt(3) < 2) {
+				final long time = random.nextInt(1000);
+				mTimes.put(identityID, time);
+				expected.put(identityID, time);
+			} else
+				assertEquals(expected.remove(identityID) != null, mTimes.remove(identityID));
+
+			assertEquals(expected.size(), mTimes.size());
+		}
+
+		for(int i = 0; i < 2000; ++i) {
+			final String identityID = "identity" + i;
+			final Long time = expected.get(identityID);
+			assertEquals(time != null ? time : WoTLastReceivedTimes.UNKNOWN, mTimes.get(identityID));
+		}
+
+		int receivedBefore = 0;
+		for(Map.Entry<String, Long> entry : expected.entrySet()) {
+			if(entry.getValue() < 500)
+				++receivedBefore;
+		}
+		assertEquals(receivedBefore, mTimes.getIdentitiesReceivedBefore(500).size());
+	}
+}
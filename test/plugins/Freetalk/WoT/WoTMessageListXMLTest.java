@@ -2,15 +2,14 @@ package plugins.Freetalk.WoT;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashSet;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-
 import plugins.Freetalk.Board;
 import plugins.Freetalk.DatabaseBasedTest;
 import plugins.Freetalk.Freetalk;
+import plugins.Freetalk.Message;
 import plugins.Freetalk.MessageList;
 import plugins.Freetalk.exceptions.NoSuchMessageException;
 import plugins.Freetalk.exceptions.NoSuchMessageListException;
@@ -116,7 +115,7 @@ public class WoTMessageListXMLTest extends DatabaseBasedTest {
 				);
 	}
 
-	public void testEncode() throws TransformerException, ParserConfigurationException, NoSuchMessageException, NoSuchMessageListException {
+	public void testEncode() throws IOException, NoSuchMessageException, NoSuchMessageListException {
 		ByteArrayOutputStream encodedMessageList = new ByteArrayOutputStream(4096);
 		
 		System.gc(); db.purge(); System.gc();
@@ -151,4 +150,114 @@ public class WoTMessageListXMLTest extends DatabaseBasedTest {
 		assertTrue("Not all boards or messages were specified in the message list.", mMessageBoards.isEmpty());
 	}
 
+	/**
+	 * Replaces the messages of the hardcoded message list with the given message elements.
+	 */
+	private String replaceMessages(String messageElements) {
+		return mHardcodedEncodedMessageList.substring(0, mHardcodedEncodedMessageList.indexOf("<Message ")) + messageElements
+			+ mHardcodedEncodedMessageList.substring(mHardcodedEncodedMessageList.lastIndexOf("</MessageList>"));
+	}
+	
+	/**
+	 * @return The element of the first message of the hardcoded message list.
+	 */
+	private String getFirstMessageElement() {
+		final int start = mHardcodedEncodedMessageList.indexOf("<Message ");
+		return mHardcodedEncodedMessageList.substring(start, mHardcodedEncodedMessageList.indexOf("</Message>", start) + "</Message>".length());
+	}
+	
+	private WoTMessageList decode(String encodedMessageList) throws Exception {
+		ByteArrayInputStream is = new ByteArrayInputStream(encodedMessageList.getBytes("UTF-8"));
+		WoTOwnMessageList messageList = (WoTOwnMessageList)mMessageManager.getOwnMessageList(mMessageListID);
+		WoTMessageList decodedList = mXML.decode(mMessageManager, messageList.getAuthor(), messageList.getURI(), is);
+		decodedList.initializeTransient(mFreetalk);
+		return decodedList;
+	}
+	
+	public void testDecodeTooManyMessages() throws Exception {
+		final String message = getFirstMessageElement();
+		final StringBuilder messages = new StringBuilder(message.length() * (MessageList.MAX_MESSAGES_PER_MESSAGELIST + 1));
+		for(int i = 0; i < MessageList.MAX_MESSAGES_PER_MESSAGELIST + 1; ++i)
+			messages.append(message);
+		
+		try {
+			decode(replaceMessages(messages.toString()));
+			fail("A message list with too many messages was accepted.");
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Too many messages"));
+		}
+	}
+	
+	public void testDecodeTooManyBoards() throws Exception {
+		final String message = getFirstMessageElement();
+		final StringBuilder boards = new StringBuilder();
+		for(int i = 0; i < Message.MAX_BOARDS_PER_MESSAGE + 1; ++i)
+			boards.append("<Board Name=\"en.board" + i + "\"/>");
+		
+		final String tooManyBoards = message.substring(0, message.indexOf("<Board ")) + boards + "</Message>";
+		
+		try {
+			decode(replaceMessages(tooManyBoards));
+			fail("A message with too many boards was accepted.");
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Too many boards"));
+		}
+	}
+	
+	public void testDecodeIgnoresUnknownElements() throws Exception {
+		final String withUnknown = mHardcodedEncodedMessageList.replace("<Board Name=\"en.board1\"/>", "<Unknown><Board Name=\"en.invalid\"/></Unknown><Board Name=\"en.board1\"/>");
+		
+		int referenceCount = 0;
+		for(MessageList.MessageReference ref : decode(withUnknown)) {
+			assertFalse(ref.getBoard().getName().equals("en.invalid"));
+			++referenceCount;
+		}
+		
+		assertEquals(6, referenceCount);
+	}
+	
+	public void testDecodeRejectsDoctype() throws Exception {
+		final String withDoctype = mHardcodedEncodedMessageList.replace("<Freetalk-testing>", "<!DOCTYPE Freetalk-testing [<!ENTITY e \"en.board1\">]><Freetalk-testing>");
+		
+		try {
+			decode(withDoctype);
+			fail("A message list with a DOCTYPE was accepted.");
+		} catch(Exception e) { }
+	}
+	
+	/**
+	 * Decodes the message list from multiple threads at once, the decoder does not use a shared lock so this checks that it has no shared state.
+	 */
+	public void testConcurrentDecode() throws Exception {
+		final Throwable[] failure = new Throwable[1];
+		final Thread[] threads = new Thread[4];
+		
+		for(int i = 0; i < threads.length; ++i) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for(int j = 0; j < 50; ++j) {
+							int referenceCount = 0;
+							for(@SuppressWarnings("unused") MessageList.MessageReference ref : decode(mHardcodedEncodedMessageList))
+								++referenceCount;
+							assertEquals(6, referenceCount);
+						}
+					} catch(Throwable t) {
+						synchronized(failure) {
+							failure[0] = t;
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		
+		for(Thread thread : threads)
+			thread.join();
+		
+		synchronized(failure) {
+			if(failure[0] != null)
+				throw new RuntimeException(failure[0]);
+		}
+	}
 }
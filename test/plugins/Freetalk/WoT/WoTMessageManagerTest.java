@@ -5,6 +5,7 @@ package plugins.Freetalk.WoT;
 
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -12,22 +13,33 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import plugins.Freetalk.ArticleFormatter;
 import plugins.Freetalk.Board;
+import plugins.Freetalk.BoardSnapshot;
 import plugins.Freetalk.DatabaseBasedTest;
 import plugins.Freetalk.FetchFailedMarker;
 import plugins.Freetalk.Freetalk;
+import plugins.Freetalk.IdentityStatistics;
+import plugins.Freetalk.Message;
+import plugins.Freetalk.MessageFetchQueueEntry;
 import plugins.Freetalk.MessageList;
+import plugins.Freetalk.MessageListIndexTracker;
 import plugins.Freetalk.MessageManager;
+import plugins.Freetalk.Persistent;
 import plugins.Freetalk.SubscribedBoard;
 import plugins.Freetalk.MessageList.MessageListFetchFailedMarker;
 import plugins.Freetalk.SubscribedBoard.BoardThreadLink;
 import plugins.Freetalk.SubscribedBoard.MessageReference;
 import plugins.Freetalk.exceptions.InvalidParameterException;
 import plugins.Freetalk.exceptions.MessageNotFetchedException;
+import plugins.Freetalk.exceptions.NoSuchBoardException;
 import plugins.Freetalk.exceptions.NoSuchIdentityException;
 import plugins.Freetalk.exceptions.NoSuchMessageException;
 import plugins.Freetalk.exceptions.NoSuchMessageListException;
+import plugins.Freetalk.exceptions.NoSuchObjectException;
 
 import com.db4o.ObjectSet;
 import com.db4o.query.Query;
@@ -149,6 +161,10 @@ public class WoTMessageManagerTest extends DatabaseBasedTest {
 	}
 	
 	private void verifyStructure() {
+		// Before purging the database so that the snapshot and counters which the MessageManager has updated incrementally are verified.
+		verifySnapshot();
+		verifyCounters();
+		
 		System.gc();
 		db.purge();
 		System.gc();
@@ -182,6 +198,198 @@ public class WoTMessageManagerTest extends DatabaseBasedTest {
 		}
 		
 		assertFalse(expectedThreads.hasNext());
+		
+		verifyOverviews();
+		verifyThreadPages();
+		verifyIdentityStatistics();
+	}
+	
+	/**
+	 * Verifies that the {@link BoardSnapshot} of the board matches its references in the database.
+	 */
+	private void verifySnapshot() {
+		final SubscribedBoard board;
+		try {
+			board = mMessageManager.getSubscription(mOwnIdentities[0], mBoard.getName());
+		} catch(NoSuchBoardException e) {
+			fail(e.toString());
+			return;
+		}
+		
+		final BoardSnapshot snapshot = board.getSnapshot();
+		
+		final ArrayList<Integer> expectedIndices = new ArrayList<Integer>();
+		for(MessageReference ref : board.getAllMessages(true))
+			expectedIndices.add(ref.getIndex());
+		
+		final int[] indices = snapshot.getMessageIndices(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		assertEquals(expectedIndices.size(), snapshot.getMessageCount());
+		assertEquals(expectedIndices.size(), indices.length);
+		for(int i = 0; i < indices.length; ++i)
+			assertEquals((int)expectedIndices.get(i), indices[i]);
+		
+		final Iterator<BoardSnapshot.ThreadEntry> threads = snapshot.getThreads().iterator();
+		for(BoardThreadLink expected : board.getThreads(null, null, expectedIndices.size())) {
+			assertTrue(threads.hasNext());
+			
+			final BoardSnapshot.ThreadEntry thread = threads.next();
+			assertEquals(expected.getThreadID(), thread.getThreadID());
+			assertEquals(expected.getIndex(), thread.getMessageIndex());
+			assertEquals(expected.getLastReplyDate(), thread.getLastReplyDate());
+			assertEquals(expected.getReplyCount(), thread.getReplyCount());
+			
+			boolean wasFetched = true;
+			try {
+				expected.getMessage();
+			} catch(MessageNotFetchedException e) {
+				wasFetched = false;
+			}
+			assertEquals(wasFetched, thread.wasFetched());
+		}
+		assertFalse(threads.hasNext());
+	}
+	
+	private SubscribedBoard getSubscribedBoard() {
+		try {
+			return mMessageManager.getSubscription(mOwnIdentities[0], mBoard.getName());
+		} catch(NoSuchBoardException e) {
+			fail(e.toString());
+			return null;
+		}
+	}
+	
+	/**
+	 * Verifies that the message counters of the board match its references in the database.
+	 */
+	private void verifyCounters() {
+		final SubscribedBoard board = getSubscribedBoard();
+		
+		int messageCount = 0;
+		int unreadMessageCount = 0;
+		for(MessageReference ref : board.getAllMessages(false)) {
+			++messageCount;
+			if(!ref.wasRead())
+				++unreadMessageCount;
+		}
+		
+		assertEquals(messageCount, board.messageCount());
+		assertEquals(unreadMessageCount, board.getUnreadMessageCount());
+	}
+	
+	/**
+	 * Verifies that the {@link IdentityStatistics} of each identity match its messages. Identities without messages might not have statistics.
+	 */
+	private void verifyIdentityStatistics() {
+		for(WoTOwnIdentity identity : mOwnIdentities) {
+			if(!db.isStored(identity)) // Deleted by testOnIdentityDeletion()
+				continue;
+			
+			int postCount = 0;
+			int threadCount = 0;
+			Date firstPostDate = null;
+			Date lastPostDate = null;
+			
+			for(Message message : mMessageManager.getMessagesBy(identity)) {
+				++postCount;
+				if(message.isThread())
+					++threadCount;
+				if(firstPostDate == null || message.getDate().before(firstPostDate))
+					firstPostDate = message.getDate();
+				if(lastPostDate == null || message.getDate().after(lastPostDate))
+					lastPostDate = message.getDate();
+			}
+			
+			assertEquals(postCount, mMessageManager.getMessageCountBy(identity));
+			
+			try {
+				final IdentityStatistics statistics = mMessageManager.getIdentityStatistics(identity);
+				assertEquals(postCount, statistics.getPostCount());
+				assertEquals(threadCount, statistics.getThreadCount());
+				assertEquals(firstPostDate, statistics.getFirstPostDate());
+				assertEquals(lastPostDate, statistics.getLastPostDate());
+			}
+			catch(NoSuchObjectException e) {
+				assertEquals(0, postCount);
+			}
+		}
+	}
+	
+	/**
+	 * Verifies that paging through the threads with {@link SubscribedBoard#getThreads(Date, String, int)} returns each thread exactly once,
+	 * sorted descending by the date of last reply and ascending by ID for equal dates, and that the stored title of each thread is correct.
+	 */
+	private void verifyThreadPages() {
+		for(int pageSize = 1; pageSize <= 3; ++pageSize) {
+			final HashSet<String> threadIDs = new HashSet<String>();
+			BoardThreadLink previous = null;
+			
+			while(true) {
+				final ArrayList<BoardThreadLink> page = previous == null ? mBoard.getThreads(null, null, pageSize)
+						: mBoard.getThreads(previous.getLastReplyDate(), previous.getThreadID(), pageSize);
+				assertTrue(page.size() <= pageSize);
+				
+				if(page.size() == 0)
+					break;
+				
+				for(BoardThreadLink thread : page) {
+					assertTrue(threadIDs.add(thread.getThreadID()));
+					
+					if(previous != null) {
+						final int dateOrder = previous.getLastReplyDate().compareTo(thread.getLastReplyDate());
+						assertTrue(dateOrder > 0 || (dateOrder == 0 && previous.getThreadID().compareTo(thread.getThreadID()) < 0));
+					}
+					
+					try {
+						assertEquals(thread.getMessage().getTitle(), thread.getTitle());
+					}
+					catch(MessageNotFetchedException e) {
+						// The title of a ghost thread is the title of its oldest reply. Replies might have the same date.
+						final HashSet<String> oldestTitles = new HashSet<String>();
+						Date oldestDate = null;
+						for(MessageReference reply : mBoard.getAllThreadReplies(thread.getThreadID(), true)) {
+							if(oldestDate != null && !oldestDate.equals(reply.getMessageDate()))
+								break;
+							
+							oldestDate = reply.getMessageDate();
+							try {
+								oldestTitles.add(reply.getMessage().getTitle());
+							} catch(MessageNotFetchedException e1) {
+								fail();
+							}
+						}
+						assertTrue(oldestTitles.contains(thread.getTitle()));
+					}
+					
+					previous = thread;
+				}
+			}
+			
+			assertEquals(new HashSet<String>(mThreads), threadIDs);
+		}
+	}
+	
+	/**
+	 * Verifies that there is exactly one {@link SubscribedBoard.MessageOverview} for each reference to a fetched message and that it matches the
+	 * overview which the NNTP server would compute from the message.
+	 */
+	private void verifyOverviews() {
+		final Iterator<SubscribedBoard.MessageOverview> overviews = mBoard.getMessageOverviews(0, Integer.MAX_VALUE).iterator();
+		
+		for(MessageReference ref : mBoard.getAllMessages(true)) {
+			try {
+				final Message message = ref.getMessage();
+				assertTrue(overviews.hasNext());
+				
+				final SubscribedBoard.MessageOverview overview = overviews.next();
+				assertEquals(ref.getIndex(), overview.getIndex());
+				assertEquals(ArticleFormatter.getOverview(message), overview.getOverview());
+			}
+			catch(MessageNotFetchedException e) {
+				// Ghost thread references do not have an overview.
+			}
+		}
+		
+		assertFalse(overviews.hasNext());
 	}
 
 	
@@ -303,6 +511,140 @@ public class WoTMessageManagerTest extends DatabaseBasedTest {
 
 	}
 	
+	/**
+	 * Tests that the thread references of forked threads and ghost threads are counted by the message counters of the board when they are
+	 * created and uncounted when they are deleted.
+	 */
+	public void testCountersOfForkedAndGhostThreads() throws Exception {
+		final WoTMessage thread = createTestMessage(mOwnIdentities[0], null, null);
+		mMessageManager.onMessageReceived(thread);
+		final WoTMessage reply = createTestMessage(mOwnIdentities[1], thread, thread.getURI());
+		mMessageManager.onMessageReceived(reply);
+		final WoTMessage forkReply = createTestMessage(mOwnIdentities[1], reply, reply.getURI()); // Forks a new thread off the reply
+		mMessageManager.onMessageReceived(forkReply);
+		final WoTMessage missingThread = createTestMessage(mOwnIdentities[2], null, null); // Not received
+		final WoTMessage ghostReply = createTestMessage(mOwnIdentities[1], missingThread, missingThread.getURI());
+		mMessageManager.onMessageReceived(ghostReply);
+		
+		SubscribedBoard board = getSubscribedBoard();
+		// The thread, the reply, the forked thread, the reply to it, the ghost thread and the reply to it.
+		assertEquals(6, board.messageCount());
+		assertEquals(6, board.getUnreadMessageCount());
+		verifyCounters();
+		
+		final BoardThreadLink forkedThread = board.getThreadLink(reply.getID());
+		assertEquals(reply.getID(), forkedThread.getMessage().getID());
+		try {
+			board.getThreadLink(missingThread.getID()).getMessage();
+			fail("The thread was not received, its reference should be a ghost reference");
+		} catch(MessageNotFetchedException e) { }
+		
+		board.getThreadLink(thread.getID()).markAsRead();
+		board.getThreadLink(thread.getID()).storeAndCommit();
+		forkedThread.markAsRead();
+		forkedThread.storeAndCommit();
+		assertEquals(6, board.messageCount());
+		assertEquals(4, board.getUnreadMessageCount());
+		verifyCounters();
+		
+		// Deletes the reply, the forked thread, the reply to it, the ghost thread and the reply to it.
+		mMessageManager.onIdentityDeletion(mOwnIdentities[1]);
+		mOwnIdentities[1].deleteWithoutCommit();
+		db.commit();
+		
+		board = getSubscribedBoard();
+		try {
+			board.getThreadLink(reply.getID());
+			fail("The forked thread was not deleted");
+		} catch(NoSuchMessageException e) { }
+		try {
+			board.getThreadLink(missingThread.getID());
+			fail("The ghost thread was not deleted");
+		} catch(NoSuchMessageException e) { }
+		
+		assertEquals(1, board.messageCount());
+		assertEquals(0, board.getUnreadMessageCount());
+		verifyCounters();
+	}
+	
+	/**
+	 * Tests that the thread reference of a forked thread gets a {@link SubscribedBoard.MessageOverview} when it is created, like
+	 * rebuilding the overviews would create it, and that ghost thread references do not get one.
+	 */
+	public void testOverviewsOfForkedAndGhostThreads() throws Exception {
+		final WoTMessage thread = createTestMessage(mOwnIdentities[0], null, null);
+		mMessageManager.onMessageReceived(thread);
+		final WoTMessage reply = createTestMessage(mOwnIdentities[1], thread, thread.getURI());
+		mMessageManager.onMessageReceived(reply);
+		final WoTMessage forkReply = createTestMessage(mOwnIdentities[2], reply, reply.getURI()); // Forks a new thread off the reply
+		mMessageManager.onMessageReceived(forkReply);
+		final WoTMessage missingThread = createTestMessage(mOwnIdentities[3], null, null); // Not received
+		final WoTMessage ghostReply = createTestMessage(mOwnIdentities[4], missingThread, missingThread.getURI());
+		mMessageManager.onMessageReceived(ghostReply);
+		
+		final SubscribedBoard board = getSubscribedBoard();
+		
+		final int forkedThreadIndex = board.getThreadLink(reply.getID()).getIndex();
+		assertTrue(forkedThreadIndex != board.getReplyLink(reply).getIndex());
+		final List<SubscribedBoard.MessageOverview> forkedThreadOverview = board.getMessageOverviews(forkedThreadIndex, forkedThreadIndex);
+		assertEquals(1, forkedThreadOverview.size());
+		assertEquals(ArticleFormatter.getOverview(reply), forkedThreadOverview.get(0).getOverview());
+		
+		final int ghostThreadIndex = board.getThreadLink(missingThread.getID()).getIndex();
+		assertEquals(0, board.getMessageOverviews(ghostThreadIndex, ghostThreadIndex).size());
+		
+		// The thread, the reply, the forked thread, the reply to it and the reply to the ghost thread.
+		assertEquals(5, board.getMessageOverviews(0, Integer.MAX_VALUE).size());
+		
+		// Receiving the thread of the ghost thread reference creates its overview.
+		mMessageManager.onMessageReceived(missingThread);
+		assertEquals(1, getSubscribedBoard().getMessageOverviews(ghostThreadIndex, ghostThreadIndex).size());
+		assertEquals(6, getSubscribedBoard().getMessageOverviews(0, Integer.MAX_VALUE).size());
+	}
+	
+	/**
+	 * Tests that the Persistent classes activate themselves: The test database has an activation depth of 1 like the one of Freetalk,
+	 * the message is deactivated completely and must be usable through its getters nevertheless.
+	 */
+	public void testExplicitActivation() throws Exception {
+		final WoTMessage thread = createTestMessage(mOwnIdentities[0], null, null);
+		mMessageManager.onMessageReceived(thread);
+		final WoTMessage reply = createTestMessage(mOwnIdentities[1], thread, thread.getURI());
+		mMessageManager.onMessageReceived(reply);
+		
+		final String threadID = thread.getID();
+		final String replyID = reply.getID();
+		final String title = reply.getTitle();
+		final FreenetURI authorRequestURI = mOwnIdentities[1].getRequestURI();
+		
+		db.deactivate(reply, Integer.MAX_VALUE);
+		db.deactivate(thread, Integer.MAX_VALUE);
+		
+		final Message stored = mMessageManager.get(replyID);
+		assertEquals(replyID, stored.getID());
+		assertEquals(title, stored.getTitle());
+		assertEquals(threadID, stored.getThreadID());
+		assertEquals(threadID, stored.getParentURI().getMessageID());
+		assertEquals(threadID, stored.getThread().getID());
+		assertEquals(authorRequestURI, stored.getAuthor().getRequestURI());
+		assertEquals(mBoard.getName(), stored.getBoards()[0].getName());
+		assertEquals(replyID, stored.getMessageList().iterator().next().getMessageID());
+		
+		db.deactivate(mBoard, Integer.MAX_VALUE);
+		final BoardThreadLink threadLink = mBoard.getThreadLink(threadID);
+		assertEquals(1, threadLink.getReplyCount());
+		assertEquals(replyID, mBoard.getReplyLink(stored).getMessage().getID());
+		assertEquals(2, mBoard.messageCount());
+		
+		final IdentityStatistics statistics = mMessageManager.getIdentityStatistics(mOwnIdentities[1]);
+		db.deactivate(statistics, Integer.MAX_VALUE);
+		assertEquals(1, statistics.getPostCount());
+		db.deactivate(statistics, Integer.MAX_VALUE);
+		assertEquals(0, statistics.getThreadCount());
+		db.deactivate(statistics, Integer.MAX_VALUE);
+		assertTrue(statistics.toString().endsWith(" with 1 posts and 0 threads"));
+	}
+	
 	/**
 	 * Tests whether deleting an own identity also deletes it's threads and message lists.
 	 * 
@@ -452,4 +794,403 @@ public class WoTMessageManagerTest extends DatabaseBasedTest {
 		assertEquals(1, messageLists.size());
 		assertEquals(messageLists.next().getID(), marker.getMessageListID());
 	}
+	
+	@SuppressWarnings("unchecked")
+	public void testFetchRetryScheduling() {
+		WoTOwnIdentity author = mOwnIdentities[0];
+		Query q;
+		ObjectSet<FetchFailedMarker> markers;
+		MessageListFetchFailedMarker marker;
+		
+		assertNull(mMessageManager.getDateOfNextFetchRetry());
+		
+		mMessageManager.onMessageListFetchFailed(author, WoTMessageList.assembleURI(author.getRequestURI(), 1), FetchFailedMarker.Reason.DataNotFound);
+		
+		q = db.query();
+		q.constrain(FetchFailedMarker.class);
+		markers = q.execute();
+		assertEquals(1, markers.size());
+		marker = (MessageListFetchFailedMarker)markers.next();
+		
+		assertEquals(marker.getDateOfNextRetry(), mMessageManager.getDateOfNextFetchRetry());
+		
+		// The retry is not due yet
+		
+		mMessageManager.retryDueFetches(marker.getDate());
+		
+		q = db.query();
+		q.constrain(MessageList.class);
+		assertEquals(1, q.execute().size());
+		assertEquals(marker.getDateOfNextRetry(), mMessageManager.getDateOfNextFetchRetry());
+		
+		// The retry is due
+		
+		mMessageManager.retryDueFetches(marker.getDateOfNextRetry());
+		
+		q = db.query();
+		q.constrain(MessageList.class);
+		assertEquals(0, q.execute().size());
+		assertNull(mMessageManager.getDateOfNextFetchRetry());
+		
+		q = db.query();
+		q.constrain(FetchFailedMarker.class);
+		markers = q.execute();
+		assertEquals(1, markers.size());
+		assertEquals(marker, markers.next());
+		
+		// The second failure reschedules the retry with the doubled delay
+		
+		mMessageManager.onMessageListFetchFailed(author, WoTMessageList.assembleURI(author.getRequestURI(), 1), FetchFailedMarker.Reason.DataNotFound);
+		assertEquals(1, marker.getNumberOfRetries());
+		assertEquals(marker.getDateOfNextRetry(), mMessageManager.getDateOfNextFetchRetry());
+		
+		// Parsing failures are never retried
+		
+		mMessageManager.retryDueFetches(marker.getDateOfNextRetry());
+		mMessageManager.onMessageListFetchFailed(author, WoTMessageList.assembleURI(author.getRequestURI(), 1), FetchFailedMarker.Reason.ParsingFailed);
+		assertNull(mMessageManager.getDateOfNextFetchRetry());
+	}
+	
+	private int countMessageFetchQueueEntries() {
+		final Query q = db.query();
+		q.constrain(MessageFetchQueueEntry.class);
+		return q.execute().size();
+	}
+	
+	private WoTMessageList receiveMessageList(WoTOwnIdentity author, int index, String messageID, FreenetURI messageURI, Board... boards)
+		throws InvalidParameterException, NoSuchIdentityException {
+		
+		final List<MessageList.MessageReference> references = new ArrayList<MessageList.MessageReference>(boards.length);
+		for(Board board : boards)
+			references.add(new MessageList.MessageReference(messageID, messageURI, board, CurrentTimeUTC.get()));
+		
+		final WoTMessageList list = new WoTMessageList(author, WoTMessageList.assembleURI(author.getRequestURI(), index), references);
+		mMessageManager.onMessageListReceived(list);
+		return list;
+	}
+	
+	public void testMessageFetchQueue() throws Exception {
+		final WoTOwnIdentity author = mOwnIdentities[0];
+		final Board subscribedBoard = mMessageManager.getBoardByName("en.test");
+		final Board unsubscribedBoard = mMessageManager.getOrCreateBoard("en.unsubscribed");
+		final FreenetURI messageURI = new FreenetURI("CHK@");
+		final String messageID = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 0) + "#" + UUID.randomUUID()).getMessageID();
+		
+		assertEquals(0, mMessageManager.getMessageFetchQueue().size());
+		
+		// A message which is referenced by two message lists and posted to two boards is queued once.
+		
+		final WoTMessageList list = receiveMessageList(author, 0, messageID, messageURI, subscribedBoard, unsubscribedBoard);
+		receiveMessageList(author, 1, messageID, messageURI, unsubscribedBoard);
+		
+		ObjectSet<MessageFetchQueueEntry> queue = mMessageManager.getMessageFetchQueue();
+		assertEquals(1, queue.size());
+		assertEquals(1, countMessageFetchQueueEntries());
+		
+		final MessageFetchQueueEntry entry = queue.next();
+		assertEquals(messageID, entry.getMessageID());
+		assertTrue(entry.boardHasSubscriptions());
+		assertEquals(subscribedBoard, entry.getReference().getBoard());
+		
+		// The entry is removed while the fetch failed and re-created when the fetch is retried.
+		
+		mMessageManager.onMessageFetchFailed(entry.getReference(), FetchFailedMarker.Reason.DataNotFound);
+		assertEquals(0, countMessageFetchQueueEntries());
+		
+		mMessageManager.retryDueFetches(mMessageManager.getDateOfNextFetchRetry());
+		assertEquals(1, mMessageManager.getMessageFetchQueue().size());
+		
+		// The entry is removed when the message was received.
+		
+		final WoTMessage message = WoTMessage.construct(list, messageURI, messageID, null, null, mBoards, mBoards.iterator().next(), author,
+				"title", CurrentTimeUTC.get(), "text", null);
+		message.initializeTransient(mFreetalk);
+		mMessageManager.onMessageReceived(message);
+		assertEquals(0, countMessageFetchQueueEntries());
+		
+		// A further message list which references the message does not queue it again.
+		
+		final WoTMessageList list2 = receiveMessageList(author, 2, messageID, messageURI, subscribedBoard);
+		assertEquals(0, countMessageFetchQueueEntries());
+		assertTrue(list2.iterator().next().wasMessageDownloaded());
+		
+		// Messages of boards without subscriptions are queued but not fetched until the board is subscribed.
+		
+		final String messageID2 = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 3) + "#" + UUID.randomUUID()).getMessageID();
+		receiveMessageList(author, 3, messageID2, new FreenetURI("CHK@"), unsubscribedBoard);
+		assertEquals(1, countMessageFetchQueueEntries());
+		assertEquals(0, mMessageManager.getMessageFetchQueue().size());
+		
+		mMessageManager.subscribeToBoard(mOwnIdentities[1], "en.unsubscribed");
+		queue = mMessageManager.getMessageFetchQueue();
+		assertEquals(1, queue.size());
+		assertEquals(messageID2, queue.next().getMessageID());
+		
+		// Deleting the message lists removes the entries.
+		
+		mMessageManager.onIdentityDeletion(author);
+		assertEquals(0, countMessageFetchQueueEntries());
+	}
+	
+	public void testPriorityMessageFetchQueue() throws Exception {
+		final WoTOwnIdentity author = mOwnIdentities[0];
+		final Board board = mMessageManager.getBoardByName("en.test");
+		
+		// A thread whose message list is known before a reply to it is received
+		
+		final WoTMessageURI threadURI = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 0) + "#" + UUID.randomUUID());
+		receiveMessageList(author, 0, threadURI.getMessageID(), new FreenetURI("CHK@"), board);
+		assertEquals(1, mMessageManager.getMessageFetchQueue().size());
+		assertEquals(0, mMessageManager.getPriorityMessageFetchQueue().size());
+		
+		final WoTMessageURI replyURI = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 1) + "#" + UUID.randomUUID());
+		final FreenetURI replyRealURI = new FreenetURI("CHK@");
+		final WoTMessageList replyList = receiveMessageList(author, 1, replyURI.getMessageID(), replyRealURI, board);
+		final WoTMessage reply = WoTMessage.construct(replyList, replyRealURI, replyURI.getMessageID(), threadURI, threadURI, mBoards,
+				mBoards.iterator().next(), author, "reply", CurrentTimeUTC.get(), "text", null);
+		reply.initializeTransient(mFreetalk);
+		mMessageManager.onMessageReceived(reply);
+		
+		ObjectSet<MessageFetchQueueEntry> priorityQueue = mMessageManager.getPriorityMessageFetchQueue();
+		assertEquals(1, priorityQueue.size());
+		assertEquals(threadURI.getMessageID(), priorityQueue.next().getMessageID());
+		
+		// A parent whose message list is received after the reply to it
+		
+		final WoTMessageURI parentURI = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 2) + "#" + UUID.randomUUID());
+		final WoTMessageURI reply2URI = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 3) + "#" + UUID.randomUUID());
+		final FreenetURI reply2RealURI = new FreenetURI("CHK@");
+		final WoTMessageList reply2List = receiveMessageList(author, 3, reply2URI.getMessageID(), reply2RealURI, board);
+		final WoTMessage reply2 = WoTMessage.construct(reply2List, reply2RealURI, reply2URI.getMessageID(), threadURI, parentURI, mBoards,
+				mBoards.iterator().next(), author, "reply", CurrentTimeUTC.get(), "text", null);
+		reply2.initializeTransient(mFreetalk);
+		mMessageManager.onMessageReceived(reply2);
+		assertEquals(1, mMessageManager.getPriorityMessageFetchQueue().size());
+		
+		receiveMessageList(author, 2, parentURI.getMessageID(), new FreenetURI("CHK@"), board);
+		assertEquals(2, mMessageManager.getPriorityMessageFetchQueue().size());
+		assertEquals(2, mMessageManager.getMessageFetchQueue().size());
+	}
+	
+	/**
+	 * Tests whether the objects of a group commit which failed are stored as if the failed transaction had not happened when they are
+	 * stored one by one afterwards: The rollback must not leave its changes in the objects which it modified.
+	 */
+	public void testFailedGroupCommit() throws Exception {
+		final WoTOwnIdentity author = mOwnIdentities[0];
+		final Board board = mMessageManager.getBoardByName("en.test");
+		
+		// The statistics and the index tracker of the author exist already, so the failed transaction modifies them.
+		
+		final WoTMessageURI threadURI = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 0) + "#" + UUID.randomUUID());
+		final FreenetURI threadRealURI = new FreenetURI("CHK@");
+		final WoTMessageList threadList = receiveMessageList(author, 0, threadURI.getMessageID(), threadRealURI, board);
+		final WoTMessage thread = WoTMessage.construct(threadList, threadRealURI, threadURI.getMessageID(), null, null, mBoards,
+				mBoards.iterator().next(), author, "thread", CurrentTimeUTC.get(), "text", null);
+		thread.initializeTransient(mFreetalk);
+		mMessageManager.onMessageReceived(thread);
+		
+		// A batch of a message list, the message which it references and a message list which cannot be stored
+		
+		final WoTMessageURI messageURI = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 2) + "#" + UUID.randomUUID());
+		final FreenetURI messageRealURI = new FreenetURI("CHK@");
+		final List<MessageList.MessageReference> references = new ArrayList<MessageList.MessageReference>(1);
+		references.add(new MessageList.MessageReference(messageURI.getMessageID(), messageRealURI, board, CurrentTimeUTC.get()));
+		final WoTMessageList list = new WoTMessageList(author, WoTMessageList.assembleURI(author.getRequestURI(), 2), references);
+		final WoTMessage message = WoTMessage.construct(list, messageRealURI, messageURI.getMessageID(), null, null, mBoards,
+				mBoards.iterator().next(), author, "message", CurrentTimeUTC.get(), "text", null);
+		
+		final WoTMessageURI failingURI = new WoTMessageURI(WoTMessageList.assembleURI(author.getRequestURI(), 3) + "#" + UUID.randomUUID());
+		final List<MessageList.MessageReference> failingReferences = new ArrayList<MessageList.MessageReference>(1);
+		failingReferences.add(new MessageList.MessageReference(failingURI.getMessageID(), new FreenetURI("CHK@"), board, CurrentTimeUTC.get()) {
+			protected void storeWithoutCommit() {
+				throw new RuntimeException("Storing the reference failed.");
+			}
+		});
+		final WoTMessageList failingList = new WoTMessageList(author, WoTMessageList.assembleURI(author.getRequestURI(), 3), failingReferences);
+		
+		final List<Persistent> batch = new ArrayList<Persistent>(3);
+		batch.add(list);
+		batch.add(message);
+		batch.add(failingList);
+		
+		final List<Persistent> failedObjects = new ArrayList<Persistent>();
+		mMessageManager.onObjectsReceived(batch, new MessageManager.ReceivedObjectListener() {
+			public void onReceivedObjectCommitted(Persistent object, boolean success) {
+				if(!success)
+					failedObjects.add(object);
+			}
+		});
+		
+		assertEquals(1, failedObjects.size());
+		assertSame(failingList, failedObjects.get(0));
+		
+		try {
+			mMessageManager.getMessageList(failingList.getID());
+			fail("The message list which cannot be stored was stored.");
+		}
+		catch(NoSuchMessageListException e) { }
+		
+		// Compare the stored state, not the one in memory
+		
+		assertSame(list, mMessageManager.getMessageList(list.getID()));
+		assertSame(message, mMessageManager.get(message.getID()));
+		
+		final IdentityStatistics statistics = mMessageManager.getIdentityStatistics(author);
+		db.deactivate(statistics, 1);
+		assertEquals(2, statistics.getPostCount());
+		assertEquals(2, statistics.getThreadCount());
+		
+		final MessageListIndexTracker indices = mMessageManager.getOrCreateMessageListIndexTracker(author);
+		db.deactivate(indices, 2);
+		assertEquals(3, indices.getUnavailableNewIndex());
+		assertEquals(1, indices.getUnavailableOldIndex());
+		assertEquals(1, indices.getMissingRangeCount());
+		
+		final MessageList.MessageReference reference = list.iterator().next();
+		db.deactivate(reference, 2);
+		assertTrue(reference.wasMessageDownloaded());
+		assertEquals(0, countMessageFetchQueueEntries());
+		
+		verifyIdentityStatistics();
+	}
+	
+	/**
+	 * Tests whether operations on a board and by an identity proceed while another thread holds the lock stripes of a different board and
+	 * of a different identity.
+	 */
+	public void testLockStripesAreIndependent() throws Exception {
+		final Object blockedBoardLock = mMessageManager.getBoardLock(mBoard.getName());
+		String freeBoardName = null;
+		for(int i = 0; freeBoardName == null; ++i) {
+			if(mMessageManager.getBoardLock("en.free" + i) != blockedBoardLock)
+				freeBoardName = "en.free" + i;
+		}
+		
+		final Object blockedIdentityLock = mMessageManager.getIdentityLock(mOwnIdentities[0]);
+		WoTOwnIdentity freeAuthor = null;
+		for(WoTOwnIdentity identity : mOwnIdentities) {
+			if(mMessageManager.getIdentityLock(identity) != blockedIdentityLock)
+				freeAuthor = identity;
+		}
+		assertNotNull(freeAuthor);
+		
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Thread holder = new Thread() {
+			public void run() {
+				synchronized(blockedIdentityLock) {
+				synchronized(blockedBoardLock) {
+					locked.countDown();
+					try {
+						release.await();
+					} catch(InterruptedException e) { }
+				}
+				}
+			}
+		};
+		holder.start();
+		
+		try {
+			assertTrue(locked.await(10, TimeUnit.SECONDS));
+			
+			final String boardName = freeBoardName;
+			final WoTOwnIdentity author = freeAuthor;
+			final Throwable[] failure = new Throwable[1];
+			final Thread worker = new Thread() {
+				public void run() {
+					try {
+						final Board board = mMessageManager.getOrCreateBoard(boardName);
+						assertEquals(board, mMessageManager.getBoardByName(boardName));
+						mMessageManager.subscribeToBoard(author, boardName);
+						assertNotNull(mMessageManager.getSubscription(author, boardName));
+						
+						final HashSet<Board> boards = new HashSet<Board>();
+						boards.add(board);
+						mMessageManager.postMessage(null, null, boards, board, author, "title", null, "text", null);
+					}
+					catch(Throwable e) {
+						failure[0] = e;
+					}
+				}
+			};
+			worker.start();
+			worker.join(10 * 1000);
+			
+			assertFalse("Operations on a different board and identity were blocked", worker.isAlive());
+			if(failure[0] instanceof Error)
+				throw (Error)failure[0];
+			if(failure[0] != null)
+				throw (Exception)failure[0];
+			assertEquals(1, mMessageManager.getNotInsertedOwnMessages().size());
+		}
+		finally {
+			release.countDown();
+			holder.join();
+		}
+	}
+	
+	/**
+	 * Tests whether the snapshot of a board can be read while another thread holds the lock of the board and whether linking a message
+	 * publishes a new version of it.
+	 */
+	public void testSnapshotDoesNotLockBoard() throws Exception {
+		final BoardSnapshot emptySnapshot = mBoard.getSnapshot();
+		assertEquals(0, emptySnapshot.getMessageCount());
+		assertEquals(0, emptySnapshot.getThreads().size());
+		
+		final WoTMessage thread = createTestMessage(mOwnIdentities[1], null, null);
+		mMessageManager.onMessageReceived(thread);
+		
+		final BoardSnapshot snapshot = mBoard.getSnapshot();
+		assertTrue(snapshot.getVersion() > emptySnapshot.getVersion());
+		assertEquals(1, snapshot.getMessageCount());
+		assertEquals(thread.getID(), snapshot.getThreads().get(0).getThreadID());
+		assertEquals(thread.getID(), snapshot.getThread(thread.getID()).getThreadID());
+		assertEquals(0, emptySnapshot.getMessageCount()); // Old snapshots must not be modified
+		
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Thread holder = new Thread() {
+			public void run() {
+				synchronized(mBoard) {
+					locked.countDown();
+					try {
+						release.await();
+					} catch(InterruptedException e) { }
+				}
+			}
+		};
+		holder.start();
+		
+		try {
+			assertTrue(locked.await(10, TimeUnit.SECONDS));
+			
+			final BoardSnapshot[] result = new BoardSnapshot[1];
+			final Throwable[] failure = new Throwable[1];
+			final Thread reader = new Thread() {
+				public void run() {
+					try {
+						result[0] = mBoard.getSnapshot();
+					}
+					catch(Throwable e) {
+						failure[0] = e;
+					}
+				}
+			};
+			reader.start();
+			reader.join(10 * 1000);
+			
+			assertFalse("Reading the snapshot was blocked by the board lock", reader.isAlive());
+			if(failure[0] instanceof Error)
+				throw (Error)failure[0];
+			if(failure[0] != null)
+				throw (Exception)failure[0];
+			assertSame(snapshot, result[0]);
+		}
+		finally {
+			release.countDown();
+			holder.join();
+		}
+	}
 }
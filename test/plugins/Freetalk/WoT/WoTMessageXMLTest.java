@@ -5,6 +5,7 @@ package plugins.Freetalk.WoT;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -19,6 +20,7 @@ import plugins.Freetalk.MessageManager;
 import plugins.Freetalk.Message.Attachment;
 import freenet.keys.FreenetURI;
 import freenet.support.CurrentTimeUTC;
+import freenet.support.Logger;
 
 
 public class WoTMessageXMLTest extends DatabaseBasedTest {
@@ -144,4 +146,152 @@ public class WoTMessageXMLTest extends DatabaseBasedTest {
 		
 		assertEquals(mHardcodedEncodedMessage, decodedAndEncodedMessage.toString().replace("\r\n", "\n"));
 	}
+
+	/**
+	 * The file with the output of the former DOM based encoder for the message of {@link #testEncodeGoldenFile()}. The path is relative to the
+	 * directory of the build file.
+	 */
+	private static final String GOLDEN_FILE = "test/plugins/Freetalk/WoT/WoTMessageXMLTest.golden.xml";
+	
+	/**
+	 * Checks that the streaming encoder produces the same bytes as the former DOM based encoder, for a message whose title and text contain
+	 * non-ASCII characters, characters which need escaping and the CDATA end marker.
+	 */
+	public void testEncodeGoldenFile() throws Exception {
+		final WoTMessage original = (WoTMessage)mMessageManager.get(mMessageID);
+		final WoTMessageList messageList = (WoTMessageList)mMessageManager.getMessageList(mMessageListID);
+		
+		final HashSet<Board> boards = new HashSet<Board>();
+		for(Board board : original.getBoards())
+			boards.add(board);
+		
+		final List<Attachment> attachments = new ArrayList<Attachment>();
+		for(Attachment attachment : original.getAttachments())
+			attachments.add(attachment);
+		
+		final WoTMessage message = WoTMessage.construct(messageList, mMessageRealURI, original.getID(), new WoTMessageURI(original.getThreadURI().toString()),
+				new WoTMessageURI(original.getParentURI().toString()), boards, original.getReplyToBoard(), messageList.getAuthor(),
+				"Title with \u00e4, \u20ac & <brackets> ]]> end", original.getDate(), "Body with ]]> inside, & <b>markup</b>\n\u00e4\u20ac \"quotes\"\nLast line",
+				attachments);
+		message.initializeTransient(mFreetalk);
+		
+		final ByteArrayOutputStream encodedMessage = new ByteArrayOutputStream(4096);
+		mXML.encode(message, encodedMessage);
+		
+		final ByteArrayOutputStream goldenFile = new ByteArrayOutputStream(4096);
+		final FileInputStream is = new FileInputStream(GOLDEN_FILE);
+		try {
+			final byte[] buffer = new byte[4096];
+			int read;
+			while((read = is.read(buffer)) > 0)
+				goldenFile.write(buffer, 0, read);
+		} finally {
+			is.close();
+		}
+		
+		assertEquals(goldenFile.toString("UTF-8").replace("\r\n", "\n"), encodedMessage.toString("UTF-8").replace("\r\n", "\n"));
+		
+		// The decoder must restore the title and text.
+		final Message decodedMessage = decode(encodedMessage.toString("UTF-8"));
+		assertEquals(message.getTitle(), decodedMessage.getTitle());
+		assertEquals(message.getText(), decodedMessage.getText().replace("\r\n", "\n"));
+	}
+
+	private Message decode(String encodedMessage) throws Exception {
+		ByteArrayInputStream is = new ByteArrayInputStream(encodedMessage.getBytes("UTF-8"));
+		return mXML.decode(mMessageManager, is, (WoTMessageList)mMessageManager.getMessageList(mMessageListID), mMessageRealURI);
+	}
+	
+	public void testDecodeTooLongText() throws Exception {
+		// Each character is encoded with 2 bytes so the text is short enough as of String.length() but too long in bytes.
+		final StringBuilder body = new StringBuilder(Message.MAX_MESSAGE_TEXT_BYTE_LENGTH / 2 + 1);
+		for(int i = 0; i < Message.MAX_MESSAGE_TEXT_BYTE_LENGTH / 2 + 1; ++i)
+			body.append('\u00e4');
+		
+		final String tooLongBody = mHardcodedEncodedMessage.replace("Message body\nNew line", body.toString());
+		
+		try {
+			decode(tooLongBody);
+			fail("A message with a too long text was accepted.");
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Text in element Body is too long"));
+		}
+	}
+	
+	public void testDecodeTooManyBoards() throws Exception {
+		final StringBuilder boards = new StringBuilder();
+		for(int i = 0; i < Message.MAX_BOARDS_PER_MESSAGE + 1; ++i)
+			boards.append("<Board><![CDATA[en.board" + i + "]]></Board>");
+		
+		final String tooManyBoards = mHardcodedEncodedMessage.substring(0, mHardcodedEncodedMessage.indexOf("<Boards>") + "<Boards>".length())
+			+ boards + mHardcodedEncodedMessage.substring(mHardcodedEncodedMessage.indexOf("</Boards>"));
+		
+		try {
+			decode(tooManyBoards);
+			fail("A message with too many boards was accepted.");
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Too many boards"));
+		}
+	}
+	
+	public void testDecodeMissingBody() throws Exception {
+		final String noBody = mHardcodedEncodedMessage.substring(0, mHardcodedEncodedMessage.indexOf("<Body>"))
+			+ mHardcodedEncodedMessage.substring(mHardcodedEncodedMessage.indexOf("</Body>") + "</Body>".length());
+		
+		try {
+			decode(noBody);
+			fail("A message without body was accepted.");
+		} catch(Exception e) { }
+	}
+	
+	/**
+	 * Measures the throughput of decoding a message with a text of maximal size from multiple threads and logs it. Verifies each decoded text.
+	 * Only runs if the system property "benchmark" is set to true, for example with "ant -Dbenchmark=true".
+	 */
+	public void testDecodeBenchmark() throws Exception {
+		if(!Boolean.getBoolean("benchmark"))
+			return;
+		
+		final StringBuilder body = new StringBuilder(Message.MAX_MESSAGE_TEXT_LENGTH);
+		while(body.length() < Message.MAX_MESSAGE_TEXT_LENGTH - 64)
+			body.append("The quick brown fox jumps over the lazy dog.\n");
+		final String encodedMessage = mHardcodedEncodedMessage.replace("Message body\nNew line", body.toString());
+		final String expectedText = decode(encodedMessage).getText();
+		
+		final int threadCount = 4;
+		final int decodingsPerThread = 500;
+		final Throwable[] failure = new Throwable[1];
+		final Thread[] threads = new Thread[threadCount];
+		
+		for(int i = 0; i < threadCount; ++i) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for(int j = 0; j < decodingsPerThread; ++j)
+							assertEquals(expectedText, decode(encodedMessage).getText());
+					} catch(Throwable t) {
+						synchronized(failure) {
+							failure[0] = t;
+						}
+					}
+				}
+			};
+		}
+		
+		final long startTime = System.currentTimeMillis();
+		for(Thread thread : threads)
+			thread.start();
+		for(Thread thread : threads)
+			thread.join();
+		final long time = Math.max(System.currentTimeMillis() - startTime, 1);
+		
+		synchronized(failure) {
+			if(failure[0] != null)
+				throw new RuntimeException(failure[0]);
+		}
+		
+		final long bytes = (long)encodedMessage.getBytes("UTF-8").length * threadCount * decodingsPerThread;
+		Logger.normal(this, "WoTMessageXML.decode(): " + (threadCount * decodingsPerThread * 1000L / time) + " messages/s, "
+				+ (bytes * 1000L / time / 1024) + " KiB/s with " + threadCount + " threads");
+	}
 }
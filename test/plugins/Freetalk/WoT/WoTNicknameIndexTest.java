@@ -0,0 +1,130 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class WoTNicknameIndexTest extends TestCase {
+
+	private WoTNicknameIndex mIndex;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mIndex = new WoTNicknameIndex();
+	}
+
+	private void put(String identityID, String nickname) {
+		mIndex.put(identityID, nickname, getAddress(identityID, nickname));
+	}
+
+	private static String getAddress(String identityID, String nickname) {
+		return nickname + "@" + identityID + ".freetalk";
+	}
+
+	public void testUniqueNickname() {
+		assertNull(mIndex.get("id1"));
+
+		put("id1", "alice");
+		put("id2", "bob");
+		assertEquals("alice", mIndex.get("id1"));
+		assertEquals("bob", mIndex.get("id2"));
+	}
+
+	public void testDuplicateNicknames() {
+		put("abcd", "alice");
+		put("abxy", "Alice"); // Nicknames are compared case-insensitively
+		assertEquals("alice@abc...", mIndex.get("abcd"));
+		assertEquals("Alice@abx...", mIndex.get("abxy"));
+
+		put("zzzz", "alice");
+		assertEquals("alice@z...", mIndex.get("zzzz"));
+		assertEquals("alice@abc...", mIndex.get("abcd")); // Its prefix only depends on the neighbours
+
+		mIndex.remove("abxy");
+		assertNull(mIndex.get("abxy"));
+		assertEquals("alice@a...", mIndex.get("abcd"));
+		assertEquals("alice@z...", mIndex.get("zzzz"));
+
+		mIndex.remove("zzzz");
+		assertEquals("alice", mIndex.get("abcd"));
+		assertEquals(1, mIndex.size());
+	}
+
+	public void testNicknameChange() {
+		put("abcd", "alice");
+		put("abxy", "alice");
+		put("abxy", "carol");
+		assertEquals("alice", mIndex.get("abcd"));
+		assertEquals("carol", mIndex.get("abxy"));
+		assertEquals(2, mIndex.size());
+	}
+
+	public void testIDsWhichOnlyDifferInCase() {
+		put("ab", "alice");
+		put("aB", "alice");
+		assertEquals(getAddress("ab", "alice"), mIndex.get("ab"));
+		assertEquals(getAddress("aB", "alice"), mIndex.get("aB"));
+	}
+
+	/**
+	 * Compares the index to the definition of the shortest unique name for a random sequence of operations: The shortest prefix of the ID
+	 * which no other identity with the same nickname has.
+	 */
+	public void testRandomOperations() {
+		final Random random = new Random(0);
+		final String[] nicknames = new String[] { "alice", "Alice", "bob", "carol" };
+		final HashMap<String, String> identities = new HashMap<String, String>();
+
+		for(int i = 0; i < 1000; ++i) {
+			final StringBuilder identityID = new StringBuilder();
+			for(int length = 1 + random.nextInt(4); length > 0; --length)
+				identityID.append("aAbB".charAt(random.nextInt(4)));
+
+			if(random.nextInt(3) < 2) {
+				final String nickname = nicknames[random.nextInt(nicknames.length)];
+				put(identityID.toString(), nickname);
+				identities.put(identityID.toString(), nickname);
+			} else {
+				mIndex.remove(identityID.toString());
+				identities.remove(identityID.toString());
+			}
+
+			assertEquals(identities.size(), mIndex.size());
+			for(String id : identities.keySet())
+				assertEquals(getExpectedName(id, identities), mIndex.get(id));
+		}
+	}
+
+	private static String getExpectedName(String identityID, Map<String, String> identities) {
+		final String nickname = identities.get(identityID);
+		int longestCommonPrefix = -1;
+
+		for(Map.Entry<String, String> other : identities.entrySet()) {
+			if(other.getKey().equals(identityID) || !other.getValue().equalsIgnoreCase(nickname))
+				continue;
+
+			final String a = identityID.toLowerCase();
+			final String b = other.getKey().toLowerCase();
+			int length = 0;
+			while(length < Math.min(a.length(), b.length()) && a.charAt(length) == b.charAt(length))
+				++length;
+			longestCommonPrefix = Math.max(longestCommonPrefix, length);
+		}
+
+		if(longestCommonPrefix == -1)
+			return nickname;
+
+		final String address = getAddress(identityID, nickname);
+		if(longestCommonPrefix == identityID.length())
+			return address;
+
+		final int length = nickname.length() + 1 + longestCommonPrefix + 1;
+		return address.length() > length ? address.substring(0, length) + "..." : address;
+	}
+}
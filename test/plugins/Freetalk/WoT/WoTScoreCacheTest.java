@@ -0,0 +1,138 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.WoT;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+import freenet.support.CurrentTimeUTC;
+
+public class WoTScoreCacheTest extends TestCase {
+
+	private static final long TIME_TO_LIVE = 60 * 60 * 1000;
+
+	private WoTScoreCache mCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mCache = new WoTScoreCache(TIME_TO_LIVE);
+	}
+
+	/**
+	 * Tests that the bulk fill caches the identities of each selection, including the ones with a score of zero, so that they are hits.
+	 */
+	public void testPutScores() {
+		final long now = CurrentTimeUTC.getInMillis();
+
+		final HashMap<String, Integer> positive = new HashMap<String, Integer>();
+		positive.put("positive", 10);
+		positive.put("positiveWithoutScore", null);
+		mCache.putScores("owner", positive, 1, now);
+
+		final HashMap<String, Integer> zero = new HashMap<String, Integer>();
+		zero.put("zero", null); // A score of zero is exact even if the reply does not contain it.
+		mCache.putScores("owner", zero, 0, now);
+
+		final HashMap<String, Integer> negative = new HashMap<String, Integer>();
+		negative.put("negative", -5);
+		negative.put("negativeWithoutScore", null);
+		mCache.putScores("owner", negative, -1, now);
+
+		assertEquals(5, mCache.size());
+
+		assertEquals(10, mCache.get("owner", "positive", true).getScore());
+		assertTrue(mCache.get("owner", "positive", false).isNonNegative());
+		assertTrue(mCache.get("owner", "positiveWithoutScore", false).isNonNegative());
+
+		assertEquals(0, mCache.get("owner", "zero", true).getScore());
+		assertTrue(mCache.get("owner", "zero", false).isNonNegative());
+
+		assertEquals(-5, mCache.get("owner", "negative", true).getScore());
+		assertFalse(mCache.get("owner", "negative", false).isNonNegative());
+		assertFalse(mCache.get("owner", "negativeWithoutScore", false).isNonNegative());
+
+		assertEquals(8, mCache.getHitCount());
+		assertEquals(0, mCache.getMissCount());
+
+		// Entries without the actual score are misses if the exact score is needed.
+		assertNull(mCache.get("owner", "positiveWithoutScore", true));
+		assertNull(mCache.get("owner", "negativeWithoutScore", true));
+		assertNull(mCache.get("owner", "unknown", false));
+		assertNull(mCache.get("otherOwner", "positive", false));
+		assertEquals(4, mCache.getMissCount());
+	}
+
+	public void testPutScoreAndNotInTrustTree() {
+		mCache.putScore("owner", "target", 0);
+		mCache.putNotInTrustTree("owner", "stranger");
+
+		assertTrue(mCache.contains("owner", "target", true));
+		assertEquals(0, mCache.get("owner", "target", true).getScore());
+
+		final WoTScoreCache.Entry stranger = mCache.get("owner", "stranger", false);
+		assertFalse(stranger.isInTrustTree());
+		assertFalse(stranger.isNonNegative());
+		assertNotNull(mCache.get("owner", "stranger", true));
+	}
+
+	/**
+	 * Tests that a bulk fill which was started before an exact score was obtained does not overwrite it with an entry without the score.
+	 */
+	public void testBulkFillDoesNotOverwriteNewerExactScore() {
+		final long queryStart = CurrentTimeUTC.getInMillis() - 1000;
+		mCache.putScore("owner", "target", 42);
+
+		final HashMap<String, Integer> scores = new HashMap<String, Integer>();
+		scores.put("target", null);
+		mCache.putScores("owner", scores, 1, queryStart);
+
+		assertEquals(42, mCache.get("owner", "target", true).getScore());
+	}
+
+	public void testExpiry() {
+		final HashMap<String, Integer> scores = new HashMap<String, Integer>();
+		scores.put("expired", 1);
+		mCache.putScores("owner", scores, 1, CurrentTimeUTC.getInMillis() - TIME_TO_LIVE - 1000);
+		mCache.putScore("owner", "valid", 1);
+
+		assertFalse(mCache.contains("owner", "expired", false));
+		assertNull(mCache.get("owner", "expired", false));
+		assertEquals(1, mCache.size()); // get() removes the expired entry
+
+		scores.clear();
+		scores.put("expired2", 1);
+		mCache.putScores("owner", scores, 1, CurrentTimeUTC.getInMillis() - TIME_TO_LIVE - 1000);
+		assertEquals(2, mCache.size());
+		mCache.removeExpiredEntries();
+		assertEquals(1, mCache.size());
+		assertNotNull(mCache.get("owner", "valid", true));
+	}
+
+	public void testInvalidation() {
+		mCache.putScore("owner1", "target", 1);
+		mCache.putScore("owner1", "owner2", 1);
+		mCache.putScore("owner2", "target", 2);
+		mCache.putScore("owner2", "owner1", 2);
+
+		mCache.invalidateTrustTree("owner1");
+		assertNull(mCache.get("owner1", "target", false));
+		assertNull(mCache.get("owner1", "owner2", false));
+		assertEquals(2, mCache.get("owner2", "target", true).getScore());
+		assertEquals(2, mCache.size());
+
+		mCache.putScore("owner1", "target", 1);
+		mCache.invalidateIdentity("target");
+		assertNull(mCache.get("owner1", "target", false));
+		assertNull(mCache.get("owner2", "target", false));
+		assertEquals(2, mCache.get("owner2", "owner1", true).getScore());
+
+		mCache.invalidateIdentity("owner2");
+		assertEquals(0, mCache.size());
+
+		mCache.putScore("owner1", "target", 1);
+		mCache.clear();
+		assertEquals(0, mCache.size());
+	}
+}
@@ -0,0 +1,150 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.ui.NNTP;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import plugins.Freetalk.DatabaseBasedTest;
+import plugins.Freetalk.Freetalk;
+import freenet.support.PooledExecutor;
+
+/**
+ * A local load test for the non-blocking mode of the {@link FreetalkNNTPServer}: Many scripted NNTP clients are connected at once and run
+ * a series of commands which do not need an identity, including pipelined commands, commands split across multiple writes and a POST with a
+ * text block.
+ */
+public class FreetalkNNTPServerTest extends DatabaseBasedTest {
+
+	private static final int CLIENT_COUNT = 200;
+
+	private FreetalkNNTPServer mServer;
+
+	private int mPort;
+
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		final PooledExecutor executor = new PooledExecutor();
+		executor.start();
+		mServer = new FreetalkNNTPServer(new Freetalk(db), executor, 0, "127.0.0.1", "127.0.0.1", true);
+		mServer.start();
+		mPort = mServer.getLocalPort();
+		assertTrue(mPort > 0);
+	}
+
+	protected void tearDown() throws Exception {
+		mServer.terminate();
+		super.tearDown();
+	}
+
+	/**
+	 * A NNTP client which runs a fixed script and checks the response codes.
+	 */
+	private final class ScriptedClient extends Thread {
+
+		private final Socket mSocket;
+
+		private final BufferedReader mInput;
+
+		private final OutputStream mOutput;
+
+		private Throwable mFailure = null;
+
+		public ScriptedClient() throws IOException {
+			mSocket = new Socket("127.0.0.1", mPort);
+			mInput = new BufferedReader(new InputStreamReader(mSocket.getInputStream(), "UTF-8"));
+			mOutput = mSocket.getOutputStream();
+		}
+
+		private void send(String text) throws IOException {
+			mOutput.write(text.getBytes("UTF-8"));
+			mOutput.flush();
+		}
+
+		private void expect(String responseCode) throws IOException {
+			final String line = mInput.readLine();
+			assertNotNull("Connection closed while waiting for " + responseCode, line);
+			assertTrue("Expected " + responseCode + " but got: " + line, line.startsWith(responseCode + " "));
+		}
+
+		private void expectTextResponse(String responseCode) throws IOException {
+			expect(responseCode);
+
+			String line;
+			while(!".".equals(line = mInput.readLine()))
+				assertNotNull("Connection closed during text response", line);
+		}
+
+		public void run() {
+			try {
+				try {
+					expect("200");
+
+					send("MODE READER\r\n");
+					expect("200");
+
+					// Pipelined commands must be answered in order.
+					send("CAPABILITIES\r\nDATE\r\n");
+					expectTextResponse("101");
+					expect("111");
+
+					send("GROUP en.test\r\n");
+					expect("480");
+
+					// The text block is not accepted because the client is not authenticated, but it must be received completely.
+					send("POST\r\n");
+					expect("340");
+					send("From: someone@example.com\r\nNewsgroups: en.test\r\nSubject: Test\r\n\r\n..Line starting with a dot\r\n.\r\n");
+					expect("441");
+
+					// A command which arrives in multiple parts.
+					send("UNKNOWN");
+					Thread.sleep(10);
+					send("COMMAND\r\n");
+					expect("500");
+
+					send("QUIT\r\n");
+					expect("205");
+					assertNull(mInput.readLine());
+				} finally {
+					mSocket.close();
+				}
+			} catch(Throwable t) {
+				mFailure = t;
+			}
+		}
+	}
+
+	public void testManyClients() throws Exception {
+		// Connect all clients before any of them starts its script so the server has to hold all connections at once.
+		final ArrayList<ScriptedClient> clients = new ArrayList<ScriptedClient>(CLIENT_COUNT);
+		for(int i = 0; i < CLIENT_COUNT; ++i)
+			clients.add(new ScriptedClient());
+
+		for(ScriptedClient client : clients)
+			client.start();
+
+		for(ScriptedClient client : clients)
+			client.join();
+
+		for(ScriptedClient client : clients) {
+			if(client.mFailure != null)
+				throw new RuntimeException(client.mFailure);
+		}
+
+		int workerThreads = 0;
+		final Thread[] threads = new Thread[Thread.activeCount() * 2];
+		for(int i = Thread.enumerate(threads) - 1; i >= 0; --i) {
+			if(threads[i].getName().startsWith("Freetalk NNTP worker"))
+				++workerThreads;
+		}
+		assertTrue(workerThreads <= FreetalkNNTPServer.WORKER_THREAD_COUNT);
+	}
+}
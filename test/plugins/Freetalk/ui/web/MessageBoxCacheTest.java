@@ -0,0 +1,108 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package plugins.Freetalk.ui.web;
+
+import junit.framework.TestCase;
+
+public class MessageBoxCacheTest extends TestCase {
+
+	private static final String HTML = "<table class=\"message\"></table>";
+
+	private MessageBoxCache mCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mCache = new MessageBoxCache(MessageBoxCache.DEFAULT_MAX_SIZE);
+	}
+
+	private static String key(String viewerID, String messageID) {
+		return MessageBoxCache.getKey(viewerID, "en.test", "thread1", messageID, true);
+	}
+
+	public void testGetAndPut() {
+		assertNull(mCache.get(key("viewer1", "message1"), 1));
+
+		mCache.put(key("viewer1", "message1"), "viewer1", 1, mCache.getTicket(), HTML);
+		assertEquals(HTML, mCache.get(key("viewer1", "message1"), 1));
+		assertNull(mCache.get(key("viewer2", "message1"), 1));
+		assertNull(mCache.get(MessageBoxCache.getKey("viewer1", "en.test", "thread1", "message1", false), 1));
+
+		assertEquals(1, mCache.getHits());
+		assertEquals(3, mCache.getMisses());
+	}
+
+	public void testAuthorPostCountChange() {
+		mCache.put(key("viewer1", "message1"), "viewer1", 1, mCache.getTicket(), HTML);
+
+		assertNull(mCache.get(key("viewer1", "message1"), 2));
+		assertEquals(0, mCache.getEntryCount());
+		assertEquals(0, mCache.getSize());
+	}
+
+	public void testInvalidateViewer() {
+		mCache.put(key("viewer1", "message1"), "viewer1", 1, mCache.getTicket(), HTML);
+		mCache.put(key("viewer2", "message1"), "viewer2", 1, mCache.getTicket(), HTML);
+
+		final long ticketBeforeInvalidation = mCache.getTicket();
+		mCache.invalidateViewer("viewer1");
+
+		assertNull(mCache.get(key("viewer1", "message1"), 1));
+		assertEquals(HTML, mCache.get(key("viewer2", "message1"), 1));
+
+		// A rendering which was started before the invalidation must not be stored.
+		mCache.put(key("viewer1", "message2"), "viewer1", 1, ticketBeforeInvalidation, HTML);
+		assertNull(mCache.get(key("viewer1", "message2"), 1));
+
+		mCache.put(key("viewer1", "message2"), "viewer1", 1, mCache.getTicket(), HTML);
+		assertEquals(HTML, mCache.get(key("viewer1", "message2"), 1));
+	}
+
+	public void testTrustValuesRefreshed() {
+		mCache.onTrustValuesRefreshed(1000);
+		mCache.put(key("viewer1", "message1"), "viewer1", 1, mCache.getTicket(), HTML);
+
+		mCache.onTrustValuesRefreshed(1000);
+		assertEquals(HTML, mCache.get(key("viewer1", "message1"), 1));
+
+		final long ticketBeforeRefresh = mCache.getTicket();
+		mCache.onTrustValuesRefreshed(2000);
+		assertEquals(0, mCache.getEntryCount());
+		assertEquals(0, mCache.getSize());
+
+		mCache.put(key("viewer2", "message1"), "viewer2", 1, ticketBeforeRefresh, HTML);
+		assertNull(mCache.get(key("viewer2", "message1"), 1));
+	}
+
+	public void testSizeLimit() {
+		final String key = key("viewer1", "message0");
+		final long entrySize = 2 * (key.length() + HTML.length());
+		final long maxSize = 3 * entrySize + 3 * 128; // Three entries and their overhead
+		mCache = new MessageBoxCache(maxSize);
+
+		for(int i = 0; i < 3; ++i)
+			mCache.put(key("viewer1", "message" + i), "viewer1", 1, mCache.getTicket(), HTML);
+
+		assertEquals(3, mCache.getEntryCount());
+		assertEquals(maxSize, mCache.getSize());
+
+		// Use message0 so message1 is the least recently used one
+		assertEquals(HTML, mCache.get(key("viewer1", "message0"), 1));
+
+		mCache.put(key("viewer1", "message3"), "viewer1", 1, mCache.getTicket(), HTML);
+		assertEquals(3, mCache.getEntryCount());
+		assertNull(mCache.get(key("viewer1", "message1"), 1));
+		assertEquals(HTML, mCache.get(key("viewer1", "message0"), 1));
+		assertEquals(HTML, mCache.get(key("viewer1", "message2"), 1));
+		assertEquals(HTML, mCache.get(key("viewer1", "message3"), 1));
+
+		// Entries which are larger than the cache are not stored
+		final StringBuilder large = new StringBuilder();
+		for(int i = 0; i < maxSize; ++i)
+			large.append('x');
+		mCache.put(key("viewer1", "message4"), "viewer1", 1, mCache.getTicket(), large.toString());
+		assertNull(mCache.get(key("viewer1", "message4"), 1));
+		assertEquals(3, mCache.getEntryCount());
+	}
+}